@@ -0,0 +1,186 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.http;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.eclipse.jetty.http.PathMap.MappedEntry;
+
+/* ------------------------------------------------------------ */
+/** An immutable, compiled {@link PathMap}.
+ * <p>
+ * The path specifications of a {@link PathMap} are compiled into a character trie of the
+ * exact and prefix specifications and a reversed trie of the suffix specifications, so that
+ * {@link #getMatch(String)} finds the exact or longest prefix match in a single walk forward
+ * over the path and the longest suffix match in a single walk backward, without allocating
+ * or probing a map per path segment.
+ * <p>
+ * The matched entries are the {@link PathMap.MappedEntry} instances of the compiled
+ * {@link PathMap}, so the results are identical to {@link PathMap#getMatch(String)}.
+ * Later modifications of the {@link PathMap} are not reflected.
+ */
+public class PathTrie<O>
+{
+    private final Node<O> _paths = new Node<>();
+    private final Node<O> _suffixes = new Node<>();
+    private final MappedEntry<O> _root;
+    private final MappedEntry<O> _prefixDefault;
+    private final MappedEntry<O> _default;
+
+    /* --------------------------------------------------------------- */
+    public PathTrie(PathMap<O> pathMap)
+    {
+        for (Map.Entry<String,MappedEntry<O>> entry : pathMap._exactMap.entrySet())
+            _paths.add(entry.getKey(),false)._exact=entry.getValue();
+        for (Map.Entry<String,MappedEntry<O>> entry : pathMap._prefixMap.entrySet())
+            _paths.add(entry.getKey(),false)._prefix=entry.getValue();
+        for (Map.Entry<String,MappedEntry<O>> entry : pathMap._suffixMap.entrySet())
+            _suffixes.add(entry.getKey(),true)._exact=entry.getValue();
+        _root=pathMap._exactMap.get("");
+        _prefixDefault=pathMap._prefixDefault;
+        _default=pathMap._default;
+    }
+
+    /* --------------------------------------------------------------- */
+    /** Get object matched by the path.
+     * @param path the path.
+     * @return Best matched object or null.
+     */
+    public O match(String path)
+    {
+        MappedEntry<O> entry = getMatch(path);
+        if (entry!=null)
+            return entry.getValue();
+        return null;
+    }
+
+    /* --------------------------------------------------------------- */
+    /** Get the entry mapped by the best specification.
+     * @param path the path.
+     * @return Map.Entry of the best matched  or null.
+     */
+    public MappedEntry<O> getMatch(String path)
+    {
+        if (path==null)
+            return null;
+
+        int l=path.length();
+
+        //special case
+        if (l==1 && _root!=null && path.charAt(0)=='/')
+            return _root;
+
+        // exact match, else the longest prefix that ends before a '/'
+        MappedEntry<O> prefix=null;
+        Node<O> node=_paths;
+        int i=0;
+        while (true)
+        {
+            if (i==l)
+            {
+                if (node._exact!=null)
+                    return node._exact;
+                break;
+            }
+            char c=path.charAt(i);
+            if (c=='/' && node._prefix!=null)
+                prefix=node._prefix;
+            node=node.next(c);
+            if (node==null)
+                break;
+            i++;
+        }
+        if (prefix!=null)
+            return prefix;
+
+        // Prefix Default
+        if (_prefixDefault!=null)
+            return _prefixDefault;
+
+        // longest suffix that follows a '.' after the first character
+        MappedEntry<O> suffix=null;
+        node=_suffixes;
+        i=l;
+        while (node!=null)
+        {
+            if (node._exact!=null && i>1 && path.charAt(i-1)=='.')
+                suffix=node._exact;
+            if (i==0)
+                break;
+            node=node.next(path.charAt(--i));
+        }
+        if (suffix!=null)
+            return suffix;
+
+        // Default
+        return _default;
+    }
+
+    /* --------------------------------------------------------------- */
+    /* --------------------------------------------------------------- */
+    private static class Node<O>
+    {
+        private char[] _chars = new char[0];
+        private Node<O>[] _next = newNodes(0);
+        private MappedEntry<O> _exact;
+        private MappedEntry<O> _prefix;
+
+        @SuppressWarnings("unchecked")
+        private static <O> Node<O>[] newNodes(int size)
+        {
+            return new Node[size];
+        }
+
+        Node<O> next(char c)
+        {
+            int i=Arrays.binarySearch(_chars,c);
+            return i<0?null:_next[i];
+        }
+
+        Node<O> add(String key, boolean reverse)
+        {
+            Node<O> node=this;
+            int l=key.length();
+            for (int k=0;k<l;k++)
+            {
+                char c=key.charAt(reverse?(l-1-k):k);
+                int i=Arrays.binarySearch(node._chars,c);
+                if (i<0)
+                {
+                    i=-i-1;
+                    int n=node._chars.length;
+                    char[] chars=new char[n+1];
+                    Node<O>[] next=newNodes(n+1);
+                    System.arraycopy(node._chars,0,chars,0,i);
+                    System.arraycopy(node._next,0,next,0,i);
+                    System.arraycopy(node._chars,i,chars,i+1,n-i);
+                    System.arraycopy(node._next,i,next,i+1,n-i);
+                    chars[i]=c;
+                    next[i]=new Node<>();
+                    node._chars=chars;
+                    node._next=next;
+                }
+                node=node._next[i];
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class PathTrieBenchmarkTest
+{
+    @Ignore
+    @Test
+    public void testPathTrieVersusPathMap() throws Exception
+    {
+        // A typical servlet mapping: a few hundred exact and prefix specs,
+        // some suffix specs and a default servlet.
+        PathMap<String> map = new PathMap<>();
+        for (int i = 0; i < 100; ++i)
+        {
+            map.put("/api/v" + i + "/*", "api" + i);
+            map.put("/static/" + i + "/index.html", "index" + i);
+        }
+        map.put("*.jsp", "jsp");
+        map.put("*.do", "do");
+        map.put("/", "default");
+        PathTrie<String> trie = new PathTrie<>(map);
+
+        String[] paths = {
+                "/api/v42/customers/123456/orders/7890",
+                "/static/17/index.html",
+                "/some/deep/path/to/page.jsp",
+                "/unmapped/resource/image.png",
+                "/api/v99"
+        };
+        for (String path : paths)
+            Assert.assertSame(map.getMatch(path), trie.getMatch(path));
+
+        int iterations = 10_000_000;
+        for (int run = 0; run < 3; ++run)
+        {
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; ++i)
+                map.getMatch(paths[i % paths.length]);
+            long end = System.nanoTime();
+            System.err.printf("PathMap time: %d ms%n", TimeUnit.NANOSECONDS.toMillis(end - begin));
+
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; ++i)
+                trie.getMatch(paths[i % paths.length]);
+            end = System.nanoTime();
+            System.err.printf("PathTrie time: %d ms%n", TimeUnit.NANOSECONDS.toMillis(end - begin));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class PathTrieTest
+{
+    private static final String[] PATHS = {
+        "", "/", "/abs/path", "/abs/path/xxx", "/abs/pith", "/abs/path/longer", "/abs/path/",
+        "/animal/bird/eagle/bald", "/animal/fish/shark/grey", "/animal/insect/bug", "/animal",
+        "/animal/", "/animal/x", "/animal/*", "/suffix/path.tar.gz", "/suffix/path.gz",
+        "/animal/path.gz", "/Other/path", "/XXX", "/YYY/", "/a.b/c", "/x.gz/y", ".gz", "/.gz",
+        "/path.", "/ANIMAL/x", "/animalia/x", "/abs", "/abs/"
+    };
+
+    @Test
+    public void testSameAsPathMap() throws Exception
+    {
+        PathMap<String> p = new PathMap<>();
+        p.put("/abs/path", "1");
+        p.put("/abs/path/longer", "2");
+        p.put("/animal/bird/*", "3");
+        p.put("/animal/fish/*", "4");
+        p.put("/animal/*", "5");
+        p.put("*.tar.gz", "6");
+        p.put("*.gz", "7");
+        p.put("/", "8");
+        p.put("/XXX:/YYY", "9");
+        p.put("", "10");
+
+        assertSameMatches(p);
+        assertEquals("1",new PathTrie<>(p).match("/abs/path"));
+        assertEquals("3",new PathTrie<>(p).match("/animal/bird/eagle/bald"));
+        assertEquals("5",new PathTrie<>(p).match("/animal/path.gz"));
+        assertEquals("6",new PathTrie<>(p).match("/suffix/path.tar.gz"));
+        assertEquals("8",new PathTrie<>(p).match("/abs/path/"));
+    }
+
+    @Test
+    public void testPrefixDefaultAndNoDefault() throws Exception
+    {
+        PathMap<String> p = new PathMap<>(true);
+        p.put("/*", "all");
+        p.put("/", "slash");
+        p.put("*.jsp", "jsp");
+        p.put("/abs/*", "abs");
+        assertSameMatches(p);
+        assertEquals("slash",new PathTrie<>(p).match("/"));
+        assertEquals("all",new PathTrie<>(p).match("/x.jsp"));
+
+        PathMap<String> s = new PathMap<>();
+        s.put("*.jsp", "jsp");
+        s.put("*.", "dot");
+        assertSameMatches(s);
+        assertNull(new PathTrie<>(s).getMatch("/x.jspx"));
+        assertEquals("jsp",new PathTrie<>(s).match("/a/x.jsp"));
+        assertEquals("dot",new PathTrie<>(s).match("/a/x."));
+    }
+
+    private void assertSameMatches(PathMap<String> map)
+    {
+        PathTrie<String> trie = new PathTrie<>(map);
+        for (String path : PATHS)
+            assertSame(path,map.getMatch(path),trie.getMatch(path));
+        assertNull(trie.getMatch(null));
+    }
+}
@@ -130,45 +130,40 @@ public abstract class NoSqlSessionManager extends AbstractSessionManager impleme
     @Override
     protected boolean removeSession(String idInCluster)
     {
-        synchronized (this)
-        {
-            NoSqlSession session = _sessions.remove(idInCluster);
+        // only the thread that takes the session out of the map removes it from the store
+        NoSqlSession session = _sessions.remove(idInCluster);
 
-            try
-            {
-                if (session != null)
-                {
-                    return remove(session);
-                }
-            }
-            catch (Exception e)
+        try
+        {
+            if (session != null)
             {
-                __log.warn("Problem deleting session id=" + idInCluster,e);
+                return remove(session);
             }
-
-            return session != null;
         }
+        catch (Exception e)
+        {
+            __log.warn("Problem deleting session id=" + idInCluster,e);
+        }
+
+        return session != null;
     }
 
     /* ------------------------------------------------------------ */
     protected void invalidateSession( String idInCluster )
     {
-        synchronized (this)
-        {
-            NoSqlSession session = _sessions.remove(idInCluster);
+        NoSqlSession session = _sessions.remove(idInCluster);
 
-            try
-            {
-                if (session != null)
-                {
-                    remove(session);
-                }
-            }
-            catch (Exception e)
+        try
+        {
+            if (session != null)
             {
-                __log.warn("Problem deleting session id=" + idInCluster,e);
+                remove(session);
             }
         }
+        catch (Exception e)
+        {
+            __log.warn("Problem deleting session id=" + idInCluster,e);
+        }
         
         /*
          * ought we not go to cluster and mark it invalid?
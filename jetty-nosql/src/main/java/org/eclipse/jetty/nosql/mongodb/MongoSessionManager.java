@@ -18,14 +18,14 @@
 
 package org.eclipse.jetty.nosql.mongodb;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -37,13 +37,29 @@ import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.CounterStatistic;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
-
-
+import com.mongodb.WriteResult;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * MongoSessionManager
+ * <p>
+ * A session manager that stores the attributes of each context in a sub document of a
+ * mongo session document.
+ * <p>
+ * The manager keeps a bounded near-cache of the attribute values (in their stored form) and
+ * version most recently read from or written to mongo for each session. A session that is
+ * loaded or refreshed while its cached version is still current is rebuilt from the cache
+ * after a version-only query, and saves only <code>$set</code> the attributes whose stored
+ * value has actually changed, conditionally on mongo still holding the cached version.
+ * Loads are locked per session id rather than per manager.
+ */
 @ManagedObject("Mongo Session Manager")
 public class MongoSessionManager extends NoSqlSessionManager
 {
@@ -72,6 +88,39 @@ public class MongoSessionManager extends NoSqlSessionManager
     
     private DBCollection _sessions;
     private DBObject __version_1;
+    private DBObject _versionFields;
+    private DBObject _contextFields;
+
+    private int _nearCacheSize = 1000;
+    private final Map<String, CachedSession> _nearCache = new LinkedHashMap<String, CachedSession>(16,0.75f,true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSession> eldest)
+        {
+            return size() > _nearCacheSize;
+        }
+    };
+    private final CounterStatistic _nearCacheHits = new CounterStatistic();
+    private final CounterStatistic _fullLoads = new CounterStatistic();
+    private final CounterStatistic _versionChecks = new CounterStatistic();
+    private final CounterStatistic _skippedWrites = new CounterStatistic();
+
+
+    /* ------------------------------------------------------------ */
+    /**
+     * The attributes of a session for this context, as last read from or written to mongo.
+     */
+    private static class CachedSession
+    {
+        final Object version;
+        final Map<String, Object> attributes;
+
+        CachedSession(Object version, Map<String, Object> attributes)
+        {
+            this.version = version;
+            this.attributes = attributes;
+        }
+    }
 
 
     /* ------------------------------------------------------------ */
@@ -104,6 +153,20 @@ public class MongoSessionManager extends NoSqlSessionManager
         _contextId = createContextId(hosts,contextPath);
 
         __version_1 = new BasicDBObject(getContextKey(__VERSION),1);
+
+        _versionFields = new BasicDBObject(__VALID,1).append(__CREATED,1).append(__ACCESSED,1).append(getContextKey(__VERSION),1);
+        _contextFields = new BasicDBObject(__VALID,1).append(__CREATED,1).append(__ACCESSED,1).append(getContextKey(),1);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void doStop() throws Exception
+    {
+        super.doStop();
+        synchronized (_nearCache)
+        {
+            _nearCache.clear();
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -121,72 +184,135 @@ public class MongoSessionManager extends NoSqlSessionManager
 
     /* ------------------------------------------------------------ */
     @Override
-    protected synchronized Object save(NoSqlSession session, Object version, boolean activateAfterSave)
+    protected Object save(NoSqlSession session, Object version, boolean activateAfterSave)
     {
         try
         {
             __log.debug("MongoSessionManager:save:" + session);
             session.willPassivate();
 
-            // Form query for upsert
-            BasicDBObject key = new BasicDBObject(__ID,session.getClusterId());
-
-            // Form updates
-            BasicDBObject update = new BasicDBObject();
-            boolean upsert = false;
-            BasicDBObject sets = new BasicDBObject();
-            BasicDBObject unsets = new BasicDBObject();
-
-            // handle new or existing
-            if (version == null)
-            {
-                // New session
-                upsert = true;
-                version = new Long(1);
-                sets.put(__CREATED,session.getCreationTime());
-                sets.put(__VALID,true);
-                sets.put(getContextKey(__VERSION),version);
-            }
-            else
+            // the attribute values known to be stored for this version, if any
+            Map<String, Object> stored = null;
+            if (version != null)
             {
-                version = new Long(((Long)version).intValue() + 1);
-                update.put("$inc",__version_1); 
+                CachedSession cached = getCached(session.getClusterId());
+                if (cached != null && version.equals(cached.version))
+                    stored = cached.attributes;
             }
 
-            // handle valid or invalid
+            Set<String> names = null;
             if (session.isValid())
             {
-                sets.put(__ACCESSED,session.getAccessed());
-                Set<String> names = session.takeDirty();
-                if (isSaveAllAttributes() || upsert)
+                names = session.takeDirty();
+                if (isSaveAllAttributes() || version == null)
                 {
                     names.addAll(session.getNames()); // note dirty may include removed names
                 }
-                    
-                for (String name : names)
-                {
-                    Object value = session.getAttribute(name);
-                    if (value == null)
-                        unsets.put(getContextKey() + "." + encodeName(name),1);
-                    else
-                        sets.put(getContextKey() + "." + encodeName(name),encodeName(value));
-                }
             }
-            else
+
+            while (true)
             {
-                sets.put(__VALID,false);
-                sets.put(__INVALIDATED, System.currentTimeMillis());
-                unsets.put(getContextKey(),1); 
-            }
+                // Form query for upsert
+                BasicDBObject key = new BasicDBObject(__ID,session.getClusterId());
+
+                // Form updates
+                BasicDBObject update = new BasicDBObject();
+                boolean upsert = false;
+                BasicDBObject sets = new BasicDBObject();
+                BasicDBObject unsets = new BasicDBObject();
+                Map<String, Object> attributes = null;
+                int skipped = 0;
+
+                // handle valid or invalid
+                if (session.isValid())
+                {
+                    if (version == null || isSaveAllAttributes() || stored != null)
+                        attributes = stored == null ? new HashMap<String, Object>() : new HashMap<String, Object>(stored);
 
-            // Do the upsert
-            if (!sets.isEmpty())
-                update.put("$set",sets);
-            if (!unsets.isEmpty())
-                update.put("$unset",unsets);
+                    for (String name : names)
+                    {
+                        Object value = session.getAttribute(name);
+                        if (value == null)
+                        {
+                            if (stored == null || stored.containsKey(name))
+                                unsets.put(getContextKey() + "." + encodeName(name),1);
+                            if (attributes != null)
+                                attributes.remove(name);
+                        }
+                        else
+                        {
+                            Object encoded = encodeName(value);
+                            if (stored != null && isSameValue(stored.get(name),encoded))
+                            {
+                                // the stored value is up to date, if mongo still has our version
+                                ++skipped;
+                                continue;
+                            }
+                            sets.put(getContextKey() + "." + encodeName(name),encoded);
+                            if (attributes != null)
+                                attributes.put(name,encoded);
+                        }
+                    }
+                }
+                else
+                {
+                    sets.put(__VALID,false);
+                    sets.put(__INVALIDATED, System.currentTimeMillis());
+                    unsets.put(getContextKey(),1); 
+                }
 
-            _sessions.update(key,update,upsert,false);
-            __log.debug("MongoSessionManager:save:db.sessions.update(" + key + "," + update + ",true)");
+                // handle new or existing
+                Object newVersion = version;
+                if (version == null)
+                {
+                    // New session
+                    upsert = true;
+                    newVersion = new Long(1);
+                    sets.put(__CREATED,session.getCreationTime());
+                    sets.put(__VALID,true);
+                    sets.put(getContextKey(__VERSION),newVersion);
+                }
+                else if (!sets.isEmpty() || !unsets.isEmpty())
+                {
+                    // only a change of the stored attributes makes a new version, so that
+                    // refreshing nodes do not reload the session just for a new access time
+                    newVersion = new Long(((Long)version).intValue() + 1);
+                    update.put("$inc",__version_1); 
+                }
+
+                if (session.isValid())
+                    sets.put(__ACCESSED,session.getAccessed());
+
+                // Skipped writes are only correct if no other node has written the session
+                // since our version, so the update is then made conditional on that version
+                if (skipped > 0)
+                    key.put(getContextKey(__VERSION),version);
+
+                // Do the upsert
+                if (!sets.isEmpty())
+                    update.put("$set",sets);
+                if (!unsets.isEmpty())
+                    update.put("$unset",unsets);
+
+                WriteResult result = _sessions.update(key,update,upsert,false);
+                __log.debug("MongoSessionManager:save:db.sessions.update(" + key + "," + update + ",true)");
+
+                if (skipped > 0 && result.getN() == 0)
+                {
+                    // the session has been written by another node: write all the dirty attributes
+                    __log.debug("MongoSessionManager:save:version {} of {} is stale, saving without skipping writes",version,session.getClusterId());
+                    stored = null;
+                    continue;
+                }
+                _skippedWrites.add(skipped);
+                version = newVersion;
+
+                if (attributes == null)
+                    uncache(session.getClusterId());
+                else
+                    cache(session.getClusterId(),new CachedSession(version,attributes));
+                break;
+            }
 
             if (activateAfterSave)
                 session.didActivate();
@@ -209,6 +335,7 @@ public class MongoSessionManager extends NoSqlSessionManager
         // check if our in memory version is the same as what is on the disk
         if (version != null)
         {
+            _versionChecks.increment();
             DBObject o = _sessions.findOne(new BasicDBObject(__ID,session.getClusterId()),__version_1);
 
             if (o != null)
@@ -224,13 +351,15 @@ public class MongoSessionManager extends NoSqlSessionManager
             }
         }
 
-        // If we are here, we have to load the object
-        DBObject o = _sessions.findOne(new BasicDBObject(__ID,session.getClusterId()));
+        // If we are here, we have to load the attributes of this context
+        _fullLoads.increment();
+        DBObject o = _sessions.findOne(new BasicDBObject(__ID,session.getClusterId()),_contextFields);
 
         // If it doesn't exist, invalidate
         if (o == null)
         {
             __log.debug("MongoSessionManager:refresh:marking invalid, no object");
+            uncache(session.getClusterId());
             session.invalidate();
             return null;
         }
@@ -240,10 +369,13 @@ public class MongoSessionManager extends NoSqlSessionManager
         if (valid == null || !valid)
         {
             __log.debug("MongoSessionManager:refresh:marking invalid, valid flag " + valid);
+            uncache(session.getClusterId());
             session.invalidate();
             return null;
         }
 
+        version = getNestedValue(o,getContextKey(__VERSION));
+
         // We need to update the attributes. We will model this as a passivate,
         // followed by bindings and then activation.
         session.willPassivate();
@@ -285,6 +417,7 @@ public class MongoSessionManager extends NoSqlSessionManager
                     }
                 }
             }
+            cache(session.getClusterId(),new CachedSession(version,getStoredAttributes(attrs)));
 
             session.didActivate();
 
@@ -300,61 +433,146 @@ public class MongoSessionManager extends NoSqlSessionManager
 
     /*------------------------------------------------------------ */
     @Override
-    protected synchronized NoSqlSession loadSession(String clusterId)
+    protected NoSqlSession loadSession(String clusterId)
     {
-        DBObject o = _sessions.findOne(new BasicDBObject(__ID,clusterId));
-        
-        __log.debug("MongoSessionManager:loaded " + o);
-        
-        if (o == null)
+        synchronized (lockFor(clusterId))
         {
-            return null;
-        }
-        
-        Boolean valid = (Boolean)o.get(__VALID);
-        if (valid == null || !valid)
-        {
-            return null;
-        }
-        
-        try
-        {
-            Object version = o.get(getContextKey(__VERSION));
-            Long created = (Long)o.get(__CREATED);
-            Long accessed = (Long)o.get(__ACCESSED);
-          
-            NoSqlSession session = new NoSqlSession(this,created,accessed,clusterId,version);
-
-            // get the attributes for the context
-            DBObject attrs = (DBObject)getNestedValue(o,getContextKey());
-
-            __log.debug("MongoSessionManager:attrs: " + attrs);
-            if (attrs != null)
+            try
             {
-                for (String name : attrs.keySet())
+                // If the near cache is current, only the metadata needs to be fetched
+                CachedSession cached = getCached(clusterId);
+                if (cached != null)
                 {
-                    if ( __METADATA.equals(name) )
+                    _versionChecks.increment();
+                    DBObject o = _sessions.findOne(new BasicDBObject(__ID,clusterId),_versionFields);
+                    if (o == null || !isValid(o))
                     {
-                        continue;
+                        uncache(clusterId);
+                        return null;
                     }
-                    
-                    String attr = decodeName(name);
-                    Object value = decodeValue(attrs.get(name));
 
-                    session.doPutOrRemove(attr,value);
-                    session.bindValue(attr,value);
-                    
+                    Object version = getNestedValue(o,getContextKey(__VERSION));
+                    if (version != null && version.equals(cached.version))
+                    {
+                        __log.debug("MongoSessionManager:loaded from near cache " + clusterId);
+                        _nearCacheHits.increment();
+                        return newSession(clusterId,o,version,cached.attributes);
+                    }
+                }
+
+                _fullLoads.increment();
+                DBObject o = _sessions.findOne(new BasicDBObject(__ID,clusterId),_contextFields);
+
+                __log.debug("MongoSessionManager:loaded " + o);
+
+                if (o == null || !isValid(o))
+                {
+                    uncache(clusterId);
+                    return null;
                 }
+
+                Object version = getNestedValue(o,getContextKey(__VERSION));
+
+                // get the attributes for the context
+                DBObject attrs = (DBObject)getNestedValue(o,getContextKey());
+                __log.debug("MongoSessionManager:attrs: " + attrs);
+
+                Map<String, Object> attributes = getStoredAttributes(attrs);
+                cache(clusterId,new CachedSession(version,attributes));
+                return newSession(clusterId,o,version,attributes);
             }
-            session.didActivate();
+            catch (Exception e)
+            {
+                LOG.warn(e);
+            }
+            return null;
+        }
+    }
+
+    /*------------------------------------------------------------ */
+    private NoSqlSession newSession(String clusterId, DBObject o, Object version, Map<String, Object> attributes) throws IOException, ClassNotFoundException
+    {
+        Long created = (Long)o.get(__CREATED);
+        Long accessed = (Long)o.get(__ACCESSED);
+
+        NoSqlSession session = new NoSqlSession(this,created,accessed,clusterId,version);
+
+        for (Map.Entry<String, Object> entry : attributes.entrySet())
+        {
+            String attr = entry.getKey();
+            Object value = decodeValue(entry.getValue());
 
-            return session;
+            session.doPutOrRemove(attr,value);
+            session.bindValue(attr,value);
         }
-        catch (Exception e)
+        session.didActivate();
+
+        return session;
+    }
+
+    /*------------------------------------------------------------ */
+    private boolean isValid(DBObject o)
+    {
+        Boolean valid = (Boolean)o.get(__VALID);
+        return valid != null && valid;
+    }
+
+    /*------------------------------------------------------------ */
+    /**
+     * @return the stored attribute values of a context sub document, keyed by decoded name
+     */
+    private Map<String, Object> getStoredAttributes(DBObject attrs)
+    {
+        if (attrs == null)
+            return Collections.emptyMap();
+
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        for (String name : attrs.keySet())
         {
-            LOG.warn(e);
+            if (__METADATA.equals(name))
+                continue;
+            attributes.put(decodeName(name),attrs.get(name));
+        }
+        return attributes;
+    }
+
+    /*------------------------------------------------------------ */
+    private boolean isSameValue(Object stored, Object encoded)
+    {
+        if (stored == null)
+            return false;
+        if (stored instanceof byte[] && encoded instanceof byte[])
+            return Arrays.equals((byte[])stored,(byte[])encoded);
+        return stored.equals(encoded);
+    }
+
+    /*------------------------------------------------------------ */
+    private CachedSession getCached(String clusterId)
+    {
+        synchronized (_nearCache)
+        {
+            return _nearCache.get(clusterId);
+        }
+    }
+
+    /*------------------------------------------------------------ */
+    private void cache(String clusterId, CachedSession cached)
+    {
+        if (_nearCacheSize <= 0)
+            return;
+        synchronized (_nearCache)
+        {
+            _nearCache.put(clusterId,cached);
+        }
+    }
+
+    /*------------------------------------------------------------ */
+    private CachedSession uncache(String clusterId)
+    {
+        synchronized (_nearCache)
+        {
+            return _nearCache.remove(clusterId);
         }
-        return null;
     }
 
     /*------------------------------------------------------------ */
@@ -362,6 +580,7 @@ public class MongoSessionManager extends NoSqlSessionManager
     protected boolean remove(NoSqlSession session)
     {
         __log.debug("MongoSessionManager:remove:session " + session.getClusterId());
+        uncache(session.getClusterId());
 
         /*
          * Check if the session exists and if it does remove the context
@@ -394,6 +613,7 @@ public class MongoSessionManager extends NoSqlSessionManager
         __log.debug("MongoSessionManager:invalidateSession:invalidating " + idInCluster);
         
         super.invalidateSession(idInCluster);
+        uncache(idInCluster);
         
         /*
          * pull back the 'valid' value, we can check if its false, if is we don't need to
@@ -426,6 +646,10 @@ public class MongoSessionManager extends NoSqlSessionManager
         BasicDBObject update = new BasicDBObject(__ID, newClusterId);
         sets.put("$set", update);
         _sessions.update(key, sets, false, false);
+
+        CachedSession cached = uncache(session.getClusterId());
+        if (cached != null)
+            cache(newClusterId,cached);
     }
 
     /*------------------------------------------------------------ */
@@ -464,12 +688,7 @@ public class MongoSessionManager extends NoSqlSessionManager
                 return o;
         }
         
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        ObjectOutputStream out = new ObjectOutputStream(bout);
-        out.reset();
-        out.writeUnshared(value);
-        out.flush();
-        return bout.toByteArray();
+        return getSessionDataCodec().encode(value);
     }
 
     /*------------------------------------------------------------ */
@@ -481,10 +700,7 @@ public class MongoSessionManager extends NoSqlSessionManager
         }
         else if (valueToDecode instanceof byte[])
         {
-            final byte[] decodeObject = (byte[])valueToDecode;
-            final ByteArrayInputStream bais = new ByteArrayInputStream(decodeObject);
-            final ClassLoadingObjectInputStream objectInputStream = new ClassLoadingObjectInputStream(bais);
-            return objectInputStream.readUnshared();
+            return getSessionDataCodec().decode((byte[])valueToDecode);
         }
         else if (valueToDecode instanceof DBObject)
         {
@@ -552,6 +768,72 @@ public class MongoSessionManager extends NoSqlSessionManager
     {
         return _sessions.find().count();      
     }
+
+    /*------------------------------------------------------------ */
+    /**
+     * @return the maximum number of sessions held in the near cache, 0 to disable it
+     */
+    @ManagedAttribute("maximum number of sessions in the near cache")
+    public int getNearCacheSize()
+    {
+        return _nearCacheSize;
+    }
+
+    /*------------------------------------------------------------ */
+    /**
+     * @param nearCacheSize the maximum number of sessions held in the near cache, 0 to disable it
+     */
+    public void setNearCacheSize(int nearCacheSize)
+    {
+        _nearCacheSize = nearCacheSize;
+        if (nearCacheSize <= 0)
+        {
+            synchronized (_nearCache)
+            {
+                _nearCache.clear();
+            }
+        }
+    }
+
+    /*------------------------------------------------------------ */
+    /**
+     * @return the number of sessions loaded from the near cache after a version check
+     */
+    @ManagedAttribute("number of sessions loaded from the near cache")
+    public long getNearCacheHits()
+    {
+        return _nearCacheHits.getTotal();
+    }
+
+    /*------------------------------------------------------------ */
+    /**
+     * @return the number of loads and refreshes that fetched the session attributes from mongo
+     */
+    @ManagedAttribute("number of loads and refreshes that fetched attributes from mongo")
+    public long getFullLoads()
+    {
+        return _fullLoads.getTotal();
+    }
+
+    /*------------------------------------------------------------ */
+    /**
+     * @return the number of version-only queries made to validate local session data
+     */
+    @ManagedAttribute("number of version-only queries")
+    public long getVersionChecks()
+    {
+        return _versionChecks.getTotal();
+    }
+
+    /*------------------------------------------------------------ */
+    /**
+     * @return the number of dirty attributes not written because their stored value was unchanged
+     */
+    @ManagedAttribute("number of unchanged dirty attributes not written")
+    public long getSkippedAttributeWrites()
+    {
+        return _skippedWrites.getTotal();
+    }
     
     /*------------------------------------------------------------ */
     /**
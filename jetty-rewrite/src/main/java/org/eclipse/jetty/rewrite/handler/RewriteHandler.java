@@ -26,6 +26,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
 
 /* ------------------------------------------------------------ */
 /**
@@ -176,6 +178,7 @@ import org.eclipse.jetty.server.handler.HandlerWrapper;
  * </pre>
  *
  */
+@ManagedObject("Rewrite Handler")
 public class RewriteHandler extends HandlerWrapper
 {
 
@@ -300,6 +303,36 @@ public class RewriteHandler extends HandlerWrapper
         _rules.setOriginalPathAttribute(originalPathAttribute);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of targets for which the matching rules are memoized.
+     */
+    @ManagedAttribute("maximum number of targets for which the matching rules are memoized")
+    public int getMaxCachedTargets()
+    {
+        return _rules.getMaxCachedTargets();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxCachedTargets the maximum number of targets for which the matching
+     * rules are memoized, or 0 for no memoization.
+     */
+    public void setMaxCachedTargets(int maxCachedTargets)
+    {
+        _rules.setMaxCachedTargets(maxCachedTargets);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of times each rule has been applied, in the order of {@link #getRules()}.
+     */
+    @ManagedAttribute(value="number of times each rule has been applied", readonly=true)
+    public long[] getRuleMatches()
+    {
+        return _rules.getRuleMatches();
+    }
+
 
     /* ------------------------------------------------------------ */
     /* (non-Javadoc)
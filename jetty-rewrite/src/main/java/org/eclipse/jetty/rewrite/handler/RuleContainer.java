@@ -19,10 +19,20 @@
 package org.eclipse.jetty.rewrite.handler;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.PathMap;
 import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.util.ArrayUtil;
@@ -32,8 +42,16 @@ import org.eclipse.jetty.util.log.Logger;
 /**
  * Base container to group rules. Can be extended so that the contained rules
  * will only be applied under certain conditions
- * 
- * 
+ * <p>
+ * The rules are compiled on first use into an index from the literal prefix of
+ * each {@link PatternRule} and {@link RegexRule} to the candidate rules for a target,
+ * so that rules that cannot match are not evaluated. Rules whose match depends only on
+ * the target are further memoized per target in a bounded cache (see
+ * {@link #setMaxCachedTargets(int)}). Rules are still applied in order, so the first
+ * match and terminating semantics are unchanged.
+ * <p>
+ * Rules should be fully configured before they are added to the container, as changes
+ * to the pattern or regex of a rule that has been compiled are not seen by the index.
  */
 
 public class RuleContainer extends Rule
@@ -48,6 +66,9 @@ public class RuleContainer extends Rule
     
     protected LegacyRule _legacy;
 
+    private int _maxCachedTargets=512;
+    private volatile CompiledRules _compiled;
+
     /* ------------------------------------------------------------ */
     @Deprecated
     public LegacyRule getLegacyRule()
@@ -173,6 +194,55 @@ public class RuleContainer extends Rule
     {
         _originalPathAttribute=originalPathAttribte;
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of targets for which the matching rules are memoized.
+     */
+    public int getMaxCachedTargets()
+    {
+        return _maxCachedTargets;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxCachedTargets the maximum number of targets for which the matching
+     * rules are memoized, or 0 for no memoization.
+     */
+    public void setMaxCachedTargets(int maxCachedTargets)
+    {
+        _maxCachedTargets=maxCachedTargets;
+        _compiled=null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of times each rule has been applied since the rules were last
+     * set, in the order of {@link #getRules()}.
+     */
+    public long[] getRuleMatches()
+    {
+        CompiledRules compiled=getCompiledRules();
+        long[] matches=new long[compiled==null?0:compiled._rules.length];
+        for (int i=0;i<matches.length;i++)
+            matches[i]=compiled._applied.get(i);
+        return matches;
+    }
+
+    /* ------------------------------------------------------------ */
+    private CompiledRules getCompiledRules()
+    {
+        Rule[] rules=_rules;
+        if (rules==null)
+            return null;
+        CompiledRules compiled=_compiled;
+        if (compiled==null || compiled._rules!=rules)
+        {
+            compiled=new CompiledRules(rules,_maxCachedTargets);
+            _compiled=compiled;
+        }
+        return compiled;
+    }
     
     /**
      * Process the contained rules
@@ -195,12 +265,21 @@ public class RuleContainer extends Rule
     protected String apply(String target, HttpServletRequest request, HttpServletResponse response) throws IOException
     {
         boolean original_set=_originalPathAttribute==null;
-                
-        for (Rule rule : _rules)
+
+        CompiledRules compiled=getCompiledRules();
+        if (compiled==null)
+            return target;
+
+        int[] candidates=compiled.getCandidates(target);
+        int c=0;
+        while (c<candidates.length)
         {
+            int r=candidates[c++];
+            Rule rule=compiled._rules[r];
             String applied=rule.matchAndApply(target,request, response);
             if (applied!=null)
-            {       
+            {
+                compiled._applied.incrementAndGet(r);
                 LOG.debug("applied {}",rule);
                 LOG.debug("rewrote {} to {}",target,applied);
                 if (!original_set)
@@ -220,6 +299,14 @@ public class RuleContainer extends Rule
                 if (_rewritePathInfo)
                     ((Request)request).setPathInfo(applied);
 
+                // Continue with the rules after this one that are candidates for the new target
+                if (!applied.equals(target))
+                {
+                    candidates=compiled.getCandidates(applied);
+                    c=Arrays.binarySearch(candidates,r);
+                    c=c<0?-c-1:c+1;
+                }
+
                 target=applied;
                 
                 if (rule.isHandling())
@@ -238,4 +325,253 @@ public class RuleContainer extends Rule
 
         return target;
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * The rules of a container compiled for dispatch.
+     * <p>
+     * A character trie of the literal prefixes of the rules maps a target to the indexes of
+     * the rules that may match it, in order. The candidates of a node include those of its
+     * parent, so the deepest node reached by a target holds all its candidates. Rules that
+     * are not a plain {@link PatternRule} or {@link RegexRule} are candidates for every target.
+     */
+    private static class CompiledRules
+    {
+        private final Rule[] _rules;
+        private final boolean[] _targetMatch;
+        private final Node _root = new Node();
+        private final AtomicLongArray _applied;
+        private final int _maxCachedTargets;
+        private final ConcurrentMap<String,int[]> _cache;
+        private final Queue<String> _lru;
+
+        /* ------------------------------------------------------------ */
+        private CompiledRules(Rule[] rules, int maxCachedTargets)
+        {
+            _rules=rules;
+            _targetMatch=new boolean[rules.length];
+            _applied=new AtomicLongArray(rules.length);
+            _maxCachedTargets=maxCachedTargets;
+            _cache=maxCachedTargets>0?new ConcurrentHashMap<String,int[]>():null;
+            _lru=maxCachedTargets>0?new ConcurrentLinkedQueue<String>():null;
+
+            for (int r=0;r<rules.length;r++)
+            {
+                _targetMatch[r]=isTargetMatch(rules[r]);
+                String prefix=_targetMatch[r]?getLiteralPrefix(rules[r]):null;
+
+                Node node=_root;
+                if (prefix!=null)
+                    for (int i=0;i<prefix.length();i++)
+                        node=node.add(prefix.charAt(i));
+                if (node._own==null)
+                    node._own=new ArrayList<>();
+                node._own.add(r);
+            }
+
+            _root.compile(new int[0]);
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param target the target to match
+         * @return the ordered indexes of the rules that may match the target
+         */
+        private int[] getCandidates(String target)
+        {
+            if (_cache==null)
+                return getIndexed(target);
+
+            int[] candidates=_cache.get(target);
+            if (candidates!=null)
+                return candidates;
+
+            // Memoize only the rules that actually match, plus those that cannot be evaluated ahead
+            int[] indexed=getIndexed(target);
+            int[] matching=new int[indexed.length];
+            int n=0;
+            for (int r : indexed)
+                if (!_targetMatch[r] || matches(_rules[r],target))
+                    matching[n++]=r;
+            candidates=n==indexed.length?indexed:Arrays.copyOf(matching,n);
+
+            // Delete by LRU (where U==created)
+            while (_cache.size()>=_maxCachedTargets)
+            {
+                String k=_lru.poll();
+                if (k==null)
+                    break;
+                _cache.remove(k);
+            }
+            if (_cache.putIfAbsent(target,candidates)==null)
+                _lru.add(target);
+
+            return candidates;
+        }
+
+        /* ------------------------------------------------------------ */
+        private int[] getIndexed(String target)
+        {
+            Node node=_root;
+            int[] candidates=node._candidates;
+            for (int i=0;i<target.length();i++)
+            {
+                node=node.get(target.charAt(i));
+                if (node==null)
+                    break;
+                candidates=node._candidates;
+            }
+            return candidates;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return true if the rule matches on the target alone, without side effects
+         */
+        private static boolean isTargetMatch(Rule rule)
+        {
+            try
+            {
+                Class<?> declaring=rule.getClass().getMethod("matchAndApply",String.class,HttpServletRequest.class,HttpServletResponse.class).getDeclaringClass();
+                if (declaring==PatternRule.class)
+                {
+                    String pattern=((PatternRule)rule)._pattern;
+                    return pattern!=null && pattern.length()>0;
+                }
+                if (declaring==RegexRule.class)
+                    return ((RegexRule)rule)._regex!=null;
+            }
+            catch (NoSuchMethodException e)
+            {
+                LOG.ignore(e);
+            }
+            return false;
+        }
+
+        /* ------------------------------------------------------------ */
+        private static boolean matches(Rule rule, String target)
+        {
+            if (rule instanceof PatternRule)
+                return PathMap.match(((PatternRule)rule)._pattern,target);
+            return ((RegexRule)rule)._regex.matcher(target).matches();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return a literal that starts every target matched by the rule
+         */
+        private static String getLiteralPrefix(Rule rule)
+        {
+            if (rule instanceof PatternRule)
+            {
+                String pattern=((PatternRule)rule)._pattern;
+                if (pattern.charAt(0)!='/' || pattern.length()==1)
+                    return "";
+                if (pattern.endsWith("/*"))
+                    return pattern.substring(0,pattern.length()-2);
+                return pattern;
+            }
+            return getLiteralPrefix(((RegexRule)rule)._regex);
+        }
+
+        /* ------------------------------------------------------------ */
+        private static String getLiteralPrefix(Pattern regex)
+        {
+            String pattern=regex.pattern();
+            if (regex.flags()!=0 || pattern.contains("\\Q"))
+                return "";
+
+            // An alternation outside of any group means there is no common prefix. Character
+            // classes may hide parentheses, so any alternation after one is treated the same.
+            boolean escaped=false;
+            boolean classes=false;
+            int depth=0;
+            for (int i=0;i<pattern.length();i++)
+            {
+                char c=pattern.charAt(i);
+                if (escaped)
+                    escaped=false;
+                else if (c=='\\')
+                    escaped=true;
+                else if (c=='[')
+                    classes=true;
+                else if (c=='(')
+                    depth++;
+                else if (c==')')
+                    depth--;
+                else if (c=='|' && (depth==0 || classes))
+                    return "";
+            }
+
+            StringBuilder prefix=new StringBuilder();
+            int i=pattern.startsWith("^")?1:0;
+            for (;i<pattern.length();i++)
+            {
+                char c=pattern.charAt(i);
+                if ("\\[](){}.*+?^$|".indexOf(c)>=0)
+                    break;
+                prefix.append(c);
+            }
+
+            // The last literal may be absent if it is quantified
+            if (i<pattern.length() && "?*{".indexOf(pattern.charAt(i))>=0 && prefix.length()>0)
+                prefix.setLength(prefix.length()-1);
+            return prefix.toString();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Node
+    {
+        private char[] _chars = new char[0];
+        private Node[] _next = new Node[0];
+        private List<Integer> _own;
+        private int[] _candidates;
+
+        /* ------------------------------------------------------------ */
+        private Node get(char c)
+        {
+            int i=Arrays.binarySearch(_chars,c);
+            return i<0?null:_next[i];
+        }
+
+        /* ------------------------------------------------------------ */
+        private Node add(char c)
+        {
+            int i=Arrays.binarySearch(_chars,c);
+            if (i>=0)
+                return _next[i];
+
+            i=-i-1;
+            Node node=new Node();
+            char[] chars=new char[_chars.length+1];
+            Node[] next=new Node[_next.length+1];
+            System.arraycopy(_chars,0,chars,0,i);
+            System.arraycopy(_next,0,next,0,i);
+            chars[i]=c;
+            next[i]=node;
+            System.arraycopy(_chars,i,chars,i+1,_chars.length-i);
+            System.arraycopy(_next,i,next,i+1,_next.length-i);
+            _chars=chars;
+            _next=next;
+            return node;
+        }
+
+        /* ------------------------------------------------------------ */
+        private void compile(int[] inherited)
+        {
+            if (_own==null)
+                _candidates=inherited;
+            else
+            {
+                _candidates=Arrays.copyOf(inherited,inherited.length+_own.size());
+                for (int i=0;i<_own.size();i++)
+                    _candidates[inherited.length+i]=_own.get(i);
+                Arrays.sort(_candidates);
+                _own=null;
+            }
+            for (Node node : _next)
+                node.compile(_candidates);
+        }
+    }
 }
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.rewrite.handler;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -165,6 +166,67 @@ public class RewriteHandlerTest extends AbstractRuleTestCase
         assertTrue(_request.isHandled());
     }
 
+    @Test
+    public void testCompiledRules() throws Exception
+    {
+        RewriteRegexRule alternation = new RewriteRegexRule();
+        alternation.setRegex("/x|/y(.*)");
+        alternation.setReplacement("/alternation$1");
+        RewriteRegexRule optional = new RewriteRegexRule();
+        optional.setRegex("^/opt?ional/(.*)");
+        optional.setReplacement("/optional/$1");
+        RewriteRegexRule group = new RewriteRegexRule();
+        group.setRegex("/api/(v1|v2)/(.*)");
+        group.setReplacement("/api/$2");
+        RewritePatternRule suffix = new RewritePatternRule();
+        suffix.setPattern("*.do");
+        suffix.setReplacement("/do");
+        RewritePatternRule exact = new RewritePatternRule();
+        exact.setPattern("/exact");
+        exact.setReplacement("/exactly");
+        HeaderPatternRule header = new HeaderPatternRule();
+        header.setPattern("/api/*");
+        header.setName("X-Api");
+        header.setValue("true");
+
+        _handler.setRewriteRequestURI(false);
+        _handler.setRewritePathInfo(false);
+        _handler.setRules(new Rule[]{_rule1,_rule2,alternation,optional,group,header,suffix,exact});
+
+        assertTarget("/ccc/x","/aaa/x");
+        assertTarget("/ccc/x","/aaa/x");
+        assertTarget("/alternation/z","/y/z");
+        assertTarget("/alternation","/x");
+        assertTarget("/optional/a","/opional/a");
+        assertTarget("/optional/b","/optional/b");
+        assertTarget("/api/users","/api/v2/users");
+        assertEquals("true",_response.getHeader("X-Api"));
+        assertTarget("/do","/path/page.do");
+        assertTarget("/exactly","/exact");
+        assertTarget("/exact/not","/exact/not");
+        assertTarget("/other","/other");
+
+        assertArrayEquals(new long[]{2,2,2,2,1,1,1,1},_handler.getRuleMatches());
+
+        _rule2.setTerminating(true);
+        assertTarget("/ccc/x","/aaa/x");
+        assertTarget("/ccc/x.do","/bbb/x.do");
+        assertTarget("/do","/ccc/x.do");
+        assertArrayEquals(new long[]{3,4,2,2,1,1,2,1},_handler.getRuleMatches());
+
+        _handler.setMaxCachedTargets(0);
+        assertTarget("/ccc/x","/aaa/x");
+        assertArrayEquals(new long[]{1,1,0,0,0,0,0,0},_handler.getRuleMatches());
+    }
+
+    private void assertTarget(String expected, String target) throws Exception
+    {
+        _response.setStatus(200);
+        _request.setHandled(false);
+        _request.setAttribute("target",null);
+        _handler.handle(target,_request,_request,_response);
+        assertEquals(target,expected,_request.getAttribute("target"));
+    }
 
     public void testEncodedPattern() throws Exception
     {
@@ -40,6 +40,7 @@ import javax.servlet.annotation.ServletSecurity.TransportGuarantee;
 
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.http.PathTrie;
 import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.Request;
@@ -61,6 +62,7 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
     private final List<ConstraintMapping> _constraintMappings= new CopyOnWriteArrayList<>();
     private final Set<String> _roles = new CopyOnWriteArraySet<>();
     private final PathMap<Map<String, RoleInfo>> _constraintMap = new PathMap<>();
+    private volatile PathTrie<Map<String, RoleInfo>> _constraintTrie;
     private boolean _strict = true;
 
     /* ------------------------------------------------------------ */
@@ -447,6 +449,7 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
     protected void doStart() throws Exception
     {
         _constraintMap.clear();
+        _constraintTrie=null;
         if (_constraintMappings!=null)
         {
             for (ConstraintMapping mapping : _constraintMappings)
@@ -454,6 +457,7 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
                 processConstraintMapping(mapping);
             }
         }
+        compileConstraintTrie();
         super.doStart();
     }
     
@@ -464,6 +468,7 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
     {
         super.doStop();
         _constraintMap.clear();
+        _constraintTrie=null;
     }
     
     
@@ -480,7 +485,13 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
         if (mappings == null)
         {
             mappings = new HashMap<String,RoleInfo>();
-            _constraintMap.put(mapping.getPathSpec(),mappings);
+            synchronized (_constraintMap)
+            {
+                _constraintMap.put(mapping.getPathSpec(),mappings);
+                // Mappings added while starting are compiled once by doStart
+                if (isStarted())
+                    compileConstraintTrie();
+            }
         }
         RoleInfo allMethodsRoleInfo = mappings.get(ALL_METHODS);
         if (allMethodsRoleInfo != null && allMethodsRoleInfo.isForbidden())
@@ -536,6 +547,20 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Recompile the trie of the constraint map on the thread that changed it.
+     * The role infos are shared with the constraint map, so the trie only needs
+     * to be recompiled when a path spec is added.
+     */
+    private void compileConstraintTrie()
+    {
+        synchronized (_constraintMap)
+        {
+            _constraintTrie = new PathTrie<>(_constraintMap);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /** Constraints that name method omissions are dealt with differently.
      * We create an entry in the mappings with key "method.omission". This entry
@@ -638,7 +663,8 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
     @Override
     protected RoleInfo prepareConstraintInfo(String pathInContext, Request request)
     {
-        Map<String, RoleInfo> mappings = (Map<String, RoleInfo>)_constraintMap.match(pathInContext);
+        PathTrie<Map<String, RoleInfo>> trie = _constraintTrie;
+        Map<String, RoleInfo> mappings = trie == null ? _constraintMap.match(pathInContext) : trie.match(pathInContext);
 
         if (mappings != null)
         {
@@ -918,6 +918,28 @@ public class ConstraintTest
         response = _connector.getResponses("GET /ctx/forbid/post HTTP/1.0\r\n\r\n");
         assertThat(response,startsWith("HTTP/1.1 200 "));  // This is so stupid, but it is the S P E C
     }
+
+    @Test
+    public void testConstraintAddedWhenStarted() throws Exception
+    {
+        _security.setAuthenticator(new BasicAuthenticator());
+        _server.start();
+
+        String response;
+        response = _connector.getResponses("GET /ctx/added/info HTTP/1.0\r\n\r\n");
+        assertThat(response,startsWith("HTTP/1.1 200 "));
+
+        Constraint constraint = new Constraint();
+        constraint.setAuthenticate(true);
+        constraint.setName("added");
+        ConstraintMapping mapping = new ConstraintMapping();
+        mapping.setPathSpec("/added/*");
+        mapping.setConstraint(constraint);
+        _security.addConstraintMapping(mapping);
+
+        response = _connector.getResponses("GET /ctx/added/info HTTP/1.0\r\n\r\n");
+        assertThat(response,startsWith("HTTP/1.1 403 "));
+    }
     private class RequestHandler extends AbstractHandler
     {
         @Override
@@ -44,6 +44,9 @@ import org.eclipse.jetty.util.resource.Resource;
  * <p>{@link HttpOutput} can be closed and reopened, to allow requests included
  * via {@link RequestDispatcher#include(ServletRequest, ServletResponse)} to
  * close the stream, to be reopened after the inclusion ends.</p>
+ * <p>The content written to the channel passes through an {@link Interceptor},
+ * which may transform it (for example to compress it) whichever thread writes it
+ * and whether it is written by the application or sent with {@link #sendContent(Object)}.</p>
  */
 public class HttpOutput extends ServletOutputStream
 {
@@ -52,6 +55,28 @@ public class HttpOutput extends ServletOutputStream
     private static final boolean STREAM_BUFFER_DIRECT=false;
     private static Logger LOG = Log.getLogger(HttpOutput.class);
     private final HttpChannel<?> _channel;
+    private final Interceptor _channelInterceptor = new Interceptor()
+    {
+        @Override
+        public void write(ByteBuffer content, boolean complete, boolean flush) throws IOException
+        {
+            // Channel writes are blocking, so the content is always flushed
+            _channel.write(content, complete);
+        }
+
+        @Override
+        public void reset()
+        {
+            // The channel retains no content
+        }
+
+        @Override
+        public Interceptor getNextInterceptor()
+        {
+            return null;
+        }
+    };
+    private Interceptor _interceptor = _channelInterceptor;
     private boolean _closed;
     private long _written;
     private ByteBuffer _aggregate;
@@ -84,6 +109,35 @@ public class HttpOutput extends ServletOutputStream
         _closed = false;
     }
 
+    /** Called by the Response when it is recycled for the next request.
+     */
+    void recycle()
+    {
+        reset();
+        _interceptor.reset();
+        _interceptor = _channelInterceptor;
+    }
+
+    /**
+     * @return the interceptor that content is written to
+     */
+    public Interceptor getInterceptor()
+    {
+        return _interceptor;
+    }
+
+    /**
+     * <p>Sets the interceptor that content is written to. The interceptor must eventually
+     * write to the interceptor previously returned by {@link #getInterceptor()}, and is
+     * discarded when the response is recycled.</p>
+     *
+     * @param interceptor the interceptor
+     */
+    public void setInterceptor(Interceptor interceptor)
+    {
+        _interceptor = interceptor;
+    }
+
     /** Called by the HttpChannel if the output was closed
      * externally (eg by a 500 exception handling).
      */
@@ -91,6 +145,9 @@ public class HttpOutput extends ServletOutputStream
     {
         _closed = true;
         releaseBuffer();
+        // An included request closes the output before the including request writes more content
+        if (!_channel.getResponse().isIncluding())
+            _interceptor.reset();
     }
 
     @Override
@@ -101,9 +158,9 @@ public class HttpOutput extends ServletOutputStream
             try
             {
                 if (BufferUtil.hasContent(_aggregate))
-                    _channel.write(_aggregate, !_channel.getResponse().isIncluding());
+                    _interceptor.write(_aggregate, !_channel.getResponse().isIncluding(), true);
                 else
-                    _channel.write(BufferUtil.EMPTY_BUFFER, !_channel.getResponse().isIncluding());
+                    _interceptor.write(BufferUtil.EMPTY_BUFFER, !_channel.getResponse().isIncluding(), true);
             }
             catch(IOException e)
             {
@@ -135,9 +192,9 @@ public class HttpOutput extends ServletOutputStream
             return;
 
         if (BufferUtil.hasContent(_aggregate))
-            _channel.write(_aggregate, false);
+            _interceptor.write(_aggregate, false, true);
         else
-            _channel.write(BufferUtil.EMPTY_BUFFER, false);
+            _interceptor.write(BufferUtil.EMPTY_BUFFER, false, true);
     }
 
     public boolean closeIfAllContentWritten() throws IOException
@@ -160,7 +217,7 @@ public class HttpOutput extends ServletOutputStream
             // If this write would fill more than half the aggregate, just write it directly
             if (len > size / 2)
             {
-                _channel.write(ByteBuffer.wrap(b, off, len), false);
+                _interceptor.write(ByteBuffer.wrap(b, off, len), false, false);
                 _written += len;
                 return;
             }
@@ -176,7 +233,7 @@ public class HttpOutput extends ServletOutputStream
             // No space so write the aggregate out if it is not empty
             if (BufferUtil.hasContent(_aggregate))
             {
-                _channel.write(_aggregate, false);
+                _interceptor.write(_aggregate, false, false);
                 space = BufferUtil.space(_aggregate);
             }
         }
@@ -185,7 +242,7 @@ public class HttpOutput extends ServletOutputStream
         if (len > space)
         {
             // No space so write the content directly
-            _channel.write(ByteBuffer.wrap(b, off, len), false);
+            _interceptor.write(ByteBuffer.wrap(b, off, len), false, false);
             _written += len;
             return;
         }
@@ -196,7 +253,7 @@ public class HttpOutput extends ServletOutputStream
 
         // Check if all written or full
         if (!closeIfAllContentWritten() && BufferUtil.isFull(_aggregate))
-            _channel.write(_aggregate, false);
+            _interceptor.write(_aggregate, false, false);
     }
 
 
@@ -214,7 +271,7 @@ public class HttpOutput extends ServletOutputStream
 
         // Check if all written or full
         if (!closeIfAllContentWritten() && BufferUtil.isFull(_aggregate))
-            _channel.write(_aggregate, false);
+            _interceptor.write(_aggregate, false, false);
     }
 
     @Override
@@ -274,7 +331,7 @@ public class HttpOutput extends ServletOutputStream
         // Process content.
         if (content instanceof ByteBuffer)
         {
-            _channel.write((ByteBuffer)content, true);
+            _interceptor.write((ByteBuffer)content, true, true);
             _closed=true;
         }
         else if (content instanceof ReadableByteChannel)
@@ -290,7 +347,7 @@ public class HttpOutput extends ServletOutputStream
                     if (len<0)
                         break;
                     BufferUtil.flipToFlush(buffer,pos);
-                    _channel.write(buffer,false);
+                    _interceptor.write(buffer, false, false);
                 }
             }
             finally
@@ -315,7 +372,7 @@ public class HttpOutput extends ServletOutputStream
                         break;
                     buffer.position(0);
                     buffer.limit(len);
-                    _channel.write(buffer,false);
+                    _interceptor.write(buffer, false, false);
                 }
             }
             finally
@@ -342,5 +399,43 @@ public class HttpOutput extends ServletOutputStream
     {
         if (BufferUtil.hasContent(_aggregate))
             BufferUtil.clear(_aggregate);
+        _interceptor.reset();
+    }
+
+    /**
+     * <p>An interceptor of the content written by {@link HttpOutput}, before it reaches the {@link HttpChannel}.</p>
+     * <p>Interceptors are chained: each one writes the, possibly transformed, content to the next,
+     * the last one writing to the channel.</p>
+     */
+    public interface Interceptor
+    {
+        /**
+         * <p>Writes (in a blocking way) the given content, committing the response if needed.</p>
+         * <p>Unless the content is complete or must be flushed, an interceptor may retain
+         * (a transformation of) the content, rather than write it to the next interceptor,
+         * until more content is written.</p>
+         *
+         * @param content the content buffer to write
+         * @param complete whether the content is complete for the response
+         * @param flush whether the content must be written through to the channel,
+         * as when the application flushes the output
+         * @throws IOException if the write fails
+         */
+        void write(ByteBuffer content, boolean complete, boolean flush) throws IOException;
+
+        /**
+         * <p>Discards any content retained by this interceptor, releases the resources it holds
+         * and then resets the next interceptor.</p>
+         * <p>Called when the response buffer is reset, and when the output is closed or recycled,
+         * so that the content of an aborted or reset response is not written and its resources
+         * are not leaked. If the response is not committed, the interceptor must be ready to
+         * write the content of the response again.</p>
+         */
+        void reset();
+
+        /**
+         * @return the interceptor this interceptor writes to, or null if it writes to the channel
+         */
+        Interceptor getNextInterceptor();
     }
 }
@@ -29,6 +29,7 @@ import javax.servlet.http.Cookie;
 
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.http.PathTrie;
 import org.eclipse.jetty.util.DateCache;
 import org.eclipse.jetty.util.RolloverFileOutputStream;
 import org.eclipse.jetty.util.StringUtil;
@@ -75,7 +76,7 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
     private transient OutputStream _out;
     private transient OutputStream _fileOut;
     private transient DateCache _logDateCache;
-    private transient PathMap _ignorePathMap;
+    private transient PathTrie<String> _ignorePathMap;
     private transient Writer _writer;
 
     /* ------------------------------------------------------------ */
@@ -662,9 +663,10 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
 
         if (_ignorePaths != null && _ignorePaths.length > 0)
         {
-            _ignorePathMap = new PathMap();
+            PathMap<String> ignorePathMap = new PathMap<>();
             for (int i = 0; i < _ignorePaths.length; i++)
-                _ignorePathMap.put(_ignorePaths[i],_ignorePaths[i]);
+                ignorePathMap.put(_ignorePaths[i],_ignorePaths[i]);
+            _ignorePathMap = new PathTrie<>(ignorePathMap);
         }
         else
             _ignorePathMap = null;
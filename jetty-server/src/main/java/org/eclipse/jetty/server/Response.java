@@ -125,7 +125,7 @@ public class Response implements HttpServletResponse
         _contentType = null;
         _outputType = OutputType.NONE;
         _contentLength = -1;
-        _out.reset();
+        _out.recycle();
         _fields.clear();
     }
 
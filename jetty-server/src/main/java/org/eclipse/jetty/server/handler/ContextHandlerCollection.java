@@ -19,19 +19,26 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.eclipse.jetty.http.PathMap;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HandlerContainer;
 import org.eclipse.jetty.server.HttpChannelState;
 import org.eclipse.jetty.server.Request;
-import org.eclipse.jetty.util.LazyList;
+import org.eclipse.jetty.util.ArrayTernaryTrie;
+import org.eclipse.jetty.util.TreeTrie;
+import org.eclipse.jetty.util.Trie;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
@@ -40,8 +47,8 @@ import org.eclipse.jetty.util.log.Logger;
 /* ------------------------------------------------------------ */
 /** ContextHandlerCollection.
  *
- * This {@link org.eclipse.jetty.server.handler.HandlerCollection} is creates a
- * {@link org.eclipse.jetty.http.PathMap} to it's contained handlers based
+ * This {@link org.eclipse.jetty.server.handler.HandlerCollection} compiles a routing table
+ * of virtual hosts and context paths to it's contained handlers based
  * on the context path and virtual hosts of any contained {@link org.eclipse.jetty.server.handler.ContextHandler}s.
  * The contexts do not need to be directly contained, only children of the contained handlers.
  * Multiple contexts may have the same context path and they are called in order until one
@@ -53,7 +60,7 @@ public class ContextHandlerCollection extends HandlerCollection
 {
     private static final Logger LOG = Log.getLogger(ContextHandlerCollection.class);
 
-    private volatile PathMap<Object> _contextMap;
+    private volatile Routes _routes;
     private Class<? extends ContextHandler> _contextClass = ContextHandler.class;
 
     /* ------------------------------------------------------------ */
@@ -70,10 +77,13 @@ public class ContextHandlerCollection extends HandlerCollection
     @ManagedOperation("update the mapping of context path to context")
     public void mapContexts()
     {
-        PathMap<Object> contextMap = new PathMap<Object>();
+        // virtual host => context path => branches, in the order the branches are to be tried
+        Map<String,Map<String,List<Handler>>> exact = new HashMap<>();
+        Map<String,Map<String,List<Handler>>> wildcards = new HashMap<>();
+        Map<String,List<Handler>> any = new HashMap<>();
+        Set<String> paths = new LinkedHashSet<>();
         Handler[] branches = getHandlers();
 
-
         for (int b=0;branches!=null && b<branches.length;b++)
         {
             Handler[] handlers=null;
@@ -101,58 +111,76 @@ public class ContextHandlerCollection extends HandlerCollection
                 if(!contextPath.startsWith("/"))
                     contextPath='/'+contextPath;
 
-                if (contextPath.length()>1)
-                {
-                    if (contextPath.endsWith("/"))
-                        contextPath+="*";
-                    else if (!contextPath.endsWith("/*"))
-                        contextPath+="/*";
-                }
+                // The key of a context path is its prefix without the trailing "/*", or
+                // "" for "/*" and "/" for the root context, which match every target
+                String path;
+                if (contextPath.length()==1)
+                    path=contextPath;
+                else if (contextPath.endsWith("/*"))
+                    path=contextPath.substring(0,contextPath.length()-2);
+                else if (contextPath.endsWith("/"))
+                    path=contextPath.substring(0,contextPath.length()-1);
+                else
+                    path=contextPath;
+                paths.add(path);
 
-                Object contexts=contextMap.get(contextPath);
                 String[] vhosts=handler.getVirtualHosts();
-
-
                 if (vhosts!=null && vhosts.length>0)
                 {
-                    Map<String, Object> hosts;
-
-                    if (contexts instanceof Map)
-                        hosts=(Map<String, Object>)contexts;
-                    else
+                    for (String vhost : vhosts)
                     {
-                        hosts=new HashMap<String, Object>();
-                        hosts.put("*",contexts);
-                        contextMap.put(contextPath, hosts);
-                    }
-
-                    for (int j=0;j<vhosts.length;j++)
-                    {
-                        String vhost=vhosts[j];
-                        contexts=hosts.get(vhost);
-                        contexts=LazyList.add(contexts,branches[b]);
-                        hosts.put(vhost,contexts);
+                        if (vhost==null)
+                            continue;
+                        vhost=vhost.toLowerCase(Locale.ENGLISH);
+                        if (vhost.startsWith("*."))
+                            add(wildcards,vhost.substring(2),path,branches[b]);
+                        else
+                            add(exact,vhost,path,branches[b]);
                     }
                 }
-                else if (contexts instanceof Map)
-                {
-                    Map<String, Object> hosts=(Map<String, Object>)contexts;
-                    contexts=hosts.get("*");
-                    contexts= LazyList.add(contexts, branches[b]);
-                    hosts.put("*",contexts);
-                }
                 else
-                {
-                    contexts= LazyList.add(contexts, branches[b]);
-                    contextMap.put(contextPath, contexts);
-                }
+                    add(any,path,branches[b]);
             }
         }
-        _contextMap=contextMap;
 
+        Map<String,HostRoutes> hosts = new HashMap<>();
+        for (Map.Entry<String,Map<String,List<Handler>>> entry : exact.entrySet())
+        {
+            String host=entry.getKey();
+            String domain=host.substring(host.indexOf('.')+1);
+            hosts.put(host,new HostRoutes(paths,entry.getValue(),wildcards.get(domain),any));
+        }
+
+        Map<String,HostRoutes> domains = new HashMap<>();
+        for (Map.Entry<String,Map<String,List<Handler>>> entry : wildcards.entrySet())
+            domains.put(entry.getKey(),new HostRoutes(paths,null,entry.getValue(),any));
+
+        _routes=new Routes(new Keyed<>(hosts,true),new Keyed<>(domains,true),new HostRoutes(paths,null,null,any));
     }
 
+    /* ------------------------------------------------------------ */
+    private static void add(Map<String,Map<String,List<Handler>>> hosts, String host, String path, Handler branch)
+    {
+        Map<String,List<Handler>> paths=hosts.get(host);
+        if (paths==null)
+        {
+            paths=new HashMap<>();
+            hosts.put(host,paths);
+        }
+        add(paths,path,branch);
+    }
 
+    /* ------------------------------------------------------------ */
+    private static void add(Map<String,List<Handler>> paths, String path, Handler branch)
+    {
+        List<Handler> branches=paths.get(path);
+        if (branches==null)
+        {
+            branches=new ArrayList<>();
+            paths.put(path,branches);
+        }
+        branches.add(branch);
+    }
 
     /* ------------------------------------------------------------ */
     /*
@@ -161,7 +189,7 @@ public class ContextHandlerCollection extends HandlerCollection
     @Override
     public void setHandlers(Handler[] handlers)
     {
-        _contextMap=null;
+        _routes=null;
         super.setHandlers(handlers);
         if (isStarted())
             mapContexts();
@@ -198,69 +226,25 @@ public class ContextHandlerCollection extends HandlerCollection
 	    }
 	}
 
-	// data structure which maps a request to a context; first-best match wins
-	// { context path =>
-	//     { virtual host => context }
+	// compiled routing table which maps a request to a context; first-best match wins
+	// { virtual host =>
+	//     { context path => contexts }
 	// }
-	PathMap<Object> map = _contextMap;
-	if (map!=null && target!=null && target.startsWith("/"))
+	Routes routes = _routes;
+	if (routes!=null && target!=null && target.startsWith("/"))
 	{
-	    // first, get all contexts matched by context path
-	    Object contexts = map.getLazyMatches(target);
-
-            for (int i=0; i<LazyList.size(contexts); i++)
-            {
-                // then, match against the virtualhost of each context
-                Map.Entry entry = (Map.Entry)LazyList.get(contexts, i);
-                Object list = entry.getValue();
+	    HostRoutes host = routes.getHostRoutes(request.getServerName());
 
-                if (list instanceof Map)
-                {
-                    Map hosts = (Map)list;
-                    String host = normalizeHostname(request.getServerName());
-
-                    // explicitly-defined virtual hosts, most specific
-                    list=hosts.get(host);
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-
-                    // wildcard for one level of names
-                    list=hosts.get("*."+host.substring(host.indexOf(".")+1));
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-
-                    // no virtualhosts defined for the context, least specific
-                    // will handle any request that does not match to a specific virtual host above
-                    list=hosts.get("*");
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-                }
-                else
-                {
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-                }
+	    // longest context path first
+	    int l=target.length();
+	    while (l>0)
+	    {
+	        Handler[] list = host._paths.get(target,0,l);
+	        if (list!=null && handle(list,target,baseRequest,request,response))
+	            return;
+	        l=target.lastIndexOf('/',l-1);
 	    }
+	    handle(host._root,target,baseRequest,request,response);
 	}
 	else
 	{
@@ -275,6 +259,18 @@ public class ContextHandlerCollection extends HandlerCollection
     }
 
 
+    /* ------------------------------------------------------------ */
+    private boolean handle(Handler[] list, String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        for (Handler handler : list)
+        {
+            handler.handle(target,baseRequest, request, response);
+            if (baseRequest.isHandled())
+                return true;
+        }
+        return false;
+    }
+
     /* ------------------------------------------------------------ */
     /** Add a context handler.
      * @param contextPath  The context path to add
@@ -321,15 +317,145 @@ public class ContextHandlerCollection extends HandlerCollection
     }
 
     /* ------------------------------------------------------------ */
-    private String normalizeHostname( String host )
+    /* ------------------------------------------------------------ */
+    /** The compiled routing table of a {@link ContextHandlerCollection}.
+     * <p>The virtual hosts of the contexts are resolved to the {@link HostRoutes} that
+     * hold the ordered contexts for each context path, either by an exact host name,
+     * by the domain of a wildcard (eg "*.example.com") or by the default for any host.
+     */
+    private static class Routes
+    {
+        final Keyed<HostRoutes> _hosts;
+        final Keyed<HostRoutes> _domains;
+        final HostRoutes _default;
+
+        Routes(Keyed<HostRoutes> hosts, Keyed<HostRoutes> domains, HostRoutes any)
+        {
+            _hosts=hosts;
+            _domains=domains;
+            _default=any;
+        }
+
+        HostRoutes getHostRoutes(String host)
+        {
+            if (host==null)
+                return _default;
+
+            int l=host.length();
+            if (l>0 && host.charAt(l-1)=='.')
+                l--;
+
+            HostRoutes routes=_hosts.get(host,0,l);
+            if (routes!=null)
+                return routes;
+
+            // wildcard for one level of names
+            int dot=host.indexOf('.');
+            routes=(dot>=0 && dot<l)?_domains.get(host,dot+1,l-dot-1):_domains.get(host,0,l);
+            if (routes!=null)
+                return routes;
+
+            return _default;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** The contexts to try for each context path of a virtual host.
+     * <p>For each context path, the contexts explicitly defined for the host are tried first,
+     * then those defined for the wildcard of its domain, then those without virtual hosts.
+     */
+    private static class HostRoutes
+    {
+        final Keyed<Handler[]> _paths;
+        final Handler[] _root;
+
+        HostRoutes(Set<String> paths, Map<String,List<Handler>> host, Map<String,List<Handler>> domain, Map<String,List<Handler>> any)
+        {
+            Map<String,Handler[]> routes = new HashMap<>();
+            for (String path : paths)
+            {
+                if (path.length()>1)
+                {
+                    Handler[] list=merge(path,host,domain,any,null);
+                    if (list.length>0)
+                        routes.put(path,list);
+                }
+            }
+            _paths=new Keyed<>(routes,false);
+            _root=merge("/",host,domain,any,merge("",host,domain,any,null));
+        }
+
+        private static Handler[] merge(String path, Map<String,List<Handler>> host, Map<String,List<Handler>> domain, Map<String,List<Handler>> any, Handler[] prefix)
+        {
+            List<Handler> list = new ArrayList<>();
+            if (prefix!=null)
+                list.addAll(Arrays.asList(prefix));
+            for (Map<String,List<Handler>> map : Arrays.asList(host,domain,any))
+            {
+                List<Handler> branches=map==null?null:map.get(path);
+                if (branches!=null)
+                    list.addAll(branches);
+            }
+            return list.toArray(new Handler[list.size()]);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** An immutable {@link Trie} lookup of String segments.
+     * <p>The tries are case insensitive and only index 7 bit characters, so the keys that
+     * the trie cannot distinguish are chained and checked against the segment. Virtual hosts
+     * are compared ignoring case, while context paths are case sensitive.
+     */
+    private static class Keyed<V>
     {
-        if ( host == null )
+        final Trie<Entry<V>> _trie;
+        final boolean _ignoreCase;
+
+        Keyed(Map<String,V> map, boolean ignoreCase)
+        {
+            _ignoreCase=ignoreCase;
+            int capacity=1;
+            for (String key : map.keySet())
+                capacity+=key.length();
+            _trie=capacity<Character.MAX_VALUE?new ArrayTernaryTrie<Entry<V>>(capacity):new TreeTrie<Entry<V>>();
+
+            for (Map.Entry<String,V> entry : map.entrySet())
+            {
+                String key=entry.getKey();
+                Entry<V> next=_trie.get(key);
+                if (!_trie.put(key,new Entry<>(key,entry.getValue(),next)))
+                    throw new IllegalStateException("Trie full: "+key);
+            }
+        }
+
+        V get(String s, int offset, int len)
+        {
+            Entry<V> entry=_trie.get(s,offset,len);
+            while (entry!=null)
+            {
+                if (entry._key.length()==len && s.regionMatches(_ignoreCase,offset,entry._key,0,len))
+                    return entry._value;
+                entry=entry._next;
+            }
             return null;
+        }
+    }
 
-        if ( host.endsWith( "." ) )
-            return host.substring( 0, host.length() -1);
+    /* ------------------------------------------------------------ */
+    private static class Entry<V>
+    {
+        final String _key;
+        final V _value;
+        final Entry<V> _next;
 
-        return host;
+        Entry(String key, V value, Entry<V> next)
+        {
+            _key=key;
+            _value=value;
+            _next=next;
+        }
     }
 
 }
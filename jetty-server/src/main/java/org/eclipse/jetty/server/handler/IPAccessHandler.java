@@ -20,6 +20,7 @@ package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,7 @@ import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.util.IPAddressMap;
+import org.eclipse.jetty.util.IPAddressSet;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -97,6 +99,10 @@ import org.eclipse.jetty.util.log.Logger;
  * to define a range of the internet addresses (e.g. 127., 10.10., 172.16.1.).
  * They also used the first "/" character of the URI pattern to separate it from the
  * internet address. Both of these features have been deprecated in the current version.
+ * <p>
+ * Entries that apply to all URIs are compiled into an {@link IPAddressSet}, so that
+ * they are matched in time proportional to the address length rather than the number
+ * of entries. Entries with URI patterns are matched by scanning the remaining entries.
  */
 public class IPAccessHandler extends HandlerWrapper
 {
@@ -104,6 +110,8 @@ public class IPAccessHandler extends HandlerWrapper
 
     IPAddressMap<PathMap> _white = new IPAddressMap<PathMap>();
     IPAddressMap<PathMap> _black = new IPAddressMap<PathMap>();
+    private volatile Compiled _compiledWhite;
+    private volatile Compiled _compiledBlack;
 
     /* ------------------------------------------------------------ */
     /**
@@ -214,6 +222,16 @@ public class IPAccessHandler extends HandlerWrapper
      * @param patternMap target address pattern map
      */
     protected void add(String entry, IPAddressMap<PathMap> patternMap)
+    {
+        synchronized (patternMap)
+        {
+            addEntry(entry, patternMap);
+            compile(patternMap);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void addEntry(String entry, IPAddressMap<PathMap> patternMap)
     {
         if (entry != null && entry.length() > 0)
         {
@@ -261,14 +279,18 @@ public class IPAccessHandler extends HandlerWrapper
      */
     protected void set(String[] entries,  IPAddressMap<PathMap> patternMap)
     {
-        patternMap.clear();
-
-        if (entries != null && entries.length > 0)
+        synchronized (patternMap)
         {
-            for (String addrPath:entries)
+            patternMap.clear();
+
+            if (entries != null && entries.length > 0)
             {
-                add(addrPath, patternMap);
+                for (String addrPath:entries)
+                {
+                    addEntry(addrPath, patternMap);
+                }
             }
+            compile(patternMap);
         }
     }
 
@@ -283,44 +305,110 @@ public class IPAccessHandler extends HandlerWrapper
      */
     protected boolean isAddrUriAllowed(String addr, String path)
     {
-        if (_white.size()>0)
+        if (addr == null || path == null)
+            return (_white.size()==0 || isMatch(_white,addr,path)) && (_black.size()==0 || !isMatch(_black,addr,path));
+
+        Compiled white = _compiledWhite;
+        if (white != null && !white.isMatch(addr,path))
+            return false;
+
+        Compiled black = _compiledBlack;
+        if (black != null && black.isMatch(addr,path))
+            return false;
+
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Compile the white or black list on the thread that changed it, while
+     * holding its lock, so that requests only read the compiled form.
+     *
+     * @param patternMap the changed address pattern map
+     */
+    private void compile(IPAddressMap<PathMap> patternMap)
+    {
+        Compiled compiled = patternMap.size()==0 ? null : new Compiled(patternMap);
+        if (patternMap == _white)
+            _compiledWhite = compiled;
+        else if (patternMap == _black)
+            _compiledBlack = compiled;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean isMatch(IPAddressMap<PathMap> patternMap, String addr, String path)
+    {
+        Object matches = patternMap.getLazyMatches(addr);
+        if (matches != null)
         {
-            boolean match = false;
+            List list = (matches instanceof List) ? (List)matches : Collections.singletonList(matches);
 
-            Object whiteObj = _white.getLazyMatches(addr);
-            if (whiteObj != null)
+            for (Object entry: list)
             {
-                List whiteList = (whiteObj instanceof List) ? (List)whiteObj : Collections.singletonList(whiteObj);
+                PathMap pathMap = ((Map.Entry<String,PathMap>)entry).getValue();
+                if (pathMap!=null && (pathMap.size()==0 || pathMap.match(path)!=null))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Compiled form of a white or black list: the entries that apply to any
+     * URI are held in an {@link IPAddressSet}, all others in a pattern map.
+     */
+    private static class Compiled
+    {
+        final IPAddressSet _anyPath;
+        final IPAddressMap<PathMap> _byPath = new IPAddressMap<PathMap>();
 
-                for (Object entry: whiteList)
+        Compiled(IPAddressMap<PathMap> patternMap)
+        {
+            List<String> anyPath = new ArrayList<String>();
+            for (Map.Entry<String,PathMap> entry : patternMap.entrySet())
+            {
+                String addr = entry.getKey();
+                PathMap pathMap = entry.getValue();
+                if (pathMap!=null && (pathMap.size()==0 || pathMap.containsKey("/*")) && isCompilable(addr))
+                {
+                    anyPath.add(addr);
+                }
+                else
                 {
-                    PathMap pathMap = ((Map.Entry<String,PathMap>)entry).getValue();
-                    if (match = (pathMap!=null && (pathMap.size()==0 || pathMap.match(path)!=null)))
-                        break;
+                    // Copy the path map, which is changed by later entries for the same address
+                    PathMap copy = null;
+                    if (pathMap != null)
+                    {
+                        copy = new PathMap(true);
+                        for (Object spec : pathMap.keySet())
+                            copy.put(spec,spec);
+                    }
+                    _byPath.put(addr,copy);
                 }
             }
+            _anyPath = new IPAddressSet(anyPath);
+        }
 
-            if (!match)
-                return false;
+        boolean isMatch(String addr, String path)
+        {
+            if (_anyPath.contains(addr))
+                return true;
+            return _byPath.size()>0 && IPAccessHandler.isMatch(_byPath,addr,path);
         }
 
-        if (_black.size() > 0)
+        private static boolean isCompilable(String addr)
         {
-            Object blackObj = _black.getLazyMatches(addr);
-            if (blackObj != null)
+            try
             {
-                List blackList = (blackObj instanceof List) ? (List)blackObj : Collections.singletonList(blackObj);
-
-                for (Object entry: blackList)
-                {
-                    PathMap pathMap = ((Map.Entry<String,PathMap>)entry).getValue();
-                    if (pathMap!=null && (pathMap.size()==0 || pathMap.match(path)!=null))
-                        return false;
-                }
+                new IPAddressSet(addr);
+                return true;
+            }
+            catch (IllegalArgumentException e)
+            {
+                return false;
             }
         }
-
-        return true;
     }
 
     /* ------------------------------------------------------------ */
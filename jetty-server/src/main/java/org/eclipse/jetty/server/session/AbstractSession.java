@@ -223,6 +223,15 @@ public abstract class AbstractSession implements AbstractSessionManager.SessionI
         return (int)(_maxIdleMs/1000);
     }
 
+    /* ------------------------------------------------------------- */
+    /**
+     * @return the maximum idle time in ms, without checking the session is valid
+     */
+    protected long getMaxInactiveMs()
+    {
+        return _maxIdleMs;
+    }
+
     /* ------------------------------------------------------------ */
     /*
      * @see javax.servlet.http.HttpSession#getServletContext()
@@ -36,6 +36,7 @@ public abstract class AbstractSessionIdManager extends AbstractLifeCycle impleme
 
     protected Random _random;
     protected boolean _weakRandom;
+    private Random[] _randoms;
     protected String _workerName;
 
     /* ------------------------------------------------------------ */
@@ -87,6 +88,7 @@ public abstract class AbstractSessionIdManager extends AbstractLifeCycle impleme
     {
         _random=random;
         _weakRandom=false;
+        _randoms=null;
     }
 
     /* ------------------------------------------------------------ */
@@ -97,60 +99,77 @@ public abstract class AbstractSessionIdManager extends AbstractLifeCycle impleme
      */
     public String newSessionId(HttpServletRequest request, long created)
     {
-        synchronized (this)
+        if (request!=null)
         {
-            if (request!=null)
+            // A requested session ID can only be used if it is in use already.
+            String requested_id=request.getRequestedSessionId();
+            if (requested_id!=null)
             {
-                // A requested session ID can only be used if it is in use already.
-                String requested_id=request.getRequestedSessionId();
-                if (requested_id!=null)
-                {
-                    String cluster_id=getClusterId(requested_id);
-                    if (idInUse(cluster_id))
-                        return cluster_id;
-                }
-
-                // Else reuse any new session ID already defined for this request.
-                String new_id=(String)request.getAttribute(__NEW_SESSION_ID);
-                if (new_id!=null&&idInUse(new_id))
-                    return new_id;
+                String cluster_id=getClusterId(requested_id);
+                if (idInUse(cluster_id))
+                    return cluster_id;
             }
 
-            // pick a new unique ID!
-            String id = newSessionId(request.hashCode());
-
-            request.setAttribute(__NEW_SESSION_ID,id);
-            return id;
+            // Else reuse any new session ID already defined for this request.
+            String new_id=(String)request.getAttribute(__NEW_SESSION_ID);
+            if (new_id!=null&&idInUse(new_id))
+                return new_id;
         }
+
+        // pick a new unique ID!
+        String id = newSessionId(request.hashCode());
+
+        request.setAttribute(__NEW_SESSION_ID,id);
+        return id;
     }
 
     /* ------------------------------------------------------------ */
     public String newSessionId(long seedTerm)
     {
+        Random random=getIdRandom();
+
         // pick a new unique ID!
         String id=null;
         while (id==null||id.length()==0||idInUse(id))
         {
             long r0=_weakRandom
-                    ?(hashCode()^Runtime.getRuntime().freeMemory()^_random.nextInt()^((seedTerm)<<32))
-                    :_random.nextLong();
-                    if (r0<0)
-                        r0=-r0;
-                    long r1=_weakRandom
-                            ?(hashCode()^Runtime.getRuntime().freeMemory()^_random.nextInt()^((seedTerm)<<32))
-                            :_random.nextLong();
-                            if (r1<0)
-                                r1=-r1;
-                            id=Long.toString(r0,36)+Long.toString(r1,36);
-
-                            //add in the id of the node to ensure unique id across cluster
-                            //NOTE this is different to the node suffix which denotes which node the request was received on
-                            if (_workerName!=null)
-                                id=_workerName + id;
+                    ?(hashCode()^Runtime.getRuntime().freeMemory()^random.nextInt()^((seedTerm)<<32))
+                    :random.nextLong();
+            if (r0<0)
+                r0=-r0;
+            long r1=_weakRandom
+                    ?(hashCode()^Runtime.getRuntime().freeMemory()^random.nextInt()^((seedTerm)<<32))
+                    :random.nextLong();
+            if (r1<0)
+                r1=-r1;
+            id=Long.toString(r0,36)+Long.toString(r1,36);
+
+            //add in the id of the node to ensure unique id across cluster
+            //NOTE this is different to the node suffix which denotes which node the request was received on
+            if (_workerName!=null)
+                id=_workerName + id;
         }
         return id;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Get the random number generator to use for the calling thread.
+     * <p>
+     * SecureRandom is internally synchronized, so when the generator has not been injected
+     * the threads are spread over a small set of independently seeded generators instead of
+     * all contending on {@link #getRandom()}.
+     *
+     * @return the Random to generate an id from
+     */
+    protected Random getIdRandom()
+    {
+        Random[] randoms=_randoms;
+        if (randoms==null)
+            return _random;
+        return randoms[(int)Thread.currentThread().getId()&(randoms.length-1)];
+    }
+
 
     /* ------------------------------------------------------------ */
     public abstract void renewSessionId(String oldClusterId, String oldNodeId, HttpServletRequest request);
@@ -183,6 +202,13 @@ public abstract class AbstractSessionIdManager extends AbstractLifeCycle impleme
             try
             {
                 _random=new SecureRandom();
+
+                int stripes=Integer.highestOneBit(Math.max(1,Runtime.getRuntime().availableProcessors()*2-1))<<1;
+                Random[] randoms=new Random[stripes];
+                randoms[0]=_random;
+                for (int i=1;i<stripes;i++)
+                    randoms[i]=new SecureRandom();
+                _randoms=randoms;
             }
             catch (Exception e)
             {
@@ -191,7 +217,7 @@ public abstract class AbstractSessionIdManager extends AbstractLifeCycle impleme
                 _weakRandom=true;
             }
         }
-        else
+        else if (_randoms==null)
             _random.setSeed(_random.nextLong()^System.currentTimeMillis()^hashCode()^Runtime.getRuntime().freeMemory());
     }
 
@@ -128,6 +128,10 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
     protected final CounterStatistic _sessionsStats = new CounterStatistic();
     protected final SampleStatistic _sessionTimeStats = new SampleStatistic();
 
+    protected SessionDataCodec _sessionDataCodec = new JavaSessionDataCodec();
+
+    private final Object[] _locks = newLocks(64);
+
 
     /* ------------------------------------------------------------ */
     public AbstractSessionManager()
@@ -318,6 +322,54 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
     }
 
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the codec used to persist session attributes
+     */
+    @ManagedAttribute("codec used to persist session attributes")
+    public SessionDataCodec getSessionDataCodec()
+    {
+        return _sessionDataCodec;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the codec used to persist session attributes. The default {@link JavaSessionDataCodec}
+     * writes them in the format of earlier versions. A {@link CompactSessionDataCodec} writes
+     * smaller data faster, but should only be set once no node that shares the persisted
+     * sessions runs an earlier version, as those cannot decode it.
+     * @param codec the codec used to persist session attributes
+     */
+    public void setSessionDataCodec(SessionDataCodec codec)
+    {
+        _sessionDataCodec = codec;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get a lock striped on the session id, so that changes to different
+     * sessions rarely contend, for managers that load and store sessions
+     * without holding the manager monitor.
+     *
+     * @param clusterId the session id
+     * @return the lock guarding changes to the in-memory session with the given id
+     */
+    protected Object lockFor(String clusterId)
+    {
+        int hash = clusterId.hashCode();
+        hash ^= (hash >>> 16);
+        return _locks[hash & (_locks.length - 1)];
+    }
+
+    /* ------------------------------------------------------------ */
+    private static Object[] newLocks(int count)
+    {
+        Object[] locks = new Object[count];
+        for (int i = 0; i < count; i++)
+            locks[i] = new Object();
+        return locks;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return seconds
@@ -702,14 +754,14 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
     /**
      * Add the session Registers the session with this manager and registers the
      * session ID with the sessionIDManager;
+     * <p>
+     * No lock is held on the sessionIDManager, which is shared by all the contexts,
+     * so implementations of it must be thread safe.
      */
     protected void addSession(AbstractSession session, boolean created)
     {
-        synchronized (_sessionIdManager)
-        {
-            _sessionIdManager.addSession(session);
-            addSession(session);
-        }
+        _sessionIdManager.addSession(session);
+        addSession(session);
 
         if (created)
         {
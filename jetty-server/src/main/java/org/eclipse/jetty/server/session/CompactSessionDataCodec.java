@@ -0,0 +1,505 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+
+/* ------------------------------------------------------------ */
+/**
+ * CompactSessionDataCodec
+ *
+ * A {@link SessionDataCodec} that is set with
+ * {@link AbstractSessionManager#setSessionDataCodec(SessionDataCodec)}. Values of type String, byte[], Date
+ * and the primitive wrappers, and a top level HashMap with String keys, are
+ * written natively with a one byte type tag. All other values of an encode
+ * are written, after the native ones, with a single Java serialization stream,
+ * so that class descriptors are only written for values that need them, and
+ * only once.
+ * <p>
+ * Encoded data larger than the compression threshold is deflated.
+ * Data written with plain Java serialization, as stored by earlier versions
+ * and by the default {@link JavaSessionDataCodec}, is recognized and decoded
+ * as such, but nodes running earlier versions cannot decode the data written
+ * by this codec.
+ */
+@ManagedObject("Compact session data codec")
+public class CompactSessionDataCodec implements SessionDataCodec
+{
+    private static final byte PLAIN = 1;
+    private static final byte DEFLATED = 2;
+    private static final byte STREAM_MAGIC = (byte)0xAC; // first byte of a Java serialization stream
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte BYTES = 10;
+    private static final byte DATE = 11;
+    private static final byte MAP = 12;
+    private static final byte SERIALIZED = 13;
+
+    private int _compressionThreshold = -1;
+    private int _compressionLevel = Deflater.BEST_SPEED;
+
+    private final SampleStatistic _encodeTimeStats = new SampleStatistic();
+    private final SampleStatistic _encodedSizeStats = new SampleStatistic();
+    private final CounterStatistic _uncompressedBytes = new CounterStatistic();
+    private final CounterStatistic _compressedEncodes = new CounterStatistic();
+    private final SampleStatistic _decodeTimeStats = new SampleStatistic();
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the size in bytes above which encoded data is compressed, or -1 if it is never compressed
+     */
+    @ManagedAttribute("size in bytes above which encoded session data is compressed, -1 for never")
+    public int getCompressionThreshold()
+    {
+        return _compressionThreshold;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param threshold the size in bytes above which encoded data is compressed, or -1 to never compress
+     */
+    public void setCompressionThreshold(int threshold)
+    {
+        _compressionThreshold = threshold;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("deflater level used to compress session data")
+    public int getCompressionLevel()
+    {
+        return _compressionLevel;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param level the {@link Deflater} compression level
+     */
+    public void setCompressionLevel(int level)
+    {
+        _compressionLevel = level;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public byte[] encode(Object value) throws IOException
+    {
+        long start = System.nanoTime();
+
+        Encoder encoder = new Encoder();
+        encoder.writeValue(value,false);
+        byte[] plain = encoder.toByteArray();
+        int size = plain.length;
+        _uncompressedBytes.add(size);
+
+        byte[] bytes;
+        if (_compressionThreshold >= 0 && size > _compressionThreshold)
+        {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(size / 2);
+            compressed.write(DEFLATED);
+            Deflater deflater = new Deflater(_compressionLevel);
+            try
+            {
+                DeflaterOutputStream dout = new DeflaterOutputStream(compressed,deflater);
+                dout.write(plain,1,plain.length - 1);
+                dout.finish();
+            }
+            finally
+            {
+                deflater.end();
+            }
+            bytes = compressed.toByteArray();
+            _compressedEncodes.increment();
+        }
+        else
+            bytes = plain;
+
+        _encodedSizeStats.set(bytes.length);
+        _encodeTimeStats.set(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        return bytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Object decode(byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            if (bytes.length == 0)
+                throw new StreamCorruptedException("No session data");
+
+            switch (bytes[0])
+            {
+                case PLAIN:
+                    return new Decoder(bytes,1).readValue();
+                case DEFLATED:
+                {
+                    ByteArrayOutputStream plain = new ByteArrayOutputStream(bytes.length * 4);
+                    IO.copy(new InflaterInputStream(new ByteArrayInputStream(bytes,1,bytes.length - 1)),plain);
+                    return new Decoder(plain.toByteArray(),0).readValue();
+                }
+                case STREAM_MAGIC:
+                    return readSerialized(new ByteArrayInputStream(bytes));
+                default:
+                    throw new StreamCorruptedException("Unknown session data format " + bytes[0]);
+            }
+        }
+        finally
+        {
+            _decodeTimeStats.set(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+    {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static byte[] readBytes(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static Object readSerialized(InputStream in) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream ois = new JavaSessionDataCodec.ClassLoadingObjectInputStream(in);
+        try
+        {
+            return ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of values encoded")
+    public long getEncodes()
+    {
+        return _encodeTimeStats.getCount();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("mean time to encode a value (in us)")
+    public double getEncodeTimeMean()
+    {
+        return _encodeTimeStats.getMean();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum time to encode a value (in us)")
+    public long getEncodeTimeMax()
+    {
+        return _encodeTimeStats.getMax();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("mean size of an encoded value (in bytes)")
+    public double getEncodedSizeMean()
+    {
+        return _encodedSizeStats.getMean();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum size of an encoded value (in bytes)")
+    public long getEncodedSizeMax()
+    {
+        return _encodedSizeStats.getMax();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("total size of encoded values (in bytes)")
+    public long getEncodedBytes()
+    {
+        return _encodedSizeStats.getTotal();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("total size of encoded values before compression (in bytes)")
+    public long getUncompressedBytes()
+    {
+        return _uncompressedBytes.getTotal();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of encoded values that were compressed")
+    public long getCompressedEncodes()
+    {
+        return _compressedEncodes.getTotal();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of values decoded")
+    public long getDecodes()
+    {
+        return _decodeTimeStats.getCount();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("mean time to decode a value (in us)")
+    public double getDecodeTimeMean()
+    {
+        return _decodeTimeStats.getMean();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value="reset the statistics",impact="ACTION")
+    public void statsReset()
+    {
+        _encodeTimeStats.reset();
+        _encodedSizeStats.reset();
+        _uncompressedBytes.reset();
+        _compressedEncodes.reset();
+        _decodeTimeStats.reset();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Writes the native values of one encode, followed by the values that
+     * are not written natively, all in one object stream.
+     */
+    private static class Encoder
+    {
+        private final ByteArrayOutputStream _values = new ByteArrayOutputStream();
+        private final DataOutputStream _out = new DataOutputStream(_values);
+        private ByteArrayOutputStream _objectBytes;
+        private ObjectOutputStream _objects;
+
+        private void writeValue(Object value, boolean nested) throws IOException
+        {
+            if (value == null)
+            {
+                _out.writeByte(NULL);
+            }
+            else if (value instanceof String)
+            {
+                _out.writeByte(STRING);
+                writeBytes(_out,((String)value).getBytes(StringUtil.__UTF8_CHARSET));
+            }
+            else if (value instanceof Integer)
+            {
+                _out.writeByte(INTEGER);
+                _out.writeInt((Integer)value);
+            }
+            else if (value instanceof Long)
+            {
+                _out.writeByte(LONG);
+                _out.writeLong((Long)value);
+            }
+            else if (value instanceof Boolean)
+            {
+                _out.writeByte(BOOLEAN);
+                _out.writeBoolean((Boolean)value);
+            }
+            else if (value instanceof Double)
+            {
+                _out.writeByte(DOUBLE);
+                _out.writeDouble((Double)value);
+            }
+            else if (value instanceof Float)
+            {
+                _out.writeByte(FLOAT);
+                _out.writeFloat((Float)value);
+            }
+            else if (value instanceof Short)
+            {
+                _out.writeByte(SHORT);
+                _out.writeShort((Short)value);
+            }
+            else if (value instanceof Byte)
+            {
+                _out.writeByte(BYTE);
+                _out.writeByte((Byte)value);
+            }
+            else if (value instanceof Character)
+            {
+                _out.writeByte(CHARACTER);
+                _out.writeChar((Character)value);
+            }
+            else if (value instanceof byte[])
+            {
+                _out.writeByte(BYTES);
+                writeBytes(_out,(byte[])value);
+            }
+            else if (value.getClass() == Date.class)
+            {
+                _out.writeByte(DATE);
+                _out.writeLong(((Date)value).getTime());
+            }
+            else if (!nested && value.getClass() == HashMap.class && hasStringKeys((Map<?, ?>)value))
+            {
+                // Only the top level map is written natively: nested maps,
+                // which may refer to themselves, are left to serialization
+                Map<?, ?> map = (Map<?, ?>)value;
+                _out.writeByte(MAP);
+                _out.writeInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet())
+                {
+                    writeBytes(_out,((String)entry.getKey()).getBytes(StringUtil.__UTF8_CHARSET));
+                    writeValue(entry.getValue(),true);
+                }
+            }
+            else
+            {
+                _out.writeByte(SERIALIZED);
+                if (_objects == null)
+                {
+                    _objectBytes = new ByteArrayOutputStream();
+                    _objects = new ObjectOutputStream(_objectBytes);
+                }
+                _objects.writeObject(value);
+            }
+        }
+
+        private boolean hasStringKeys(Map<?, ?> map)
+        {
+            for (Object key : map.keySet())
+                if (!(key instanceof String))
+                    return false;
+            return true;
+        }
+
+        private byte[] toByteArray() throws IOException
+        {
+            _out.flush();
+            if (_objects != null)
+                _objects.close();
+
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(5 + _values.size() + (_objectBytes == null ? 0 : _objectBytes.size()));
+            DataOutputStream out = new DataOutputStream(bout);
+            out.writeByte(PLAIN);
+            out.writeInt(_values.size());
+            _values.writeTo(out);
+            if (_objectBytes != null)
+                _objectBytes.writeTo(out);
+            out.flush();
+            return bout.toByteArray();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Reads the values written by an {@link Encoder}.
+     */
+    private static class Decoder
+    {
+        private final byte[] _bytes;
+        private final int _objectsOffset;
+        private final DataInputStream _in;
+        private ObjectInputStream _objects;
+
+        private Decoder(byte[] bytes, int offset) throws IOException
+        {
+            int length = new DataInputStream(new ByteArrayInputStream(bytes,offset,bytes.length - offset)).readInt();
+            if (length < 0 || length > bytes.length - offset - 4)
+                throw new StreamCorruptedException("Invalid session data length " + length);
+            _bytes = bytes;
+            _objectsOffset = offset + 4 + length;
+            _in = new DataInputStream(new ByteArrayInputStream(bytes,offset + 4,length));
+        }
+
+        private Object readValue() throws IOException, ClassNotFoundException
+        {
+            byte type = _in.readByte();
+            switch (type)
+            {
+                case NULL:
+                    return null;
+                case STRING:
+                    return new String(readBytes(_in),StringUtil.__UTF8_CHARSET);
+                case INTEGER:
+                    return _in.readInt();
+                case LONG:
+                    return _in.readLong();
+                case BOOLEAN:
+                    return _in.readBoolean();
+                case DOUBLE:
+                    return _in.readDouble();
+                case FLOAT:
+                    return _in.readFloat();
+                case SHORT:
+                    return _in.readShort();
+                case BYTE:
+                    return _in.readByte();
+                case CHARACTER:
+                    return _in.readChar();
+                case BYTES:
+                    return readBytes(_in);
+                case DATE:
+                    return new Date(_in.readLong());
+                case MAP:
+                {
+                    int size = _in.readInt();
+                    Map<String, Object> map = new HashMap<String, Object>();
+                    for (int i = 0; i < size; i++)
+                    {
+                        String key = new String(readBytes(_in),StringUtil.__UTF8_CHARSET);
+                        map.put(key,readValue());
+                    }
+                    return map;
+                }
+                case SERIALIZED:
+                    if (_objects == null)
+                        _objects = new JavaSessionDataCodec.ClassLoadingObjectInputStream(new ByteArrayInputStream(_bytes,_objectsOffset,_bytes.length - _objectsOffset));
+                    return _objects.readObject();
+                default:
+                    throw new StreamCorruptedException("Unknown session data type " + type);
+            }
+        }
+    }
+}
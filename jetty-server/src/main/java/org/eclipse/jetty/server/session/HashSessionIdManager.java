@@ -18,16 +18,13 @@
 
 package org.eclipse.jetty.server.session;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
@@ -37,10 +34,15 @@ import org.eclipse.jetty.server.SessionIdManager;
 /* ------------------------------------------------------------ */
 /**
  * HashSessionIdManager. An in-memory implementation of the session ID manager.
+ * <p>
+ * Sessions are held in a {@link ConcurrentHashMap} keyed by cluster id. The value for
+ * each id is a small immutable array of the sessions (one per context) sharing that id,
+ * which is replaced atomically on every add or remove, so no lock is held on this manager
+ * while sessions are created, invalidated or renewed.
  */
 public class HashSessionIdManager extends AbstractSessionIdManager
 {
-    private final Map<String, Set<WeakReference<HttpSession>>> _sessions = new HashMap<String, Set<WeakReference<HttpSession>>>();
+    private final ConcurrentMap<String, HttpSession[]> _sessions = new ConcurrentHashMap<String, HttpSession[]>();
 
     /* ------------------------------------------------------------ */
     public HashSessionIdManager()
@@ -68,18 +70,10 @@ public class HashSessionIdManager extends AbstractSessionIdManager
      */
     public Collection<HttpSession> getSession(String id)
     {
-        ArrayList<HttpSession> sessions = new ArrayList<HttpSession>();
-        Set<WeakReference<HttpSession>> refs =_sessions.get(id);
-        if (refs!=null)
-        {
-            for (WeakReference<HttpSession> ref: refs)
-            {
-                HttpSession session = ref.get();
-                if (session!=null)
-                    sessions.add(session);
-            }
-        }
-        return sessions;
+        HttpSession[] sessions = _sessions.get(id);
+        if (sessions==null)
+            return new ArrayList<HttpSession>();
+        return new ArrayList<HttpSession>(Arrays.asList(sessions));
     }
     /* ------------------------------------------------------------ */
     /** Get the session ID with any worker ID.
@@ -134,10 +128,7 @@ public class HashSessionIdManager extends AbstractSessionIdManager
      */
     public boolean idInUse(String id)
     {
-        synchronized (this)
-        {
-            return _sessions.containsKey(id);
-        }
+        return _sessions.containsKey(id);
     }
 
     /* ------------------------------------------------------------ */
@@ -147,17 +138,24 @@ public class HashSessionIdManager extends AbstractSessionIdManager
     public void addSession(HttpSession session)
     {
         String id = getClusterId(session.getId());
-        WeakReference<HttpSession> ref = new WeakReference<HttpSession>(session);
 
-        synchronized (this)
+        while (true)
         {
-            Set<WeakReference<HttpSession>> sessions = _sessions.get(id);
+            HttpSession[] sessions = _sessions.get(id);
             if (sessions==null)
             {
-                sessions=new HashSet<WeakReference<HttpSession>>();
-                _sessions.put(id,sessions);
+                if (_sessions.putIfAbsent(id,new HttpSession[]{session})==null)
+                    return;
+                continue;
             }
-            sessions.add(ref);
+
+            if (indexOf(sessions,session)>=0)
+                return;
+
+            HttpSession[] added = Arrays.copyOf(sessions,sessions.length+1);
+            added[sessions.length]=session;
+            if (_sessions.replace(id,sessions,added))
+                return;
         }
     }
 
@@ -169,29 +167,28 @@ public class HashSessionIdManager extends AbstractSessionIdManager
     {
         String id = getClusterId(session.getId());
 
-        synchronized (this)
+        while (true)
         {
-            Collection<WeakReference<HttpSession>> sessions = _sessions.get(id);
-            if (sessions!=null)
+            HttpSession[] sessions = _sessions.get(id);
+            if (sessions==null)
+                return;
+
+            int index = indexOf(sessions,session);
+            if (index<0)
+                return;
+
+            if (sessions.length==1)
             {
-                for (Iterator<WeakReference<HttpSession>> iter = sessions.iterator(); iter.hasNext();)
-                {
-                    WeakReference<HttpSession> ref = iter.next();
-                    HttpSession s=ref.get();
-                    if (s==null)
-                    {
-                        iter.remove();
-                        continue;
-                    }
-                    if (s==session)
-                    {
-                        iter.remove();
-                        break;
-                    }
-                }
-                if (sessions.isEmpty())
-                    _sessions.remove(id);
+                if (_sessions.remove(id,sessions))
+                    return;
+                continue;
             }
+
+            HttpSession[] removed = new HttpSession[sessions.length-1];
+            System.arraycopy(sessions,0,removed,0,index);
+            System.arraycopy(sessions,index+1,removed,index,removed.length-index);
+            if (_sessions.replace(id,sessions,removed))
+                return;
         }
     }
 
@@ -201,57 +198,65 @@ public class HashSessionIdManager extends AbstractSessionIdManager
      */
     public void invalidateAll(String id)
     {
-        Collection<WeakReference<HttpSession>> sessions;
-        synchronized (this)
-        {
-            sessions = _sessions.remove(id);
-        }
+        HttpSession[] sessions = _sessions.remove(id);
+        if (sessions==null)
+            return;
 
-        if (sessions!=null)
+        for (HttpSession s : sessions)
         {
-            for (WeakReference<HttpSession> ref: sessions)
-            {
-                AbstractSession session=(AbstractSession)ref.get();
-                if (session!=null && session.isValid())
-                    session.invalidate();
-            }
-            sessions.clear();
+            AbstractSession session=(AbstractSession)s;
+            if (session.isValid())
+                session.invalidate();
         }
     }
-    
-    
+
     /* ------------------------------------------------------------ */
     public void renewSessionId (String oldClusterId, String oldNodeId, HttpServletRequest request)
     {
         //generate a new id
         String newClusterId = newSessionId(request.hashCode());
 
+        //get the list of sessions with same id from other contexts
+        HttpSession[] sessions = _sessions.remove(oldClusterId);
+        if (sessions==null)
+            return;
+
+        for (HttpSession s : sessions)
+        {
+            if (s instanceof AbstractSession)
+            {
+                AbstractSession abstractSession = (AbstractSession)s;
+                abstractSession.getSessionManager().renewSessionId(oldClusterId, oldNodeId, newClusterId, getNodeId(newClusterId, request));
+            }
+        }
 
-        synchronized (this)
+        // Merge with any session concurrently added with the new id, rather than replacing it
+        while (true)
         {
-            Set<WeakReference<HttpSession>> sessions = _sessions.remove(oldClusterId); //get the list of sessions with same id from other contexts
-            if (sessions!=null)
+            HttpSession[] existing = _sessions.putIfAbsent(newClusterId, sessions);
+            if (existing==null)
+                return;
+
+            HttpSession[] merged = existing;
+            for (HttpSession s : sessions)
             {
-                for (Iterator<WeakReference<HttpSession>> iter = sessions.iterator(); iter.hasNext();)
+                if (indexOf(merged,s)<0)
                 {
-                    WeakReference<HttpSession> ref = iter.next();
-                    HttpSession s = ref.get();
-                    if (s == null)
-                    {
-                        continue;
-                    }
-                    else
-                    {
-                        if (s instanceof AbstractSession)
-                        {
-                            AbstractSession abstractSession = (AbstractSession)s;
-                            abstractSession.getSessionManager().renewSessionId(oldClusterId, oldNodeId, newClusterId, getNodeId(newClusterId, request));
-                        }
-                    }
+                    merged = Arrays.copyOf(merged,merged.length+1);
+                    merged[merged.length-1]=s;
                 }
-                _sessions.put(newClusterId, sessions);
             }
+            if (merged==existing || _sessions.replace(newClusterId,existing,merged))
+                return;
         }
     }
 
+    /* ------------------------------------------------------------ */
+    private static int indexOf(HttpSession[] sessions, HttpSession session)
+    {
+        for (int i=0;i<sessions.length;i++)
+            if (sessions[i]==session)
+                return i;
+        return -1;
+    }
 }
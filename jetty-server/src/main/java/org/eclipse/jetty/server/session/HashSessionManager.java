@@ -26,18 +26,25 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 
 /* ------------------------------------------------------------ */
@@ -51,12 +58,19 @@ import org.eclipse.jetty.util.log.Logger;
  * <p>
  * This manager will create it's own Timer instance to scavenge threads, unless it discovers a shared Timer instance
  * set as the "org.eclipse.jetty.server.session.timer" attribute of the ContextHandler.
+ * <p>
+ * Sessions are indexed by the second at which they are next due to expire or be idled, so that
+ * the scavenger only looks at sessions that are due rather than at every session in memory.
  *
  */
 public class HashSessionManager extends AbstractSessionManager
 {
     final static Logger LOG = SessionHandler.LOG;
 
+    /** Attribute count written to a session file in place of the count of Java serialized attributes
+     * when the attributes are written by the {@link SessionDataCodec} */
+    static final int ENCODED_ATTRIBUTES = -1;
+
     protected final ConcurrentMap<String,HashedSession> _sessions=new ConcurrentHashMap<String,HashedSession>();
     private static int __id;
     private Timer _timer;
@@ -70,6 +84,10 @@ public class HashSessionManager extends AbstractSessionManager
     private boolean _lazyLoad=false;
     private volatile boolean _sessionsLoaded=false;
     private boolean _deleteUnrestorableSessions=false;
+    private final ConcurrentNavigableMap<Long,Set<HashedSession>> _expiryIndex=new ConcurrentSkipListMap<Long,Set<HashedSession>>();
+    private final SampleStatistic _scavengeTimeStats=new SampleStatistic();
+    private final CounterStatistic _scavengeChecks=new CounterStatistic();
+    private final CounterStatistic _sessionsExpired=new CounterStatistic();
 
 
 
@@ -188,6 +206,8 @@ public class HashSessionManager extends AbstractSessionManager
     public void setIdleSavePeriod(int seconds)
     {
       _idleSavePeriodMs = seconds * 1000L;
+      for (HashedSession session : _sessions.values())
+          updateExpiry(session);
     }
 
     /* ------------------------------------------------------------ */
@@ -301,55 +321,189 @@ public class HashSessionManager extends AbstractSessionManager
 
         Thread thread=Thread.currentThread();
         ClassLoader old_loader=thread.getContextClassLoader();
+        long start=System.nanoTime();
         try
         {
             if (_loader!=null)
                 thread.setContextClassLoader(_loader);
 
-            // For each session
+            // For each session that is due
             long now=System.currentTimeMillis();
-          
-            for (Iterator<HashedSession> i=_sessions.values().iterator(); i.hasNext();)
+
+            Map.Entry<Long,Set<HashedSession>> due;
+            while ((due=_expiryIndex.firstEntry())!=null && due.getKey()*1000L<=now)
             {
-                HashedSession session=i.next();
-                long idleTime=session.getMaxInactiveInterval()*1000L; 
-                if (idleTime>0&&session.getAccessed()+idleTime<now)
-                {
-                    // Found a stale session, add it to the list
-                    try
-                    {
-                        session.timeout();
-                    }
-                    catch (Exception e)
-                    {
-                        __log.warn("Problem scavenging sessions", e);
-                    }
-                }
-                else if (_idleSavePeriodMs > 0 && session.getAccessed()+_idleSavePeriodMs < now)
+                if (!_expiryIndex.remove(due.getKey(),due.getValue()))
+                    continue;
+
+                for (HashedSession session : due.getValue())
                 {
-                    try
+                    // skip sessions that have been accessed and moved to a later bucket
+                    if (!session.unindex(due.getKey()))
+                        continue;
+                    _scavengeChecks.increment();
+
+                    long idleTime=session.getMaxInactiveMs();
+                    if (idleTime>0&&session.getAccessed()+idleTime<now)
                     {
-                        session.idle();
+                        // Found a stale session
+                        try
+                        {
+                            session.timeout();
+                            _sessionsExpired.increment();
+                        }
+                        catch (Exception e)
+                        {
+                            __log.warn("Problem scavenging sessions", e);
+                        }
                     }
-                    catch (Exception e)
+                    else if (_idleSavePeriodMs > 0 && session.getAccessed()+_idleSavePeriodMs < now)
                     {
-                        __log.warn("Problem idling session "+ session.getId(), e);
+                        try
+                        {
+                            session.idle();
+                        }
+                        catch (Exception e)
+                        {
+                            __log.warn("Problem idling session "+ session.getId(), e);
+                        }
                     }
+
+                    // index the session again for when it is next due
+                    if (_sessions.get(session.getClusterId())==session)
+                        updateExpiry(session);
                 }
             }
-        }       
+        }
         finally
         {
             thread.setContextClassLoader(old_loader);
+            _scavengeTimeStats.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Move a session to the bucket of the expiry index for the second at which
+     * it is next due to expire or be idled, or take it out of the index if it
+     * never will be.
+     * @param session the session
+     */
+    void updateExpiry(HashedSession session)
+    {
+        long due=Long.MAX_VALUE;
+        long accessed=session.getAccessed();
+        long idleTime=session.getMaxInactiveMs();
+        if (idleTime>0)
+            due=accessed+idleTime;
+        if (_idleSavePeriodMs>0 && !session.isIdled())
+            due=Math.min(due,accessed+_idleSavePeriodMs);
+        long bucket=due==Long.MAX_VALUE?-1:due/1000+1;
+
+        long old=session.reindex(bucket);
+        if (old==bucket)
+            return;
+        if (old>=0)
+        {
+            Set<HashedSession> sessions=_expiryIndex.get(old);
+            if (sessions!=null)
+                sessions.remove(session);
+        }
+
+        while (bucket>=0)
+        {
+            Set<HashedSession> sessions=_expiryIndex.get(bucket);
+            if (sessions==null)
+            {
+                sessions=Collections.newSetFromMap(new ConcurrentHashMap<HashedSession,Boolean>());
+                Set<HashedSession> existing=_expiryIndex.putIfAbsent(bucket,sessions);
+                if (existing!=null)
+                    sessions=existing;
+            }
+            sessions.add(session);
+
+            // the scavenger may have taken the bucket out of the index meanwhile
+            if (_expiryIndex.get(bucket)==sessions || !session.isIndexed(bucket))
+                return;
+            sessions.remove(session);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Take a session out of the expiry index.
+     * @param session the session
+     */
+    void removeExpiry(HashedSession session)
+    {
+        long old=session.reindex(-1);
+        if (old>=0)
+        {
+            Set<HashedSession> sessions=_expiryIndex.get(old);
+            if (sessions!=null)
+                sessions.remove(session);
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return maximum time taken by a scavenge (in ms)
+     */
+    @ManagedAttribute("maximum time taken by a scavenge (in ms)")
+    public long getScavengeTimeMax()
+    {
+        return _scavengeTimeStats.getMax();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return mean time taken by a scavenge (in ms)
+     */
+    @ManagedAttribute("mean time taken by a scavenge (in ms)")
+    public double getScavengeTimeMean()
+    {
+        return _scavengeTimeStats.getMean();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return number of scavenges
+     */
+    @ManagedAttribute("number of scavenges")
+    public long getScavenges()
+    {
+        return _scavengeTimeStats.getCount();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return number of sessions examined by the scavenger because they were due
+     */
+    @ManagedAttribute("number of sessions examined by the scavenger")
+    public long getScavengeChecks()
+    {
+        return _scavengeChecks.getTotal();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return number of sessions expired by the scavenger
+     */
+    @ManagedAttribute("number of sessions expired by the scavenger")
+    public long getSessionsExpired()
+    {
+        return _sessionsExpired.getTotal();
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected void addSession(AbstractSession session)
     {
         if (isRunning())
+        {
             _sessions.put(session.getClusterId(),(HashedSession)session);
+            updateExpiry((HashedSession)session);
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -463,7 +617,11 @@ public class HashSessionManager extends AbstractSessionManager
     @Override
     protected boolean removeSession(String clusterId)
     {
-        return _sessions.remove(clusterId)!=null;
+        HashedSession session=_sessions.remove(clusterId);
+        if (session==null)
+            return false;
+        removeExpiry(session);
+        return true;
     }
 
     /* ------------------------------------------------------------ */
@@ -608,7 +766,17 @@ public class HashSessionManager extends AbstractSessionManager
             session = (HashedSession)newSession(created, accessed, clusterId);
         session.setRequests(requests);
         int size = in.readInt();
-        if (size>0)
+        if (size==ENCODED_ATTRIBUTES)
+        {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            in.close();
+            @SuppressWarnings("unchecked")
+            Map<String,Object> attributes = (Map<String,Object>)getSessionDataCodec().decode(bytes);
+            for (Map.Entry<String,Object> attribute : attributes.entrySet())
+                session.setAttribute(attribute.getKey(),attribute.getValue());
+        }
+        else if (size>0)
         {
             ClassLoadingObjectInputStream ois = new ClassLoadingObjectInputStream(in);
             for (int i=0; i<size;i++)
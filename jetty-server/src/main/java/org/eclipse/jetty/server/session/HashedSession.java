@@ -51,6 +51,9 @@ public class HashedSession extends AbstractSession
      * data stored in the session that is not serializable. */
     private transient boolean _saveFailed = false;
 
+    /** The bucket of the manager's expiry index this session is in, or -1 if it is not indexed. */
+    private transient long _expiryBucket = -1;
+
     /* ------------------------------------------------------------- */
     protected HashedSession(HashSessionManager hashSessionManager, HttpServletRequest request)
     {
@@ -80,6 +83,60 @@ public class HashedSession extends AbstractSession
         super.setMaxInactiveInterval(secs);
         if (getMaxInactiveInterval()>0&&(getMaxInactiveInterval()*1000L/10)<_hashSessionManager._scavengePeriodMs)
             _hashSessionManager.setScavengePeriod((secs+9)/10);
+        if (isManaged())
+            _hashSessionManager.updateExpiry(this);
+    }
+
+    /* ------------------------------------------------------------- */
+    @Override
+    protected boolean access(long time)
+    {
+        if (!super.access(time))
+            return false;
+        if (isManaged())
+            _hashSessionManager.updateExpiry(this);
+        return true;
+    }
+
+    /* ------------------------------------------------------------- */
+    /**
+     * @param bucket the new bucket of the expiry index, or -1
+     * @return the previous bucket, or -1 if the session was not indexed
+     */
+    synchronized long reindex(long bucket)
+    {
+        long old = _expiryBucket;
+        _expiryBucket = bucket;
+        return old;
+    }
+
+    /* ------------------------------------------------------------- */
+    /**
+     * Take the session out of an expiry bucket that the scavenger is processing.
+     * @param bucket the bucket
+     * @return true if the session was still in that bucket
+     */
+    synchronized boolean unindex(long bucket)
+    {
+        if (_expiryBucket != bucket)
+            return false;
+        _expiryBucket = -1;
+        return true;
+    }
+
+    /* ------------------------------------------------------------- */
+    synchronized boolean isIndexed(long bucket)
+    {
+        return _expiryBucket == bucket;
+    }
+
+    /* ------------------------------------------------------------- */
+    /**
+     * @return true if the session is held by its manager, and so should be in the expiry index
+     */
+    private synchronized boolean isManaged()
+    {
+        return _expiryBucket >= 0 || _hashSessionManager._sessions.get(getClusterId()) == this;
     }
 
     /* ------------------------------------------------------------ */
@@ -185,16 +242,29 @@ public class HashedSession extends AbstractSession
         //out.writeLong(_maxIdleMs);
         //out.writeBoolean( _newSession);
         out.writeInt(getRequests());
-        out.writeInt(getAttributes());
-        ObjectOutputStream oos = new ObjectOutputStream(out);
-        Enumeration<String> e=getAttributeNames();
-        while(e.hasMoreElements())
+        SessionDataCodec codec=_hashSessionManager.getSessionDataCodec();
+        if (codec instanceof JavaSessionDataCodec)
+        {
+            // Write the attributes in the format of earlier versions
+            out.writeInt(getAttributes());
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            Enumeration<String> e=getAttributeNames();
+            while(e.hasMoreElements())
+            {
+                String key=e.nextElement();
+                oos.writeUTF(key);
+                oos.writeObject(doGet(key));
+            }
+            oos.close();
+        }
+        else
         {
-            String key=e.nextElement();
-            oos.writeUTF(key);
-            oos.writeObject(doGet(key));
+            byte[] attributes=codec.encode(getAttributeMap());
+            out.writeInt(HashSessionManager.ENCODED_ATTRIBUTES);
+            out.writeInt(attributes.length);
+            out.write(attributes);
+            out.close();
         }
-        oos.close();
     }
 
     /* ------------------------------------------------------------ */
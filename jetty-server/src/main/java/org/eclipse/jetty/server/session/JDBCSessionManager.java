@@ -20,20 +20,26 @@
 package org.eclipse.jetty.server.session;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.http.HttpServletRequest;
@@ -42,8 +48,12 @@ import javax.servlet.http.HttpSessionListener;
 
 import org.eclipse.jetty.server.SessionIdManager;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 /**
  * JDBCSessionManager
@@ -68,6 +78,17 @@ import org.eclipse.jetty.util.log.Logger;
  * the accessTime and lastAccessTime every time the session is accessed. Rather,
  * we write it out every so often. The frequency is controlled by the saveIntervalSec
  * field.
+ *
+ * Loading a session from the database is guarded by a lock striped on the
+ * session id rather than by the manager itself, so a slow query only stalls
+ * the requests for that session. Concurrent requests for the same session id
+ * share a single in-flight load, and may be given up on after loadTimeoutMs.
+ *
+ * In write-behind mode, changed sessions are not written to the database at
+ * the end of each request. Instead they are queued, with repeated writes of
+ * the same session coalesced, and flushed in JDBC batches by a background
+ * thread every writeBehindIntervalMs, or sooner once writeBehindBatchSize
+ * sessions are pending. Pending writes are flushed synchronously on stop.
  */
 public class JDBCSessionManager extends AbstractSessionManager
 {
@@ -76,6 +97,23 @@ public class JDBCSessionManager extends AbstractSessionManager
     private ConcurrentHashMap<String, AbstractSession> _sessions;
     protected JDBCSessionIdManager _jdbcSessionIdMgr = null;
     protected long _saveIntervalSec = 60; //only persist changes to session access times every 60 secs
+    protected long _loadTimeoutMs = 0; //wait indefinitely for a session load to complete
+    private final ConcurrentMap<String, SessionLoad> _loads = new ConcurrentHashMap<String, SessionLoad>();
+    private final SampleStatistic _loadTimeStats = new SampleStatistic();
+    private final CounterStatistic _coalescedLoads = new CounterStatistic();
+    private final CounterStatistic _loadTimeouts = new CounterStatistic();
+    private final CounterStatistic _loadFailures = new CounterStatistic();
+    protected boolean _writeBehind = false;
+    protected long _writeBehindIntervalMs = 1000L;
+    protected int _writeBehindBatchSize = 100;
+    private final ConcurrentMap<SessionData, PendingWrite> _pendingWrites = new ConcurrentHashMap<SessionData, PendingWrite>();
+    private final Object _flushLock = new Object();
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+    private Timer _writer;
+    private final CounterStatistic _coalescedWrites = new CounterStatistic();
+    private final CounterStatistic _batchesWritten = new CounterStatistic();
+    private final CounterStatistic _sessionsWritten = new CounterStatistic();
+    private final CounterStatistic _writeFailures = new CounterStatistic();
 
     /**
      * SessionData
@@ -338,6 +376,8 @@ public class JDBCSessionManager extends AbstractSessionManager
         {
             try
             {
+                //written now, so any queued write is superseded
+                _pendingWrites.remove(_data);
                 updateSession(_data);
             }
             finally
@@ -388,12 +428,18 @@ public class JDBCSessionManager extends AbstractSessionManager
                     //The session attributes have changed, write to the db, ensuring
                     //http passivation/activation listeners called
                     willPassivate();
-                    updateSession(_data);
+                    if (isWriteBehind())
+                        queueWrite(_data, serializeAttributes(_data));
+                    else
+                        updateSession(_data);
                     didActivate();
                 }
                 else if ((_data._accessed - _data._lastSaved) >= (getSaveInterval() * 1000L))
                 {
-                    updateSessionAccessTime(_data);
+                    if (isWriteBehind())
+                        queueWrite(_data, null);
+                    else
+                        updateSessionAccessTime(_data);
                 }
             }
             catch (Exception e)
@@ -450,6 +496,73 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * SessionLoad
+     *
+     * A load of session data from the database that is in progress, and
+     * which other requests for the same session id may wait on.
+     */
+    private static class SessionLoad
+    {
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private volatile SessionData _data;
+        private volatile Exception _failure;
+
+        private void succeeded(SessionData data)
+        {
+            _data = data;
+            _done.countDown();
+        }
+
+        private void failed(Exception failure)
+        {
+            _failure = failure;
+            _done.countDown();
+        }
+
+        /**
+         * @param timeoutMs the time to wait for the load, or &lt;= 0 to wait indefinitely
+         * @return true if the load completed within the timeout
+         */
+        private boolean await(long timeoutMs) throws InterruptedException
+        {
+            if (timeoutMs <= 0)
+            {
+                _done.await();
+                return true;
+            }
+            return _done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        private SessionData getData() throws Exception
+        {
+            if (_failure != null)
+                throw _failure;
+            return _data;
+        }
+    }
+
+
+    /**
+     * PendingWrite
+     *
+     * A session write queued in write-behind mode. The attributes are
+     * serialized when the write is queued; the access times are read
+     * when the write is flushed.
+     */
+    private static class PendingWrite
+    {
+        private final SessionData _data;
+        private final byte[] _attributes; //null if only the access time needs writing
+
+        private PendingWrite(SessionData data, byte[] attributes)
+        {
+            _data = data;
+            _attributes = attributes;
+        }
+    }
+
+
 
 
     /**
@@ -481,6 +594,191 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * Set the maximum time in milliseconds to wait for a session to be
+     * loaded from the database.
+     *
+     * A request that finds a load of the same session already in progress
+     * waits at most this long for it, after which it loads the session
+     * itself rather than sharing the stalled load. The timeout is also applied,
+     * rounded up to whole seconds, as the query timeout of the load statement
+     * so that the thread doing the load does not hold on to a pooled connection
+     * indefinitely either.
+     *
+     * @param ms the timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setLoadTimeoutMs (long ms)
+    {
+        _loadTimeoutMs=ms;
+    }
+
+    @ManagedAttribute("time in ms to wait for a session to load from the database, 0 to wait indefinitely")
+    public long getLoadTimeoutMs ()
+    {
+        return _loadTimeoutMs;
+    }
+
+    /**
+     * @return number of sessions loaded from the database
+     */
+    @ManagedAttribute("number of sessions loaded from the database")
+    public long getLoads ()
+    {
+        return _loadTimeStats.getCount();
+    }
+
+    /**
+     * @return mean time in ms taken to load a session from the database
+     */
+    @ManagedAttribute("mean time to load a session from the database (in ms)")
+    public double getLoadTimeMean ()
+    {
+        return _loadTimeStats.getMean();
+    }
+
+    /**
+     * @return maximum time in ms taken to load a session from the database
+     */
+    @ManagedAttribute("maximum time to load a session from the database (in ms)")
+    public long getLoadTimeMax ()
+    {
+        return _loadTimeStats.getMax();
+    }
+
+    /**
+     * @return number of requests that shared a load already in progress for the same session
+     */
+    @ManagedAttribute("number of requests that shared an in-flight session load")
+    public long getCoalescedLoads ()
+    {
+        return _coalescedLoads.getTotal();
+    }
+
+    /**
+     * @return number of requests that timed out waiting for another request's session load and loaded it directly
+     */
+    @ManagedAttribute("number of requests that timed out waiting for a shared session load")
+    public long getLoadTimeouts ()
+    {
+        return _loadTimeouts.getTotal();
+    }
+
+    /**
+     * @return number of session loads that failed
+     */
+    @ManagedAttribute("number of session loads that failed")
+    public long getLoadFailures ()
+    {
+        return _loadFailures.getTotal();
+    }
+
+    /**
+     * Reset the session load statistics.
+     */
+    public void resetLoadStats ()
+    {
+        _loadTimeStats.reset();
+        _coalescedLoads.reset();
+        _loadTimeouts.reset();
+        _loadFailures.reset();
+    }
+
+
+    /**
+     * Set whether session writes at the end of a request are queued and
+     * written to the database in batches by a background thread, rather
+     * than written by the request thread.
+     *
+     * Must be set before the manager is started.
+     *
+     * @param writeBehind true to use write-behind
+     */
+    public void setWriteBehind (boolean writeBehind)
+    {
+        _writeBehind=writeBehind;
+    }
+
+    @ManagedAttribute("true if sessions are written to the database in batches by a background thread")
+    public boolean isWriteBehind ()
+    {
+        return _writeBehind;
+    }
+
+    /**
+     * @param ms the interval in milliseconds between flushes of queued session writes
+     */
+    public void setWriteBehindIntervalMs (long ms)
+    {
+        _writeBehindIntervalMs=ms;
+    }
+
+    @ManagedAttribute("interval between flushes of queued session writes (in ms)")
+    public long getWriteBehindIntervalMs ()
+    {
+        return _writeBehindIntervalMs;
+    }
+
+    /**
+     * @param size the number of queued session writes that triggers an early flush,
+     * and the maximum number of sessions written in one JDBC batch
+     */
+    public void setWriteBehindBatchSize (int size)
+    {
+        _writeBehindBatchSize=size;
+    }
+
+    @ManagedAttribute("maximum number of sessions written in one batch")
+    public int getWriteBehindBatchSize ()
+    {
+        return _writeBehindBatchSize;
+    }
+
+    /**
+     * @return number of sessions with a queued write
+     */
+    @ManagedAttribute("number of sessions with a queued write")
+    public int getPendingWrites ()
+    {
+        return _pendingWrites.size();
+    }
+
+    /**
+     * @return number of session writes that were merged into a write already queued
+     */
+    @ManagedAttribute("number of session writes merged into an already queued write")
+    public long getCoalescedWrites ()
+    {
+        return _coalescedWrites.getTotal();
+    }
+
+    /**
+     * @return number of batches written to the database
+     */
+    @ManagedAttribute("number of batches of session writes")
+    public long getBatchesWritten ()
+    {
+        return _batchesWritten.getTotal();
+    }
+
+    /**
+     * @return number of sessions written to the database in batches
+     */
+    @ManagedAttribute("number of sessions written in batches")
+    public long getSessionsWritten ()
+    {
+        return _sessionsWritten.getTotal();
+    }
+
+    /**
+     * @return number of batches that failed to be written, and were queued again
+     */
+    @ManagedAttribute("number of batches of session writes that failed")
+    public long getWriteFailures ()
+    {
+        return _writeFailures.getTotal();
+    }
+
+
 
     /**
      * A method that can be implemented in subclasses to support
@@ -520,55 +818,56 @@ public class JDBCSessionManager extends AbstractSessionManager
     {
         Session session = (Session)_sessions.get(idInCluster);
 
-        synchronized (this)
+        try
         {
-            try
+            //check if we need to reload the session -
+            //as an optimization, don't reload on every access
+            //to reduce the load on the database. This introduces a window of
+            //possibility that the node may decide that the session is local to it,
+            //when the session has actually been live on another node, and then
+            //re-migrated to this node. This should be an extremely rare occurrence,
+            //as load-balancers are generally well-behaved and consistently send
+            //sessions to the same node, changing only iff that node fails.
+            SessionData data = null;
+            long now = System.currentTimeMillis();
+            if (LOG.isDebugEnabled())
             {
-                //check if we need to reload the session -
-                //as an optimization, don't reload on every access
-                //to reduce the load on the database. This introduces a window of
-                //possibility that the node may decide that the session is local to it,
-                //when the session has actually been live on another node, and then
-                //re-migrated to this node. This should be an extremely rare occurrence,
-                //as load-balancers are generally well-behaved and consistently send
-                //sessions to the same node, changing only iff that node fails.
-                SessionData data = null;
-                long now = System.currentTimeMillis();
-                if (LOG.isDebugEnabled())
-                {
-                    if (session==null)
-                        LOG.debug("getSession("+idInCluster+"): not in session map,"+
-                                " now="+now+
-                                " lastSaved="+(session==null?0:session._data._lastSaved)+
-                                " interval="+(_saveIntervalSec * 1000L));
-                    else
-                        LOG.debug("getSession("+idInCluster+"): in session map, "+
-                                " now="+now+
-                                " lastSaved="+(session==null?0:session._data._lastSaved)+
-                                " interval="+(_saveIntervalSec * 1000L)+
-                                " lastNode="+session._data.getLastNode()+
-                                " thisNode="+getSessionIdManager().getWorkerName()+
-                                " difference="+(now - session._data._lastSaved));
-                }
-
-                if (session==null || ((now - session._data._lastSaved) >= (_saveIntervalSec * 1000L)))
-                {
-                    LOG.debug("getSession("+idInCluster+"): no session in session map or stale session. Reloading session data from db.");
-                    data = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
-                }
-                else if ((now - session._data._lastSaved) >= (_saveIntervalSec * 1000L))
-                {
-                    LOG.debug("getSession("+idInCluster+"): stale session. Reloading session data from db.");
-                    data = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
-                }
+                if (session==null)
+                    LOG.debug("getSession("+idInCluster+"): not in session map,"+
+                            " now="+now+
+                            " lastSaved="+(session==null?0:session._data._lastSaved)+
+                            " interval="+(_saveIntervalSec * 1000L));
                 else
-                {
-                    LOG.debug("getSession("+idInCluster+"): session in session map");
-                    data = session._data;
-                }
+                    LOG.debug("getSession("+idInCluster+"): in session map, "+
+                            " now="+now+
+                            " lastSaved="+(session==null?0:session._data._lastSaved)+
+                            " interval="+(_saveIntervalSec * 1000L)+
+                            " lastNode="+session._data.getLastNode()+
+                            " thisNode="+getSessionIdManager().getWorkerName()+
+                            " difference="+(now - session._data._lastSaved));
+            }
 
-                if (data != null)
+            //a session with a queued write is newer in memory than in the db
+            if (session==null || ((now - session._data._lastSaved) >= (_saveIntervalSec * 1000L) && !_pendingWrites.containsKey(session._data)))
+            {
+                LOG.debug("getSession("+idInCluster+"): no session in session map or stale session. Reloading session data from db.");
+                data = loadSessionShared(idInCluster).getData();
+            }
+            else
+            {
+                LOG.debug("getSession("+idInCluster+"): session in session map");
+                data = session._data;
+            }
+
+            if (data != null)
+            {
+                synchronized (lockFor(idInCluster))
                 {
+                    //another request sharing the same load may already have made the session
+                    Session current = (Session)_sessions.get(idInCluster);
+                    if (current != null && current != session && current._data == data)
+                        return current;
+
                     if (!data.getLastNode().equals(getSessionIdManager().getWorkerName()) || session==null)
                     {
                         //if the session has no expiry, or it is not already expired
@@ -587,7 +886,7 @@ public class JDBCSessionManager extends AbstractSessionManager
                         else
                         {
                             LOG.debug("getSession ({}): Session has expired", idInCluster);
-                            
+
                         }
 
                     }
@@ -595,23 +894,81 @@ public class JDBCSessionManager extends AbstractSessionManager
                        LOG.debug("getSession({}): Session not stale {}", idInCluster,session._data);
                     //session in db shares same id, but is not for this context
                 }
-                else
-                {
-                    //No session in db with matching id and context path.
-                    session=null;
-                    LOG.debug("getSession({}): No session in database matching id={}",idInCluster,idInCluster);
-                }
-
-                return session;
             }
-            catch (Exception e)
+            else
             {
-                LOG.warn("Unable to load session from database", e);
-                return null;
+                //No session in db with matching id and context path.
+                session=null;
+                LOG.debug("getSession({}): No session in database matching id={}",idInCluster,idInCluster);
             }
+
+            return session;
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to load session from database", e);
+            return null;
         }
     }
 
+
+    /**
+     * Load the session data for an id, or wait for a load of the same id
+     * that is already in progress.
+     *
+     * If waiting for another request's load times out, the session data is
+     * loaded directly instead, without sharing that load with other requests.
+     *
+     * @param idInCluster the session id
+     * @return the completed load
+     * @throws Exception if interrupted while waiting
+     */
+    private SessionLoad loadSessionShared (String idInCluster)
+    throws Exception
+    {
+        SessionLoad load = new SessionLoad();
+        SessionLoad inflight = _loads.putIfAbsent(idInCluster, load);
+        if (inflight != null)
+        {
+            _coalescedLoads.increment();
+            if (inflight.await(_loadTimeoutMs))
+                return inflight;
+            _loadTimeouts.increment();
+            LOG.debug("Timed out after {}ms waiting for shared load of session id={}, loading directly", _loadTimeoutMs, idInCluster);
+            load(idInCluster, load);
+            return load;
+        }
+
+        try
+        {
+            load(idInCluster, load);
+        }
+        finally
+        {
+            _loads.remove(idInCluster, load);
+        }
+        return load;
+    }
+
+    private void load (String idInCluster, SessionLoad load)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            load.succeeded(loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context)));
+        }
+        catch (Exception e)
+        {
+            _loadFailures.increment();
+            load.failed(e);
+        }
+        finally
+        {
+            _loadTimeStats.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+
     /**
      * Get the number of sessions.
      *
@@ -620,12 +977,7 @@ public class JDBCSessionManager extends AbstractSessionManager
     @Override
     public int getSessions()
     {
-        int size = 0;
-        synchronized (this)
-        {
-            size = _sessions.size();
-        }
-        return size;
+        return _sessions.size();
     }
 
 
@@ -645,6 +997,19 @@ public class JDBCSessionManager extends AbstractSessionManager
         _sessions = new ConcurrentHashMap<String, AbstractSession>();
 
         super.doStart();
+
+        if (_writeBehind)
+        {
+            _writer = new Timer("JDBCSessionWriter", true);
+            _writer.schedule(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    flushWrites();
+                }
+            }, _writeBehindIntervalMs, _writeBehindIntervalMs);
+        }
     }
 
 
@@ -656,6 +1021,25 @@ public class JDBCSessionManager extends AbstractSessionManager
     @Override
     public void doStop() throws Exception
     {
+        if (_writer != null)
+        {
+            _writer.cancel();
+            _writer = null;
+        }
+        //don't lose writes still queued: writes that fail are queued again, so retry
+        //them once, then report those that could not be written
+        flushWrites();
+        if (!_pendingWrites.isEmpty())
+            flushWrites();
+        if (!_pendingWrites.isEmpty())
+        {
+            List<String> ids = new ArrayList<String>();
+            for (SessionData data : _pendingWrites.keySet())
+                ids.add(data.getId());
+            LOG.warn("Could not write sessions "+ids+" before stopping");
+            _pendingWrites.clear();
+        }
+
         _sessions.clear();
         _sessions = null;
 
@@ -681,22 +1065,30 @@ public class JDBCSessionManager extends AbstractSessionManager
     public void renewSessionId (String oldClusterId, String oldNodeId, String newClusterId, String newNodeId)
     {
         Session session = null;
-        synchronized (this)
+        //take both locks in a consistent order
+        Object oldLock = lockFor(oldClusterId);
+        Object newLock = lockFor(newClusterId);
+        Object first = System.identityHashCode(oldLock) <= System.identityHashCode(newLock) ? oldLock : newLock;
+        Object second = first == oldLock ? newLock : oldLock;
+        synchronized (first)
         {
-            try
+            synchronized (second)
             {
-                session = (Session)_sessions.remove(oldClusterId);
-                if (session != null)
+                try
                 {
-                    session.setClusterId(newClusterId); //update ids
-                    session.setNodeId(newNodeId);
-                    _sessions.put(newClusterId, session); //put it into list in memory
-                    session.save(); //update database
+                    session = (Session)_sessions.remove(oldClusterId);
+                    if (session != null)
+                    {
+                        session.setClusterId(newClusterId); //update ids
+                        session.setNodeId(newNodeId);
+                        _sessions.put(newClusterId, session); //put it into list in memory
+                        session.save(); //update database
+                    }
+                }
+                catch (Exception e)
+                {
+                    LOG.warn(e);
                 }
-            }
-            catch (Exception e)
-            {
-                LOG.warn(e);
             }
         }
     }
@@ -710,11 +1102,7 @@ public class JDBCSessionManager extends AbstractSessionManager
      */
     protected void invalidateSession (String idInCluster)
     {
-        Session session = null;
-        synchronized (this)
-        {
-            session = (Session)_sessions.get(idInCluster);
-        }
+        Session session = (Session)_sessions.get(idInCluster);
 
         if (session != null)
         {
@@ -731,13 +1119,16 @@ public class JDBCSessionManager extends AbstractSessionManager
     @Override
     protected boolean removeSession(String idInCluster)
     {
-        synchronized (this)
+        synchronized (lockFor(idInCluster))
         {
             Session session = (Session)_sessions.remove(idInCluster);
             try
             {
                 if (session != null)
+                {
+                    _pendingWrites.remove(session._data);
                     deleteSession(session._data);
+                }
             }
             catch (Exception e)
             {
@@ -759,7 +1150,7 @@ public class JDBCSessionManager extends AbstractSessionManager
         if (session==null)
             return;
 
-        synchronized (this)
+        synchronized (lockFor(session.getClusterId()))
         {
             _sessions.put(session.getClusterId(), session);
         }
@@ -802,7 +1193,7 @@ public class JDBCSessionManager extends AbstractSessionManager
         // Remove session from context and global maps
         boolean removed = false;
 
-        synchronized (this)
+        synchronized (lockFor(session.getClusterId()))
         {
             //take this session out of the map of sessions for this context
             if (getSession(session.getClusterId()) != null)
@@ -906,6 +1297,8 @@ public class JDBCSessionManager extends AbstractSessionManager
                 {
                     connection = getConnection();
                     statement = _jdbcSessionIdMgr._dbAdaptor.getLoadStatement(connection, id, canonicalContextPath, vhost);
+                    if (_loadTimeoutMs > 0)
+                        statement.setQueryTimeout((int)((_loadTimeoutMs + 999) / 1000));
                     ResultSet result = statement.executeQuery();
                     if (result.next())
                     {
@@ -922,10 +1315,9 @@ public class JDBCSessionManager extends AbstractSessionManager
                         data.setVirtualHost(result.getString("virtualHost"));
 
                         InputStream is = ((JDBCSessionIdManager)getSessionIdManager())._dbAdaptor.getBlobInputStream(result, "map");
-                        ClassLoadingObjectInputStream ois = new ClassLoadingObjectInputStream (is);
-                        Object o = ois.readObject();
-                        data.setAttributeMap((Map<String,Object>)o);
-                        ois.close();
+                        byte[] bytes = IO.readBytes(is);
+                        is.close();
+                        data.setAttributeMap((Map<String,Object>)getSessionDataCodec().decode(bytes));
 
                         if (LOG.isDebugEnabled())
                             LOG.debug("LOADED session "+data);
@@ -992,13 +1384,8 @@ public class JDBCSessionManager extends AbstractSessionManager
             statement.setLong(10, now); //last saved time
             statement.setLong(11, data.getExpiryTime());
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(data.getAttributeMap());
-            byte[] bytes = baos.toByteArray();
-
-            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-            statement.setBinaryStream(12, bais, bytes.length);//attribute map as blob
+            byte[] bytes = serializeAttributes(data);
+            statement.setBinaryStream(12, new ByteArrayInputStream(bytes), bytes.length);//attribute map as blob
 
             statement.executeUpdate();
             data.setRowId(rowId); //set it on the in-memory data as well as in db
@@ -1035,21 +1422,7 @@ public class JDBCSessionManager extends AbstractSessionManager
             long now = System.currentTimeMillis();
             connection.setAutoCommit(true);
             statement = connection.prepareStatement(_jdbcSessionIdMgr._updateSession);
-            statement.setString(1, data.getId());
-            statement.setString(2, getSessionIdManager().getWorkerName());//my node id
-            statement.setLong(3, data.getAccessed());//accessTime
-            statement.setLong(4, data.getLastAccessed()); //lastAccessTime
-            statement.setLong(5, now); //last saved time
-            statement.setLong(6, data.getExpiryTime());
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(data.getAttributeMap());
-            byte[] bytes = baos.toByteArray();
-            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-
-            statement.setBinaryStream(7, bais, bytes.length);//attribute map as blob
-            statement.setString(8, data.getRowId()); //rowId
+            setUpdateParameters(statement, data, serializeAttributes(data), now);
             statement.executeUpdate();
 
             data.setLastSaved(now);
@@ -1110,12 +1483,7 @@ public class JDBCSessionManager extends AbstractSessionManager
             long now = System.currentTimeMillis();
             connection.setAutoCommit(true);
             statement = connection.prepareStatement(_jdbcSessionIdMgr._updateSessionAccessTime);
-            statement.setString(1, getSessionIdManager().getWorkerName());
-            statement.setLong(2, data.getAccessed());
-            statement.setLong(3, data.getLastAccessed());
-            statement.setLong(4, now);
-            statement.setLong(5, data.getExpiryTime());
-            statement.setString(6, data.getRowId());
+            setAccessTimeParameters(statement, data, now);
             statement.executeUpdate();
             data.setLastSaved(now);
             statement.close();
@@ -1132,6 +1500,218 @@ public class JDBCSessionManager extends AbstractSessionManager
 
 
 
+    /**
+     * Queue a write of the session for the background writer. A write
+     * already queued for the same session is merged with this one.
+     *
+     * @param data the session to write
+     * @param attributes the serialized attributes, or null if only the access time has changed
+     */
+    protected void queueWrite (SessionData data, byte[] attributes)
+    {
+        PendingWrite write = new PendingWrite(data, attributes);
+        while (true)
+        {
+            PendingWrite queued = _pendingWrites.putIfAbsent(data, write);
+            if (queued == null)
+                break;
+
+            //the access time is read at flush time, so a queued write already covers it
+            if (attributes == null || _pendingWrites.replace(data, queued, write))
+            {
+                _coalescedWrites.increment();
+                return;
+            }
+        }
+
+        if (_pendingWrites.size() >= _writeBehindBatchSize && _flushScheduled.compareAndSet(false, true))
+        {
+            Timer writer = _writer;
+            if (writer == null)
+            {
+                _flushScheduled.set(false);
+                return;
+            }
+            try
+            {
+                writer.schedule(new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        _flushScheduled.set(false);
+                        flushWrites();
+                    }
+                }, 0);
+            }
+            catch (IllegalStateException e)
+            {
+                //writer cancelled, stopping will flush
+                _flushScheduled.set(false);
+            }
+        }
+    }
+
+
+    /**
+     * Write all queued session writes to the database, in batches of
+     * at most writeBehindBatchSize sessions.
+     */
+    protected void flushWrites ()
+    {
+        synchronized (_flushLock)
+        {
+            List<PendingWrite> batch = new ArrayList<PendingWrite>();
+            Iterator<Map.Entry<SessionData, PendingWrite>> itor = _pendingWrites.entrySet().iterator();
+            while (itor.hasNext())
+            {
+                Map.Entry<SessionData, PendingWrite> entry = itor.next();
+                if (_pendingWrites.remove(entry.getKey(), entry.getValue()))
+                {
+                    batch.add(entry.getValue());
+                    if (batch.size() >= _writeBehindBatchSize)
+                    {
+                        writeBatch(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty())
+                writeBatch(batch);
+        }
+    }
+
+
+    /**
+     * Queue again a write that failed. If a write of the attributes has been
+     * queued for the session since, it supersedes the failed write; if only a
+     * write of the access time has been queued, it is replaced by the failed
+     * write so that its attributes are not lost. Either way the latest access
+     * time is written, as it is read when the write is flushed.
+     *
+     * @param write the write that failed
+     */
+    private void requeueWrite (PendingWrite write)
+    {
+        while (true)
+        {
+            PendingWrite queued = _pendingWrites.putIfAbsent(write._data, write);
+            if (queued == null || queued._attributes != null || write._attributes == null)
+                return;
+            if (_pendingWrites.replace(write._data, queued, write))
+                return;
+        }
+    }
+
+
+    /**
+     * Write a batch of queued session writes in a single transaction.
+     * If the batch fails, the writes are queued again, merged with any
+     * write queued for the same session in the meantime.
+     *
+     * @param batch the writes
+     */
+    private void writeBatch (List<PendingWrite> batch)
+    {
+        Connection connection = null;
+        try
+        {
+            long now = System.currentTimeMillis();
+            connection = getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement updates = null;
+            PreparedStatement accessTimes = null;
+            for (PendingWrite write : batch)
+            {
+                if (write._attributes != null)
+                {
+                    if (updates == null)
+                        updates = connection.prepareStatement(_jdbcSessionIdMgr._updateSession);
+                    setUpdateParameters(updates, write._data, write._attributes, now);
+                    updates.addBatch();
+                }
+                else
+                {
+                    if (accessTimes == null)
+                        accessTimes = connection.prepareStatement(_jdbcSessionIdMgr._updateSessionAccessTime);
+                    setAccessTimeParameters(accessTimes, write._data, now);
+                    accessTimes.addBatch();
+                }
+            }
+            if (updates != null)
+                updates.executeBatch();
+            if (accessTimes != null)
+                accessTimes.executeBatch();
+            connection.commit();
+
+            for (PendingWrite write : batch)
+                write._data.setLastSaved(now);
+            _batchesWritten.increment();
+            _sessionsWritten.add(batch.size());
+            if (LOG.isDebugEnabled())
+                LOG.debug("Wrote batch of "+batch.size()+" sessions");
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Problem writing batch of "+batch.size()+" sessions", e);
+            _writeFailures.increment();
+            if (connection != null)
+            {
+                try { connection.rollback(); }
+                catch (Exception x) { LOG.ignore(x); }
+            }
+            for (PendingWrite write : batch)
+                requeueWrite(write);
+        }
+        finally
+        {
+            if (connection!=null)
+            {
+                try { connection.close(); }
+                catch (Exception e) { LOG.warn(e); }
+            }
+        }
+    }
+
+
+    private void setUpdateParameters (PreparedStatement statement, SessionData data, byte[] attributes, long now)
+    throws SQLException
+    {
+        statement.setString(1, data.getId());
+        statement.setString(2, getSessionIdManager().getWorkerName());//my node id
+        statement.setLong(3, data.getAccessed());//accessTime
+        statement.setLong(4, data.getLastAccessed()); //lastAccessTime
+        statement.setLong(5, now); //last saved time
+        statement.setLong(6, data.getExpiryTime());
+        statement.setBinaryStream(7, new ByteArrayInputStream(attributes), attributes.length);//attribute map as blob
+        statement.setString(8, data.getRowId()); //rowId
+    }
+
+
+    private void setAccessTimeParameters (PreparedStatement statement, SessionData data, long now)
+    throws SQLException
+    {
+        statement.setString(1, getSessionIdManager().getWorkerName());
+        statement.setLong(2, data.getAccessed());
+        statement.setLong(3, data.getLastAccessed());
+        statement.setLong(4, now);
+        statement.setLong(5, data.getExpiryTime());
+        statement.setString(6, data.getRowId());
+    }
+
+
+    /**
+     * @param data the session
+     * @return the attribute map of the session, encoded by the session data codec
+     * @throws IOException
+     */
+    protected byte[] serializeAttributes (SessionData data)
+    throws IOException
+    {
+        return getSessionDataCodec().encode(data.getAttributeMap());
+    }
+
+
     /**
      * Delete a session from the database. Should only be called
      * when the session has been invalidated.
@@ -0,0 +1,92 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/* ------------------------------------------------------------ */
+/**
+ * JavaSessionDataCodec
+ *
+ * The default {@link SessionDataCodec}, which writes values with plain Java
+ * serialization, in the same format as earlier versions, so that nodes of
+ * different versions can share persisted sessions.
+ *
+ * @see CompactSessionDataCodec
+ */
+public class JavaSessionDataCodec implements SessionDataCodec
+{
+    /* ------------------------------------------------------------ */
+    @Override
+    public byte[] encode(Object value) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(value);
+        out.close();
+        return bout.toByteArray();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Object decode(byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+            return in.readObject();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Resolves classes with the thread context classloader, which is that of the
+     * webapp when sessions are loaded.
+     */
+    static class ClassLoadingObjectInputStream extends ObjectInputStream
+    {
+        public ClassLoadingObjectInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        public Class<?> resolveClass(ObjectStreamClass cl) throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return Class.forName(cl.getName(),false,Thread.currentThread().getContextClassLoader());
+            }
+            catch (ClassNotFoundException e)
+            {
+                return super.resolveClass(cl);
+            }
+        }
+    }
+}
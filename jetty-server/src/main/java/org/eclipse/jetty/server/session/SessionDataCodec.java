@@ -0,0 +1,56 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.IOException;
+
+/* ------------------------------------------------------------ */
+/**
+ * SessionDataCodec
+ *
+ * Converts session attribute values, or whole attribute maps, to and from
+ * the bytes that a session manager persists: the passivation files of the
+ * {@link HashSessionManager}, the attribute blob of the {@link JDBCSessionManager}
+ * and the values of the Mongo session manager that have no native form.
+ * <p>
+ * Decoding is done with the context classloader of the webapp set as the
+ * thread context classloader.
+ *
+ * @see CompactSessionDataCodec
+ * @see AbstractSessionManager#setSessionDataCodec(SessionDataCodec)
+ */
+public interface SessionDataCodec
+{
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value the value to encode, may be null
+     * @return the encoded value
+     * @throws IOException if the value cannot be encoded
+     */
+    public byte[] encode(Object value) throws IOException;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param bytes bytes previously returned by {@link #encode(Object)}
+     * @return the decoded value
+     * @throws IOException if the bytes cannot be decoded
+     * @throws ClassNotFoundException if the class of an encoded object cannot be loaded
+     */
+    public Object decode(byte[] bytes) throws IOException, ClassNotFoundException;
+}
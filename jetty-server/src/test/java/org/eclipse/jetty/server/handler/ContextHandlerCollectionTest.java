@@ -29,6 +29,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
@@ -136,6 +137,64 @@ public class ContextHandlerCollectionTest
         }
     }
 
+    @Test
+    public void testContextRouting() throws Exception
+    {
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.setConnectors(new Connector[] { connector });
+
+        ContextHandlerCollection c = new ContextHandlerCollection();
+        IsHandledHandler root = addContext(c,"/",null);
+        IsHandledHandler foo = addContext(c,"/foo",null);
+        IsHandledHandler fooCase = addContext(c,"/Foo",null);
+        IsHandledHandler fooBarHost = addContext(c,"/foo/bar",new String[]{"www.example.com"});
+        IsHandledHandler fooBarDomain = addContext(c,"/foo/bar",new String[]{"*.example.com"});
+        IsHandledHandler fooBar = addContext(c,"/foo/bar",null);
+        server.setHandler(c);
+
+        try
+        {
+            server.start();
+            checkRoute(connector,"/foo/bar/x","www.example.com",fooBarHost,c);
+            checkRoute(connector,"/foo/bar/x","WWW.Example.COM",fooBarHost,c);
+            checkRoute(connector,"/foo/bar/x","other.example.com",fooBarDomain,c);
+            checkRoute(connector,"/foo/bar/x","other.com",fooBar,c);
+            checkRoute(connector,"/foo/bar","other.com",fooBar,c);
+            checkRoute(connector,"/foo/baz","www.example.com",foo,c);
+            checkRoute(connector,"/foo/","other.com",foo,c);
+            checkRoute(connector,"/Foo/x","other.com",fooCase,c);
+            checkRoute(connector,"/foobar","other.com",root,c);
+            checkRoute(connector,"/","www.example.com",root,c);
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    private IsHandledHandler addContext(ContextHandlerCollection collection, String contextPath, String[] vhosts)
+    {
+        ContextHandler context = new ContextHandler(contextPath);
+        context.setAllowNullPathInfo(true);
+        context.setVirtualHosts(vhosts);
+        IsHandledHandler handler = new IsHandledHandler();
+        context.setHandler(handler);
+        collection.addHandler(context);
+        return handler;
+    }
+
+    private void checkRoute(LocalConnector connector, String target, String host, IsHandledHandler expected, ContextHandlerCollection collection) throws Exception
+    {
+        connector.getResponses("GET "+target+" HTTP/1.0\n" + "Host: "+host+"\n\n");
+        for (Handler h : collection.getHandlers())
+        {
+            IsHandledHandler handler = (IsHandledHandler)((ContextHandler)h).getHandler();
+            assertEquals(target+" "+host+" "+h,handler==expected,handler.isHandled());
+            handler.reset();
+        }
+    }
+
     private void checkWildcardHost(boolean succeed, Server server, String[] contextHosts, String[] requestHosts) throws Exception
     {
         LocalConnector connector = (LocalConnector)server.getConnectors()[0];
@@ -0,0 +1,158 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CompactSessionDataCodecTest
+{
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        CompactSessionDataCodec codec = new CompactSessionDataCodec();
+
+        Map<String,Object> nested = new HashMap<String,Object>();
+        nested.put("n",7);
+        List<String> list = new ArrayList<String>(Arrays.asList("a","b"));
+
+        Map<String,Object> attributes = new HashMap<String,Object>();
+        attributes.put("string","value é中");
+        attributes.put("int",42);
+        attributes.put("long",Long.MAX_VALUE);
+        attributes.put("boolean",Boolean.TRUE);
+        attributes.put("double",1.5D);
+        attributes.put("float",2.5F);
+        attributes.put("short",(short)3);
+        attributes.put("byte",(byte)4);
+        attributes.put("char",'c');
+        attributes.put("date",new Date(123456789L));
+        attributes.put("map",nested);
+        attributes.put("list",list);
+        attributes.put("null",null);
+
+        byte[] bytes = codec.encode(attributes);
+        @SuppressWarnings("unchecked")
+        Map<String,Object> decoded = (Map<String,Object>)codec.decode(bytes);
+        assertEquals(attributes,decoded);
+
+        byte[] data = new byte[]{1,2,3};
+        byte[] encoded = codec.encode(data);
+        assertArrayEquals(data,(byte[])codec.decode(encoded));
+
+        assertEquals(2,codec.getEncodes());
+        assertEquals(2,codec.getDecodes());
+        assertEquals(bytes.length+encoded.length,codec.getEncodedBytes());
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception
+    {
+        CompactSessionDataCodec codec = new CompactSessionDataCodec();
+        Map<String,Object> attributes = new HashMap<String,Object>();
+        for (int i=0;i<10;i++)
+            attributes.put("attribute"+i,i);
+
+        assertTrue(codec.encode(attributes).length < serialize(attributes).length);
+    }
+
+    @Test
+    public void testCompression() throws Exception
+    {
+        CompactSessionDataCodec codec = new CompactSessionDataCodec();
+        codec.setCompressionThreshold(1024);
+
+        StringBuilder large = new StringBuilder();
+        for (int i=0;i<1000;i++)
+            large.append("repetitive ");
+
+        byte[] small = codec.encode("small");
+        assertEquals(0,codec.getCompressedEncodes());
+        assertEquals("small",codec.decode(small));
+
+        byte[] bytes = codec.encode(large.toString());
+        assertEquals(1,codec.getCompressedEncodes());
+        assertTrue(bytes.length < large.length()/10);
+        assertTrue(codec.getEncodedBytes() < codec.getUncompressedBytes());
+        assertEquals(large.toString(),codec.decode(bytes));
+    }
+
+    @Test
+    public void testCyclicNestedMap() throws Exception
+    {
+        CompactSessionDataCodec codec = new CompactSessionDataCodec();
+        Map<String,Object> cyclic = new HashMap<String,Object>();
+        cyclic.put("self",cyclic);
+        Map<String,Object> attributes = new HashMap<String,Object>();
+        attributes.put("cyclic",cyclic);
+
+        @SuppressWarnings("unchecked")
+        Map<String,Object> decoded = (Map<String,Object>)((Map<String,Object>)codec.decode(codec.encode(attributes))).get("cyclic");
+        assertSame(decoded,decoded.get("self"));
+    }
+
+    @Test
+    public void testSerializedValuesShareOneStream() throws Exception
+    {
+        CompactSessionDataCodec codec = new CompactSessionDataCodec();
+        List<String> list = new ArrayList<String>(Arrays.asList("a","b"));
+        Map<String,Object> attributes = new HashMap<String,Object>();
+        attributes.put("one",list);
+        attributes.put("two",list);
+        attributes.put("three",3);
+
+        @SuppressWarnings("unchecked")
+        Map<String,Object> decoded = (Map<String,Object>)codec.decode(codec.encode(attributes));
+        assertEquals(attributes,decoded);
+        assertSame(decoded.get("one"),decoded.get("two"));
+    }
+
+    @Test
+    public void testDecodesJavaSerialization() throws Exception
+    {
+        CompactSessionDataCodec codec = new CompactSessionDataCodec();
+        Map<String,Object> attributes = new HashMap<String,Object>();
+        attributes.put("a","b");
+        attributes.put("c",new Date(1L));
+
+        assertEquals(attributes,codec.decode(serialize(attributes)));
+    }
+
+    private byte[] serialize(Object value) throws Exception
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bout);
+        oos.writeObject(value);
+        oos.close();
+        return bout.toByteArray();
+    }
+}
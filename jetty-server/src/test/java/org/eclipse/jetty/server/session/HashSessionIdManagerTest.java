@@ -0,0 +1,147 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Request;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashSessionIdManagerTest
+{
+    @Test
+    public void testSessionsSharingId() throws Exception
+    {
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        HashSessionManager managerA = new HashSessionManager();
+        managerA.setSessionIdManager(idManager);
+        HashSessionManager managerB = new HashSessionManager();
+        managerB.setSessionIdManager(idManager);
+
+        AbstractSession sessionA = managerA.newSession(0L, 0L, "shared");
+        AbstractSession sessionB = managerB.newSession(0L, 0L, "shared");
+
+        idManager.addSession(sessionA);
+        idManager.addSession(sessionB);
+        idManager.addSession(sessionB);
+        Assert.assertTrue(idManager.idInUse("shared"));
+        Assert.assertEquals(2, idManager.getSession("shared").size());
+
+        idManager.removeSession(sessionA);
+        Assert.assertEquals(1, idManager.getSession("shared").size());
+        Assert.assertTrue(idManager.getSession("shared").contains(sessionB));
+
+        idManager.removeSession(sessionB);
+        Assert.assertFalse(idManager.idInUse("shared"));
+        Assert.assertTrue(idManager.getSession("shared").isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAddAndRemove() throws Exception
+    {
+        final HashSessionIdManager idManager = new HashSessionIdManager();
+        final int threads = 8;
+        final int iterations = 1000;
+        final HashSessionManager[] managers = new HashSessionManager[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            managers[i] = new HashSessionManager();
+            managers[i].setSessionIdManager(idManager);
+        }
+
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            final HashSessionManager manager = managers[t];
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < iterations; i++)
+                        {
+                            AbstractSession session = manager.newSession(0L, 0L, "id" + (i % 10));
+                            idManager.addSession(session);
+                            idManager.removeSession(session);
+                        }
+                    }
+                    finally
+                    {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue(idManager.getSessions().isEmpty());
+    }
+
+    @Test
+    public void testRenewMergesSessionsAddedWithTheNewId() throws Exception
+    {
+        HashSessionIdManager idManager = new HashSessionIdManager()
+        {
+            @Override
+            public String newSessionId(long seedTerm)
+            {
+                return "renewed";
+            }
+        };
+        HashSessionManager managerA = new HashSessionManager();
+        managerA.setSessionIdManager(idManager);
+        HashSessionManager managerB = new HashSessionManager();
+        managerB.setSessionIdManager(idManager);
+
+        AbstractSession sessionA = managerA.newSession(0L, 0L, "old");
+        AbstractSession sessionB = managerB.newSession(0L, 0L, "renewed");
+        idManager.addSession(sessionA);
+        // added with the new id while the old id is renewed
+        idManager.addSession(sessionB);
+
+        idManager.renewSessionId("old", "old", new Request(null, null));
+        Assert.assertFalse(idManager.idInUse("old"));
+        Assert.assertEquals(2, idManager.getSession("renewed").size());
+        Assert.assertTrue(idManager.getSession("renewed").contains(sessionA));
+        Assert.assertTrue(idManager.getSession("renewed").contains(sessionB));
+    }
+
+    @Test
+    public void testNewSessionIdsAreUnique() throws Exception
+    {
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        idManager.start();
+        try
+        {
+            Set<String> ids = new HashSet<String>();
+            for (int i = 0; i < 1000; i++)
+                Assert.assertTrue(ids.add(idManager.newSessionId(i)));
+        }
+        finally
+        {
+            idManager.stop();
+        }
+    }
+}
@@ -18,11 +18,15 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 
 import junit.framework.Assert;
 
+import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.SessionManager;
+import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.StdErrLog;
@@ -90,4 +94,85 @@ public class HashSessionManagerTest
         Assert.assertTrue("File shouldn't exist!", !new File(testDir,"validFile.session").exists());
 
     }
+
+    @Test
+    public void testScavengeOnlyChecksDueSessions() throws Exception
+    {
+        final HashSessionManager manager = new HashSessionManager();
+        Server server = new Server();
+        ContextHandler context = new ContextHandler("/");
+        context.setHandler(new SessionHandler(manager));
+        server.setHandler(context);
+        server.start();
+        try
+        {
+            long now = System.currentTimeMillis();
+            for (int i=0; i<100; i++)
+            {
+                boolean expired = i%10==0;
+                AbstractSession session = manager.newSession(now-60000, expired?now-60000:now, "session"+i);
+                session.setMaxInactiveInterval(expired?10:3600);
+                manager.addSession(session,true);
+            }
+            Assert.assertEquals(100, manager.getSessions());
+
+            manager.scavenge();
+
+            Assert.assertEquals(90, manager.getSessions());
+            Assert.assertEquals(10, manager.getSessionsExpired());
+            Assert.assertEquals(10, manager.getScavengeChecks());
+            Assert.assertEquals(1, manager.getScavenges());
+
+            // Accessing a session moves it out of the way of the next scavenge
+            AbstractSession session = manager.getSession("session1");
+            session.access(System.currentTimeMillis());
+            session.complete();
+            manager.scavenge();
+            Assert.assertEquals(90, manager.getSessions());
+            Assert.assertEquals(10, manager.getScavengeChecks());
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSaveAndRestoreSession() throws Exception
+    {
+        final HashSessionManager manager = new HashSessionManager();
+        manager.setSessionIdManager(new HashSessionIdManager());
+        HashedSession session = (HashedSession)manager.newSession(1000L, 2000L, "saved");
+        session.setAttribute("string", "value");
+        session.setAttribute("number", 42);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        session.save(out);
+
+        HashedSession restored = manager.restoreSession(new ByteArrayInputStream(out.toByteArray()), null);
+        Assert.assertEquals("saved", restored.getClusterId());
+        Assert.assertEquals(2000L, restored.getAccessed());
+        Assert.assertEquals("value", restored.getAttribute("string"));
+        Assert.assertEquals(42, restored.getAttribute("number"));
+    }
+
+    @Test
+    public void testSaveAndRestoreCompactSession() throws Exception
+    {
+        final HashSessionManager manager = new HashSessionManager();
+        Assert.assertTrue(manager.getSessionDataCodec() instanceof JavaSessionDataCodec);
+        manager.setSessionDataCodec(new CompactSessionDataCodec());
+        manager.setSessionIdManager(new HashSessionIdManager());
+        HashedSession session = (HashedSession)manager.newSession(1000L, 2000L, "compact");
+        session.setAttribute("string", "value");
+        session.setAttribute("number", 42);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        session.save(out);
+
+        HashedSession restored = manager.restoreSession(new ByteArrayInputStream(out.toByteArray()), null);
+        Assert.assertEquals("compact", restored.getClusterId());
+        Assert.assertEquals("value", restored.getAttribute("string"));
+        Assert.assertEquals(42, restored.getAttribute("number"));
+    }
 }
@@ -116,6 +116,72 @@ public class FilterMapping implements Dumpable
         return false;
     }
 
+    /* ------------------------------------------------------------ */
+    /** Check if the path specs of this filter apply to the paths matched by a servlet path spec.
+     * @param servletPathSpec The servlet path spec that was matched
+     * @return {@link Boolean#TRUE} if this filter applies to every path matched by the servlet path spec,
+     * {@link Boolean#FALSE} if it applies to none of them, or null if it depends on the path.
+     */
+    Boolean appliesToServletMapping(String servletPathSpec)
+    {
+        Boolean applies=Boolean.FALSE;
+        for (int i=0;i<_pathSpecs.length;i++)
+        {
+            if (_pathSpecs[i]==null)
+                continue;
+            Boolean a=matchesServletMapping(_pathSpecs[i],servletPathSpec);
+            if (a==Boolean.TRUE)
+                return a;
+            if (a==null)
+                applies=null;
+        }
+        return applies;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static Boolean matchesServletMapping(String pathSpec, String servletPathSpec)
+    {
+        if (pathSpec.length()==0 || servletPathSpec==null)
+            return null;
+
+        // The paths matched by an exact servlet mapping are known
+        if (servletPathSpec.length()==0)
+            return PathMap.match(pathSpec,"/",true);
+        if (servletPathSpec.charAt(0)=='/' && !servletPathSpec.endsWith("/*") && servletPathSpec.length()>1)
+            return PathMap.match(pathSpec,servletPathSpec,true);
+
+        // "/*" applies to every path
+        if ("/*".equals(pathSpec))
+            return Boolean.TRUE;
+
+        if (servletPathSpec.endsWith("/*"))
+        {
+            String servletPrefix=servletPathSpec.substring(0,servletPathSpec.length()-2);
+            if (pathSpec.startsWith("*."))
+                return null;
+            if (pathSpec.endsWith("/*"))
+            {
+                String prefix=pathSpec.substring(0,pathSpec.length()-2);
+                if (prefix.equals(servletPrefix) || servletPrefix.startsWith(prefix+"/"))
+                    return Boolean.TRUE;
+                return prefix.startsWith(servletPrefix+"/")?null:Boolean.FALSE;
+            }
+            return (pathSpec.equals(servletPrefix) || pathSpec.startsWith(servletPrefix+"/"))?null:Boolean.FALSE;
+        }
+
+        if (servletPathSpec.startsWith("*.") && pathSpec.startsWith("*."))
+        {
+            String suffix=servletPathSpec.substring(1);
+            String filterSuffix=pathSpec.substring(1);
+            if (suffix.endsWith(filterSuffix))
+                return Boolean.TRUE;
+            return filterSuffix.endsWith(suffix)?null:Boolean.FALSE;
+        }
+
+        // default servlet or a mix of suffix and path specs
+        return null;
+    }
+
     /* ------------------------------------------------------------ */
     /** Check if this filter applies to a particular dispatch type.
      * @param type The type of request:
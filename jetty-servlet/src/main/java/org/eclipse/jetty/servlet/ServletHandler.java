@@ -31,6 +31,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
@@ -48,6 +49,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.http.PathTrie;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.io.RuntimeIOException;
 import org.eclipse.jetty.security.IdentityService;
@@ -69,6 +71,7 @@ import org.eclipse.jetty.util.MultiMap;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -114,10 +117,16 @@ public class ServletHandler extends ScopedHandler
 
     private final Map<String,ServletHolder> _servletNameMap=new HashMap<>();
     private PathMap _servletPathMap;
+    private volatile PathTrie<ServletHolder> _servletPathTrie;
 
     protected final ConcurrentMap _chainCache[] = new ConcurrentMap[FilterMapping.ALL];
     protected final Queue[] _chainLRU = new Queue[FilterMapping.ALL];
 
+    private volatile Map<String,MappedChains> _mappedChains;
+    private volatile Map<String,MappedChains> _namedChains;
+    private final AtomicLong _chainCacheHits = new AtomicLong();
+    private final AtomicLong _chainCacheMisses = new AtomicLong();
+
 
     /* ------------------------------------------------------------ */
     /** Constructor.
@@ -206,8 +215,11 @@ public class ServletHandler extends ScopedHandler
 
         _filterPathMappings=null;
         _filterNameMappings=null;
+        _mappedChains=null;
+        _namedChains=null;
 
         _servletPathMap=null;
+        _servletPathTrie=null;
     }
 
     /* ------------------------------------------------------------ */
@@ -252,9 +264,10 @@ public class ServletHandler extends ScopedHandler
      */
     public PathMap.MappedEntry getHolderEntry(String pathInContext)
     {
-        if (_servletPathMap==null)
+        PathTrie<ServletHolder> trie=_servletPathTrie;
+        if (trie==null)
             return null;
-        return _servletPathMap.getMatch(pathInContext);
+        return trie.getMatch(pathInContext);
     }
 
     /* ------------------------------------------------------------ */
@@ -562,9 +575,21 @@ public class ServletHandler extends ScopedHandler
 
         if (_filterChainsCached && _chainCache!=null)
         {
+            // Most chains depend only on the servlet mapping and are precomputed
+            MappedChains mapped=getMappedChains(pathInContext,servletHolder);
+            if (mapped!=null && mapped.isMapped(dispatch))
+            {
+                _chainCacheHits.incrementAndGet();
+                return mapped.getChain(dispatch);
+            }
+
             FilterChain chain = (FilterChain)_chainCache[dispatch].get(key);
             if (chain!=null)
+            {
+                _chainCacheHits.incrementAndGet();
                 return chain;
+            }
+            _chainCacheMisses.incrementAndGet();
         }
 
         // Build list of filters (list of FilterHolder objects)
@@ -581,29 +606,7 @@ public class ServletHandler extends ScopedHandler
         }
 
         // Servlet name filters
-        if (servletHolder != null && _filterNameMappings!=null && _filterNameMappings.size() > 0)
-        {
-            // Servlet name filters
-            if (_filterNameMappings.size() > 0)
-            {
-                Object o= _filterNameMappings.get(servletHolder.getName());
-
-                for (int i=0; i<LazyList.size(o);i++)
-                {
-                    FilterMapping mapping = (FilterMapping)LazyList.get(o,i);
-                    if (mapping.appliesTo(dispatch))
-                        filters.add(mapping.getFilterHolder());
-                }
-
-                o= _filterNameMappings.get("*");
-                for (int i=0; i<LazyList.size(o);i++)
-                {
-                    FilterMapping mapping = (FilterMapping)LazyList.get(o,i);
-                    if (mapping.appliesTo(dispatch))
-                        filters.add(mapping.getFilterHolder());
-                }
-            }
-        }
+        addServletNameFilters(filters,servletHolder,dispatch);
 
         if (filters.isEmpty())
             return null;
@@ -621,20 +624,17 @@ public class ServletHandler extends ScopedHandler
         	// Do we have too many cached chains?
         	while (_maxFilterChainsCacheSize>0 && cache.size()>=_maxFilterChainsCacheSize)
         	{
-        	    // The LRU list is not atomic with the cache map, so be prepared to invalidate if
-        	    // a key is not found to delete.
+        	    // The LRU list only holds keys that were added to the cache map, but
+        	    // other threads may be evicting at the same time.
         	    // Delete by LRU (where U==created)
         	    String k=lru.poll();
         	    if (k==null)
-        	    {
-        	        cache.clear();
         	        break;
-        	    }
         	    cache.remove(k);
         	}
 
-        	cache.put(key,chain);
-        	lru.add(key);
+        	if (cache.putIfAbsent(key,chain)==null)
+        	    lru.add(key);
         }
         else if (filters.size() > 0)
             chain = new Chain(baseRequest,filters, servletHolder);
@@ -642,6 +642,128 @@ public class ServletHandler extends ScopedHandler
         return chain;
     }
 
+    /* ------------------------------------------------------------ */
+    private void addServletNameFilters(List<FilterHolder> filters, ServletHolder servletHolder, int dispatch)
+    {
+        if (servletHolder != null && _filterNameMappings!=null && _filterNameMappings.size() > 0)
+        {
+            Object o= _filterNameMappings.get(servletHolder.getName());
+
+            for (int i=0; i<LazyList.size(o);i++)
+            {
+                FilterMapping mapping = (FilterMapping)LazyList.get(o,i);
+                if (mapping.appliesTo(dispatch))
+                    filters.add(mapping.getFilterHolder());
+            }
+
+            o= _filterNameMappings.get("*");
+            for (int i=0; i<LazyList.size(o);i++)
+            {
+                FilterMapping mapping = (FilterMapping)LazyList.get(o,i);
+                if (mapping.appliesTo(dispatch))
+                    filters.add(mapping.getFilterHolder());
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private MappedChains getMappedChains(String pathInContext, ServletHolder servletHolder)
+    {
+        MappedChains mapped=null;
+        if (pathInContext==null)
+        {
+            Map<String,MappedChains> named=_namedChains;
+            if (named!=null)
+                mapped=named.get(servletHolder.getName());
+        }
+        else
+        {
+            Map<String,MappedChains> chains=_mappedChains;
+            if (chains!=null)
+            {
+                PathMap.MappedEntry entry=getHolderEntry(pathInContext);
+                if (entry!=null)
+                    mapped=chains.get(entry.getKey());
+            }
+        }
+
+        // The servlets may have been replaced since the chains were computed
+        if (mapped!=null && mapped._servletHolder!=servletHolder)
+            return null;
+        return mapped;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Precompute the filter chains for each servlet path spec and servlet name.
+     * The path mapped filters that apply to a request depend only on the servlet path spec
+     * that was matched, unless a filter path spec selects a subset of the paths matched
+     * by the servlet path spec (eg a suffix filter mapping on a prefix servlet mapping), in which
+     * case the chain for that dispatch type is left to be computed and cached per path.
+     */
+    private void updateMappedChains()
+    {
+        if (!_filterChainsCached || _filterMappings==null || _filterMappings.length==0)
+        {
+            _mappedChains=null;
+            _namedChains=null;
+            return;
+        }
+
+        Map<String,MappedChains> mapped=new HashMap<>();
+        if (_servletPathMap!=null)
+        {
+            for (Object o : _servletPathMap.entrySet())
+            {
+                Map.Entry<?,?> entry=(Map.Entry<?,?>)o;
+                String pathSpec=(String)entry.getKey();
+                mapped.put(pathSpec,newMappedChains(pathSpec,(ServletHolder)entry.getValue()));
+            }
+        }
+
+        Map<String,MappedChains> named=new HashMap<>();
+        for (ServletHolder holder : _servletNameMap.values())
+            named.put(holder.getName(),newMappedChains(null,holder));
+
+        _mappedChains=mapped;
+        _namedChains=named;
+    }
+
+    /* ------------------------------------------------------------ */
+    private MappedChains newMappedChains(String servletPathSpec, ServletHolder servletHolder)
+    {
+        MappedChains mapped=new MappedChains(servletHolder);
+        for (int dispatch : new int[]{FilterMapping.REQUEST,FilterMapping.FORWARD,FilterMapping.INCLUDE,FilterMapping.ERROR,FilterMapping.ASYNC})
+        {
+            List<FilterHolder> filters = new ArrayList<>();
+            boolean pathDependent=false;
+
+            if (servletPathSpec!=null && _filterPathMappings!=null)
+            {
+                for (FilterMapping filterPathMapping : _filterPathMappings)
+                {
+                    if (!filterPathMapping.appliesTo(dispatch))
+                        continue;
+                    Boolean applies=filterPathMapping.appliesToServletMapping(servletPathSpec);
+                    if (applies==null)
+                    {
+                        pathDependent=true;
+                        break;
+                    }
+                    if (applies)
+                        filters.add(filterPathMapping.getFilterHolder());
+                }
+            }
+
+            if (pathDependent)
+                continue;
+
+            addServletNameFilters(filters,servletHolder,dispatch);
+            mapped.setChain(dispatch,filters.isEmpty()?null:new CachedChain(filters,servletHolder));
+        }
+        return mapped;
+    }
+
     /* ------------------------------------------------------------ */
     private void invalidateChainsCache()
     {
@@ -1255,6 +1377,7 @@ public class ServletHandler extends ScopedHandler
         if (_servletMappings==null || _servletNameMap==null)
         {
             _servletPathMap=null;
+            _servletPathTrie=null;
         }
         else
         {
@@ -1276,6 +1399,7 @@ public class ServletHandler extends ScopedHandler
             }
 
             _servletPathMap=pm;
+            _servletPathTrie=new PathTrie<>(pm);
         }
 
         // flush filter chain cache
@@ -1287,6 +1411,7 @@ public class ServletHandler extends ScopedHandler
                     _chainCache[i].clear();
             }
         }
+        updateMappedChains();
 
         if (LOG.isDebugEnabled())
         {
@@ -1323,6 +1448,39 @@ public class ServletHandler extends ScopedHandler
     public void setFilterChainsCached(boolean filterChainsCached)
     {
         _filterChainsCached = filterChainsCached;
+        if (!filterChainsCached)
+        {
+            _mappedChains=null;
+            _namedChains=null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of filter chains obtained from the precomputed chains or the chain cache
+     */
+    @ManagedAttribute("number of filter chains obtained without being built")
+    public long getFilterChainsCacheHits()
+    {
+        return _chainCacheHits.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of filter chains that had to be built for a path
+     */
+    @ManagedAttribute("number of filter chains built for a path")
+    public long getFilterChainsCacheMisses()
+    {
+        return _chainCacheMisses.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation("reset the filter chain cache statistics")
+    public void resetFilterChainsCacheStats()
+    {
+        _chainCacheHits.set(0);
+        _chainCacheMisses.set(0);
     }
 
     /* ------------------------------------------------------------ */
@@ -1377,6 +1535,39 @@ public class ServletHandler extends ScopedHandler
         invalidateChainsCache();
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** The filter chains of a servlet mapping, by dispatch type.
+     * A null chain for a mapped dispatch type means that no filters apply.
+     */
+    private static class MappedChains
+    {
+        final ServletHolder _servletHolder;
+        final FilterChain[] _chains = new FilterChain[FilterMapping.ALL];
+        int _mapped;
+
+        MappedChains(ServletHolder servletHolder)
+        {
+            _servletHolder=servletHolder;
+        }
+
+        void setChain(int dispatch, FilterChain chain)
+        {
+            _chains[dispatch]=chain;
+            _mapped|=dispatch;
+        }
+
+        boolean isMapped(int dispatch)
+        {
+            return (_mapped&dispatch)!=0;
+        }
+
+        FilterChain getChain(int dispatch)
+        {
+            return _chains[dispatch];
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
     private class CachedChain implements FilterChain
@@ -20,11 +20,22 @@ package org.eclipse.jetty.servlet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.util.EnumSet;
 
 import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.servlet.Holder.Source;
 import org.junit.Before;
@@ -419,7 +430,119 @@ public class ServletHandlerTest
         assertTrue(fh3 == mappings[5].getFilterHolder()); //isMatchAfter = true;
         assertTrue(pf == mappings[6].getFilterHolder()); //isMatchAfter = true;
     }
-  
-    
-    
+
+    @Test
+    public void testAppliesToServletMapping() throws Exception
+    {
+        FilterMapping all = new FilterMapping();
+        all.setPathSpec("/*");
+        assertEquals(Boolean.TRUE,all.appliesToServletMapping("/api/*"));
+        assertEquals(Boolean.TRUE,all.appliesToServletMapping("*.jsp"));
+        assertEquals(Boolean.TRUE,all.appliesToServletMapping("/"));
+        assertEquals(Boolean.TRUE,all.appliesToServletMapping("/exact"));
+
+        FilterMapping prefix = new FilterMapping();
+        prefix.setPathSpec("/api/*");
+        assertEquals(Boolean.TRUE,prefix.appliesToServletMapping("/api/*"));
+        assertEquals(Boolean.TRUE,prefix.appliesToServletMapping("/api/v1/*"));
+        assertEquals(Boolean.TRUE,prefix.appliesToServletMapping("/api/info"));
+        assertEquals(Boolean.FALSE,prefix.appliesToServletMapping("/apix/*"));
+        assertEquals(Boolean.FALSE,prefix.appliesToServletMapping("/other"));
+        assertNull(prefix.appliesToServletMapping("/*"));
+        assertNull(prefix.appliesToServletMapping("*.jsp"));
+        assertNull(prefix.appliesToServletMapping("/"));
+
+        FilterMapping suffix = new FilterMapping();
+        suffix.setPathSpec("*.json");
+        assertEquals(Boolean.TRUE,suffix.appliesToServletMapping("*.json"));
+        assertEquals(Boolean.FALSE,suffix.appliesToServletMapping("*.xml"));
+        assertEquals(Boolean.TRUE,suffix.appliesToServletMapping("/data.json"));
+        assertNull(suffix.appliesToServletMapping("/api/*"));
+
+        FilterMapping exact = new FilterMapping();
+        exact.setPathSpecs(new String[]{"/api/info","/other"});
+        assertEquals(Boolean.TRUE,exact.appliesToServletMapping("/other"));
+        assertEquals(Boolean.FALSE,exact.appliesToServletMapping("/api/other"));
+        assertEquals(Boolean.FALSE,exact.appliesToServletMapping("/static/*"));
+        assertNull(exact.appliesToServletMapping("/api/*"));
+    }
+
+    @Test
+    public void testPrecomputedFilterChains() throws Exception
+    {
+        ServletTester tester = new ServletTester("/ctx");
+        tester.addServlet(NameServlet.class,"/api/*");
+        tester.addServlet(NameServlet.class,"/static/*");
+        tester.addFilter(new FilterHolder(new NameFilter("all")),"/*",EnumSet.of(DispatcherType.REQUEST));
+        tester.addFilter(new FilterHolder(new NameFilter("api")),"/api/*",EnumSet.of(DispatcherType.REQUEST));
+        tester.addFilter(new FilterHolder(new NameFilter("private")),"/static/private/*",EnumSet.of(DispatcherType.REQUEST));
+        tester.start();
+        try
+        {
+            ServletHandler handler = tester.getContext().getServletHandler();
+
+            // The chain for a servlet mapping is computed once, regardless of the path
+            for (int i=0;i<10;i++)
+            {
+                String response = tester.getResponses("GET /ctx/api/item/"+i+" HTTP/1.0\r\n\r\n");
+                assertTrue(response.contains("all,api,servlet"));
+            }
+            assertEquals(10,handler.getFilterChainsCacheHits());
+            assertEquals(0,handler.getFilterChainsCacheMisses());
+
+            // A filter mapping selects some of the paths of the /static/* mapping, so those chains are per path
+            String response = tester.getResponses("GET /ctx/static/style.css HTTP/1.0\r\n\r\n");
+            assertTrue(response.contains("all,servlet"));
+            assertEquals(1,handler.getFilterChainsCacheMisses());
+            response = tester.getResponses("GET /ctx/static/style.css HTTP/1.0\r\n\r\n");
+            assertTrue(response.contains("all,servlet"));
+            assertEquals(1,handler.getFilterChainsCacheMisses());
+            assertEquals(11,handler.getFilterChainsCacheHits());
+            response = tester.getResponses("GET /ctx/static/private/data HTTP/1.0\r\n\r\n");
+            assertTrue(response.contains("all,private,servlet"));
+            assertEquals(2,handler.getFilterChainsCacheMisses());
+        }
+        finally
+        {
+            tester.stop();
+        }
+    }
+
+    public static class NameFilter implements Filter
+    {
+        private final String _name;
+
+        public NameFilter(String name)
+        {
+            _name=name;
+        }
+
+        @Override
+        public void init(FilterConfig filterConfig) throws ServletException
+        {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+        {
+            String names=(String)request.getAttribute("names");
+            request.setAttribute("names",names==null?_name:(names+","+_name));
+            chain.doFilter(request,response);
+        }
+
+        @Override
+        public void destroy()
+        {
+        }
+    }
+
+    public static class NameServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            String names=(String)request.getAttribute("names");
+            response.getWriter().print(names==null?"servlet":(names+",servlet"));
+        }
+    }
 }
@@ -28,8 +28,8 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -49,6 +49,7 @@ import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.continuation.ContinuationListener;
 import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.IPAddressSet;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -103,8 +104,8 @@ import org.eclipse.jetty.util.thread.Timeout;
  * <dd>how long to allow this request to run.</dd>
  * <p/>
  * <dt>maxIdleTrackerMs</dt>
- * <dd>how long to keep track of request rates for a connection,
- * before deciding that the user has gone away, and discarding it</dd>
+ * <dd>how long to keep track of request rates for a connection without
+ * any requests, before deciding that the user has gone away, and discarding it</dd>
  * <p/>
  * <dt>insertHeaders</dt>
  * <dd>if true , insert the DoSFilter headers into the response. Defaults to true.</dd>
@@ -116,7 +117,7 @@ import org.eclipse.jetty.util.thread.Timeout;
  * <dd>if true and session tracking is not used, then rate is tracked by IP+port (effectively connection). Defaults to false.</dd>
  * <p/>
  * <dt>ipWhitelist</dt>
- * <dd>a comma-separated list of IP addresses that will not be rate limited</dd>
+ * <dd>a comma-separated list of IP addresses or CIDR blocks that will not be rate limited</dd>
  * <p/>
  * <dt>managedAttr</dt>
  * <dd>if set to true, then this servlet is set as a {@link ServletContext} attribute with the
@@ -130,9 +131,6 @@ public class DoSFilter implements Filter
 {
     private static final Logger LOG = Log.getLogger(DoSFilter.class);
 
-    private static final Pattern IP_PATTERN = Pattern.compile("(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})");
-    private static final Pattern CIDR_PATTERN = Pattern.compile(IP_PATTERN + "/(\\d{1,2})");
-
     private static final String __TRACKER = "DoSFilter.Tracker";
     private static final String __THROTTLED = "DoSFilter.Throttled";
 
@@ -180,8 +178,12 @@ public class DoSFilter implements Filter
     private ContinuationListener[] _listeners;
     private final ConcurrentHashMap<String, RateTracker> _rateTrackers = new ConcurrentHashMap<>();
     private final List<String> _whitelist = new CopyOnWriteArrayList<>();
+    private volatile IPAddressSet _whitelistSet = new IPAddressSet();
+    private volatile CompiledWhitelist _compiledWhitelist;
     private final Timeout _requestTimeoutQ = new Timeout();
-    private final Timeout _trackerTimeoutQ = new Timeout();
+    private final AtomicLong _delayedRequests = new AtomicLong();
+    private final AtomicLong _throttledRequestCount = new AtomicLong();
+    private final AtomicLong _rejectedRequests = new AtomicLong();
     private Thread _timerThread;
     private volatile boolean _running;
 
@@ -274,9 +276,6 @@ public class DoSFilter implements Filter
         _requestTimeoutQ.setNow();
         _requestTimeoutQ.setDuration(_maxRequestMs);
 
-        _trackerTimeoutQ.setNow();
-        _trackerTimeoutQ.setDuration(_maxIdleTrackerMs);
-
         _running = true;
         _timerThread = (new Thread()
         {
@@ -284,12 +283,20 @@ public class DoSFilter implements Filter
             {
                 try
                 {
+                    long nextSweep = 0;
                     while (_running)
                     {
                         long now = _requestTimeoutQ.setNow();
                         _requestTimeoutQ.tick();
-                        _trackerTimeoutQ.setNow(now);
-                        _trackerTimeoutQ.tick();
+
+                        // Idle trackers are found by sweeping the tracker map, so that
+                        // tracking a client costs no timer operation per request.
+                        if (now >= nextSweep)
+                        {
+                            expireTrackers(now);
+                            nextSweep = now + Math.max(100L, getMaxIdleTrackerMs() / 2);
+                        }
+
                         try
                         {
                             Thread.sleep(100);
@@ -325,7 +332,7 @@ public class DoSFilter implements Filter
             return;
         }
 
-        final long now = _requestTimeoutQ.getNow();
+        final long now = System.currentTimeMillis();
 
         // Look for the rate tracker for this request
         RateTracker tracker = (RateTracker)request.getAttribute(__TRACKER);
@@ -358,6 +365,7 @@ public class DoSFilter implements Filter
                 case -1:
                 {
                     // Reject this request
+                    _rejectedRequests.incrementAndGet();
                     if (insertHeaders)
                         response.addHeader("DoSFilter", "unavailable");
                     response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
@@ -372,6 +380,7 @@ public class DoSFilter implements Filter
                 default:
                 {
                     // insert a delay before throttling the request
+                    _delayedRequests.incrementAndGet();
                     if (insertHeaders)
                         response.addHeader("DoSFilter", "delayed");
                     Continuation continuation = ContinuationSupport.getContinuation(request);
@@ -401,6 +410,7 @@ public class DoSFilter implements Filter
                 if (throttled != Boolean.TRUE && throttleMs > 0)
                 {
                     int priority = getPriority(request, tracker);
+                    _throttledRequestCount.incrementAndGet();
                     request.setAttribute(__THROTTLED, Boolean.TRUE);
                     if (isInsertHeaders())
                         response.addHeader("DoSFilter", "throttled");
@@ -428,6 +438,7 @@ public class DoSFilter implements Filter
             else
             {
                 // fail the request
+                _rejectedRequests.incrementAndGet();
                 if (isInsertHeaders())
                     response.addHeader("DoSFilter", "unavailable");
                 response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
@@ -589,15 +600,9 @@ public class DoSFilter implements Filter
             RateTracker existing = _rateTrackers.putIfAbsent(loadId, tracker);
             if (existing != null)
                 tracker = existing;
-
-            if (type == USER_IP)
+            else if (type != USER_IP && session != null)
             {
-                // USER_IP expiration from _rateTrackers is handled by the _trackerTimeoutQ
-                _trackerTimeoutQ.schedule(tracker);
-            }
-            else if (session != null)
-            {
-                // USER_SESSION expiration from _rateTrackers are handled by the HttpSessionBindingListener
+                // USER_SESSION expiration from _rateTrackers is also handled by the HttpSessionBindingListener
                 session.setAttribute(__TRACKER, tracker);
             }
         }
@@ -605,49 +610,56 @@ public class DoSFilter implements Filter
         return tracker;
     }
 
-    protected boolean checkWhitelist(List<String> whitelist, String candidate)
+    /**
+     * Discard the rate trackers that have had no requests for longer than
+     * {@link #getMaxIdleTrackerMs()}.
+     *
+     * @param now the current time in milliseconds
+     */
+    protected void expireTrackers(long now)
     {
-        for (String address : whitelist)
+        long idleSince = now - getMaxIdleTrackerMs();
+        for (Iterator<RateTracker> iterator = _rateTrackers.values().iterator(); iterator.hasNext(); )
         {
-            if (address.contains("/"))
-            {
-                if (subnetMatch(address, candidate))
-                    return true;
-            }
-            else
-            {
-                if (address.equals(candidate))
-                    return true;
-            }
+            RateTracker tracker = iterator.next();
+            if (tracker.isIdleSince(idleSince))
+                iterator.remove();
         }
-        return false;
     }
 
-    protected boolean subnetMatch(String subnetAddress, String candidate)
+    /**
+     * Checks whether the candidate address is in the whitelist.
+     * <p>
+     * The filter's own whitelist is matched against its precompiled set. Any other
+     * list is compiled on the first call and the result reused while the list
+     * keeps the same entries; a list that changes on every call is recompiled,
+     * at a cost proportional to its size, on every call.
+     *
+     * @param whitelist the whitelisted addresses
+     * @param candidate the address to check
+     * @return whether the candidate is whitelisted
+     */
+    protected boolean checkWhitelist(List<String> whitelist, String candidate)
     {
-        Matcher matcher = CIDR_PATTERN.matcher(subnetAddress);
-        int subnet = intFromAddress(matcher);
-        int prefix = Integer.parseInt(matcher.group(5));
-        // Sets the most significant prefix bits to 1
-        // If prefix == 8 => 11111111_00000000_00000000_00000000
-        int mask = ~((1 << (32 - prefix)) - 1);
-        int ip = intFromAddress(IP_PATTERN.matcher(candidate));
-        return (ip & mask) == (subnet & mask);
-    }
+        if (whitelist == _whitelist)
+            return _whitelistSet.contains(candidate);
 
-    private int intFromAddress(Matcher matcher)
-    {
-        int result = 0;
-        if (matcher.matches())
+        CompiledWhitelist compiled = _compiledWhitelist;
+        if (compiled == null || !compiled.entries.equals(whitelist))
         {
-            for (int i = 0; i < 4; ++i)
-            {
-                int b = Integer.parseInt(matcher.group(i + 1));
-                result |= b << 8 * (3 - i);
-            }
-            return result;
+            compiled = new CompiledWhitelist(whitelist);
+            _compiledWhitelist = compiled;
         }
-        throw new IllegalStateException();
+        return compiled.addresses.contains(candidate);
+    }
+
+    /**
+     * @deprecated use {@link IPAddressSet} to match addresses against subnets
+     */
+    @Deprecated
+    protected boolean subnetMatch(String subnetAddress, String candidate)
+    {
+        return new IPAddressSet(subnetAddress).contains(candidate);
     }
 
     public void destroy()
@@ -655,7 +667,6 @@ public class DoSFilter implements Filter
         _running = false;
         _timerThread.interrupt();
         _requestTimeoutQ.cancelAll();
-        _trackerTimeoutQ.cancelAll();
         _rateTrackers.clear();
         _whitelist.clear();
     }
@@ -697,6 +708,42 @@ public class DoSFilter implements Filter
         _maxRequestsPerSec = value;
     }
 
+    /**
+     * @return the number of clients whose request rate is currently tracked
+     */
+    @ManagedAttribute("number of clients whose request rate is tracked")
+    public int getTrackedClients()
+    {
+        return _rateTrackers.size();
+    }
+
+    /**
+     * @return the number of requests over the rate limit that were delayed
+     */
+    @ManagedAttribute("number of requests over the rate limit that were delayed")
+    public long getDelayedRequestCount()
+    {
+        return _delayedRequests.get();
+    }
+
+    /**
+     * @return the number of requests over the rate limit that were suspended waiting to be throttled
+     */
+    @ManagedAttribute("number of requests over the rate limit that waited to be throttled")
+    public long getThrottledRequestCount()
+    {
+        return _throttledRequestCount.get();
+    }
+
+    /**
+     * @return the number of requests rejected with a 503 response
+     */
+    @ManagedAttribute("number of requests rejected as unavailable")
+    public long getRejectedRequestCount()
+    {
+        return _rejectedRequests.get();
+    }
+
     /**
      * Get delay (in milliseconds) that is applied to all requests
      * over the rate limit, before they are considered at all.
@@ -946,8 +993,9 @@ public class DoSFilter implements Filter
         List<String> result = new ArrayList<>();
         for (String address : value.split(","))
             addWhitelistAddress(result, address);
-        clearWhitelist();
+        _whitelist.clear();
         _whitelist.addAll(result);
+        updateWhitelist();
         LOG.debug("Whitelisted IP addresses: {}", result);
     }
 
@@ -958,11 +1006,13 @@ public class DoSFilter implements Filter
     public void clearWhitelist()
     {
         _whitelist.clear();
+        updateWhitelist();
     }
 
     /**
-     * Adds the given IP address, either in the form of a dotted decimal notation A.B.C.D
-     * or in the CIDR notation A.B.C.D/M, to the list of whitelisted IP addresses.
+     * Adds the given IP address, either in the form of a dotted decimal notation A.B.C.D,
+     * an IPv6 address or in the CIDR notation A.B.C.D/M (or its IPv6 equivalent),
+     * to the list of whitelisted IP addresses.
      *
      * @param address the address to add
      * @return whether the address was added to the list
@@ -971,7 +1021,10 @@ public class DoSFilter implements Filter
     @ManagedOperation("adds an IP address that will not be rate limited")
     public boolean addWhitelistAddress(@Name("address") String address)
     {
-        return addWhitelistAddress(_whitelist, address);
+        boolean added = addWhitelistAddress(_whitelist, address);
+        if (added)
+            updateWhitelist();
+        return added;
     }
 
     private boolean addWhitelistAddress(List<String> list, String address)
@@ -979,14 +1032,28 @@ public class DoSFilter implements Filter
         address = address.trim();
         if (address.length() > 0)
         {
-            if (CIDR_PATTERN.matcher(address).matches() || IP_PATTERN.matcher(address).matches())
+            try
+            {
+                new IPAddressSet(address);
                 return list.add(address);
-            else
+            }
+            catch (IllegalArgumentException e)
+            {
                 LOG.warn("Ignoring malformed whitelist IP address {}", address);
+                LOG.debug(e);
+            }
         }
         return false;
     }
 
+    /**
+     * Compiles the whitelist into the address set used to look up clients.
+     */
+    private synchronized void updateWhitelist()
+    {
+        _whitelistSet = new IPAddressSet(_whitelist);
+    }
+
     /**
      * Removes the given address from the list of whitelisted IP addresses.
      *
@@ -997,42 +1064,71 @@ public class DoSFilter implements Filter
     @ManagedOperation("removes an IP address that will not be rate limited")
     public boolean removeWhitelistAddress(@Name("address") String address)
     {
-        return _whitelist.remove(address);
+        boolean removed = _whitelist.remove(address);
+        if (removed)
+            updateWhitelist();
+        return removed;
     }
 
+    private static final AtomicReferenceFieldUpdater<RateTracker, Window> __window = AtomicReferenceFieldUpdater.newUpdater(RateTracker.class, Window.class, "_window");
+
     /**
      * A RateTracker is associated with a connection, and stores request rate
      * data.
+     * <p>
+     * The rate is tracked with a sliding window counter: the accepted requests of
+     * the current second and of the previous second are counted, together with the
+     * time of the first and last of them. The requests of the previous second still
+     * within the last second are estimated as if they were evenly spread between its
+     * first and last request, so that a client is allowed no more than
+     * maxRequestsPerSec requests within any second. The counts are kept in an
+     * immutable {@link Window} replaced with a compare and set, so the tracker has a
+     * constant size whatever the configured rate. Requests over the limit leave the
+     * window unchanged, so a flood costs neither a compare and set nor an allocation.
      */
-    class RateTracker extends Timeout.Task implements HttpSessionBindingListener, HttpSessionActivationListener
+    class RateTracker implements HttpSessionBindingListener, HttpSessionActivationListener
     {
         transient protected final String _id;
         transient protected final int _type;
-        transient protected final long[] _timestamps;
-        transient protected int _next;
+        transient protected final int _maxRequestsPerSecond;
+        transient volatile Window _window = Window.EMPTY;
+        transient protected volatile long _lastRequest;
 
         public RateTracker(String id, int type, int maxRequestsPerSecond)
         {
             _id = id;
             _type = type;
-            _timestamps = new long[maxRequestsPerSecond];
-            _next = 0;
+            _maxRequestsPerSecond = Math.max(1, maxRequestsPerSecond);
         }
 
         /**
-         * @return the current calculated request rate over the last second
+         * Record a request and check the request rate over the last second.
+         *
+         * @param now the time of the request in milliseconds
+         * @return true if the request rate is over the limit
          */
         public boolean isRateExceeded(long now)
         {
-            final long last;
-            synchronized (this)
+            _lastRequest = now;
+            final long second = now / 1000L;
+            while (true)
             {
-                last = _timestamps[_next];
-                _timestamps[_next] = now;
-                _next = (_next + 1) % _timestamps.length;
+                Window window = _window;
+                Window rolled = window.roll(second);
+                if (rolled.estimate(now) >= _maxRequestsPerSecond)
+                    return true;
+                if (__window.compareAndSet(this, window, rolled.add(now)))
+                    return false;
             }
+        }
 
-            return last != 0 && (now - last) < 1000L;
+        /**
+         * @param time a time in milliseconds
+         * @return true if there has been no request since the given time
+         */
+        public boolean isIdleSince(long time)
+        {
+            return _lastRequest < time;
         }
 
         public String getId()
@@ -1054,7 +1150,7 @@ public class DoSFilter implements Filter
         public void valueUnbound(HttpSessionBindingEvent event)
         {
             //take the tracker out of the list of trackers
-            _rateTrackers.remove(_id);
+            _rateTrackers.remove(_id, this);
             if (LOG.isDebugEnabled())
                 LOG.debug("Tracker removed: {}", getId());
         }
@@ -1063,7 +1159,7 @@ public class DoSFilter implements Filter
         {
             //take the tracker of the list of trackers (if its still there)
             //and ensure that we take ourselves out of the session so we are not saved
-            _rateTrackers.remove(_id);
+            _rateTrackers.remove(_id, this);
             se.getSession().removeAttribute(__TRACKER);
             if (LOG.isDebugEnabled()) LOG.debug("Value removed: {}", getId());
         }
@@ -1073,19 +1169,6 @@ public class DoSFilter implements Filter
             LOG.warn("Unexpected session activation");
         }
 
-        public void expired()
-        {
-            long now = _trackerTimeoutQ.getNow();
-            int latestIndex = _next == 0 ? (_timestamps.length - 1) : (_next - 1);
-            long last = _timestamps[latestIndex];
-            boolean hasRecentRequest = last != 0 && (now - last) < 1000L;
-
-            if (hasRecentRequest)
-                reschedule();
-            else
-                _rateTrackers.remove(_id);
-        }
-
         @Override
         public String toString()
         {
@@ -1103,15 +1186,10 @@ public class DoSFilter implements Filter
         @Override
         public boolean isRateExceeded(long now)
         {
-            // rate limit is never exceeded, but we keep track of the request timestamps
+            // rate limit is never exceeded, but we keep track of the request time
             // so that we know whether there was recent activity on this tracker
             // and whether it should be expired
-            synchronized (this)
-            {
-                _timestamps[_next] = now;
-                _next = (_next + 1) % _timestamps.length;
-            }
-
+            _lastRequest = now;
             return false;
         }
 
@@ -1121,4 +1199,82 @@ public class DoSFilter implements Filter
             return "Fixed" + super.toString();
         }
     }
+
+    /**
+     * The accepted requests of the current and of the previous second of a {@link RateTracker}.
+     */
+    private static class Window
+    {
+        private static final Window EMPTY = new Window(0, 0, 0, 0, 0, 0, 0);
+
+        private final long _second;
+        private final int _previous;
+        private final long _previousFirst;
+        private final long _previousLast;
+        private final int _current;
+        private final long _currentFirst;
+        private final long _currentLast;
+
+        private Window(long second, int previous, long previousFirst, long previousLast, int current, long currentFirst, long currentLast)
+        {
+            _second = second;
+            _previous = previous;
+            _previousFirst = previousFirst;
+            _previousLast = previousLast;
+            _current = current;
+            _currentFirst = currentFirst;
+            _currentLast = currentLast;
+        }
+
+        /**
+         * @param second the current second
+         * @return this window moved to the given second
+         */
+        private Window roll(long second)
+        {
+            if (second == _second)
+                return this;
+            if (second == _second + 1)
+                return new Window(second, _current, _currentFirst, _currentLast, 0, 0, 0);
+            return new Window(second, 0, 0, 0, 0, 0, 0);
+        }
+
+        /**
+         * @param now the time of a request in milliseconds, within the current second
+         * @return this window with the request counted
+         */
+        private Window add(long now)
+        {
+            return new Window(_second, _previous, _previousFirst, _previousLast, _current + 1, _current == 0 ? now : _currentFirst, now);
+        }
+
+        /**
+         * @param now the time of a request in milliseconds, within the current second
+         * @return the estimated number of requests within the second before the request
+         */
+        private int estimate(long now)
+        {
+            long since = now - 1000L;
+            if (_previous == 0 || _previousLast <= since)
+                return _current;
+            if (_previousFirst > since)
+                return _current + _previous;
+            return _current + (int)(_previous * (_previousLast - since) / (_previousLast - _previousFirst));
+        }
+    }
+
+    /**
+     * A whitelist other than the filter's own, with its compiled addresses.
+     */
+    private static class CompiledWhitelist
+    {
+        private final List<String> entries;
+        private final IPAddressSet addresses;
+
+        private CompiledWhitelist(List<String> whitelist)
+        {
+            entries = new ArrayList<>(whitelist);
+            addresses = new IPAddressSet(entries);
+        }
+    }
 }
@@ -26,7 +26,6 @@ import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -45,6 +44,8 @@ import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.servlets.gzip.AbstractCompressedStream;
 import org.eclipse.jetty.servlets.gzip.CompressedResponseWrapper;
+import org.eclipse.jetty.servlets.gzip.DeflaterPool;
+import org.eclipse.jetty.servlets.gzip.PooledDeflaterOutputStream;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -81,6 +82,9 @@ import org.eclipse.jetty.util.log.Logger;
  *                            See: {@link java.util.zip.GZIPOutputStream#GZIPOutputStream(java.io.OutputStream, int)}
  *                            and: {@link java.util.zip.DeflaterOutputStream#DeflaterOutputStream(java.io.OutputStream, Deflater, int)}
  *
+ * deflaterPoolSize           The maximum number of idle {@link Deflater}s kept for reuse by later responses. Defaults to 256.
+ *                            See: {@link DeflaterPool}
+ *
  * minGzipSize                Content will only be compressed if content length is either unknown or greater
  *                            than <code>minGzipSize</code>.
  *
@@ -129,6 +133,7 @@ public class GzipFilter extends UserAgentFilter
     protected int _minGzipSize=256;
     protected int _deflateCompressionLevel=Deflater.DEFAULT_COMPRESSION;
     protected boolean _deflateNoWrap = true;
+    protected final DeflaterPool _deflaterPool = new DeflaterPool();
 
     protected final Set<String> _methods=new HashSet<String>();
     protected Set<String> _excludedAgents;
@@ -170,6 +175,10 @@ public class GzipFilter extends UserAgentFilter
         if (tmp!=null)
             _deflateNoWrap=Boolean.parseBoolean(tmp);
 
+        tmp=filterConfig.getInitParameter("deflaterPoolSize");
+        if (tmp!=null)
+            _deflaterPool.setMaxPooled(Integer.parseInt(tmp));
+
         tmp=filterConfig.getInitParameter("methods");
         if (tmp!=null)
         {
@@ -236,6 +245,16 @@ public class GzipFilter extends UserAgentFilter
     @Override
     public void destroy()
     {
+        _deflaterPool.clear();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the pool of deflaters used to compress responses, which also holds the compression statistics
+     */
+    public DeflaterPool getDeflaterPool()
+    {
+        return _deflaterPool;
     }
 
     /* ------------------------------------------------------------ */
@@ -433,7 +452,7 @@ public class GzipFilter extends UserAgentFilter
                         @Override
                         protected DeflaterOutputStream createStream() throws IOException
                         {
-                            return new GZIPOutputStream(_response.getOutputStream(),_bufferSize);
+                            return PooledDeflaterOutputStream.gzip(_response.getOutputStream(),_deflaterPool,_bufferSize);
                         }
                     };
                 }
@@ -451,7 +470,7 @@ public class GzipFilter extends UserAgentFilter
                         @Override
                         protected DeflaterOutputStream createStream() throws IOException
                         {
-                            return new DeflaterOutputStream(_response.getOutputStream(),new Deflater(_deflateCompressionLevel,_deflateNoWrap));
+                            return PooledDeflaterOutputStream.deflate(_response.getOutputStream(),_deflaterPool,_deflateCompressionLevel,_deflateNoWrap,_bufferSize);
                         }
                     };
                 }
@@ -23,9 +23,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
-import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
@@ -35,6 +33,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.io.UncheckedPrintWriter;
 import org.eclipse.jetty.servlets.gzip.AbstractCompressedStream;
 import org.eclipse.jetty.servlets.gzip.CompressedResponseWrapper;
+import org.eclipse.jetty.servlets.gzip.PooledDeflaterOutputStream;
 
 /* ------------------------------------------------------------ */
 /** Includable GZip Filter.
@@ -109,7 +108,7 @@ public class IncludableGzipFilter extends GzipFilter
                         @Override
                         protected DeflaterOutputStream createStream() throws IOException
                         {
-                            return new GZIPOutputStream(_response.getOutputStream(),_bufferSize);
+                            return PooledDeflaterOutputStream.gzip(_response.getOutputStream(),_deflaterPool,_bufferSize);
                         }
 
                         @Override
@@ -136,7 +135,7 @@ public class IncludableGzipFilter extends GzipFilter
                         @Override
                         protected DeflaterOutputStream createStream() throws IOException
                         {
-                            return new DeflaterOutputStream(_response.getOutputStream(),new Deflater(_deflateCompressionLevel, _deflateNoWrap));
+                            return PooledDeflaterOutputStream.deflate(_response.getOutputStream(),_deflaterPool,_deflateCompressionLevel,_deflateNoWrap,_bufferSize);
                         }
 
                         @Override
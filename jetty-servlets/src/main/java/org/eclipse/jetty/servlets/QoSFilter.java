@@ -23,6 +23,10 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -73,6 +77,16 @@ import org.eclipse.jetty.util.annotation.ManagedObject;
  * If the "managedAttr" init parameter is set to true, then this servlet is set as a {@link ServletContext} attribute with the
  * filter name as the attribute name.  This allows context external mechanism (eg JMX via {@link ContextHandler#MANAGED_ATTRIBUTES}) to
  * manage the configuration of the filter.
+ * </p><p>
+ * If the "adaptive" init parameter is set to true, then the "maxRequests" value is used as an upper bound and the actual
+ * limit is adjusted between it and the "minRequests" init parameter (default 1) from the latency of the requests passed
+ * down the chain. The limit is reduced in proportion to how far the average latency of a window of requests exceeds
+ * the minimum observed latency, and grows by the square root of the limit while latency is acceptable and the limit is
+ * being used.  In adaptive mode, waiting requests are resumed by weighted fair share between priorities (rather than
+ * strictly highest first) so that low priority requests are not starved, and requests are suspended for at most
+ * 1 second unless "suspendMs" is set, so that an overload results in fast 503s rather than an unbounded queue.
+ * A resumed request waits for a pass for no longer than the rest of its suspend period, and is sent a 503 if the
+ * limit has been reduced in the meantime so that no pass becomes available.
  * </p>
  *
  *
@@ -84,23 +98,43 @@ public class QoSFilter implements Filter
     final static int __DEFAULT_PASSES=10;
     final static int __DEFAULT_WAIT_MS=50;
     final static long __DEFAULT_TIMEOUT_MS = -1;
+    final static int __DEFAULT_MIN_PASSES=1;
+    final static long __DEFAULT_ADAPTIVE_TIMEOUT_MS=1000;
+    final static int __SAMPLE_WINDOW=10;
+    final static int __MIN_LATENCY_WINDOWS=100;
+    final static double __LATENCY_TOLERANCE=2.0;
 
     final static String MANAGED_ATTR_INIT_PARAM="managedAttr";
     final static String MAX_REQUESTS_INIT_PARAM="maxRequests";
     final static String MAX_PRIORITY_INIT_PARAM="maxPriority";
     final static String MAX_WAIT_INIT_PARAM="waitMs";
     final static String SUSPEND_INIT_PARAM="suspendMs";
+    final static String ADAPTIVE_INIT_PARAM="adaptive";
+    final static String MIN_REQUESTS_INIT_PARAM="minRequests";
 
     ServletContext _context;
 
     protected long _waitMs;
     protected long _suspendMs;
     protected int _maxRequests;
+    protected int _minRequests=__DEFAULT_MIN_PASSES;
+    protected volatile boolean _adaptive;
 
-    private Semaphore _passes;
+    private Passes _passes;
     private Queue<Continuation>[] _queue;
     private ContinuationListener[] _listener;
+    private AtomicLongArray _resumed;
     private String _suspended="QoSFilter@"+this.hashCode();
+    private String _suspendedAt="QoSFilter.suspendedAt@"+this.hashCode();
+
+    private volatile int _limit;
+    private final AtomicInteger _active = new AtomicInteger();
+    private final AtomicBoolean _adapting = new AtomicBoolean();
+    private final AtomicInteger _samples = new AtomicInteger();
+    private final AtomicLong _sampleNanos = new AtomicLong();
+    private final AtomicInteger _sampleMaxActive = new AtomicInteger();
+    private volatile long _minLatencyNanos=Long.MAX_VALUE;
+    private int _windows;
 
     /* ------------------------------------------------------------ */
     /**
@@ -115,6 +149,7 @@ public class QoSFilter implements Filter
             max_priority=Integer.parseInt(filterConfig.getInitParameter(MAX_PRIORITY_INIT_PARAM));
         _queue=new Queue[max_priority+1];
         _listener = new ContinuationListener[max_priority + 1];
+        _resumed = new AtomicLongArray(max_priority + 1);
         for (int p=0;p<_queue.length;p++)
         {
             _queue[p]=new ConcurrentLinkedQueue<Continuation>();
@@ -135,8 +170,13 @@ public class QoSFilter implements Filter
         int maxRequests=__DEFAULT_PASSES;
         if (filterConfig.getInitParameter(MAX_REQUESTS_INIT_PARAM)!=null)
             maxRequests=Integer.parseInt(filterConfig.getInitParameter(MAX_REQUESTS_INIT_PARAM));
-        _passes=new Semaphore(maxRequests,true);
+        _passes=new Passes(maxRequests);
         _maxRequests = maxRequests;
+        _limit = maxRequests;
+
+        if (filterConfig.getInitParameter(MIN_REQUESTS_INIT_PARAM)!=null)
+            _minRequests=Integer.parseInt(filterConfig.getInitParameter(MIN_REQUESTS_INIT_PARAM));
+        _adaptive=Boolean.parseBoolean(filterConfig.getInitParameter(ADAPTIVE_INIT_PARAM));
 
         long wait = __DEFAULT_WAIT_MS;
         if (filterConfig.getInitParameter(MAX_WAIT_INIT_PARAM)!=null)
@@ -176,6 +216,10 @@ public class QoSFilter implements Filter
                     Continuation continuation = ContinuationSupport.getContinuation(request);
                     if (_suspendMs>0)
                         continuation.setTimeout(_suspendMs);
+                    else if (_adaptive)
+                        continuation.setTimeout(__DEFAULT_ADAPTIVE_TIMEOUT_MS);
+                    if (_adaptive)
+                        request.setAttribute(_suspendedAt,System.nanoTime());
                     continuation.suspend();
                     continuation.addContinuationListener(_listener[priority]);
                     _queue[priority].add(continuation);
@@ -191,8 +235,21 @@ public class QoSFilter implements Filter
                     request.setAttribute(_suspended,Boolean.FALSE);
                     if (request.getAttribute("javax.servlet.resumed")==Boolean.TRUE)
                     {
-                        _passes.acquire();
-                        accepted=true;
+                        Long suspendedAt=(Long)request.getAttribute(_suspendedAt);
+                        if (suspendedAt!=null)
+                        {
+                            // Adaptive mode: the limit may have been reduced since this request was
+                            // resumed, so only wait for a pass for the rest of the suspend period.
+                            request.removeAttribute(_suspendedAt);
+                            long timeout=_suspendMs>0?_suspendMs:__DEFAULT_ADAPTIVE_TIMEOUT_MS;
+                            long remaining=timeout-TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-suspendedAt);
+                            accepted=_passes.tryAcquire(Math.max(0,remaining),TimeUnit.MILLISECONDS);
+                        }
+                        else
+                        {
+                            _passes.acquire();
+                            accepted=true;
+                        }
                     }
                     else
                     {
@@ -210,7 +267,18 @@ public class QoSFilter implements Filter
 
             if (accepted)
             {
-                chain.doFilter(request,response);
+                int active=_active.incrementAndGet();
+                long start=System.nanoTime();
+                try
+                {
+                    chain.doFilter(request,response);
+                }
+                finally
+                {
+                    _active.decrementAndGet();
+                    if (_adaptive)
+                        onLatency(System.nanoTime()-start,active);
+                }
             }
             else
             {
@@ -226,20 +294,163 @@ public class QoSFilter implements Filter
         {
             if (accepted)
             {
-                for (int p=_queue.length;p-->0;)
+                if (_adaptive)
                 {
-                    Continuation continutaion=_queue[p].poll();
-                    if (continutaion!=null && continutaion.isSuspended())
-                    {
-                        continutaion.resume();
-                        break;
-                    }
+                    // The limit may have been reduced, so only resume a waiting request
+                    // if there is a pass for it once this one is released.
+                    _passes.release();
+                    if (_passes.availablePermits()>0)
+                        resumeWaiting();
+                }
+                else
+                {
+                    resumeWaiting();
+                    _passes.release();
                 }
-                _passes.release();
             }
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Resume the next waiting request.
+     * <p>In fixed mode, the highest priority waiting request is resumed.  In adaptive mode,
+     * the priority queue with the smallest number of resumes relative to its weight (priority+1)
+     * is selected, so that every priority gets a share of the passes.
+     *
+     * @return true if a request was resumed
+     */
+    private boolean resumeWaiting()
+    {
+        while (true)
+        {
+            int priority=_adaptive?nextFairPriority():nextPriority();
+            if (priority<0)
+                return false;
+            Continuation continuation=_queue[priority].poll();
+            if (continuation!=null && continuation.isSuspended())
+            {
+                _resumed.incrementAndGet(priority);
+                continuation.resume();
+                return true;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private int nextPriority()
+    {
+        for (int p=_queue.length;p-->0;)
+            if (!_queue[p].isEmpty())
+                return p;
+        return -1;
+    }
+
+    /* ------------------------------------------------------------ */
+    private int nextFairPriority()
+    {
+        int next=-1;
+        double share=Double.MAX_VALUE;
+        for (int p=_queue.length;p-->0;)
+        {
+            if (_queue[p].isEmpty())
+                continue;
+            double s=(double)_resumed.get(p)/(p+1);
+            if (s<share)
+            {
+                share=s;
+                next=p;
+            }
+        }
+
+        // Idle priorities do not accumulate credit to burst with when they become busy
+        if (next>=0)
+        {
+            for (int p=_queue.length;p-->0;)
+            {
+                long least=(long)(share*(p+1));
+                if (_queue[p].isEmpty() && _resumed.get(p)<least)
+                    _resumed.set(p,least);
+            }
+        }
+        return next;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Record the latency of a request passed down the chain and, once a window
+     * of samples has been collected, adapt the limit.
+     * @param nanos the latency of the request
+     * @param active the number of active requests when it was accepted
+     */
+    private void onLatency(long nanos, int active)
+    {
+        _sampleNanos.addAndGet(nanos);
+        int max=_sampleMaxActive.get();
+        while (active>max && !_sampleMaxActive.compareAndSet(max,active))
+            max=_sampleMaxActive.get();
+
+        if (_samples.incrementAndGet()>=Math.max(__SAMPLE_WINDOW,_limit) && _adapting.compareAndSet(false,true))
+        {
+            try
+            {
+                adapt();
+            }
+            finally
+            {
+                _adapting.set(false);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void adapt()
+    {
+        int samples=_samples.getAndSet(0);
+        long nanos=_sampleNanos.getAndSet(0);
+        int max_active=_sampleMaxActive.getAndSet(0);
+        if (samples<=0)
+            return;
+
+        long latency=Math.max(1,nanos/samples);
+        // Periodically forget the minimum so that a permanent change of the backend is learnt
+        if (++_windows>=__MIN_LATENCY_WINDOWS)
+        {
+            _windows=0;
+            _minLatencyNanos=latency;
+        }
+        else if (latency<_minLatencyNanos)
+            _minLatencyNanos=latency;
+
+        int limit=_limit;
+        double gradient=Math.max(0.5,Math.min(1.0,__LATENCY_TOLERANCE*_minLatencyNanos/latency));
+        int next;
+        if (gradient<1.0)
+            next=(int)Math.floor((limit+limit*gradient)/2);
+        else if (max_active>=limit/2)
+            next=(int)Math.ceil(limit+Math.sqrt(limit)/2);
+        else
+            next=limit;
+
+        setLimit(Math.max(_minRequests,Math.min(_maxRequests,next)));
+    }
+
+    /* ------------------------------------------------------------ */
+    private synchronized void setLimit(int limit)
+    {
+        int delta=limit-_limit;
+        if (delta==0)
+            return;
+        _limit=limit;
+        if (delta<0)
+            _passes.reduce(-delta);
+        else
+        {
+            _passes.release(delta);
+            while (delta-->0 && resumeWaiting());
+        }
+    }
+
     /**
      * Get the request Priority.
      * <p> The default implementation assigns the following priorities:<ul>
@@ -346,8 +557,136 @@ public class QoSFilter implements Filter
      */
     public void setMaxRequests(int value)
     {
-        _passes = new Semaphore((value-_maxRequests+_passes.availablePermits()), true);
+        if (_adaptive)
+        {
+            _maxRequests = value;
+            if (_limit>value)
+                setLimit(value);
+            return;
+        }
+        _passes = new Passes(value-_maxRequests+_passes.availablePermits());
         _maxRequests = value;
+        _limit = value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get the minimum number of requests allowed to be processed
+     * at the same time when in adaptive mode.
+     *
+     * @return minimum number of requests
+     */
+    @ManagedAttribute("minimum number of requests to allow processing of at the same time in adaptive mode")
+    public int getMinRequests()
+    {
+        return _minRequests;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the minimum number of requests allowed to be processed
+     * at the same time when in adaptive mode.
+     *
+     * @param value the number of requests
+     */
+    public void setMinRequests(int value)
+    {
+        _minRequests = value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the limit is adapted from the observed request latency
+     */
+    @ManagedAttribute("limit adapted from the observed request latency")
+    public boolean isAdaptive()
+    {
+        return _adaptive;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set whether the limit is adapted from the observed request latency.
+     * When adaptive mode is turned off the limit reverts to the maximum number of requests.
+     *
+     * @param adaptive true if the limit is adaptive
+     */
+    public void setAdaptive(boolean adaptive)
+    {
+        _adaptive = adaptive;
+        if (!adaptive)
+            setLimit(_maxRequests);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the current limit of requests processed at the same time
+     */
+    @ManagedAttribute("current limit of requests processed at the same time")
+    public int getLimit()
+    {
+        return _limit;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of requests currently being processed
+     */
+    @ManagedAttribute("number of requests currently being processed")
+    public int getActiveRequests()
+    {
+        return _active.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of requests suspended waiting for a pass
+     */
+    @ManagedAttribute("number of requests suspended waiting for a pass")
+    public int getQueueSize()
+    {
+        int size=0;
+        for (Queue<Continuation> queue : _queue)
+            size+=queue.size();
+        return size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param priority the priority
+     * @return the number of requests of the given priority suspended waiting for a pass
+     */
+    public int getQueueSize(int priority)
+    {
+        return _queue[priority].size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the minimum average latency (in ms) of a window of requests, used as the baseline in adaptive mode
+     */
+    @ManagedAttribute("minimum average request latency used as the baseline in adaptive mode (in ms)")
+    public double getMinLatency()
+    {
+        long min=_minLatencyNanos;
+        return min==Long.MAX_VALUE?0:min/1000000.0;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A fair Semaphore whose permits can be reduced when the adaptive limit is lowered.
+     */
+    private static class Passes extends Semaphore
+    {
+        Passes(int permits)
+        {
+            super(permits,true);
+        }
+
+        void reduce(int reduction)
+        {
+            reducePermits(reduction);
+        }
     }
 
 }
@@ -76,7 +76,11 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
         _out = null;
         _bOut = null;
         if (_compressedOutputStream != null)
+        {
             _response.setHeader("Content-Encoding",null);
+            // The compressed data is discarded
+            releaseCompressedStream();
+        }
         _compressedOutputStream = null;
         _doNotCompress = false;
     }
@@ -127,7 +131,16 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
             return;
 
         if (_wrapper.getRequest().getAttribute("javax.servlet.include.request_uri") != null)
+        {
             flush();
+            if (_compressedOutputStream != null)
+            {
+                // The included content is complete, but the including response stays open
+                _compressedOutputStream.finish();
+                releaseCompressedStream();
+                _closed = true;
+            }
+        }
         else
         {
             if (_bOut != null)
@@ -317,6 +330,16 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
         }
     }
 
+    /**
+     * Returns the pooled deflater and buffer of the compressed stream, if any,
+     * without closing the response output stream.
+     */
+    protected void releaseCompressedStream()
+    {
+        if (_compressedOutputStream instanceof PooledDeflaterOutputStream)
+            ((PooledDeflaterOutputStream)_compressedOutputStream).release();
+    }
+
     /**
      * @see org.eclipse.jetty.http.gzip.CompressedStream#createOutputStream()
      */
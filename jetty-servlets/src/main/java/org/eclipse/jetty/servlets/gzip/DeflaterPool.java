@@ -0,0 +1,228 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/* ------------------------------------------------------------ */
+/**
+ * A bounded pool of {@link Deflater}s shared by the responses compressed by a
+ * {@link GzipHandler} or {@link org.eclipse.jetty.servlets.GzipFilter}.
+ * <p>
+ * Creating a Deflater allocates a native zlib context that is only freed by
+ * {@link Deflater#end()} or finalization, so deflaters are reset and reused
+ * rather than created for every response. The pool also keeps the compression
+ * statistics of the streams using it.
+ */
+@ManagedObject("Gzip Deflater Pool")
+public class DeflaterPool
+{
+    private final Queue<Deflater>[] _deflaters;
+    private final AtomicInteger _idle = new AtomicInteger();
+    private final AtomicLong _created = new AtomicLong();
+    private final AtomicLong _bytesIn = new AtomicLong();
+    private final AtomicLong _bytesOut = new AtomicLong();
+    private final AtomicLong _compressNanos = new AtomicLong();
+    private final AtomicLong _compressed = new AtomicLong();
+    private volatile int _maxPooled = 256;
+
+    /* ------------------------------------------------------------ */
+    @SuppressWarnings("unchecked")
+    public DeflaterPool()
+    {
+        // One queue per compression level, from DEFAULT_COMPRESSION (-1) to BEST_COMPRESSION (9), for each nowrap setting
+        _deflaters = new Queue[2 * (Deflater.BEST_COMPRESSION + 2)];
+        for (int i = 0; i < _deflaters.length; i++)
+            _deflaters[i] = new ConcurrentLinkedQueue<Deflater>();
+    }
+
+    /* ------------------------------------------------------------ */
+    private Queue<Deflater> queue(int level, boolean nowrap)
+    {
+        return _deflaters[(nowrap ? Deflater.BEST_COMPRESSION + 2 : 0) + level + 1];
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param level the compression level (see {@link Deflater#setLevel(int)})
+     * @param nowrap true for raw deflate data without the zlib header and checksum
+     * @return a reset deflater, which should be returned with {@link #release(Deflater, int, boolean)}
+     */
+    public Deflater acquire(int level, boolean nowrap)
+    {
+        Deflater deflater = queue(level,nowrap).poll();
+        if (deflater == null)
+        {
+            _created.incrementAndGet();
+            return new Deflater(level,nowrap);
+        }
+        _idle.decrementAndGet();
+        return deflater;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param deflater a deflater obtained from {@link #acquire(int, boolean)}
+     * @param level the compression level it was acquired with
+     * @param nowrap the nowrap setting it was acquired with
+     */
+    public void release(Deflater deflater, int level, boolean nowrap)
+    {
+        if (_idle.incrementAndGet() > _maxPooled)
+        {
+            _idle.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        queue(level,nowrap).offer(deflater);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Record the compression of a response.
+     *
+     * @param in the number of uncompressed bytes
+     * @param out the number of compressed bytes
+     * @param nanos the time spent compressing
+     */
+    public void onCompressed(long in, long out, long nanos)
+    {
+        _compressed.incrementAndGet();
+        _bytesIn.addAndGet(in);
+        _bytesOut.addAndGet(out);
+        _compressNanos.addAndGet(nanos);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * End all idle deflaters, freeing their native memory.
+     */
+    @ManagedOperation("End all idle deflaters")
+    public void clear()
+    {
+        for (Queue<Deflater> queue : _deflaters)
+        {
+            Deflater deflater;
+            while ((deflater = queue.poll()) != null)
+            {
+                _idle.decrementAndGet();
+                deflater.end();
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Maximum number of idle deflaters kept in the pool")
+    public int getMaxPooled()
+    {
+        return _maxPooled;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setMaxPooled(int maxPooled)
+    {
+        _maxPooled = maxPooled;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Number of idle deflaters in the pool")
+    public int getIdleDeflaters()
+    {
+        return _idle.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Number of deflaters created")
+    public long getDeflatersCreated()
+    {
+        return _created.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Number of responses compressed")
+    public long getCompressedCount()
+    {
+        return _compressed.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Number of bytes before compression")
+    public long getBytesIn()
+    {
+        return _bytesIn.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Number of bytes after compression")
+    public long getBytesOut()
+    {
+        return _bytesOut.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Number of bytes saved by compression")
+    public long getBytesSaved()
+    {
+        return _bytesIn.get() - _bytesOut.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Ratio of compressed to uncompressed bytes")
+    public double getCompressionRatio()
+    {
+        long in = _bytesIn.get();
+        if (in == 0)
+            return 1.0d;
+        return (double)_bytesOut.get() / in;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("Total time spent compressing (ms)")
+    public long getCompressTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_compressNanos.get());
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation("Reset the compression statistics")
+    public void resetStats()
+    {
+        _compressed.set(0);
+        _bytesIn.set(0);
+        _bytesOut.set(0);
+        _compressNanos.set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[idle=%d,max=%d]",getClass().getSimpleName(),hashCode(),_idle.get(),_maxPooled);
+    }
+}
@@ -27,7 +27,6 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -37,8 +36,11 @@ import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.continuation.ContinuationListener;
 import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -58,7 +60,18 @@ import org.eclipse.jetty.util.log.Logger;
  * Compressing the content can greatly improve the network bandwidth usage, but at a cost of memory and CPU cycles. If this handler is used for static content,
  * then use of efficient direct NIO may be prevented, thus use of the gzip mechanism of the <code>org.eclipse.jetty.servlet.DefaultServlet</code> is advised instead.
  * </p>
+ * <p>
+ * By default the response is wrapped by the response wrapper returned from
+ * {@link #newGzipResponseWrapper(HttpServletRequest, HttpServletResponse)}. If output interception is enabled, the content is
+ * instead compressed by a {@link GzipHttpOutputInterceptor} installed on the {@link HttpOutput} of the response, so that content
+ * written asynchronously or sent by the DefaultServlet from its cache is also compressed. Subclasses that override
+ * {@link #newGzipResponseWrapper(HttpServletRequest, HttpServletResponse)} are bypassed when output interception is enabled.
+ * </p>
+ * <p>
+ * Responses are compressed with deflaters borrowed from a {@link DeflaterPool}, which also keeps the compression statistics.
+ * </p>
  */
+@ManagedObject("Gzip Handler")
 public class GzipHandler extends HandlerWrapper
 {
     private static final Logger LOG = Log.getLogger(GzipHandler.class);
@@ -68,6 +81,8 @@ public class GzipHandler extends HandlerWrapper
     protected int _bufferSize = 8192;
     protected int _minGzipSize = 256;
     protected String _vary = "Accept-Encoding, User-Agent";
+    protected final DeflaterPool _deflaterPool = new DeflaterPool();
+    protected boolean _interceptOutput;
 
     /* ------------------------------------------------------------ */
     /**
@@ -75,6 +90,46 @@ public class GzipHandler extends HandlerWrapper
      */
     public GzipHandler()
     {
+        addBean(_deflaterPool);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        _deflaterPool.clear();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the pool of deflaters used to compress responses, which also holds the compression statistics
+     */
+    @ManagedAttribute("The pool of deflaters used to compress responses")
+    public DeflaterPool getDeflaterPool()
+    {
+        return _deflaterPool;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if responses are compressed by a {@link GzipHttpOutputInterceptor} rather than a response wrapper
+     */
+    @ManagedAttribute("Whether responses are compressed by an output interceptor")
+    public boolean isInterceptOutput()
+    {
+        return _interceptOutput;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param interceptOutput true to compress responses with a {@link GzipHttpOutputInterceptor}, false to
+     * wrap the response with {@link #newGzipResponseWrapper(HttpServletRequest, HttpServletResponse)} (the default).
+     * When true, an overridden {@link #newGzipResponseWrapper(HttpServletRequest, HttpServletResponse)} is not used.
+     */
+    public void setInterceptOutput(boolean interceptOutput)
+    {
+        _interceptOutput = interceptOutput;
     }
 
     /* ------------------------------------------------------------ */
@@ -255,6 +310,15 @@ public class GzipHandler extends HandlerWrapper
                     }
                 }
 
+                if (_interceptOutput)
+                {
+                    HttpOutput out = baseRequest.getResponse().getHttpOutput();
+                    if (!(out.getInterceptor() instanceof GzipHttpOutputInterceptor) && !response.isCommitted())
+                        out.setInterceptor(newGzipInterceptor(baseRequest,out.getInterceptor()));
+                    _handler.handle(target,baseRequest,request,response);
+                    return;
+                }
+
                 final CompressedResponseWrapper wrappedResponse = newGzipResponseWrapper(request,response);
 
                 boolean exceptional=true;
@@ -302,6 +366,18 @@ public class GzipHandler extends HandlerWrapper
         }
     }
 
+    /**
+     * Allows derived implementations to replace the output interceptor implementation.
+     *
+     * @param baseRequest the request
+     * @param next the interceptor that the compressed content is written to
+     * @return the gzip output interceptor
+     */
+    protected HttpOutput.Interceptor newGzipInterceptor(Request baseRequest, HttpOutput.Interceptor next)
+    {
+        return new GzipHttpOutputInterceptor(_deflaterPool,baseRequest.getHttpChannel(),next,_mimeTypes,_minGzipSize,_bufferSize,_vary);
+    }
+
     /**
      * Allows derived implementations to replace ResponseWrapper implementation.
      *
@@ -327,7 +403,7 @@ public class GzipHandler extends HandlerWrapper
                     @Override
                     protected DeflaterOutputStream createStream() throws IOException
                     {
-                        return new GZIPOutputStream(_response.getOutputStream(),_bufferSize);
+                        return PooledDeflaterOutputStream.gzip(_response.getOutputStream(),_deflaterPool,_bufferSize);
                     }
                 };
             }
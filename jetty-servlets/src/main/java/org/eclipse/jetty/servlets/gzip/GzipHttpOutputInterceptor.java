@@ -0,0 +1,367 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.StringUtil;
+
+/* ------------------------------------------------------------ */
+/**
+ * An {@link HttpOutput.Interceptor} that gzips response content as it is written to the channel.
+ * <p>
+ * Unlike {@link CompressedResponseWrapper}, the interceptor sees all the content of the response,
+ * whether written by the application from a request thread or from an asynchronous thread, or sent
+ * with {@link HttpOutput#sendContent(Object)}, and it does not need to be finished when the request
+ * completes. The decision to compress is taken on the first write, which is normally when the response
+ * is committed, from the status, content type, content length and content encoding of the response.
+ * <p>
+ * Content is deflated directly from the written buffers into a buffer taken from the connector's
+ * {@link org.eclipse.jetty.io.ByteBufferPool}, which is passed on to the next interceptor. The deflater
+ * is only sync flushed when the written content must be flushed (for example on a {@link HttpOutput#flush()}
+ * of a long polling response), so that content that would have been sent uncompressed is also sent when
+ * compressed, while writes of full aggregate buffers do not cost compression ratio. The first compressed
+ * write always passes on the gzip header, so that the response is committed as it would be uncompressed.
+ */
+public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
+{
+    private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private enum State { MIGHT_COMPRESS, NOT_COMPRESSING, COMPRESSING, FINISHED }
+
+    private final DeflaterPool _pool;
+    private final HttpChannel<?> _channel;
+    private final HttpOutput.Interceptor _next;
+    private final Set<String> _mimeTypes;
+    private final int _minCompressSize;
+    private final int _bufferSize;
+    private final String _vary;
+    private final CRC32 _crc = new CRC32();
+    private State _state = State.MIGHT_COMPRESS;
+    private Deflater _deflater;
+    private ByteBuffer _buffer;
+    private byte[] _input;
+    private long _nanos;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param pool the pool to borrow the deflater from
+     * @param channel the channel of the response
+     * @param next the interceptor to write the compressed content to
+     * @param mimeTypes the mime types to compress, or null to compress all but gzip content types
+     * @param minCompressSize the minimum content length to compress, if known
+     * @param bufferSize the size of the buffer that content is compressed into
+     * @param vary the value of the Vary header sent with compressed responses
+     */
+    public GzipHttpOutputInterceptor(DeflaterPool pool, HttpChannel<?> channel, HttpOutput.Interceptor next,
+            Set<String> mimeTypes, int minCompressSize, int bufferSize, String vary)
+    {
+        _pool = pool;
+        _channel = channel;
+        _next = next;
+        _mimeTypes = mimeTypes;
+        _minCompressSize = minCompressSize;
+        _bufferSize = bufferSize;
+        _vary = vary;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public HttpOutput.Interceptor getNextInterceptor()
+    {
+        return _next;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the response content is being compressed
+     */
+    public boolean isCompressing()
+    {
+        return _state == State.COMPRESSING;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void write(ByteBuffer content, boolean complete, boolean flush) throws IOException
+    {
+        switch (_state)
+        {
+            case MIGHT_COMPRESS:
+                if (!isCompressible(content,complete))
+                {
+                    _state = State.NOT_COMPRESSING;
+                    _next.write(content,complete,flush);
+                    return;
+                }
+                startCompressing();
+                _state = State.COMPRESSING;
+                compress(content,complete,flush);
+                return;
+
+            case COMPRESSING:
+                compress(content,complete,flush);
+                return;
+
+            case FINISHED:
+                if (BufferUtil.hasContent(content))
+                    throw new IOException("Compressed content complete");
+                return;
+
+            default:
+                _next.write(content,complete,flush);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Release the deflater and buffer of an aborted or reset response. If the response is not
+     * committed, the headers set to compress are removed and the decision to compress is taken
+     * again on the next write, otherwise any further content is rejected.
+     */
+    @Override
+    public void reset()
+    {
+        releaseDeflater();
+        releaseBuffer();
+        if (!_channel.getResponse().isCommitted())
+        {
+            if (_state == State.COMPRESSING)
+                stopCompressing();
+            _state = State.MIGHT_COMPRESS;
+            _crc.reset();
+            _nanos = 0;
+        }
+        else if (_state == State.COMPRESSING)
+            _state = State.FINISHED;
+        _next.reset();
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean isCompressible(ByteBuffer content, boolean complete)
+    {
+        Response response = _channel.getResponse();
+        if (response.isCommitted())
+            return false;
+
+        int sc = response.getStatus();
+        if (sc > 0 && (sc < 200 || sc == 204 || sc == 205 || sc >= 300))
+            return false;
+
+        if (response.getHttpFields().containsKey(HttpHeader.CONTENT_ENCODING.asString()))
+            return false;
+
+        String ct = response.getContentType();
+        if (ct != null)
+        {
+            int semi = ct.indexOf(';');
+            if (semi > 0)
+                ct = ct.substring(0,semi).trim();
+        }
+        if (_mimeTypes == null && ct != null && ct.contains("gzip") ||
+            _mimeTypes != null && (ct == null || !_mimeTypes.contains(StringUtil.asciiToLowerCase(ct))))
+            return false;
+
+        long length = response.getLongContentLength();
+        if (length < 0 && complete)
+            length = BufferUtil.length(content);
+        return length < 0 || length >= _minCompressSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void startCompressing()
+    {
+        Response response = _channel.getResponse();
+        HttpFields fields = response.getHttpFields();
+        fields.put(HttpHeader.CONTENT_ENCODING,"gzip");
+        if (_vary != null)
+            fields.put(HttpHeader.VARY,_vary);
+        response.setHeader(HttpHeader.CONTENT_LENGTH,null);
+        String etag = fields.getStringField(HttpHeader.ETAG);
+        if (etag != null && etag.endsWith("\""))
+            fields.put(HttpHeader.ETAG,etag.substring(0,etag.length() - 1) + "--gzip\"");
+
+        _deflater = _pool.acquire(Deflater.DEFAULT_COMPRESSION,true);
+        _buffer = _channel.getByteBufferPool().acquire(Math.max(_bufferSize,GZIP_HEADER.length + GZIP_TRAILER_SIZE),false);
+        BufferUtil.clear(_buffer);
+        BufferUtil.append(_buffer,GZIP_HEADER,0,GZIP_HEADER.length);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void stopCompressing()
+    {
+        HttpFields fields = _channel.getResponse().getHttpFields();
+        if ("gzip".equals(fields.getStringField(HttpHeader.CONTENT_ENCODING)))
+            fields.remove(HttpHeader.CONTENT_ENCODING);
+        String etag = fields.getStringField(HttpHeader.ETAG);
+        if (etag != null && etag.endsWith("--gzip\""))
+            fields.put(HttpHeader.ETAG,etag.substring(0,etag.length() - 7) + "\"");
+    }
+
+    /* ------------------------------------------------------------ */
+    private void compress(ByteBuffer content, boolean complete, boolean flush) throws IOException
+    {
+        try
+        {
+            while (BufferUtil.hasContent(content))
+            {
+                byte[] array;
+                int offset;
+                int length;
+                if (content.hasArray())
+                {
+                    array = content.array();
+                    offset = content.arrayOffset() + content.position();
+                    length = content.remaining();
+                    content.position(content.limit());
+                }
+                else
+                {
+                    // Direct or read only buffers, such as those of cached or mapped static content
+                    if (_input == null)
+                        _input = new byte[_bufferSize];
+                    array = _input;
+                    offset = 0;
+                    length = Math.min(content.remaining(),_input.length);
+                    content.get(_input,0,length);
+                }
+
+                _crc.update(array,offset,length);
+                _deflater.setInput(array,offset,length);
+                while (!_deflater.needsInput())
+                    deflate(Deflater.NO_FLUSH);
+            }
+
+            if (complete)
+            {
+                _deflater.finish();
+                while (!_deflater.finished())
+                    deflate(Deflater.NO_FLUSH);
+
+                if (BufferUtil.space(_buffer) < GZIP_TRAILER_SIZE)
+                    writeBuffer(false);
+                byte[] trailer = new byte[GZIP_TRAILER_SIZE];
+                writeInt((int)_crc.getValue(),trailer,0);
+                writeInt((int)_deflater.getBytesRead(),trailer,4);
+                BufferUtil.append(_buffer,trailer,0,trailer.length);
+
+                _state = State.FINISHED;
+                releaseDeflater();
+                writeBuffer(true);
+                releaseBuffer();
+            }
+            else if (flush)
+            {
+                while (deflate(Deflater.SYNC_FLUSH))
+                {
+                    // repeat until the deflater has space left in the buffer
+                }
+                writeBuffer(false);
+            }
+            else if (!_channel.getResponse().isCommitted())
+            {
+                // Commit with the header and whatever has been deflated so far
+                writeBuffer(false);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            _state = State.FINISHED;
+            releaseDeflater();
+            releaseBuffer();
+            throw e;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Deflate into the space left in the buffer, writing the buffer when it is full.
+     * @return true if the buffer was filled
+     */
+    private boolean deflate(int flush) throws IOException
+    {
+        int pos = BufferUtil.flipToFill(_buffer);
+        int space = _buffer.remaining();
+        long start = System.nanoTime();
+        int len = _deflater.deflate(_buffer.array(),_buffer.arrayOffset() + _buffer.position(),space,flush);
+        _nanos += System.nanoTime() - start;
+        _buffer.position(_buffer.position() + len);
+        BufferUtil.flipToFlush(_buffer,pos);
+
+        if (len < space)
+            return false;
+        writeBuffer(false);
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void writeBuffer(boolean complete) throws IOException
+    {
+        _next.write(_buffer,complete,complete);
+        BufferUtil.clear(_buffer);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void writeInt(int value, byte[] b, int offset)
+    {
+        b[offset] = (byte)value;
+        b[offset + 1] = (byte)(value >> 8);
+        b[offset + 2] = (byte)(value >> 16);
+        b[offset + 3] = (byte)(value >> 24);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void releaseDeflater()
+    {
+        if (_deflater != null)
+        {
+            _pool.onCompressed(_deflater.getBytesRead(),_deflater.getBytesWritten() + GZIP_HEADER.length + GZIP_TRAILER_SIZE,_nanos);
+            _pool.release(_deflater,Deflater.DEFAULT_COMPRESSION,true);
+            _deflater = null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void releaseBuffer()
+    {
+        if (_buffer != null)
+        {
+            _channel.getByteBufferPool().release(_buffer);
+            _buffer = null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s}",getClass().getSimpleName(),hashCode(),_state);
+    }
+}
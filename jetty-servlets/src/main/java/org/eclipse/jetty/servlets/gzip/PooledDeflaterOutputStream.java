@@ -0,0 +1,201 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.HttpChannel;
+
+/* ------------------------------------------------------------ */
+/**
+ * A {@link DeflaterOutputStream} that borrows its {@link Deflater} from a {@link DeflaterPool}
+ * and returns it when closed.
+ * <p>
+ * The stream writes either deflate data or, for {@link #gzip(OutputStream, DeflaterPool, int)},
+ * the gzip header and trailer around raw deflate data, as {@link java.util.zip.GZIPOutputStream}
+ * cannot be given a pooled deflater. When called from a request thread, the buffer that the
+ * deflater compresses into is taken from the connector's {@link ByteBufferPool}.
+ */
+public class PooledDeflaterOutputStream extends DeflaterOutputStream
+{
+    private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final DeflaterPool _pool;
+    private final int _level;
+    private final boolean _nowrap;
+    private final CRC32 _crc;
+    private final ByteBufferPool _bufferPool;
+    private final ByteBuffer _buffer;
+    private long _nanos;
+    private boolean _closed;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param out the stream to write the gzip data to
+     * @param pool the pool to borrow the deflater from
+     * @param bufferSize the size of the compression buffer
+     * @return a stream writing gzip data
+     * @throws IOException if the gzip header cannot be written
+     */
+    public static PooledDeflaterOutputStream gzip(OutputStream out, DeflaterPool pool, int bufferSize) throws IOException
+    {
+        PooledDeflaterOutputStream stream = new PooledDeflaterOutputStream(out,pool,Deflater.DEFAULT_COMPRESSION,true,true,bufferSize);
+        out.write(GZIP_HEADER);
+        return stream;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param out the stream to write the deflate data to
+     * @param pool the pool to borrow the deflater from
+     * @param level the compression level
+     * @param nowrap true to write raw deflate data without the zlib header and checksum
+     * @param bufferSize the size of the compression buffer
+     * @return a stream writing deflate data
+     */
+    public static PooledDeflaterOutputStream deflate(OutputStream out, DeflaterPool pool, int level, boolean nowrap, int bufferSize)
+    {
+        return new PooledDeflaterOutputStream(out,pool,level,nowrap,false,bufferSize);
+    }
+
+    /* ------------------------------------------------------------ */
+    private PooledDeflaterOutputStream(OutputStream out, DeflaterPool pool, int level, boolean nowrap, boolean gzip, int bufferSize)
+    {
+        // The buffer allocated by the super constructor is replaced by a pooled one below
+        super(out,pool.acquire(level,nowrap),1);
+        _pool = pool;
+        _level = level;
+        _nowrap = nowrap;
+        _crc = gzip ? new CRC32() : null;
+
+        HttpChannel<?> channel = HttpChannel.getCurrentHttpChannel();
+        ByteBufferPool bufferPool = channel == null ? null : channel.getByteBufferPool();
+        ByteBuffer buffer = bufferPool == null ? null : bufferPool.acquire(bufferSize,false);
+        if (buffer != null && buffer.hasArray() && buffer.arrayOffset() == 0)
+        {
+            _bufferPool = bufferPool;
+            _buffer = buffer;
+            buf = buffer.array();
+        }
+        else
+        {
+            _bufferPool = null;
+            _buffer = null;
+            buf = new byte[bufferSize];
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (_closed)
+            throw new IOException("Closed");
+        super.write(b,off,len);
+        if (_crc != null)
+            _crc.update(b,off,len);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void deflate() throws IOException
+    {
+        long start = System.nanoTime();
+        int len = def.deflate(buf,0,buf.length);
+        _nanos += System.nanoTime() - start;
+        if (len > 0)
+            out.write(buf,0,len);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void finish() throws IOException
+    {
+        if (_closed || def.finished())
+            return;
+
+        def.finish();
+        while (!def.finished())
+            deflate();
+
+        if (_crc != null)
+        {
+            byte[] trailer = new byte[GZIP_TRAILER_SIZE];
+            writeInt((int)_crc.getValue(),trailer,0);
+            writeInt((int)def.getBytesRead(),trailer,4);
+            out.write(trailer);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void writeInt(int value, byte[] b, int offset)
+    {
+        b[offset] = (byte)value;
+        b[offset + 1] = (byte)(value >> 8);
+        b[offset + 2] = (byte)(value >> 16);
+        b[offset + 3] = (byte)(value >> 24);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Finishes the compressed data, closes the underlying stream and returns
+     * the deflater and buffer to their pools.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (_closed)
+            return;
+        try
+        {
+            finish();
+            out.close();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Returns the deflater and buffer to their pools without closing the underlying
+     * stream, for when the compressed data has been {@link #finish() finished} or is
+     * discarded. The stream cannot be written afterwards.
+     */
+    public void release()
+    {
+        if (_closed)
+            return;
+        _closed = true;
+        long overhead = _crc == null ? 0 : GZIP_HEADER.length + GZIP_TRAILER_SIZE;
+        _pool.onCompressed(def.getBytesRead(),def.getBytesWritten() + overhead,_nanos);
+        _pool.release(def,_level,_nowrap);
+        if (_bufferPool != null)
+            _bufferPool.release(_buffer);
+        buf = null;
+    }
+}
@@ -73,6 +73,64 @@ public class DoSFilterTest extends AbstractDoSFilterTest
         assertFalse("Should not exceed as we sleep 300s for each hit and thus do less than 4 hits/s",exceeded);
     }
 
+    @Test
+    public void testRateTrackerRecovers()
+    {
+        DoSFilter doSFilter = new DoSFilter();
+        RateTracker rateTracker = doSFilter.new RateTracker("test3",0,4);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 4; i++)
+            assertFalse(rateTracker.isRateExceeded(now));
+        for (int i = 0; i < 100; i++)
+            assertTrue(rateTracker.isRateExceeded(now));
+
+        // flooding does not push recovery further than a second away
+        assertFalse(rateTracker.isRateExceeded(now + 1000));
+    }
+
+    @Test
+    public void testRateTrackerSlidingWindow()
+    {
+        DoSFilter doSFilter = new DoSFilter();
+        RateTracker rateTracker = doSFilter.new RateTracker("test5",0,4);
+        long second = System.currentTimeMillis() / 1000 * 1000;
+
+        // 4 requests at the end of a second
+        for (int i = 0; i < 4; i++)
+            assertFalse(rateTracker.isRateExceeded(second + 900));
+
+        // early in the next second, the previous requests are still within the last second
+        assertTrue(rateTracker.isRateExceeded(second + 1100));
+        assertTrue(rateTracker.isRateExceeded(second + 1899));
+        assertFalse(rateTracker.isRateExceeded(second + 1900));
+
+        // no more than 4 requests are allowed within any second of a flood
+        rateTracker = doSFilter.new RateTracker("test6",0,4);
+        List<Long> allowed = new ArrayList<Long>();
+        for (long time = second; time < second + 3000; time += 70)
+        {
+            if (!rateTracker.isRateExceeded(time))
+                allowed.add(time);
+        }
+        assertTrue(allowed.size() >= 3 * 3);
+        for (int i = 4; i < allowed.size(); i++)
+            assertTrue("allowed: " + allowed,allowed.get(i) - allowed.get(i - 4) >= 1000);
+    }
+
+    @Test
+    public void testRateTrackerIdle()
+    {
+        DoSFilter doSFilter = new DoSFilter();
+        RateTracker rateTracker = doSFilter.new RateTracker("test4",0,4);
+        long now = System.currentTimeMillis();
+
+        assertTrue(rateTracker.isIdleSince(now));
+        rateTracker.isRateExceeded(now);
+        assertFalse(rateTracker.isIdleSince(now));
+        assertTrue(rateTracker.isIdleSince(now + 1000));
+    }
+
     @Test
     public void testWhitelist() throws Exception
     {
@@ -86,6 +144,19 @@ public class DoSFilterTest extends AbstractDoSFilterTest
         Assert.assertTrue(filter.checkWhitelist(whitelist, "10.11.12.13"));
         Assert.assertTrue(filter.checkWhitelist(whitelist, "10.0.0.0"));
         Assert.assertFalse(filter.checkWhitelist(whitelist, "0.0.0.0"));
+
+        // A changed list is compiled again
+        whitelist.add("11.0.0.0/8");
+        Assert.assertTrue(filter.checkWhitelist(whitelist, "11.12.13.14"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testSubnetMatch() throws Exception
+    {
+        DoSFilter filter = new DoSFilter();
+        Assert.assertTrue(filter.subnetMatch("10.0.0.0/8", "10.11.12.13"));
+        Assert.assertFalse(filter.subnetMatch("10.0.0.0/8", "11.12.13.14"));
     }
 
     private boolean hitRateTracker(DoSFilter doSFilter, int sleep) throws InterruptedException
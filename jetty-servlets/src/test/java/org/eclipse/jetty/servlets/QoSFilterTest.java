@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.servlets;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -63,6 +64,7 @@ public class QoSFilterTest
         _tester = new ServletTester();
         _tester.setContextPath("/context");
         _tester.addServlet(TestServlet.class, "/test");
+        _tester.addServlet(LatencyServlet.class, "/latency");
         TestServlet.__maxSleepers=0;
         TestServlet.__sleepers=0;
 
@@ -130,6 +132,60 @@ public class QoSFilterTest
         assertTrue(TestServlet.__maxSleepers<=MAX_QOS);
     }
 
+    @Test
+    public void testAdaptiveQosFilter() throws Exception
+    {
+        FilterHolder holder = new FilterHolder(QoSFilter2.class);
+        holder.setAsyncSupported(true);
+        holder.setInitParameter(QoSFilter.MAX_REQUESTS_INIT_PARAM, ""+MAX_QOS);
+        holder.setInitParameter(QoSFilter.ADAPTIVE_INIT_PARAM, "true");
+        _tester.getContext().getServletHandler().addFilterWithMapping(holder,"/*",EnumSet.of(DispatcherType.REQUEST,DispatcherType.ASYNC));
+
+        for(int i = 0; i < NUM_CONNECTIONS; ++i )
+        {
+            new Thread(new Worker(i)).start();
+        }
+
+        assertTrue(_doneRequests.await(20,TimeUnit.SECONDS));
+        assertTrue(TestServlet.__maxSleepers<=MAX_QOS);
+
+        QoSFilter filter = (QoSFilter)holder.getFilter();
+        assertTrue(filter.getLimit()>=1);
+        assertTrue(filter.getLimit()<=MAX_QOS);
+        assertEquals(0,filter.getQueueSize());
+        assertEquals(0,filter.getActiveRequests());
+    }
+
+    @Test
+    public void testAdaptiveLimitFollowsLatency() throws Exception
+    {
+        FilterHolder holder = new FilterHolder(QoSFilter.class);
+        holder.setAsyncSupported(true);
+        holder.setInitParameter(QoSFilter.MAX_REQUESTS_INIT_PARAM, "16");
+        holder.setInitParameter(QoSFilter.ADAPTIVE_INIT_PARAM, "true");
+        _tester.getContext().getServletHandler().addFilterWithMapping(holder,"/*",EnumSet.of(DispatcherType.REQUEST,DispatcherType.ASYNC));
+        QoSFilter filter = (QoSFilter)holder.getFilter();
+        assertEquals(16,filter.getLimit());
+
+        // requests of steady latency establish the baseline; one at a time does not use enough of the limit to grow it
+        LatencyServlet.__sleepMs=5;
+        for (int i=0;i<48;i++)
+            assertTrue(_connectors[0].getResponses("GET /context/latency HTTP/1.0\r\n\r\n").contains("200 OK"));
+        assertEquals(16,filter.getLimit());
+        assertTrue(filter.getMinLatency()>0);
+
+        // slow requests reduce the limit
+        LatencyServlet.__sleepMs=50;
+        for (int i=0;i<48;i++)
+            assertTrue(_connectors[0].getResponses("GET /context/latency HTTP/1.0\r\n\r\n").contains("200 OK"));
+        assertTrue(filter.getLimit()<16);
+        assertTrue(filter.getLimit()>=filter.getMinRequests());
+
+        // turning adaptive mode off restores the maximum
+        filter.setAdaptive(false);
+        assertEquals(16,filter.getLimit());
+    }
+
     class Worker implements Runnable {
         private int _num;
         public Worker(int num)
@@ -230,6 +286,26 @@ public class QoSFilterTest
         }
     }
 
+    public static class LatencyServlet extends HttpServlet implements Servlet
+    {
+        private static volatile long __sleepMs;
+
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            try
+            {
+                if (__sleepMs>0)
+                    Thread.sleep(__sleepMs);
+                response.setContentType("text/plain");
+                response.getWriter().println("DONE!");
+            }
+            catch (InterruptedException e)
+            {
+                response.sendError(500);
+            }
+        }
+    }
+
     public static class QoSFilter2 extends QoSFilter
     {
         public int getPriority(ServletRequest request)
@@ -0,0 +1,266 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GzipHttpOutputInterceptorTest
+{
+    private static final String CONTENT;
+    static
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            builder.append("Line ").append(i).append(" of the compressible test content\n");
+        CONTENT = builder.toString();
+    }
+
+    private Server _server;
+    private LocalConnector _connector;
+    private GzipHandler _gzipHandler;
+    private final AtomicReference<Throwable> _asyncFailure = new AtomicReference<>();
+    private final AtomicReference<HttpChannel<?>> _aborted = new AtomicReference<>();
+
+    @Before
+    public void init() throws Exception
+    {
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+
+        _gzipHandler = new GzipHandler();
+        _gzipHandler.setInterceptOutput(true);
+        _gzipHandler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, final Request baseRequest, HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setContentType("text/plain");
+
+                if ("/small".equals(target))
+                {
+                    response.getWriter().write("small");
+                }
+                else if ("/flushed".equals(target))
+                {
+                    ServletOutputStream out = response.getOutputStream();
+                    byte[] content = CONTENT.getBytes("UTF-8");
+                    int half = content.length / 2;
+                    out.write(content,0,half);
+                    out.flush();
+                    out.write(content,half,content.length - half);
+                }
+                else if ("/chunks".equals(target))
+                {
+                    ServletOutputStream out = response.getOutputStream();
+                    byte[] content = CONTENT.getBytes("UTF-8");
+                    for (int offset = 0; offset < content.length; offset += 1000)
+                        out.write(content,offset,Math.min(1000,content.length - offset));
+                }
+                else if ("/async".equals(target))
+                {
+                    final AsyncContext async = request.startAsync();
+                    new Thread()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                ServletOutputStream out = response.getOutputStream();
+                                for (String line : CONTENT.split("(?<=\n)"))
+                                {
+                                    out.write(line.getBytes("UTF-8"));
+                                    out.flush();
+                                }
+                            }
+                            catch (IOException e)
+                            {
+                                _asyncFailure.set(e);
+                            }
+                            finally
+                            {
+                                async.complete();
+                            }
+                        }
+                    }.start();
+                }
+                else if ("/aborted".equals(target))
+                {
+                    // The response is never completed, so the test can abort it
+                    request.startAsync();
+                    ServletOutputStream out = response.getOutputStream();
+                    out.write(CONTENT.getBytes("UTF-8"));
+                    out.flush();
+                    _aborted.set(baseRequest.getHttpChannel());
+                }
+                else if ("/encoded".equals(target))
+                {
+                    response.setHeader("Content-Encoding","identity");
+                    response.getWriter().write(CONTENT);
+                }
+                else
+                {
+                    response.setContentLength(CONTENT.length());
+                    response.getWriter().write(CONTENT);
+                }
+            }
+        });
+
+        _server.setHandler(_gzipHandler);
+        _server.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _server.stop();
+        _server.join();
+    }
+
+    private HttpTester.Response request(String uri) throws Exception
+    {
+        HttpTester.Request request = HttpTester.newRequest();
+        request.setMethod("GET");
+        request.setVersion("HTTP/1.1");
+        request.setHeader("Host","tester");
+        request.setHeader("Connection","close");
+        request.setHeader("Accept-Encoding","gzip");
+        request.setURI(uri);
+        return HttpTester.parseResponse(_connector.getResponses(request.generate(),5,TimeUnit.SECONDS));
+    }
+
+    private static String gunzip(byte[] content) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IO.copy(new GZIPInputStream(new ByteArrayInputStream(content)),out);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testCompressed() throws Exception
+    {
+        HttpTester.Response response = request("/");
+
+        Assert.assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        Assert.assertEquals("gzip",response.get("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding, User-Agent",response.get("Vary"));
+        Assert.assertTrue(response.getContentBytes().length < CONTENT.length());
+        Assert.assertEquals(CONTENT,gunzip(response.getContentBytes()));
+
+        DeflaterPool pool = _gzipHandler.getDeflaterPool();
+        Assert.assertEquals(1,pool.getCompressedCount());
+        Assert.assertEquals(CONTENT.length(),pool.getBytesIn());
+        Assert.assertEquals(1,pool.getIdleDeflaters());
+    }
+
+    @Test
+    public void testFlushedCompressed() throws Exception
+    {
+        HttpTester.Response response = request("/flushed");
+
+        Assert.assertEquals("gzip",response.get("Content-Encoding"));
+        Assert.assertEquals(CONTENT,gunzip(response.getContentBytes()));
+    }
+
+    @Test
+    public void testAsyncCompressed() throws Exception
+    {
+        HttpTester.Response response = request("/async");
+
+        Assert.assertNull(_asyncFailure.get());
+        Assert.assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        Assert.assertEquals("gzip",response.get("Content-Encoding"));
+        Assert.assertEquals(CONTENT,gunzip(response.getContentBytes()));
+    }
+
+    @Test
+    public void testUnflushedChunksCompressed() throws Exception
+    {
+        HttpTester.Response response = request("/chunks");
+
+        Assert.assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        Assert.assertEquals("gzip",response.get("Content-Encoding"));
+        Assert.assertEquals(CONTENT,gunzip(response.getContentBytes()));
+        Assert.assertEquals(1,_gzipHandler.getDeflaterPool().getIdleDeflaters());
+    }
+
+    @Test
+    public void testAbortedReleasesDeflater() throws Exception
+    {
+        HttpTester.Request request = HttpTester.newRequest();
+        request.setMethod("GET");
+        request.setVersion("HTTP/1.1");
+        request.setHeader("Host","tester");
+        request.setHeader("Connection","close");
+        request.setHeader("Accept-Encoding","gzip");
+        request.setURI("/aborted");
+        String response = BufferUtil.toString(_connector.getResponses(request.generate(),1,TimeUnit.SECONDS));
+        Assert.assertTrue(response.contains("Content-Encoding: gzip"));
+        Assert.assertEquals(0,_gzipHandler.getDeflaterPool().getIdleDeflaters());
+
+        // Recycle the channel of the incomplete response, as when its connection is aborted
+        _aborted.get().reset();
+        Assert.assertEquals(1,_gzipHandler.getDeflaterPool().getIdleDeflaters());
+    }
+
+    @Test
+    public void testSmallNotCompressed() throws Exception
+    {
+        HttpTester.Response response = request("/small");
+
+        Assert.assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        Assert.assertNull(response.get("Content-Encoding"));
+        Assert.assertEquals("small",response.getContent());
+    }
+
+    @Test
+    public void testEncodedNotCompressed() throws Exception
+    {
+        HttpTester.Response response = request("/encoded");
+
+        Assert.assertEquals("identity",response.get("Content-Encoding"));
+        Assert.assertEquals(CONTENT,response.getContent());
+    }
+}
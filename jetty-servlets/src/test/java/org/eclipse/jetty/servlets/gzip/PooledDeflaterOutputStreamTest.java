@@ -0,0 +1,173 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.jetty.util.IO;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PooledDeflaterOutputStreamTest
+{
+    private static byte[] content()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+            builder.append("Line ").append(i).append(" of some compressible content\n");
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IO.copy(in,out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool();
+        byte[] content = content();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PooledDeflaterOutputStream gzip = PooledDeflaterOutputStream.gzip(out,pool,512);
+        gzip.write(content,0,100);
+        gzip.write(content[100]);
+        gzip.write(content,101,content.length - 101);
+        gzip.close();
+
+        Assert.assertArrayEquals(content,read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+        Assert.assertEquals(1,pool.getCompressedCount());
+        Assert.assertEquals(content.length,pool.getBytesIn());
+        Assert.assertEquals(out.size(),pool.getBytesOut());
+        Assert.assertEquals(content.length - out.size(),pool.getBytesSaved());
+        Assert.assertTrue(pool.getCompressionRatio() < 0.5);
+    }
+
+    @Test
+    public void testDeflateRoundTrip() throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool();
+        byte[] content = content();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PooledDeflaterOutputStream deflate = PooledDeflaterOutputStream.deflate(out,pool,9,true,512);
+        deflate.write(content);
+        deflate.close();
+
+        Assert.assertArrayEquals(content,read(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray()),new Inflater(true))));
+    }
+
+    @Test
+    public void testDeflaterReused() throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool();
+        byte[] content = content();
+
+        for (int i = 0; i < 3; i++)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PooledDeflaterOutputStream gzip = PooledDeflaterOutputStream.gzip(out,pool,1024);
+            gzip.write(content);
+            gzip.close();
+            gzip.close();
+            Assert.assertArrayEquals(content,read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+        }
+
+        Assert.assertEquals(1,pool.getDeflatersCreated());
+        Assert.assertEquals(1,pool.getIdleDeflaters());
+        Assert.assertEquals(3,pool.getCompressedCount());
+
+        pool.clear();
+        Assert.assertEquals(0,pool.getIdleDeflaters());
+    }
+
+    @Test
+    public void testWriteAfterClose() throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool();
+        PooledDeflaterOutputStream gzip = PooledDeflaterOutputStream.gzip(new ByteArrayOutputStream(),pool,512);
+        gzip.close();
+        try
+        {
+            gzip.write(content());
+            Assert.fail();
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMaxPooled() throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool();
+        pool.setMaxPooled(1);
+
+        PooledDeflaterOutputStream first = PooledDeflaterOutputStream.gzip(new ByteArrayOutputStream(),pool,512);
+        PooledDeflaterOutputStream second = PooledDeflaterOutputStream.deflate(new ByteArrayOutputStream(),pool,-1,true,512);
+        first.close();
+        second.close();
+
+        Assert.assertEquals(2,pool.getDeflatersCreated());
+        Assert.assertEquals(1,pool.getIdleDeflaters());
+    }
+
+    @Test
+    public void testReleaseWithoutClose() throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool();
+        byte[] content = content();
+        final boolean[] closed = new boolean[1];
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        {
+            @Override
+            public void close()
+            {
+                closed[0] = true;
+            }
+        };
+        PooledDeflaterOutputStream gzip = PooledDeflaterOutputStream.gzip(out,pool,512);
+        gzip.write(content);
+        gzip.finish();
+        gzip.release();
+        gzip.release();
+
+        Assert.assertFalse(closed[0]);
+        Assert.assertEquals(1,pool.getIdleDeflaters());
+        Assert.assertArrayEquals(content,read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+
+        // A discarded stream returns its deflater too
+        PooledDeflaterOutputStream discarded = PooledDeflaterOutputStream.gzip(new ByteArrayOutputStream(),pool,512);
+        discarded.write(content);
+        discarded.release();
+        Assert.assertEquals(1,pool.getDeflatersCreated());
+        Assert.assertEquals(1,pool.getIdleDeflaters());
+    }
+}
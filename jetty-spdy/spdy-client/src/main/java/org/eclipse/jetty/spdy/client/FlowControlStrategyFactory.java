@@ -19,6 +19,7 @@
 package org.eclipse.jetty.spdy.client;
 
 import org.eclipse.jetty.spdy.FlowControlStrategy;
+import org.eclipse.jetty.spdy.SPDYv3AdaptiveFlowControlStrategy;
 import org.eclipse.jetty.spdy.SPDYv3FlowControlStrategy;
 import org.eclipse.jetty.spdy.api.SPDY;
 
@@ -40,4 +41,22 @@ public class FlowControlStrategyFactory
                 throw new IllegalStateException();
         }
     }
+
+    /**
+     * @param version the SPDY version
+     * @param initialWindowSize the initial receive window size of the session
+     * @param windowUpdateRatio the fraction of the receive window to consume before sending
+     * a window update, or 0 to send a window update for every consumed data frame
+     * @param maxWindowSize the max receive window size for auto-tuning, or 0 to disable auto-tuning
+     * @return a new flow control strategy
+     */
+    public static FlowControlStrategy newFlowControlStrategy(short version, int initialWindowSize, float windowUpdateRatio, int maxWindowSize)
+    {
+        if (version == SPDY.V3 && (windowUpdateRatio > 0 || maxWindowSize > 0))
+        {
+            float ratio = windowUpdateRatio > 0 ? windowUpdateRatio : SPDYv3AdaptiveFlowControlStrategy.DEFAULT_WINDOW_UPDATE_RATIO;
+            return new SPDYv3AdaptiveFlowControlStrategy(ratio, initialWindowSize, maxWindowSize);
+        }
+        return newFlowControlStrategy(version);
+    }
 }
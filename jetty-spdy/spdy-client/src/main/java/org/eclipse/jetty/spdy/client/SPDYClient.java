@@ -30,6 +30,7 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 import javax.net.ssl.SSLEngine;
 
 import org.eclipse.jetty.io.ByteBufferPool;
@@ -44,6 +45,7 @@ import org.eclipse.jetty.spdy.FlowControlStrategy;
 import org.eclipse.jetty.spdy.api.GoAwayInfo;
 import org.eclipse.jetty.spdy.api.Session;
 import org.eclipse.jetty.spdy.api.SessionFrameListener;
+import org.eclipse.jetty.spdy.generator.HeadersBlockCache;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.FuturePromise;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
@@ -60,6 +62,10 @@ public class SPDYClient
     private volatile SocketAddress bindAddress;
     private volatile long idleTimeout = -1;
     private volatile int initialWindowSize;
+    private volatile float windowUpdateRatio;
+    private volatile int maxWindowSize;
+    private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private final HeadersBlockCache headersBlockCache = new HeadersBlockCache();
 
     protected SPDYClient(short version, Factory factory)
     {
@@ -125,6 +131,56 @@ public class SPDYClient
         this.initialWindowSize = initialWindowSize;
     }
 
+    /**
+     * @return the fraction of the receive window to consume before sending a window update,
+     * or 0 to send a window update for every consumed data frame
+     */
+    public float getWindowUpdateRatio()
+    {
+        return windowUpdateRatio;
+    }
+
+    public void setWindowUpdateRatio(float windowUpdateRatio)
+    {
+        this.windowUpdateRatio = windowUpdateRatio;
+    }
+
+    /**
+     * @return the max receive window size the receive window may be auto-tuned to,
+     * or 0 to disable auto-tuning
+     */
+    public int getMaxWindowSize()
+    {
+        return maxWindowSize;
+    }
+
+    public void setMaxWindowSize(int maxWindowSize)
+    {
+        this.maxWindowSize = maxWindowSize;
+    }
+
+    /**
+     * @return the compression level used to deflate headers
+     * @see Deflater#setLevel(int)
+     */
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the cache of serialized headers blocks shared by the sessions of this client
+     */
+    public HeadersBlockCache getHeadersBlockCache()
+    {
+        return headersBlockCache;
+    }
+
     protected String selectProtocol(List<String> serverProtocols)
     {
         String protocol = "spdy/" + version;
@@ -152,7 +208,7 @@ public class SPDYClient
 
     protected FlowControlStrategy newFlowControlStrategy()
     {
-        return FlowControlStrategyFactory.newFlowControlStrategy(version);
+        return FlowControlStrategyFactory.newFlowControlStrategy(version, getInitialWindowSize(), getWindowUpdateRatio(), getMaxWindowSize());
     }
 
     public static class Factory extends ContainerLifeCycle
@@ -41,9 +41,9 @@ public class SPDYClientConnectionFactory
         Factory factory = client.factory;
         ByteBufferPool bufferPool = factory.getByteBufferPool();
 
-        CompressionFactory compressionFactory = new StandardCompressionFactory();
+        CompressionFactory compressionFactory = new StandardCompressionFactory(client.getCompressionLevel());
         Parser parser = new Parser(compressionFactory.newDecompressor());
-        Generator generator = new Generator(bufferPool, compressionFactory.newCompressor());
+        Generator generator = new Generator(bufferPool, compressionFactory.newCompressor(), client.getHeadersBlockCache());
 
         SPDYConnection connection = new ClientSPDYConnection(endPoint, bufferPool, parser, factory);
 
@@ -126,6 +126,13 @@ public class SPDYConnection extends AbstractConnection implements Controller, Id
         endPoint.write(callback, buffer);
     }
 
+    @Override
+    public void write(Callback callback, ByteBuffer... buffers)
+    {
+        EndPoint endPoint = getEndPoint();
+        endPoint.write(callback, buffers);
+    }
+
     @Override
     public void close()
     {
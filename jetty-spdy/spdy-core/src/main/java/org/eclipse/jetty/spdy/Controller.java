@@ -26,5 +26,14 @@ public interface Controller
 {
     public void write(ByteBuffer buffer, Callback callback);
 
+    /**
+     * <p>Writes the given buffers with a single (gathering) write, notifying the callback once all of them
+     * have been written.</p>
+     *
+     * @param callback the callback to notify when all the buffers have been written
+     * @param buffers the buffers to write
+     */
+    public void write(Callback callback, ByteBuffer... buffers);
+
     public void close(boolean onlyOutput);
 }
@@ -0,0 +1,374 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.spdy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.spdy.StandardSession.FrameBytes;
+
+/**
+ * <p>The queue of frames waiting to be written by a {@link StandardSession}.</p>
+ * <p>All operations are constant time (amortized): frames are kept in a FIFO per stream, and streams that have data
+ * ready to be written are kept in a round robin queue per priority.</p>
+ * <p>The order in which frames are returned by {@link #poll()} is:</p>
+ * <ol>
+ * <li>urgent frames (PING), in FIFO order;</li>
+ * <li>control frames, once all the frames previously queued for the same stream have been written; control frames
+ * carrying headers are also kept in the order they were generated (as required by the headers compression context),
+ * while other control frames (for example WINDOW_UPDATE or RST_STREAM) may overtake control frames that are waiting
+ * for their stream;</li>
+ * <li>data frames, from the streams with the highest priority first, taking one frame from each stream in turn;</li>
+ * <li>frames {@link #appendLast(FrameBytes) appended last} (the close of the session), once no other control frame
+ * is queued and all the data frames, including those of stalled streams, have been written and completed.</li>
+ * </ol>
+ * <p>Data frames of a stream that is stalled by flow control are not considered until the stream is
+ * {@link #resume(IStream) resumed}, and at most one data frame per stream is in flight at any time.</p>
+ * <p>This class is not thread safe, callers must provide synchronization.</p>
+ */
+public class FrameQueue
+{
+    private static final int PRIORITIES = 8;
+
+    private final ArrayDeque<FrameBytes> urgent = new ArrayDeque<>();
+    private final ArrayDeque<Entry> controls = new ArrayDeque<>();
+    private final ArrayDeque<FrameBytes> last = new ArrayDeque<>();
+    private final List<ArrayDeque<StreamFrames>> priorities = new ArrayList<>(PRIORITIES);
+    private final Map<IStream, StreamFrames> streams = new HashMap<>();
+    private int size;
+
+    public FrameQueue()
+    {
+        for (int i = 0; i < PRIORITIES; ++i)
+            priorities.add(new ArrayDeque<StreamFrames>());
+    }
+
+    /**
+     * @return the number of frames in the queue, not including in flight frames
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @param frameBytes the frame to write before any other
+     */
+    public void prepend(FrameBytes frameBytes)
+    {
+        urgent.addLast(frameBytes);
+        ++size;
+    }
+
+    /**
+     * @param frameBytes the control frame carrying headers to write after the control frames already queued
+     */
+    public void appendControl(FrameBytes frameBytes)
+    {
+        appendControl(frameBytes, true);
+    }
+
+    /**
+     * @param frameBytes the control frame to write after the control frames already queued
+     * @param headers whether the frame carries compressed headers, and so must be written in the order it was generated
+     */
+    public void appendControl(FrameBytes frameBytes, boolean headers)
+    {
+        Entry entry = new Entry(frameBytes, true, headers);
+        controls.addLast(entry);
+        IStream stream = frameBytes.getStream();
+        if (stream != null)
+            streamFrames(stream).frames.addLast(entry);
+        ++size;
+    }
+
+    /**
+     * @param frameBytes the frame to write after all the other frames, queued before or after it, have been written
+     */
+    public void appendLast(FrameBytes frameBytes)
+    {
+        last.addLast(frameBytes);
+        ++size;
+    }
+
+    /**
+     * @param frameBytes the data frame to write after the frames already queued for its stream
+     */
+    public void appendData(FrameBytes frameBytes)
+    {
+        StreamFrames streamFrames = streamFrames(frameBytes.getStream());
+        streamFrames.frames.addLast(new Entry(frameBytes, false, false));
+        ++size;
+        schedule(streamFrames);
+    }
+
+    /**
+     * <p>Puts back a data frame returned by {@link #poll()} that could not be completely written, because the
+     * stream flow control window was exhausted or because there is more data to write.</p>
+     *
+     * @param frameBytes the data frame to write before any other frame of its stream
+     * @param stalled whether the stream is stalled by flow control
+     */
+    public void requeue(FrameBytes frameBytes, boolean stalled)
+    {
+        StreamFrames streamFrames = streamFrames(frameBytes.getStream());
+        streamFrames.frames.addFirst(new Entry(frameBytes, false, false));
+        ++size;
+        streamFrames.inFlight = false;
+        streamFrames.stalled = stalled;
+        schedule(streamFrames);
+    }
+
+    /**
+     * @param frameBytes the data frame returned by {@link #poll()} that has been completely written
+     */
+    public void completed(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        StreamFrames streamFrames = streams.get(stream);
+        if (streamFrames != null)
+        {
+            streamFrames.inFlight = false;
+            schedule(streamFrames);
+        }
+    }
+
+    /**
+     * @param stream the stream whose flow control window has been enlarged
+     */
+    public void resume(IStream stream)
+    {
+        StreamFrames streamFrames = streams.get(stream);
+        if (streamFrames != null && streamFrames.stalled)
+        {
+            streamFrames.stalled = false;
+            schedule(streamFrames);
+        }
+    }
+
+    /**
+     * Resumes all the streams, for example when the initial flow control window changes.
+     */
+    public void resumeAll()
+    {
+        for (StreamFrames streamFrames : streams.values())
+        {
+            if (streamFrames.stalled)
+            {
+                streamFrames.stalled = false;
+                schedule(streamFrames);
+            }
+        }
+    }
+
+    /**
+     * @return the next frame to write, or null if no frame can be written
+     */
+    public FrameBytes poll()
+    {
+        FrameBytes frameBytes = urgent.pollFirst();
+        if (frameBytes != null)
+        {
+            --size;
+            return frameBytes;
+        }
+
+        frameBytes = pollControl();
+        if (frameBytes != null)
+            return frameBytes;
+
+        for (ArrayDeque<StreamFrames> priority : priorities)
+        {
+            StreamFrames streamFrames;
+            while ((streamFrames = priority.pollFirst()) != null)
+            {
+                streamFrames.scheduled = false;
+                Entry entry = streamFrames.frames.peekFirst();
+                // The stream may have changed state after having been scheduled
+                if (entry == null || entry.control || streamFrames.inFlight || streamFrames.stalled)
+                {
+                    release(streamFrames);
+                    continue;
+                }
+                streamFrames.frames.pollFirst();
+                streamFrames.inFlight = true;
+                --size;
+                return entry.frameBytes;
+            }
+        }
+
+        // Streams are only released once their frames have been written and completed
+        if (controls.isEmpty() && streams.isEmpty())
+        {
+            frameBytes = last.pollFirst();
+            if (frameBytes != null)
+            {
+                --size;
+                return frameBytes;
+            }
+        }
+
+        return null;
+    }
+
+    private FrameBytes pollControl()
+    {
+        boolean headersBlocked = false;
+        for (Iterator<Entry> iterator = controls.iterator(); iterator.hasNext();)
+        {
+            Entry control = iterator.next();
+            // Headers cannot overtake headers generated before them
+            if (control.headers && headersBlocked)
+                continue;
+
+            IStream stream = control.frameBytes.getStream();
+            StreamFrames streamFrames = stream == null ? null : streams.get(stream);
+            if (streamFrames == null || (!streamFrames.inFlight && streamFrames.frames.peekFirst() == control))
+            {
+                iterator.remove();
+                --size;
+                if (streamFrames != null)
+                {
+                    streamFrames.frames.pollFirst();
+                    schedule(streamFrames);
+                }
+                return control.frameBytes;
+            }
+
+            // Waiting for the frames of its stream
+            if (control.headers)
+                headersBlocked = true;
+        }
+        return null;
+    }
+
+    /**
+     * @return all the queued frames, leaving this queue empty
+     */
+    public List<FrameBytes> clear()
+    {
+        List<FrameBytes> result = new ArrayList<>(size);
+        result.addAll(urgent);
+        urgent.clear();
+        for (Entry entry : controls)
+            result.add(entry.frameBytes);
+        controls.clear();
+        for (StreamFrames streamFrames : streams.values())
+        {
+            for (Entry entry : streamFrames.frames)
+            {
+                if (!entry.control)
+                    result.add(entry.frameBytes);
+            }
+        }
+        streams.clear();
+        for (ArrayDeque<StreamFrames> priority : priorities)
+            priority.clear();
+        result.addAll(last);
+        last.clear();
+        size = 0;
+        return result;
+    }
+
+    private StreamFrames streamFrames(IStream stream)
+    {
+        StreamFrames streamFrames = streams.get(stream);
+        if (streamFrames == null)
+        {
+            streamFrames = new StreamFrames(stream);
+            streams.put(stream, streamFrames);
+        }
+        return streamFrames;
+    }
+
+    private void schedule(StreamFrames streamFrames)
+    {
+        if (streamFrames.scheduled || streamFrames.inFlight || streamFrames.stalled)
+            return;
+        Entry entry = streamFrames.frames.peekFirst();
+        if (entry == null)
+        {
+            release(streamFrames);
+        }
+        else if (!entry.control)
+        {
+            // Control frames are polled from the controls queue
+            streamFrames.scheduled = true;
+            priorities.get(priority(streamFrames.stream)).addLast(streamFrames);
+        }
+    }
+
+    private void release(StreamFrames streamFrames)
+    {
+        if (!streamFrames.scheduled && !streamFrames.inFlight && streamFrames.frames.isEmpty())
+            streams.remove(streamFrames.stream);
+    }
+
+    private int priority(IStream stream)
+    {
+        int priority = stream.getPriority();
+        if (priority < 0)
+            return 0;
+        return Math.min(priority, PRIORITIES - 1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d,controls=%d,streams=%d}", getClass().getSimpleName(), hashCode(), size, controls.size(), streams.size());
+    }
+
+    private static class Entry
+    {
+        private final FrameBytes frameBytes;
+        private final boolean control;
+        private final boolean headers;
+
+        private Entry(FrameBytes frameBytes, boolean control, boolean headers)
+        {
+            this.frameBytes = frameBytes;
+            this.control = control;
+            this.headers = headers;
+        }
+    }
+
+    private static class StreamFrames
+    {
+        private final ArrayDeque<Entry> frames = new ArrayDeque<>();
+        private final IStream stream;
+        private boolean scheduled;
+        private boolean inFlight;
+        private boolean stalled;
+
+        private StreamFrames(IStream stream)
+        {
+            this.stream = stream;
+        }
+    }
+}
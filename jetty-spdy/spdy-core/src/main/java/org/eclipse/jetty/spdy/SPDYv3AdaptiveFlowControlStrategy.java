@@ -0,0 +1,270 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.spdy.api.DataInfo;
+import org.eclipse.jetty.spdy.api.Settings;
+import org.eclipse.jetty.spdy.api.SettingsInfo;
+import org.eclipse.jetty.spdy.frames.WindowUpdateFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A {@link FlowControlStrategy} for SPDY/3 that batches window updates.</p>
+ * <p>Rather than sending a WINDOW_UPDATE for every consumed {@link DataInfo}, consumed bytes
+ * are accumulated per stream and a WINDOW_UPDATE is sent only when they reach
+ * {@link #getWindowUpdateRatio() a fraction} of the receive window.</p>
+ * <p>If a {@link #getMaxReceiveWindowSize() max receive window size} greater than the current
+ * receive window is configured, the receive window is auto-tuned: every time the sender is found
+ * stalled on an exhausted window, the round trip time between our WINDOW_UPDATE and the next data
+ * frame is measured together with the stream receive rate; when the resulting bandwidth-delay
+ * product is close to the current receive window, the window is doubled by sending a SETTINGS
+ * frame with a new {@link Settings.ID#INITIAL_WINDOW_SIZE}.</p>
+ */
+public class SPDYv3AdaptiveFlowControlStrategy extends SPDYv3FlowControlStrategy
+{
+    public static final float DEFAULT_WINDOW_UPDATE_RATIO = 0.5F;
+    private static final Logger LOG = Log.getLogger(SPDYv3AdaptiveFlowControlStrategy.class);
+
+    private final ConcurrentMap<IStream, StreamWindow> windows = new ConcurrentHashMap<>();
+    private final AtomicInteger receiveWindowSize = new AtomicInteger();
+    private final AtomicLong bytesConsumed = new AtomicLong();
+    private final AtomicLong windowUpdates = new AtomicLong();
+    private final AtomicInteger windowIncreases = new AtomicInteger();
+    private final float windowUpdateRatio;
+    private final int maxReceiveWindowSize;
+    private volatile long roundTripTime;
+
+    public SPDYv3AdaptiveFlowControlStrategy()
+    {
+        this(DEFAULT_WINDOW_UPDATE_RATIO, 65536, 0);
+    }
+
+    /**
+     * @param windowUpdateRatio the fraction of the receive window that must be consumed
+     * before a WINDOW_UPDATE is sent, in the range (0, 1]
+     * @param receiveWindowSize the receive window size as known by the remote peer
+     * @param maxReceiveWindowSize the max receive window size that auto-tuning may grow to,
+     * or a value not greater than {@code receiveWindowSize} to disable auto-tuning
+     */
+    public SPDYv3AdaptiveFlowControlStrategy(float windowUpdateRatio, int receiveWindowSize, int maxReceiveWindowSize)
+    {
+        if (windowUpdateRatio <= 0 || windowUpdateRatio > 1)
+            throw new IllegalArgumentException("Invalid window update ratio " + windowUpdateRatio);
+        if (receiveWindowSize <= 0)
+            throw new IllegalArgumentException("Invalid receive window size " + receiveWindowSize);
+        this.windowUpdateRatio = windowUpdateRatio;
+        this.receiveWindowSize.set(receiveWindowSize);
+        this.maxReceiveWindowSize = maxReceiveWindowSize;
+    }
+
+    public float getWindowUpdateRatio()
+    {
+        return windowUpdateRatio;
+    }
+
+    /**
+     * @return the current receive window size, as advertised to the remote peer
+     */
+    public int getReceiveWindowSize()
+    {
+        return receiveWindowSize.get();
+    }
+
+    public int getMaxReceiveWindowSize()
+    {
+        return maxReceiveWindowSize;
+    }
+
+    public boolean isAutoTune()
+    {
+        return maxReceiveWindowSize > receiveWindowSize.get();
+    }
+
+    public long getBytesConsumed()
+    {
+        return bytesConsumed.get();
+    }
+
+    public long getWindowUpdates()
+    {
+        return windowUpdates.get();
+    }
+
+    public int getWindowIncreases()
+    {
+        return windowIncreases.get();
+    }
+
+    /**
+     * @return the last measured round trip time in milliseconds, or 0 if not measured yet
+     */
+    public long getRoundTripTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(roundTripTime);
+    }
+
+    @Override
+    public void onNewStream(ISession session, IStream stream)
+    {
+        super.onNewStream(session, stream);
+        // Forget the streams that have been closed since the last stream was created
+        for (Iterator<IStream> iterator = windows.keySet().iterator(); iterator.hasNext();)
+        {
+            IStream existing = iterator.next();
+            if (existing.isClosed() || existing.isReset())
+                iterator.remove();
+        }
+        windows.put(stream, new StreamWindow());
+    }
+
+    @Override
+    public void onDataReceived(ISession session, IStream stream, DataInfo dataInfo)
+    {
+        int length = dataInfo.length();
+        if (length == 0)
+            return;
+
+        StreamWindow window = window(stream);
+        long now = System.nanoTime();
+        long bdp = -1;
+        synchronized (window)
+        {
+            if (window.roundStart == 0)
+                window.roundStart = now;
+            if (window.updateTime > 0)
+            {
+                // The sender was stalled and we sent a window update:
+                // the time to receive the next data frame is a round trip.
+                long rtt = now - window.updateTime;
+                long elapsed = now - window.roundStart;
+                if (rtt > 0 && elapsed > 0)
+                    bdp = window.roundBytes * rtt / elapsed;
+                roundTripTime = rtt;
+                window.updateTime = 0;
+                window.roundStart = now;
+                window.roundBytes = 0;
+            }
+            window.roundBytes += length;
+            window.unacknowledged += length;
+        }
+
+        if (bdp >= 0)
+            tune(session, bdp);
+    }
+
+    @Override
+    public void onDataConsumed(ISession session, IStream stream, DataInfo dataInfo, int delta)
+    {
+        bytesConsumed.addAndGet(delta);
+        if (stream.isClosed())
+        {
+            windows.remove(stream);
+            return;
+        }
+        if (delta <= 0)
+            return;
+
+        int windowSize = receiveWindowSize.get();
+        int threshold = Math.max(1, (int)(windowSize * windowUpdateRatio));
+        StreamWindow window = window(stream);
+        int update;
+        synchronized (window)
+        {
+            window.consumed += delta;
+            if (window.consumed < threshold)
+                return;
+            update = window.consumed;
+            window.consumed = 0;
+            if (isAutoTune() && window.unacknowledged >= windowSize)
+                window.updateTime = System.nanoTime();
+            window.unacknowledged -= update;
+        }
+
+        windowUpdates.incrementAndGet();
+        WindowUpdateFrame windowUpdateFrame = new WindowUpdateFrame(session.getVersion(), stream.getId(), update);
+        session.control(stream, windowUpdateFrame, 0, TimeUnit.MILLISECONDS, new Callback.Adapter());
+    }
+
+    private void tune(ISession session, long bdp)
+    {
+        while (true)
+        {
+            int windowSize = receiveWindowSize.get();
+            // The window limits the throughput if the bandwidth-delay product is close to it
+            if (bdp < windowSize * 2L / 3 || windowSize >= maxReceiveWindowSize)
+                return;
+            int newWindowSize = (int)Math.min(maxReceiveWindowSize, windowSize * 2L);
+            if (receiveWindowSize.compareAndSet(windowSize, newWindowSize))
+            {
+                windowIncreases.incrementAndGet();
+                LOG.debug("Increasing receive window from {} to {}, bdp={}", windowSize, newWindowSize, bdp);
+                Settings settings = new Settings();
+                settings.put(new Settings.Setting(Settings.ID.INITIAL_WINDOW_SIZE, newWindowSize));
+                session.settings(new SettingsInfo(settings), new Callback.Adapter());
+                return;
+            }
+        }
+    }
+
+    private StreamWindow window(IStream stream)
+    {
+        StreamWindow window = windows.get(stream);
+        if (window == null)
+        {
+            // Data for a stream is received by a single thread, but consumed by
+            // application threads, so guard against concurrent creation.
+            window = new StreamWindow();
+            StreamWindow existing = windows.putIfAbsent(stream, window);
+            if (existing != null)
+                window = existing;
+        }
+        return window;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[ratio=%.2f,window=%d/%d,updates=%d,rtt=%dms]",
+                getClass().getSimpleName(),
+                hashCode(),
+                windowUpdateRatio,
+                getReceiveWindowSize(),
+                maxReceiveWindowSize,
+                getWindowUpdates(),
+                getRoundTripTime());
+    }
+
+    private static class StreamWindow
+    {
+        private int consumed;
+        private int unacknowledged;
+        private long updateTime;
+        private long roundStart;
+        private long roundBytes;
+    }
+}
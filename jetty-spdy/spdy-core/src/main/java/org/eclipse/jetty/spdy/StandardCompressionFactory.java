@@ -25,10 +25,32 @@ import java.util.zip.ZipException;
 
 public class StandardCompressionFactory implements CompressionFactory
 {
+    private final int compressionLevel;
+
+    public StandardCompressionFactory()
+    {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionLevel the compression level used to deflate headers,
+     * from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION},
+     * or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public StandardCompressionFactory(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
     @Override
     public Compressor newCompressor()
     {
-        return new StandardCompressor();
+        return new StandardCompressor(compressionLevel);
     }
 
     @Override
@@ -39,7 +61,17 @@ public class StandardCompressionFactory implements CompressionFactory
 
     public static class StandardCompressor implements Compressor
     {
-        private final Deflater deflater = new Deflater();
+        private final Deflater deflater;
+
+        public StandardCompressor()
+        {
+            this(Deflater.DEFAULT_COMPRESSION);
+        }
+
+        public StandardCompressor(int compressionLevel)
+        {
+            deflater = new Deflater(compressionLevel);
+        }
 
         @Override
         public void setInput(byte[] input)
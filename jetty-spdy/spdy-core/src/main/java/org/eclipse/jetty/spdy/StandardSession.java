@@ -25,7 +25,7 @@ import java.nio.channels.InterruptedByTimeoutException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -95,7 +95,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     private final Map<String, Object> attributes = new ConcurrentHashMap<>();
     private final List<Listener> listeners = new CopyOnWriteArrayList<>();
     private final ConcurrentMap<Integer, IStream> streams = new ConcurrentHashMap<>();
-    private final LinkedList<FrameBytes> queue = new LinkedList<>();
+    private final FrameQueue queue = new FrameQueue();
     private final ByteBufferPool bufferPool;
     private final Executor threadPool;
     private final Scheduler scheduler;
@@ -111,6 +111,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     private final AtomicBoolean goAwayReceived = new AtomicBoolean();
     private final AtomicInteger lastStreamId = new AtomicInteger();
     private final FlowControlStrategy flowControlStrategy;
+    private volatile int maxGatheredFrames = 16;
     private boolean flushing;
     private Throwable failure;
 
@@ -728,6 +729,13 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         int streamId = frame.getStreamId();
         IStream stream = streams.get(streamId);
         flowControlStrategy.onWindowUpdate(this, stream, frame.getWindowDelta());
+        synchronized (queue)
+        {
+            if (stream == null)
+                queue.resumeAll();
+            else
+                queue.resume(stream);
+        }
         flush();
     }
 
@@ -961,50 +969,84 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     @Override
     public void flush()
     {
-        FrameBytes frameBytes = null;
-        ByteBuffer buffer = null;
+        List<FrameBytes> frames = null;
+        List<ByteBuffer> buffers = null;
+        Map<FrameBytes, Throwable> failures = null;
         synchronized (queue)
         {
             if (flushing || queue.isEmpty())
                 return;
 
-            Set<IStream> stalledStreams = null;
-            for (int i = 0; i < queue.size(); ++i)
+            // Gather the frames that are ready to be written, skipping stalled streams
+            int maxFrames = getMaxGatheredFrames();
+            while (frames == null || frames.size() < maxFrames)
             {
-                frameBytes = queue.get(i);
+                FrameBytes frameBytes = queue.poll();
+                if (frameBytes == null)
+                    break;
 
                 IStream stream = frameBytes.getStream();
-                if (stream != null && stalledStreams != null && stalledStreams.contains(stream))
+                if (frameBytes instanceof DataFrameBytes && stream.isReset())
+                {
+                    queue.completed(frameBytes);
+                    if (failures == null)
+                        failures = new LinkedHashMap<>();
+                    failures.put(frameBytes, new StreamException(stream.getId(), StreamStatus.INVALID_STREAM,
+                            "Stream: " + stream + " is reset!"));
                     continue;
+                }
 
-                buffer = frameBytes.getByteBuffer();
-                if (buffer != null)
+                ByteBuffer buffer;
+                try
                 {
-                    queue.remove(i);
-                    if (stream != null && stream.isReset() && !(frameBytes instanceof ControlFrameBytes))
-                    {
-                        frameBytes.fail(new StreamException(stream.getId(), StreamStatus.INVALID_STREAM,
-                                "Stream: " + stream + " is reset!"));
-                        return;
-                    }
-                    break;
+                    buffer = frameBytes.getByteBuffer();
+                }
+                catch (Throwable x)
+                {
+                    queue.completed(frameBytes);
+                    if (failures == null)
+                        failures = new LinkedHashMap<>();
+                    failures.put(frameBytes, x);
+                    continue;
                 }
 
-                if (stalledStreams == null)
-                    stalledStreams = new HashSet<>();
-                if (stream != null)
-                    stalledStreams.add(stream);
+                if (buffer == null)
+                {
+                    // Flow control window exhausted, the stream is resumed by a window update
+                    LOG.debug("Flush stalled for {}, {} frame(s) in queue", frameBytes, queue.size());
+                    queue.requeue(frameBytes, true);
+                    continue;
+                }
 
-                LOG.debug("Flush stalled for {}, {} frame(s) in queue", frameBytes, queue.size());
+                if (frames == null)
+                {
+                    frames = new ArrayList<>();
+                    buffers = new ArrayList<>();
+                }
+                frames.add(frameBytes);
+                buffers.add(buffer);
             }
 
-            if (buffer == null)
-                return;
+            if (frames != null)
+            {
+                flushing = true;
+                LOG.debug("Flushing {}, {} frame(s) in queue", frames, queue.size());
+            }
+        }
 
-            flushing = true;
-            LOG.debug("Flushing {}, {} frame(s) in queue", frameBytes, queue.size());
+        if (failures != null)
+        {
+            for (Map.Entry<FrameBytes, Throwable> entry : failures.entrySet())
+                entry.getKey().fail(entry.getValue());
         }
-        write(buffer, frameBytes);
+
+        if (frames == null)
+            return;
+
+        if (frames.size() == 1)
+            write(buffers.get(0), frames.get(0));
+        else
+            write(buffers.toArray(new ByteBuffer[buffers.size()]), new GatheredFrameBytes(frames));
     }
 
     private void append(FrameBytes frameBytes)
@@ -1015,22 +1057,16 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
             failure = this.failure;
             if (failure == null)
             {
-                // Frames containing headers must be send in the order the headers have been generated. We don't need
-                // to do this check in StandardSession.prepend() as no frames containing headers will be prepended.
-                if (frameBytes instanceof ControlFrameBytes)
-                    queue.addLast(frameBytes);
+                // Frames containing headers must be send in the order the headers have been generated.
+                if (frameBytes instanceof DataFrameBytes)
+                    queue.appendData(frameBytes);
+                else if (frameBytes instanceof ControlFrameBytes)
+                    queue.appendControl(frameBytes, ((ControlFrameBytes)frameBytes).hasHeaders());
+                else if (frameBytes instanceof CloseFrameBytes)
+                    // The close must not overtake the data frames queued before it
+                    queue.appendLast(frameBytes);
                 else
-                {
-                    int index = queue.size();
-                    while (index > 0)
-                    {
-                        FrameBytes element = queue.get(index - 1);
-                        if (element.compareTo(frameBytes) >= 0)
-                            break;
-                        --index;
-                    }
-                    queue.add(index, frameBytes);
-                }
+                    queue.appendControl(frameBytes, false);
             }
         }
 
@@ -1045,23 +1081,83 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         {
             failure = this.failure;
             if (failure == null)
-            {
-                int index = 0;
-                while (index < queue.size())
-                {
-                    FrameBytes element = queue.get(index);
-                    if (element.compareTo(frameBytes) <= 0)
-                        break;
-                    ++index;
-                }
-                queue.add(index, frameBytes);
-            }
+                queue.prepend(frameBytes);
+        }
+
+        if (failure != null)
+            frameBytes.fail(new SPDYException(failure));
+    }
+
+    private void requeue(FrameBytes frameBytes)
+    {
+        Throwable failure;
+        synchronized (queue)
+        {
+            failure = this.failure;
+            if (failure == null)
+                queue.requeue(frameBytes, false);
         }
 
         if (failure != null)
             frameBytes.fail(new SPDYException(failure));
     }
 
+    private void completed(List<FrameBytes> frames)
+    {
+        synchronized (queue)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Completed write of {}, {} frame(s) in queue", frames, queue.size());
+            flushing = false;
+        }
+        FrameBytes close = null;
+        for (FrameBytes frameBytes : frames)
+        {
+            // Complete the other frames (and so the data frames) before closing
+            if (frameBytes instanceof CloseFrameBytes)
+                close = frameBytes;
+            else
+                frameBytes.complete();
+        }
+        if (close != null)
+            close.complete();
+    }
+
+    private void failed(List<FrameBytes> frames, Throwable x)
+    {
+        List<FrameBytes> frameBytesToFail = new ArrayList<>(frames);
+        synchronized (queue)
+        {
+            failure = x;
+            if (LOG.isDebugEnabled())
+            {
+                String logMessage = String.format("Failed write of %s, failing all %d frame(s) in queue", frames, queue.size());
+                LOG.debug(logMessage, x);
+            }
+            frameBytesToFail.addAll(queue.clear());
+            flushing = false;
+        }
+
+        for (FrameBytes fb : frameBytesToFail)
+            fb.fail(x);
+    }
+
+    /**
+     * @return the maximum number of frames written with a single (gathering) write
+     */
+    public int getMaxGatheredFrames()
+    {
+        return maxGatheredFrames;
+    }
+
+    /**
+     * @param maxGatheredFrames the maximum number of frames written with a single (gathering) write
+     */
+    public void setMaxGatheredFrames(int maxGatheredFrames)
+    {
+        this.maxGatheredFrames = Math.max(1, maxGatheredFrames);
+    }
+
     protected void write(ByteBuffer buffer, Callback callback)
     {
         if (controller != null)
@@ -1071,6 +1167,15 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         }
     }
 
+    protected void write(ByteBuffer[] buffers, Callback callback)
+    {
+        if (controller != null)
+        {
+            LOG.debug("Writing {} frames in a single write", buffers.length);
+            controller.write(callback, buffers);
+        }
+    }
+
     private void complete(final Callback callback)
     {
         // Applications may send and queue up a lot of frames and
@@ -1106,6 +1211,10 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     public void setWindowSize(int initialWindowSize)
     {
         flowControlStrategy.setWindowSize(this, initialWindowSize);
+        synchronized (queue)
+        {
+            queue.resumeAll();
+        }
     }
 
     @Override
@@ -1233,36 +1342,44 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         @Override
         public void succeeded()
         {
-            synchronized (queue)
-            {
-                if (LOG.isDebugEnabled())
-                    LOG.debug("Completed write of {}, {} frame(s) in queue", this, queue.size());
-                flushing = false;
-            }
-            complete();
+            completed(Collections.<FrameBytes>singletonList(this));
         }
 
         @Override
         public void failed(Throwable x)
         {
-            List<FrameBytes> frameBytesToFail = new ArrayList<>();
-            frameBytesToFail.add(this);
+            StandardSession.this.failed(Collections.<FrameBytes>singletonList(this), x);
+        }
+    }
 
-            synchronized (queue)
-            {
-                failure = x;
-                if (LOG.isDebugEnabled())
-                {
-                    String logMessage = String.format("Failed write of %s, failing all %d frame(s) in queue", this, queue.size());
-                    LOG.debug(logMessage, x);
-                }
-                frameBytesToFail.addAll(queue);
-                queue.clear();
-                flushing = false;
-            }
+    /**
+     * The callback of a gathering write of multiple frames.
+     */
+    private class GatheredFrameBytes implements Callback
+    {
+        private final List<FrameBytes> frames;
+
+        private GatheredFrameBytes(List<FrameBytes> frames)
+        {
+            this.frames = frames;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            completed(frames);
+        }
 
-            for (FrameBytes fb : frameBytesToFail)
-                fb.fail(x);
+        @Override
+        public void failed(Throwable x)
+        {
+            StandardSession.this.failed(frames, x);
+        }
+
+        @Override
+        public String toString()
+        {
+            return frames.toString();
         }
     }
 
@@ -1284,6 +1401,12 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
             return buffer;
         }
 
+        private boolean hasHeaders()
+        {
+            ControlFrameType type = frame.getType();
+            return type == ControlFrameType.SYN_STREAM || type == ControlFrameType.SYN_REPLY || type == ControlFrameType.HEADERS;
+        }
+
         @Override
         public void complete()
         {
@@ -1324,25 +1447,17 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         @Override
         public ByteBuffer getByteBuffer()
         {
-            try
-            {
-                IStream stream = getStream();
-                int windowSize = stream.getWindowSize();
-                if (windowSize <= 0)
-                    return null;
+            IStream stream = getStream();
+            int windowSize = stream.getWindowSize();
+            if (windowSize <= 0)
+                return null;
 
-                size = dataInfo.available();
-                if (size > windowSize)
-                    size = windowSize;
+            size = dataInfo.available();
+            if (size > windowSize)
+                size = windowSize;
 
-                buffer = generator.data(stream.getId(), size, dataInfo);
-                return buffer;
-            }
-            catch (Throwable x)
-            {
-                fail(x);
-                return null;
-            }
+            buffer = generator.data(stream.getId(), size, dataInfo);
+            return buffer;
         }
 
         @Override
@@ -1357,11 +1472,15 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
                 // We have written a frame out of this DataInfo, but there is more to write.
                 // We need to keep the correct ordering of frames, to avoid that another
                 // DataInfo for the same stream is written before this one is finished.
-                prepend(this);
+                requeue(this);
                 flush();
             }
             else
             {
+                synchronized (queue)
+                {
+                    queue.completed(this);
+                }
                 super.complete();
                 stream.updateCloseState(dataInfo.isClose(), true);
                 if (stream.isClosed())
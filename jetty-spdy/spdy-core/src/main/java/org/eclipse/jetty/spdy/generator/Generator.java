@@ -34,7 +34,12 @@ public class Generator
 
     public Generator(ByteBufferPool bufferPool, CompressionFactory.Compressor compressor)
     {
-        HeadersBlockGenerator headersBlockGenerator = new HeadersBlockGenerator(compressor);
+        this(bufferPool, compressor, new HeadersBlockCache());
+    }
+
+    public Generator(ByteBufferPool bufferPool, CompressionFactory.Compressor compressor, HeadersBlockCache headersBlockCache)
+    {
+        HeadersBlockGenerator headersBlockGenerator = new HeadersBlockGenerator(bufferPool, compressor, headersBlockCache);
         generators.put(ControlFrameType.SYN_STREAM, new SynStreamGenerator(bufferPool, headersBlockGenerator));
         generators.put(ControlFrameType.SYN_REPLY, new SynReplyGenerator(bufferPool, headersBlockGenerator));
         generators.put(ControlFrameType.RST_STREAM, new RstStreamGenerator(bufferPool));
@@ -0,0 +1,201 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.generator;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.Fields;
+
+/**
+ * <p>A cache of serialized, not yet compressed, headers blocks, that may be shared
+ * among the {@link HeadersBlockGenerator}s of different sessions.</p>
+ * <p>Only {@link Fields#isImmutable() immutable} {@link Fields} are cached, keyed by
+ * their identity, so that applications that reuse the same headers for common
+ * responses avoid to serialize them for every stream.
+ * The compression itself cannot be cached, since the SPDY compression context is
+ * stateful and per-session.</p>
+ * <p>When the cache is full, the oldest entries are evicted, so that headers that are no
+ * longer used are not retained.
+ * Headers built for every stream, such as the headers copied by the SPDY proxy, are never
+ * the same instance and therefore do not benefit from this cache.</p>
+ * <p>This class also collects statistics about the headers bytes before and after
+ * compression.</p>
+ */
+public class HeadersBlockCache
+{
+    private final ConcurrentMap<Key, byte[]> cache = new ConcurrentHashMap<>();
+    private final Queue<Key> lru = new ConcurrentLinkedQueue<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong headerBytes = new AtomicLong();
+    private final AtomicLong compressedHeaderBytes = new AtomicLong();
+    private final int maxEntries;
+
+    public HeadersBlockCache()
+    {
+        this(256);
+    }
+
+    /**
+     * @param maxEntries the max number of headers blocks to cache, or 0 to disable caching
+     */
+    public HeadersBlockCache(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param version the SPDY version
+     * @param headers the headers
+     * @return the cached serialized headers block, or null if not cached
+     */
+    public byte[] get(short version, Fields headers)
+    {
+        if (!headers.isImmutable() || maxEntries <= 0)
+            return null;
+        byte[] block = cache.get(new Key(version, headers));
+        if (block == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return block;
+    }
+
+    /**
+     * <p>Caches the given serialized headers block, if the headers are immutable,
+     * evicting the oldest entries if the cache is full.</p>
+     *
+     * @param version the SPDY version
+     * @param headers the headers
+     * @param block the serialized headers block
+     */
+    public void put(short version, Fields headers, byte[] block)
+    {
+        if (!headers.isImmutable() || maxEntries <= 0)
+            return;
+
+        // Delete by LRU (where U==created)
+        while (cache.size() >= maxEntries)
+        {
+            Key key = lru.poll();
+            if (key == null)
+                break;
+            cache.remove(key);
+        }
+
+        Key key = new Key(version, headers);
+        if (cache.putIfAbsent(key, block) == null)
+            lru.add(key);
+    }
+
+    void onCompressed(int length, int compressedLength)
+    {
+        headerBytes.addAndGet(length);
+        compressedHeaderBytes.addAndGet(compressedLength);
+    }
+
+    public int getSize()
+    {
+        return cache.size();
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the total bytes of the headers blocks before compression
+     */
+    public long getHeaderBytes()
+    {
+        return headerBytes.get();
+    }
+
+    /**
+     * @return the total bytes of the headers blocks after compression
+     */
+    public long getCompressedHeaderBytes()
+    {
+        return compressedHeaderBytes.get();
+    }
+
+    public void clear()
+    {
+        lru.clear();
+        cache.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[size=%d/%d,hits=%d,misses=%d,bytes=%d/%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getSize(),
+                maxEntries,
+                getHits(),
+                getMisses(),
+                getCompressedHeaderBytes(),
+                getHeaderBytes());
+    }
+
+    private static class Key
+    {
+        private final short version;
+        private final Fields headers;
+
+        private Key(short version, Fields headers)
+        {
+            this.version = version;
+            this.headers = headers;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key that = (Key)obj;
+            return version == that.version && headers == that.headers;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * version + System.identityHashCode(headers);
+        }
+    }
+}
@@ -23,6 +23,8 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Locale;
 
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.spdy.CompressionDictionary;
 import org.eclipse.jetty.spdy.CompressionFactory;
 import org.eclipse.jetty.spdy.api.SPDY;
@@ -30,15 +32,42 @@ import org.eclipse.jetty.util.Fields;
 
 public class HeadersBlockGenerator
 {
+    private final ByteBufferPool bufferPool;
     private final CompressionFactory.Compressor compressor;
+    private final HeadersBlockCache cache;
     private boolean needsDictionary = true;
 
     public HeadersBlockGenerator(CompressionFactory.Compressor compressor)
     {
+        this(new MappedByteBufferPool(), compressor, new HeadersBlockCache());
+    }
+
+    public HeadersBlockGenerator(ByteBufferPool bufferPool, CompressionFactory.Compressor compressor, HeadersBlockCache cache)
+    {
+        this.bufferPool = bufferPool;
         this.compressor = compressor;
+        this.cache = cache;
+    }
+
+    public HeadersBlockCache getHeadersBlockCache()
+    {
+        return cache;
     }
 
     public ByteBuffer generate(short version, Fields headers)
+    {
+        byte[] bytes = cache.get(version, headers);
+        if (bytes == null)
+        {
+            bytes = serialize(version, headers);
+            cache.put(version, headers, bytes);
+        }
+        ByteBuffer result = compress(version, bytes);
+        cache.onCompressed(bytes.length, result.remaining());
+        return result;
+    }
+
+    private byte[] serialize(short version, Fields headers)
     {
         // TODO: ByteArrayOutputStream is quite inefficient, but grows on demand; optimize using ByteBuffer ?
         Charset iso1 = Charset.forName("ISO-8859-1");
@@ -72,7 +101,7 @@ public class HeadersBlockGenerator
             buffer.write(valueBytes, 0, valueBytes.length);
         }
 
-        return compress(version, buffer.toByteArray());
+        return buffer.toByteArray();
     }
 
     private ByteBuffer compress(short version, byte[] bytes)
@@ -95,14 +124,23 @@ public class HeadersBlockGenerator
             // need to use an output buffer that is big enough to exit the compress loop
             buffer.reset();
             int compressed;
-            byte[] output = new byte[Math.max(256, bytes.length)];
-            while (true)
+            // The scratch buffer is pooled, since there may be many sessions generating headers
+            ByteBuffer scratch = bufferPool.acquire(Math.max(256, bytes.length), false);
+            try
+            {
+                byte[] output = scratch.array();
+                while (true)
+                {
+                    // SPDY uses the SYNC_FLUSH mode
+                    compressed = compressor.compress(output);
+                    buffer.write(output, 0, compressed);
+                    if (compressed < output.length)
+                        break;
+                }
+            }
+            finally
             {
-                // SPDY uses the SYNC_FLUSH mode
-                compressed = compressor.compress(output);
-                buffer.write(output, 0, compressed);
-                if (compressed < output.length)
-                    break;
+                bufferPool.release(scratch);
             }
         }
 
@@ -0,0 +1,285 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.spdy;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.eclipse.jetty.spdy.StandardSession.FrameBytes;
+import org.eclipse.jetty.util.BufferUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameQueueTest
+{
+    private final FrameQueue queue = new FrameQueue();
+
+    @Test
+    public void testUrgentThenControlThenData()
+    {
+        IStream stream = newStream(1, (byte)0);
+        FrameBytes data = new TestFrameBytes(stream);
+        FrameBytes control = new TestFrameBytes(null);
+        FrameBytes ping = new TestFrameBytes(null);
+
+        queue.appendData(data);
+        queue.appendControl(control);
+        queue.prepend(ping);
+        Assert.assertEquals(3, queue.size());
+
+        Assert.assertSame(ping, queue.poll());
+        Assert.assertSame(control, queue.poll());
+        Assert.assertSame(data, queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDataIsPolledByPriority()
+    {
+        IStream low = newStream(1, (byte)3);
+        IStream high = newStream(3, (byte)0);
+        FrameBytes lowData = new TestFrameBytes(low);
+        FrameBytes highData = new TestFrameBytes(high);
+
+        queue.appendData(lowData);
+        queue.appendData(highData);
+
+        Assert.assertSame(highData, queue.poll());
+        Assert.assertSame(lowData, queue.poll());
+    }
+
+    @Test
+    public void testStreamsWithSamePriorityAreInterleaved()
+    {
+        IStream stream1 = newStream(1, (byte)0);
+        IStream stream3 = newStream(3, (byte)0);
+        FrameBytes data1a = new TestFrameBytes(stream1);
+        FrameBytes data1b = new TestFrameBytes(stream1);
+        FrameBytes data3a = new TestFrameBytes(stream3);
+
+        queue.appendData(data1a);
+        queue.appendData(data1b);
+        queue.appendData(data3a);
+
+        Assert.assertSame(data1a, queue.poll());
+        Assert.assertSame(data3a, queue.poll());
+        // Stream 1 has a frame in flight
+        Assert.assertNull(queue.poll());
+
+        queue.completed(data1a);
+        Assert.assertSame(data1b, queue.poll());
+    }
+
+    @Test
+    public void testPartiallyWrittenDataIsWrittenFirst()
+    {
+        IStream stream = newStream(1, (byte)0);
+        FrameBytes data1 = new TestFrameBytes(stream);
+        FrameBytes data2 = new TestFrameBytes(stream);
+
+        queue.appendData(data1);
+        queue.appendData(data2);
+
+        Assert.assertSame(data1, queue.poll());
+        queue.requeue(data1, false);
+        Assert.assertSame(data1, queue.poll());
+        queue.completed(data1);
+        Assert.assertSame(data2, queue.poll());
+    }
+
+    @Test
+    public void testStalledStreamIsSkippedUntilResumed()
+    {
+        IStream stalled = newStream(1, (byte)0);
+        IStream other = newStream(3, (byte)1);
+        FrameBytes stalledData = new TestFrameBytes(stalled);
+        FrameBytes otherData = new TestFrameBytes(other);
+
+        queue.appendData(stalledData);
+        queue.appendData(otherData);
+
+        Assert.assertSame(stalledData, queue.poll());
+        queue.requeue(stalledData, true);
+        Assert.assertSame(otherData, queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(1, queue.size());
+
+        queue.resume(stalled);
+        Assert.assertSame(stalledData, queue.poll());
+    }
+
+    @Test
+    public void testFramesOfAStreamAreWrittenInOrder()
+    {
+        IStream stream = newStream(1, (byte)0);
+        IStream other = newStream(3, (byte)0);
+        FrameBytes reply = new TestFrameBytes(stream);
+        FrameBytes data = new TestFrameBytes(stream);
+        FrameBytes headers = new TestFrameBytes(stream);
+        FrameBytes otherReply = new TestFrameBytes(other);
+
+        queue.appendControl(reply);
+        queue.appendData(data);
+        queue.appendControl(headers);
+        queue.appendControl(otherReply);
+
+        Assert.assertSame(reply, queue.poll());
+        Assert.assertSame(data, queue.poll());
+        // The headers must wait for the data, and the other reply for the headers (compression context)
+        Assert.assertNull(queue.poll());
+
+        queue.completed(data);
+        Assert.assertSame(headers, queue.poll());
+        Assert.assertSame(otherReply, queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testControlFramesOvertakeControlFramesWaitingForTheirStream()
+    {
+        IStream stalled = newStream(1, (byte)0);
+        IStream stream3 = newStream(3, (byte)0);
+        IStream stream5 = newStream(5, (byte)0);
+        FrameBytes data = new TestFrameBytes(stalled);
+        FrameBytes rst = new TestFrameBytes(stalled);
+        FrameBytes windowUpdate = new TestFrameBytes(stream3);
+        FrameBytes reply = new TestFrameBytes(stream5);
+
+        queue.appendData(data);
+        Assert.assertSame(data, queue.poll());
+        queue.requeue(data, true);
+
+        queue.appendControl(rst, false);
+        queue.appendControl(windowUpdate, false);
+        queue.appendControl(reply, true);
+
+        // The reset waits for the stalled data, but does not hold up the frames of other streams
+        Assert.assertSame(windowUpdate, queue.poll());
+        Assert.assertSame(reply, queue.poll());
+        Assert.assertNull(queue.poll());
+
+        queue.resume(stalled);
+        Assert.assertSame(data, queue.poll());
+        Assert.assertNull(queue.poll());
+        queue.completed(data);
+        Assert.assertSame(rst, queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testCloseIsPolledAfterQueuedData()
+    {
+        IStream stream = newStream(1, (byte)0);
+        FrameBytes data1 = new TestFrameBytes(stream);
+        FrameBytes data2 = new TestFrameBytes(stream);
+        FrameBytes close = new TestFrameBytes(null);
+        FrameBytes goAway = new TestFrameBytes(null);
+
+        queue.appendData(data1);
+        queue.appendData(data2);
+        queue.appendLast(close);
+        queue.appendControl(goAway, false);
+
+        Assert.assertSame(goAway, queue.poll());
+        Assert.assertSame(data1, queue.poll());
+        // The close waits for the data in flight, which may be partially written
+        Assert.assertNull(queue.poll());
+        queue.requeue(data1, true);
+        Assert.assertNull(queue.poll());
+
+        queue.resume(stream);
+        Assert.assertSame(data1, queue.poll());
+        queue.completed(data1);
+        Assert.assertSame(data2, queue.poll());
+        Assert.assertNull(queue.poll());
+        queue.completed(data2);
+        Assert.assertSame(close, queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testClear()
+    {
+        IStream stream = newStream(1, (byte)0);
+        queue.appendControl(new TestFrameBytes(stream));
+        queue.appendData(new TestFrameBytes(stream));
+        queue.prepend(new TestFrameBytes(null));
+        queue.appendLast(new TestFrameBytes(null));
+
+        List<FrameBytes> frames = queue.clear();
+        Assert.assertEquals(4, frames.size());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+    }
+
+    private IStream newStream(int id, byte priority)
+    {
+        return new StandardStream(id, priority, null, null, null);
+    }
+
+    private static class TestFrameBytes implements FrameBytes
+    {
+        private final IStream stream;
+
+        private TestFrameBytes(IStream stream)
+        {
+            this.stream = stream;
+        }
+
+        @Override
+        public IStream getStream()
+        {
+            return stream;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer()
+        {
+            return BufferUtil.EMPTY_BUFFER;
+        }
+
+        @Override
+        public void complete()
+        {
+        }
+
+        @Override
+        public void fail(Throwable throwable)
+        {
+        }
+
+        @Override
+        public int compareTo(FrameBytes that)
+        {
+            return 0;
+        }
+
+        @Override
+        public void succeeded()
+        {
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+        }
+    }
+}
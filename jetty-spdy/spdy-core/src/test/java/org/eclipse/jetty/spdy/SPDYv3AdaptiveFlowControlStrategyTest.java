@@ -0,0 +1,203 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.spdy.api.ByteBufferDataInfo;
+import org.eclipse.jetty.spdy.api.DataInfo;
+import org.eclipse.jetty.spdy.api.SPDY;
+import org.eclipse.jetty.spdy.api.Settings;
+import org.eclipse.jetty.spdy.frames.ControlFrame;
+import org.eclipse.jetty.spdy.frames.SettingsFrame;
+import org.eclipse.jetty.spdy.frames.WindowUpdateFrame;
+import org.eclipse.jetty.spdy.generator.Generator;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SPDYv3AdaptiveFlowControlStrategyTest
+{
+    private final List<ControlFrame> frames = new ArrayList<>();
+    private SPDYv3AdaptiveFlowControlStrategy strategy;
+    private ISession session;
+    private IStream stream;
+
+    private void prepare(float ratio, int maxWindowSize)
+    {
+        strategy = new SPDYv3AdaptiveFlowControlStrategy(ratio, 65536, maxWindowSize);
+        ByteBufferPool bufferPool = new MappedByteBufferPool();
+        Generator generator = new Generator(bufferPool, new StandardCompressionFactory.StandardCompressor());
+        session = new StandardSession(SPDY.V3, bufferPool, Executors.newCachedThreadPool(), new TimerScheduler(),
+                new TestController(), null, null, 1, null, generator, strategy)
+        {
+            @Override
+            public void control(IStream stream, ControlFrame frame, long timeout, TimeUnit unit, Callback callback)
+            {
+                frames.add(frame);
+                callback.succeeded();
+            }
+        };
+        stream = new StandardStream(1, (byte)0, session, null, null);
+    }
+
+    @Before
+    public void clear()
+    {
+        frames.clear();
+    }
+
+    private DataInfo receive(int length)
+    {
+        DataInfo dataInfo = new ByteBufferDataInfo(ByteBuffer.allocate(length), false);
+        strategy.onDataReceived(session, stream, dataInfo);
+        return dataInfo;
+    }
+
+    private void consume(DataInfo dataInfo)
+    {
+        int length = dataInfo.available();
+        dataInfo.consume(length);
+        strategy.onDataConsumed(session, stream, dataInfo, length);
+    }
+
+    @Test
+    public void testWindowUpdateSentOnlyAfterThreshold() throws Exception
+    {
+        prepare(0.5F, 0);
+
+        // 7 frames of 4 KiB do not reach half of the 64 KiB window
+        for (int i = 0; i < 7; ++i)
+            consume(receive(4096));
+        Assert.assertTrue(frames.isEmpty());
+
+        // The 8th frame reaches the threshold
+        consume(receive(4096));
+        Assert.assertEquals(1, frames.size());
+        WindowUpdateFrame update = (WindowUpdateFrame)frames.get(0);
+        Assert.assertEquals(stream.getId(), update.getStreamId());
+        Assert.assertEquals(32768, update.getWindowDelta());
+        Assert.assertEquals(1, strategy.getWindowUpdates());
+        Assert.assertEquals(32768, strategy.getBytesConsumed());
+    }
+
+    @Test
+    public void testPartialConsumptionIsAccumulated() throws Exception
+    {
+        prepare(0.25F, 0);
+
+        DataInfo dataInfo = receive(16384);
+        for (int i = 0; i < 16383; ++i)
+        {
+            dataInfo.consume(1);
+            strategy.onDataConsumed(session, stream, dataInfo, 1);
+        }
+        Assert.assertTrue(frames.isEmpty());
+        dataInfo.consume(1);
+        strategy.onDataConsumed(session, stream, dataInfo, 1);
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals(16384, ((WindowUpdateFrame)frames.get(0)).getWindowDelta());
+    }
+
+    @Test
+    public void testNoWindowUpdateForClosedStream() throws Exception
+    {
+        prepare(0.5F, 0);
+
+        DataInfo dataInfo = receive(65536);
+        stream.updateCloseState(true, true);
+        stream.updateCloseState(true, false);
+        consume(dataInfo);
+        Assert.assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void testAutoTuneGrowsWindowWhenSenderStalls() throws Exception
+    {
+        prepare(0.5F, 4 * 65536);
+        Assert.assertTrue(strategy.isAutoTune());
+
+        // The sender exhausts the window
+        DataInfo dataInfo = receive(65536);
+        consume(dataInfo);
+        Assert.assertEquals(1, frames.size());
+
+        // The next data arrives one round trip after the window update
+        TimeUnit.MILLISECONDS.sleep(20);
+        receive(1024);
+
+        Assert.assertTrue(strategy.getRoundTripTime() >= 20);
+        Assert.assertEquals(1, strategy.getWindowIncreases());
+        Assert.assertEquals(2 * 65536, strategy.getReceiveWindowSize());
+        Assert.assertEquals(2, frames.size());
+        SettingsFrame settings = (SettingsFrame)frames.get(1);
+        Assert.assertEquals(2 * 65536, settings.getSettings().get(Settings.ID.INITIAL_WINDOW_SIZE).value());
+    }
+
+    @Test
+    public void testAutoTuneDoesNotGrowWindowWhenSenderNotStalled() throws Exception
+    {
+        prepare(0.5F, 4 * 65536);
+
+        DataInfo dataInfo = receive(32768);
+        consume(dataInfo);
+        Assert.assertEquals(1, frames.size());
+
+        TimeUnit.MILLISECONDS.sleep(20);
+        receive(1024);
+
+        Assert.assertEquals(0, strategy.getWindowIncreases());
+        Assert.assertEquals(65536, strategy.getReceiveWindowSize());
+        Assert.assertEquals(1, frames.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRatio() throws Exception
+    {
+        new SPDYv3AdaptiveFlowControlStrategy(1.5F, 65536, 0);
+    }
+
+    private static class TestController implements Controller
+    {
+        @Override
+        public void write(ByteBuffer buffer, Callback callback)
+        {
+            callback.succeeded();
+        }
+
+        @Override
+        public void write(Callback callback, ByteBuffer... buffers)
+        {
+            callback.succeeded();
+        }
+
+        @Override
+        public void close(boolean onlyOutput)
+        {
+        }
+    }
+}
@@ -23,13 +23,19 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -124,6 +130,20 @@ public class StandardSessionTest
             }
         })
                 .when(controller).write(any(ByteBuffer.class), any(Callback.class));
+        doAnswer(new Answer()
+        {
+            public Object answer(InvocationOnMock invocation)
+            {
+                Object[] args = invocation.getArguments();
+                Callback callback = (Callback)args[0];
+                if (fail)
+                    callback.failed(new ClosedChannelException());
+                else
+                    callback.succeeded();
+                return null;
+            }
+        })
+                .when(controller).write(any(Callback.class), (ByteBuffer[])anyVararg());
     }
 
     @Test
@@ -460,6 +480,59 @@ public class StandardSessionTest
 
     }
 
+    @Test
+    public void testDataQueuedBeforeShutdownIsWrittenBeforeClose() throws Exception
+    {
+        final Queue<Callback> writes = new ArrayDeque<>();
+        final List<String> events = new ArrayList<>();
+        Controller testController = new Controller()
+        {
+            @Override
+            public void write(ByteBuffer buffer, Callback callback)
+            {
+                writes.offer(callback);
+            }
+
+            @Override
+            public void write(Callback callback, ByteBuffer... buffers)
+            {
+                writes.offer(callback);
+            }
+
+            @Override
+            public void close(boolean onlyOutput)
+            {
+                events.add("close");
+            }
+        };
+        StandardSession testLocalSession = new StandardSession(VERSION, bufferPool, threadPool, scheduler, testController, null, null, 1, null,
+                generator, new FlowControlStrategy.None());
+        IStream stream = new StandardStream(1, (byte)0, testLocalSession, null, null);
+        stream.updateWindowSize(8192);
+
+        for (int i = 0; i < 2; ++i)
+        {
+            final String data = "data" + i;
+            stream.data(new StringDataInfo(5, TimeUnit.SECONDS, data, false), new Callback.Adapter()
+            {
+                @Override
+                public void succeeded()
+                {
+                    events.add(data);
+                }
+            });
+        }
+        // The session is shut down (for example on a read EOF) while the data is being written
+        testLocalSession.shutdown();
+        assertThat(events.isEmpty(), is(true));
+
+        Callback write;
+        while ((write = writes.poll()) != null)
+            write.succeeded();
+
+        assertThat(events, is(Arrays.asList("data0", "data1", "close")));
+    }
+
     @Test
     public void testHeaderFramesAreSentInTheOrderTheyAreCreated() throws ExecutionException,
             TimeoutException, InterruptedException
@@ -520,14 +593,27 @@ public class StandardSessionTest
         {
             StandardSession.FrameBytes frameBytes = (StandardSession.FrameBytes)callback;
 
-            int streamId = frameBytes.getStream().getId();
+            checkStreamId(frameBytes.getStream().getId());
+            frameBytes.succeeded();
+        }
+
+        @Override
+        public void write(Callback callback, ByteBuffer... buffers)
+        {
+            // Only SYN_STREAM frames are written, the stream id follows the 8 bytes control frame header
+            for (ByteBuffer buffer : buffers)
+                checkStreamId(buffer.getInt(8) & 0x7F_FF_FF_FF);
+            callback.succeeded();
+        }
+
+        private void checkStreamId(int streamId)
+        {
             LOG.debug("last: {}, current: {}", lastStreamId, streamId);
             if (lastStreamId < streamId)
                 lastStreamId = streamId;
             else
                 throw new IllegalStateException("Last streamId: " + lastStreamId + " is not smaller than current StreamId: " +
                         streamId);
-            frameBytes.succeeded();
         }
 
         @Override
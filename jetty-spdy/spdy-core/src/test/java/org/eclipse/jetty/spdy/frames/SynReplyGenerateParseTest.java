@@ -19,12 +19,14 @@
 package org.eclipse.jetty.spdy.frames;
 
 import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
 
 import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.spdy.StandardCompressionFactory;
 import org.eclipse.jetty.spdy.api.ReplyInfo;
 import org.eclipse.jetty.spdy.api.SPDY;
 import org.eclipse.jetty.spdy.generator.Generator;
+import org.eclipse.jetty.spdy.generator.HeadersBlockCache;
 import org.eclipse.jetty.spdy.parser.Parser;
 import org.eclipse.jetty.util.Fields;
 import org.junit.Assert;
@@ -88,4 +90,68 @@ public class SynReplyGenerateParseTest
         Assert.assertEquals(streamId, synReply.getStreamId());
         Assert.assertEquals(headers, synReply.getHeaders());
     }
+
+    @Test
+    public void testGenerateParseWithCachedHeadersBlock() throws Exception
+    {
+        Fields fields = new Fields();
+        fields.put("status", "200 OK");
+        fields.put("version", "HTTP/1.1");
+        fields.put("content-type", "text/html");
+        Fields headers = new Fields(fields, true);
+
+        HeadersBlockCache cache = new HeadersBlockCache();
+        Generator generator1 = new Generator(new MappedByteBufferPool(), new StandardCompressionFactory(Deflater.BEST_SPEED).newCompressor(), cache);
+        Generator generator2 = new Generator(new MappedByteBufferPool(), new StandardCompressionFactory().newCompressor(), cache);
+        Parser parser1 = new Parser(new StandardCompressionFactory().newDecompressor());
+        Parser parser2 = new Parser(new StandardCompressionFactory().newDecompressor());
+
+        for (int streamId = 1; streamId < 10; streamId += 2)
+        {
+            // Same cache shared by two sessions, each with its own compression context
+            Generator generator = streamId % 4 == 1 ? generator1 : generator2;
+            Parser parser = streamId % 4 == 1 ? parser1 : parser2;
+            ByteBuffer buffer = generator.control(new SynReplyFrame(SPDY.V3, (byte)0, streamId, headers));
+
+            TestSPDYParserListener listener = new TestSPDYParserListener();
+            parser.addListener(listener);
+            parser.parse(buffer);
+            parser.removeListener(listener);
+
+            SynReplyFrame synReply = (SynReplyFrame)listener.getControlFrame();
+            Assert.assertEquals(streamId, synReply.getStreamId());
+            Assert.assertEquals(headers, synReply.getHeaders());
+        }
+
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(4, cache.getHits());
+        Assert.assertTrue(cache.getHeaderBytes() > 0);
+        Assert.assertTrue(cache.getCompressedHeaderBytes() > 0);
+        // Later compressions benefit from the compression context history
+        Assert.assertTrue(cache.getCompressedHeaderBytes() < cache.getHeaderBytes());
+
+        // Mutable headers are not cached
+        generator1.control(new SynReplyFrame(SPDY.V3, (byte)0, 11, fields));
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testHeadersBlockCacheEvictsOldestEntries() throws Exception
+    {
+        HeadersBlockCache cache = new HeadersBlockCache(2);
+        Fields[] headers = new Fields[3];
+        for (int i = 0; i < headers.length; ++i)
+        {
+            Fields fields = new Fields();
+            fields.put("status", (200 + i) + " OK");
+            headers[i] = new Fields(fields, true);
+            cache.put(SPDY.V3, headers[i], new byte[]{(byte)i});
+        }
+
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNull(cache.get(SPDY.V3, headers[0]));
+        Assert.assertArrayEquals(new byte[]{1}, cache.get(SPDY.V3, headers[1]));
+        Assert.assertArrayEquals(new byte[]{2}, cache.get(SPDY.V3, headers[2]));
+    }
 }
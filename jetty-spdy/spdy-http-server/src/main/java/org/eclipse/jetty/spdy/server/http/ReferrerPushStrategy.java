@@ -19,18 +19,23 @@
 
 package org.eclipse.jetty.spdy.server.http;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.eclipse.jetty.spdy.api.Session;
 import org.eclipse.jetty.spdy.api.Stream;
 import org.eclipse.jetty.util.Fields;
 import org.eclipse.jetty.util.log.Log;
@@ -52,17 +57,32 @@ import org.eclipse.jetty.util.log.Logger;
  * number of pages of the application itself, and by the {@link #setMaxAssociatedResources(int)} max associated resources}
  * parameter. This parameter limits the number of associated resources per each main resource, so that if a main
  * resource has hundreds of associated resources, only up to the number specified by this parameter will be pushed.</p>
+ * <p>The main resources are kept in a concurrent cache bounded by {@link #setMaxMainResources(int) max main resources},
+ * where the oldest main resources are evicted first.</p>
+ * <p>The resources already pushed to a session are recorded in the session, so that they are not pushed again
+ * to the same client.</p>
  */
 public class ReferrerPushStrategy implements PushStrategy
 {
     private static final Logger logger = Log.getLogger(ReferrerPushStrategy.class);
+    private static final String PUSHED_RESOURCES_ATTRIBUTE = ReferrerPushStrategy.class.getName() + ".pushed";
+    private static final Pattern SUFFIX_REGEXP = Pattern.compile("\\.\\*\\\\\\.([A-Za-z0-9]+)");
     private final ConcurrentMap<String, MainResource> mainResources = new ConcurrentHashMap<>();
+    private final Queue<String> mainResourcesLRU = new ConcurrentLinkedQueue<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong skippedPushes = new AtomicLong();
     private final Set<Pattern> pushRegexps = new HashSet<>();
     private final Set<String> pushContentTypes = new HashSet<>();
     private final Set<Pattern> allowedPushOrigins = new HashSet<>();
     private final Set<Pattern> userAgentBlacklist = new HashSet<>();
+    private volatile String[] pushSuffixes;
+    private volatile Pattern pushRegexp;
     private volatile int maxAssociatedResources = 32;
     private volatile int referrerPushPeriod = 5000;
+    private volatile int maxMainResources = 1024;
+    private volatile int maxPushedResources = 256;
 
     public ReferrerPushStrategy()
     {
@@ -82,7 +102,7 @@ public class ReferrerPushStrategy implements PushStrategy
 
     public void setPushRegexps(List<String> pushRegexps)
     {
-        pushRegexps.clear();
+        this.pushRegexps.clear();
         addPushRegexps(pushRegexps);
     }
 
@@ -90,17 +110,40 @@ public class ReferrerPushStrategy implements PushStrategy
     {
         for (String pushRegexp : pushRegexps)
             this.pushRegexps.add(Pattern.compile(pushRegexp));
+        compilePushRegexps();
+    }
+
+    private void compilePushRegexps()
+    {
+        // The common case of regexps like ".*\.css" is matched with String.endsWith(),
+        // otherwise all the regexps are compiled into a single alternation
+        List<String> suffixes = new ArrayList<>();
+        StringBuilder alternation = new StringBuilder();
+        for (Pattern pattern : pushRegexps)
+        {
+            Matcher matcher = SUFFIX_REGEXP.matcher(pattern.pattern());
+            if (suffixes != null && matcher.matches())
+                suffixes.add("." + matcher.group(1));
+            else
+                suffixes = null;
+            if (alternation.length() > 0)
+                alternation.append("|");
+            alternation.append("(?:").append(pattern.pattern()).append(")");
+        }
+        pushSuffixes = suffixes == null ? null : suffixes.toArray(new String[suffixes.size()]);
+        pushRegexp = alternation.length() == 0 ? null : Pattern.compile(alternation.toString());
     }
 
     public void setPushContentTypes(List<String> pushContentTypes)
     {
-        pushContentTypes.clear();
-        pushContentTypes.addAll(pushContentTypes);
+        this.pushContentTypes.clear();
+        for (String pushContentType : pushContentTypes)
+            this.pushContentTypes.add(pushContentType.toLowerCase(Locale.ENGLISH));
     }
 
     public void setAllowedPushOrigins(List<String> allowedPushOrigins)
     {
-        allowedPushOrigins.clear();
+        this.allowedPushOrigins.clear();
         for (String allowedPushOrigin : allowedPushOrigins)
             this.allowedPushOrigins.add(Pattern.compile(allowedPushOrigin.replace(".", "\\.").replace("*", ".*")));
     }
@@ -122,9 +165,30 @@ public class ReferrerPushStrategy implements PushStrategy
         this.referrerPushPeriod = referrerPushPeriod;
     }
 
+    /**
+     * @param maxMainResources the max number of main resources to keep push metadata for;
+     * when exceeded, the oldest main resource is evicted
+     */
+    public void setMaxMainResources(int maxMainResources)
+    {
+        this.maxMainResources = maxMainResources;
+    }
+
+    /**
+     * @param maxPushedResources the max number of pushed resources to record per session,
+     * to avoid pushing them again to the same client
+     */
+    public void setMaxPushedResources(int maxPushedResources)
+    {
+        this.maxPushedResources = maxPushedResources;
+    }
+
+    /**
+     * @return an unmodifiable view of the push regexps; use {@link #setPushRegexps(List)} to change them
+     */
     public Set<Pattern> getPushRegexps()
     {
-        return pushRegexps;
+        return Collections.unmodifiableSet(pushRegexps);
     }
 
     public Set<String> getPushContentTypes()
@@ -152,6 +216,56 @@ public class ReferrerPushStrategy implements PushStrategy
         return referrerPushPeriod;
     }
 
+    public int getMaxMainResources()
+    {
+        return maxMainResources;
+    }
+
+    public int getMaxPushedResources()
+    {
+        return maxPushedResources;
+    }
+
+    /**
+     * @return the number of main resources currently cached
+     */
+    public int getMainResources()
+    {
+        return mainResources.size();
+    }
+
+    /**
+     * @return the number of lookups of main resources that found push metadata
+     */
+    public long getMainResourceHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups of main resources that did not find push metadata
+     */
+    public long getMainResourceMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of main resources evicted from the cache
+     */
+    public long getMainResourceEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of pushes skipped because the resource was already pushed to the session
+     */
+    public long getSkippedPushes()
+    {
+        return skippedPushes.get();
+    }
+
     @Override
     public Set<String> apply(Stream stream, Fields requestHeaders, Fields responseHeaders)
     {
@@ -166,26 +280,24 @@ public class ReferrerPushStrategy implements PushStrategy
             String url = requestHeaders.get(HTTPSPDYHeader.URI.name(version)).value();
             String absoluteURL = origin + url;
             logger.debug("Applying push strategy for {}", absoluteURL);
-            if (isMainResource(url, responseHeaders))
+            if (!isPushResource(url, responseHeaders))
             {
                 MainResource mainResource = getOrCreateMainResource(absoluteURL);
-                result = mainResource.getResources();
+                result = filterPushed(stream, mainResource.getResources());
             }
-            else if (isPushResource(url, responseHeaders))
+            else
             {
                 Fields.Field referrerHeader = requestHeaders.get("referer");
                 if (referrerHeader != null)
                 {
                     String referrer = referrerHeader.value();
-                    MainResource mainResource = mainResources.get(referrer);
-                    if (mainResource == null)
-                        mainResource = getOrCreateMainResource(referrer);
+                    MainResource mainResource = getOrCreateMainResource(referrer);
 
                     Set<String> pushResources = mainResource.getResources();
                     if (!pushResources.contains(url))
                         mainResource.addResource(url, origin, referrer);
                     else
-                        result = getPushResources(absoluteURL);
+                        result = filterPushed(stream, getPushResources(absoluteURL));
                 }
             }
             logger.debug("Pushing {} resources for {}: {}", result.size(), absoluteURL, result);
@@ -193,25 +305,76 @@ public class ReferrerPushStrategy implements PushStrategy
         return result;
     }
 
-    private Set<String> getPushResources(String absoluteURL)
+    private Set<String> filterPushed(Stream stream, Set<String> resources)
     {
-        Set<String> result = Collections.emptySet();
-        if (mainResources.get(absoluteURL) != null)
-            result = mainResources.get(absoluteURL).getResources();
+        if (resources.isEmpty())
+            return resources;
+
+        Session session = stream.getSession();
+        @SuppressWarnings("unchecked")
+        Set<String> pushed = (Set<String>)session.getAttribute(PUSHED_RESOURCES_ATTRIBUTE);
+        if (pushed == null)
+        {
+            pushed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            session.setAttribute(PUSHED_RESOURCES_ATTRIBUTE, pushed);
+        }
+
+        Set<String> result = new HashSet<>(resources.size());
+        for (String resource : resources)
+        {
+            if (pushed.contains(resource))
+            {
+                skippedPushes.incrementAndGet();
+                continue;
+            }
+            // This check is not strictly concurrent-safe, but it bounds
+            // the memory used to record the resources pushed to a session
+            if (pushed.size() < maxPushedResources)
+                pushed.add(resource);
+            result.add(resource);
+        }
         return result;
     }
 
-    private MainResource getOrCreateMainResource(String absoluteURL)
+    private Set<String> getPushResources(String absoluteURL)
     {
         MainResource mainResource = mainResources.get(absoluteURL);
         if (mainResource == null)
+            return Collections.emptySet();
+        return mainResource.getResources();
+    }
+
+    private MainResource getOrCreateMainResource(String absoluteURL)
+    {
+        MainResource mainResource = mainResources.get(absoluteURL);
+        if (mainResource != null)
         {
-            logger.debug("Creating new main resource for {}", absoluteURL);
-            MainResource value = new MainResource(absoluteURL);
-            mainResource = mainResources.putIfAbsent(absoluteURL, value);
-            if (mainResource == null)
-                mainResource = value;
+            hits.incrementAndGet();
+            return mainResource;
+        }
+
+        misses.incrementAndGet();
+
+        // Delete by LRU (where U==created)
+        while (mainResources.size() >= maxMainResources)
+        {
+            String eldest = mainResourcesLRU.poll();
+            if (eldest == null)
+                break;
+            MainResource evicted = mainResources.remove(eldest);
+            if (evicted != null)
+            {
+                evictions.incrementAndGet();
+                logger.debug("Evicting {}", evicted);
+            }
         }
+
+        logger.debug("Creating new main resource for {}", absoluteURL);
+        mainResource = new MainResource(absoluteURL);
+        MainResource existing = mainResources.putIfAbsent(absoluteURL, mainResource);
+        if (existing != null)
+            return existing;
+        mainResourcesLRU.add(absoluteURL);
         return mainResource;
     }
 
@@ -225,11 +388,6 @@ public class ReferrerPushStrategy implements PushStrategy
         return "GET".equalsIgnoreCase(method);
     }
 
-    private boolean isMainResource(String url, Fields responseHeaders)
-    {
-        return !isPushResource(url, responseHeaders);
-    }
-
     public boolean isUserAgentBlacklisted(Fields headers)
     {
         Fields.Field userAgentHeader = headers.get("user-agent");
@@ -242,21 +400,36 @@ public class ReferrerPushStrategy implements PushStrategy
 
     private boolean isPushResource(String url, Fields responseHeaders)
     {
-        for (Pattern pushRegexp : pushRegexps)
+        if (!matchesPushRegexps(url))
+            return false;
+
+        Fields.Field header = responseHeaders.get("content-type");
+        if (header == null)
+            return true;
+
+        String contentType = header.value().toLowerCase(Locale.ENGLISH);
+        int semicolon = contentType.indexOf(';');
+        String mimeType = semicolon < 0 ? contentType : contentType.substring(0, semicolon).trim();
+        if (pushContentTypes.contains(mimeType))
+            return true;
+        for (String pushContentType : pushContentTypes)
+            if (contentType.startsWith(pushContentType))
+                return true;
+        return false;
+    }
+
+    private boolean matchesPushRegexps(String url)
+    {
+        String[] suffixes = pushSuffixes;
+        if (suffixes != null)
         {
-            if (pushRegexp.matcher(url).matches())
-            {
-                Fields.Field header = responseHeaders.get("content-type");
-                if (header == null)
+            for (String suffix : suffixes)
+                if (url.endsWith(suffix))
                     return true;
-
-                String contentType = header.value().toLowerCase(Locale.ENGLISH);
-                for (String pushContentType : pushContentTypes)
-                    if (contentType.startsWith(pushContentType))
-                        return true;
-            }
+            return false;
         }
-        return false;
+        Pattern pattern = pushRegexp;
+        return pattern != null && pattern.matcher(url).matches();
     }
 
     private class MainResource
@@ -20,24 +20,35 @@
 package org.eclipse.jetty.spdy.server.proxy;
 
 import java.net.InetSocketAddress;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.jetty.spdy.StreamException;
 import org.eclipse.jetty.spdy.api.ByteBufferDataInfo;
 import org.eclipse.jetty.spdy.api.DataInfo;
 import org.eclipse.jetty.spdy.api.GoAwayInfo;
 import org.eclipse.jetty.spdy.api.GoAwayResultInfo;
 import org.eclipse.jetty.spdy.api.HeadersInfo;
 import org.eclipse.jetty.spdy.api.Info;
+import org.eclipse.jetty.spdy.api.PingInfo;
+import org.eclipse.jetty.spdy.api.PingResultInfo;
 import org.eclipse.jetty.spdy.api.PushInfo;
 import org.eclipse.jetty.spdy.api.ReplyInfo;
 import org.eclipse.jetty.spdy.api.RstInfo;
 import org.eclipse.jetty.spdy.api.SPDY;
 import org.eclipse.jetty.spdy.api.Session;
 import org.eclipse.jetty.spdy.api.SessionFrameListener;
+import org.eclipse.jetty.spdy.api.Settings;
+import org.eclipse.jetty.spdy.api.SettingsInfo;
 import org.eclipse.jetty.spdy.api.Stream;
 import org.eclipse.jetty.spdy.api.StreamFrameListener;
 import org.eclipse.jetty.spdy.api.StreamStatus;
@@ -53,6 +64,11 @@ import org.eclipse.jetty.util.log.Logger;
 /**
  * <p>{@link SPDYProxyEngine} implements a SPDY to SPDY proxy, that is, converts SPDY events received by clients into
  * SPDY events for the servers.</p>
+ * <p>For each server host, a small pool of up to {@link #getMaxSessionsPerHost() max sessions per host} sessions is
+ * maintained. New streams are routed to the session with the fewest open streams; a new session is opened when all
+ * the sessions have {@link #getMaxStreamsPerSession() max streams per session} open streams or have reached the
+ * MAX_CONCURRENT_STREAMS advertised by the server. If no session can accept a new stream, the client stream is
+ * refused.</p>
  */
 public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
 {
@@ -60,12 +76,17 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
 
     private static final String STREAM_PROMISE_ATTRIBUTE = "org.eclipse.jetty.spdy.server.http.proxy.streamPromise";
     private static final String CLIENT_STREAM_ATTRIBUTE = "org.eclipse.jetty.spdy.server.http.proxy.clientStream";
+    private static final String BACKEND_SESSION_ATTRIBUTE = "org.eclipse.jetty.spdy.server.http.proxy.backendSession";
+    private static final String MAX_CONCURRENT_STREAMS_ATTRIBUTE = "org.eclipse.jetty.spdy.server.http.proxy.maxConcurrentStreams";
 
-    private final ConcurrentMap<String, Session> serverSessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Backend> backends = new ConcurrentHashMap<>();
     private final SessionFrameListener sessionListener = new ProxySessionFrameListener();
     private final SPDYClient.Factory factory;
     private volatile long connectTimeout = 15000;
     private volatile long timeout = 60000;
+    private volatile int maxSessionsPerHost = 4;
+    private volatile int maxStreamsPerSession = 128;
+    private volatile long pingPeriod = 10000;
 
     public SPDYProxyEngine(SPDYClient.Factory factory)
     {
@@ -92,18 +113,69 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         this.timeout = timeout;
     }
 
+    public int getMaxSessionsPerHost()
+    {
+        return maxSessionsPerHost;
+    }
+
+    /**
+     * @param maxSessionsPerHost the max number of sessions opened to each server host
+     */
+    public void setMaxSessionsPerHost(int maxSessionsPerHost)
+    {
+        this.maxSessionsPerHost = maxSessionsPerHost;
+    }
+
+    public int getMaxStreamsPerSession()
+    {
+        return maxStreamsPerSession;
+    }
+
+    /**
+     * @param maxStreamsPerSession the number of open streams on every session of a host beyond which
+     * a new session is opened to that host, if {@link #getMaxSessionsPerHost()} allows it
+     */
+    public void setMaxStreamsPerSession(int maxStreamsPerSession)
+    {
+        this.maxStreamsPerSession = maxStreamsPerSession;
+    }
+
+    public long getPingPeriod()
+    {
+        return pingPeriod;
+    }
+
+    /**
+     * @param pingPeriod the min period in milliseconds between PINGs sent to a server session
+     * to measure its round trip time, or a negative value to disable PINGs; a PING not answered
+     * within this period is considered lost
+     */
+    public void setPingPeriod(long pingPeriod)
+    {
+        this.pingPeriod = pingPeriod;
+    }
+
+    /**
+     * @return the server hosts this proxy is connected to, with their metrics
+     */
+    public Collection<Backend> getBackends()
+    {
+        return Collections.unmodifiableCollection(backends.values());
+    }
+
     public StreamFrameListener proxy(final Stream clientStream, SynInfo clientSynInfo, ProxyEngineSelector.ProxyServerInfo proxyServerInfo)
     {
         Fields headers = new Fields(clientSynInfo.getHeaders(), false);
 
         short serverVersion = getVersion(proxyServerInfo.getProtocol());
         InetSocketAddress address = proxyServerInfo.getAddress();
-        Session serverSession = produceSession(proxyServerInfo.getHost(), serverVersion, address);
-        if (serverSession == null)
+        BackendSession backendSession = produceSession(proxyServerInfo.getHost(), serverVersion, address);
+        if (backendSession == null)
         {
             rst(clientStream);
             return null;
         }
+        Session serverSession = backendSession.getSession();
 
         final Session clientSession = clientStream.getSession();
 
@@ -113,7 +185,7 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
 
         SynInfo serverSynInfo = new SynInfo(headers, clientSynInfo.isClose());
         StreamFrameListener listener = new ProxyStreamFrameListener(clientStream);
-        StreamPromise promise = new StreamPromise(clientStream, serverSynInfo);
+        StreamPromise promise = new StreamPromise(clientStream, serverSynInfo, backendSession);
         clientStream.setAttribute(STREAM_PROMISE_ATTRIBUTE, promise);
         serverSession.syn(serverSynInfo, listener, promise);
         return this;
@@ -170,30 +242,17 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         streamPromise.data(serverDataInfo);
     }
 
-    private Session produceSession(String host, short version, InetSocketAddress address)
+    private BackendSession produceSession(String host, short version, InetSocketAddress address)
     {
-        try
-        {
-            Session session = serverSessions.get(host);
-            if (session == null)
-            {
-                SPDYClient client = factory.newSPDYClient(version);
-                session = client.connect(address, sessionListener).get(getConnectTimeout(), TimeUnit.MILLISECONDS);
-                LOG.debug("Proxy session connected to {}", address);
-                Session existing = serverSessions.putIfAbsent(host, session);
-                if (existing != null)
-                {
-                    session.goAway(new GoAwayInfo(), new Callback.Adapter());
-                    session = existing;
-                }
-            }
-            return session;
-        }
-        catch (Exception x)
+        Backend backend = backends.get(host);
+        if (backend == null)
         {
-            LOG.debug(x);
-            return null;
+            backend = new Backend(host);
+            Backend existing = backends.putIfAbsent(host, backend);
+            if (existing != null)
+                backend = existing;
         }
+        return backend.acquire(version, address);
     }
 
     private void convert(short fromVersion, short toVersion, Fields headers)
@@ -373,12 +432,19 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         private final Queue<DataInfoCallback> queue = new LinkedList<>();
         private final Stream senderStream;
         private final Info info;
+        private final BackendSession backendSession;
         private Stream receiverStream;
 
         private StreamPromise(Stream senderStream, Info info)
+        {
+            this(senderStream, info, null);
+        }
+
+        private StreamPromise(Stream senderStream, Info info, BackendSession backendSession)
         {
             this.senderStream = senderStream;
             this.info = info;
+            this.backendSession = backendSession;
         }
 
         @Override
@@ -419,9 +485,18 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         public void failed(Throwable x)
         {
             LOG.debug(x);
+            // The connection to the server may have been closed without a GOAWAY,
+            // but the failure of a single stream leaves the session usable
+            if (backendSession != null && !isStreamFailure(x))
+                backendSession.failed();
             rst(senderStream);
         }
 
+        private boolean isStreamFailure(Throwable x)
+        {
+            return x instanceof StreamException || x instanceof InterruptedByTimeoutException;
+        }
+
         public void data(DataInfo dataInfo)
         {
             Stream receiverStream;
@@ -463,16 +538,22 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         private class DataInfoCallback implements Callback
         {
             private final DataInfo dataInfo;
+            private final int length;
             private boolean flushing;
 
             private DataInfoCallback(DataInfo dataInfo)
             {
                 this.dataInfo = dataInfo;
+                this.length = dataInfo.available();
+                if (backendSession != null)
+                    backendSession.queuedBytes.addAndGet(length);
             }
 
             @Override
             public void succeeded()
             {
+                if (backendSession != null)
+                    backendSession.queuedBytes.addAndGet(-length);
                 Stream serverStream;
                 DataInfoCallback dataInfoCallback;
                 synchronized (queue)
@@ -500,6 +581,8 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
             @Override
             public void failed(Throwable x)
             {
+                if (backendSession != null)
+                    backendSession.queuedBytes.addAndGet(-length);
                 LOG.debug(x);
                 rst(senderStream);
             }
@@ -574,10 +657,308 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
             }
         }
 
+        @Override
+        public void onSettings(Session serverSession, SettingsInfo settingsInfo)
+        {
+            Settings.Setting maxStreams = settingsInfo.getSettings().get(Settings.ID.MAX_CONCURRENT_STREAMS);
+            if (maxStreams != null)
+            {
+                // The session may not be pooled yet, so store the value in the session
+                serverSession.setAttribute(MAX_CONCURRENT_STREAMS_ATTRIBUTE, maxStreams.value());
+                LOG.debug("Server {} max concurrent streams {}", serverSession, maxStreams.value());
+            }
+        }
+
+        @Override
+        public void onPing(Session serverSession, PingResultInfo pingResultInfo)
+        {
+            BackendSession backendSession = (BackendSession)serverSession.getAttribute(BACKEND_SESSION_ATTRIBUTE);
+            if (backendSession != null)
+                backendSession.onPing();
+        }
+
         @Override
         public void onGoAway(Session serverSession, GoAwayResultInfo goAwayResultInfo)
         {
-            serverSessions.values().remove(serverSession);
+            BackendSession backendSession = (BackendSession)serverSession.removeAttribute(BACKEND_SESSION_ATTRIBUTE);
+            if (backendSession != null)
+                backendSession.backend.sessions.remove(backendSession);
+        }
+    }
+
+    /**
+     * <p>The pool of sessions to a server host, with their metrics.</p>
+     */
+    public class Backend
+    {
+        private final List<BackendSession> sessions = new CopyOnWriteArrayList<>();
+        private final String host;
+        private int connecting;
+
+        private Backend(String host)
+        {
+            this.host = host;
+        }
+
+        public String getHost()
+        {
+            return host;
+        }
+
+        public List<BackendSession> getSessions()
+        {
+            return Collections.unmodifiableList(sessions);
+        }
+
+        /**
+         * @return the number of streams open on all the sessions to this host
+         */
+        public int getStreams()
+        {
+            int result = 0;
+            for (BackendSession session : sessions)
+                result += session.getStreams();
+            return result;
+        }
+
+        /**
+         * @return the number of bytes sent by clients not yet written to this host
+         */
+        public long getQueuedBytes()
+        {
+            long result = 0;
+            for (BackendSession session : sessions)
+                result += session.getQueuedBytes();
+            return result;
+        }
+
+        private BackendSession acquire(short version, InetSocketAddress address)
+        {
+            boolean connect = false;
+            BackendSession result;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getConnectTimeout());
+            synchronized (this)
+            {
+                while (true)
+                {
+                    result = select();
+                    int size = sessions.size() + connecting;
+                    if (size < maxSessionsPerHost && (result == null || result.getStreams() >= maxStreamsPerSession))
+                    {
+                        ++connecting;
+                        connect = true;
+                        break;
+                    }
+                    if (result != null || connecting == 0)
+                        break;
+
+                    // Wait for the sessions being connected
+                    long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (wait <= 0)
+                        break;
+                    try
+                    {
+                        wait(wait);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            if (connect)
+            {
+                BackendSession created = connect(version, address);
+                if (created != null)
+                    result = created;
+            }
+
+            if (result == null)
+            {
+                LOG.debug("No session available to {}", host);
+                return null;
+            }
+
+            result.ping();
+            return result;
+        }
+
+        private BackendSession select()
+        {
+            // Route the new stream to the least loaded session that
+            // still accepts streams, considering first the open streams
+            // and then the bytes still to be written to the server
+            BackendSession result = null;
+            for (BackendSession session : sessions)
+            {
+                if (!session.isAvailable())
+                    continue;
+                if (result == null || session.getStreams() < result.getStreams() ||
+                        (session.getStreams() == result.getStreams() && session.getQueuedBytes() < result.getQueuedBytes()))
+                    result = session;
+            }
+            return result;
+        }
+
+        private BackendSession connect(short version, InetSocketAddress address)
+        {
+            try
+            {
+                SPDYClient client = factory.newSPDYClient(version);
+                Session session = client.connect(address, sessionListener).get(getConnectTimeout(), TimeUnit.MILLISECONDS);
+                LOG.debug("Proxy session connected to {}", address);
+                BackendSession backendSession = new BackendSession(this, session);
+                session.setAttribute(BACKEND_SESSION_ATTRIBUTE, backendSession);
+                sessions.add(backendSession);
+                return backendSession;
+            }
+            catch (Exception x)
+            {
+                LOG.debug(x);
+                return null;
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    --connecting;
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s,sessions=%d,streams=%d,queued=%d]",
+                    getClass().getSimpleName(),
+                    hashCode(),
+                    host,
+                    sessions.size(),
+                    getStreams(),
+                    getQueuedBytes());
+        }
+    }
+
+    /**
+     * <p>A session to a server host, with its metrics.</p>
+     */
+    public class BackendSession
+    {
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicLong pingTime = new AtomicLong();
+        private final Backend backend;
+        private final Session session;
+        private volatile long lastPingTime;
+        private volatile long roundTripTime = -1;
+
+        private BackendSession(Backend backend, Session session)
+        {
+            this.backend = backend;
+            this.session = session;
+        }
+
+        public Session getSession()
+        {
+            return session;
+        }
+
+        /**
+         * @return the number of streams open on this session
+         */
+        public int getStreams()
+        {
+            return session.getStreams().size();
+        }
+
+        /**
+         * @return the MAX_CONCURRENT_STREAMS advertised by the server, or -1 if not advertised
+         */
+        public int getMaxConcurrentStreams()
+        {
+            Integer result = (Integer)session.getAttribute(MAX_CONCURRENT_STREAMS_ATTRIBUTE);
+            return result == null ? -1 : result;
+        }
+
+        /**
+         * @return the number of bytes sent by clients not yet written to the server
+         */
+        public long getQueuedBytes()
+        {
+            return queuedBytes.get();
+        }
+
+        /**
+         * @return the round trip time in milliseconds measured by the last PING, or -1 if not measured yet
+         */
+        public long getRoundTripTime()
+        {
+            long rtt = roundTripTime;
+            return rtt < 0 ? rtt : TimeUnit.NANOSECONDS.toMillis(rtt);
+        }
+
+        private boolean isAvailable()
+        {
+            int maxConcurrentStreams = getMaxConcurrentStreams();
+            return maxConcurrentStreams < 0 || getStreams() < maxConcurrentStreams;
+        }
+
+        private void ping()
+        {
+            long period = getPingPeriod();
+            if (period < 0)
+                return;
+            final long now = System.nanoTime();
+            if (lastPingTime != 0 && TimeUnit.NANOSECONDS.toMillis(now - lastPingTime) < period)
+                return;
+            // Only one PING outstanding at a time, unless
+            // it has not been answered within a ping period
+            long sent = pingTime.get();
+            if (sent != 0 && TimeUnit.NANOSECONDS.toMillis(now - sent) < period)
+                return;
+            if (!pingTime.compareAndSet(sent, now))
+                return;
+            lastPingTime = now;
+            session.ping(new PingInfo(), new Promise.Adapter<PingResultInfo>()
+            {
+                @Override
+                public void failed(Throwable x)
+                {
+                    pingTime.compareAndSet(now, 0);
+                }
+            });
+        }
+
+        private void failed()
+        {
+            if (backend.sessions.remove(this))
+            {
+                LOG.debug("Removing failed {}", this);
+                session.removeAttribute(BACKEND_SESSION_ATTRIBUTE);
+                session.goAway(new GoAwayInfo(), new Callback.Adapter());
+            }
+        }
+
+        private void onPing()
+        {
+            long sent = pingTime.getAndSet(0);
+            if (sent != 0)
+                roundTripTime = System.nanoTime() - sent;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s,streams=%d/%d,queued=%d,rtt=%dms]",
+                    getClass().getSimpleName(),
+                    hashCode(),
+                    backend.getHost(),
+                    getStreams(),
+                    getMaxConcurrentStreams(),
+                    getQueuedBytes(),
+                    getRoundTripTime());
         }
     }
 
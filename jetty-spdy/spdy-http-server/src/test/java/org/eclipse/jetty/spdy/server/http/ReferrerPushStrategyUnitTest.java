@@ -20,9 +20,11 @@ package org.eclipse.jetty.spdy.server.http;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.eclipse.jetty.spdy.api.SPDY;
@@ -107,6 +109,67 @@ public class ReferrerPushStrategyUnitTest
         assertThat("no resources are returned as we want to filter firefox", pushResources.size(), is(0));
     }
 
+    @Test
+    public void testAlreadyPushedResourcesAreNotPushedAgainToSameSession()
+    {
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+        Set<String> pushed = new HashSet<>();
+        when(session.getAttribute(anyString())).thenReturn(pushed);
+
+        fillPushStrategyCache(requestHeaders);
+        assertThat("image.jpg and style.css are recorded as pushed", pushed.size(), is(2));
+
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("resources already pushed to the session are not pushed again", pushResources.size(), is(0));
+        assertThat(referrerPushStrategy.getSkippedPushes(), is(2L));
+    }
+
+    @Test
+    public void testMainResourcesAreEvicted()
+    {
+        referrerPushStrategy.setMaxMainResources(1);
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+
+        fillPushStrategyCache(requestHeaders);
+        assertThat(referrerPushStrategy.getMainResources(), is(1));
+
+        // Another main resource evicts the oldest one
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), "/other.html");
+        referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat(referrerPushStrategy.getMainResources(), is(1));
+        assertThat(referrerPushStrategy.getMainResourceEvictions(), is(1L));
+
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), MAIN_URI);
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("push metadata of evicted main resource is lost", pushResources.size(), is(0));
+    }
+
+    @Test
+    public void testCustomPushRegexps()
+    {
+        referrerPushStrategy.setPushRegexps(Arrays.asList(".*\\.css", "/static/.*"));
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+
+        referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        String referrerUrl = SCHEME + "://" + HOST + MAIN_URI;
+        requestHeaders.put("referer", referrerUrl);
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), "/static/logo.svg");
+        referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), "/image.jpg");
+        Fields responseHeaders = new Fields();
+        responseHeaders.put("content-type", "image/jpeg");
+        referrerPushStrategy.apply(stream, requestHeaders, responseHeaders);
+
+        requestHeaders.remove("referer");
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), MAIN_URI);
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("only resources matching the push regexps are pushed", pushResources.size(), is(1));
+        assertThat(pushResources.contains("/static/logo.svg"), is(true));
+    }
+
     private Fields getBaseHeaders(short version)
     {
         Fields requestHeaders = new Fields();
@@ -22,6 +22,11 @@ import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -90,6 +95,7 @@ public class ProxySPDYToSPDYTest
     private Server server;
     private Server proxy;
     private ServerConnector proxyConnector;
+    private SPDYProxyEngine spdyProxyEngine;
     private SslContextFactory sslContextFactory = SPDYTestUtils.newSslContextFactory();
 
     public ProxySPDYToSPDYTest(short version)
@@ -112,7 +118,7 @@ public class ProxySPDYToSPDYTest
     {
         proxy = new Server();
         ProxyEngineSelector proxyEngineSelector = new ProxyEngineSelector();
-        SPDYProxyEngine spdyProxyEngine = new SPDYProxyEngine(factory);
+        spdyProxyEngine = new SPDYProxyEngine(factory);
         proxyEngineSelector.putProxyEngine("spdy/" + version, spdyProxyEngine);
         proxyEngineSelector.putProxyServerInfo("localhost", new ProxyEngineSelector.ProxyServerInfo("spdy/" + version, address.getHostName(), address.getPort()));
         proxyConnector = new HTTPSPDYProxyServerConnector(proxy, sslContextFactory, proxyEngineSelector);
@@ -187,6 +193,59 @@ public class ProxySPDYToSPDYTest
         client.goAway(new GoAwayInfo(5, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testStreamsAreSpreadOverPooledSessions() throws Exception
+    {
+        final int streams = 3;
+        final Set<Session> serverSessions = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+        final List<Stream> serverStreams = new CopyOnWriteArrayList<>();
+        InetSocketAddress proxyAddress = startProxy(startServer(new ServerSessionFrameListener.Adapter()
+        {
+            @Override
+            public StreamFrameListener onSyn(Stream stream, SynInfo synInfo)
+            {
+                serverSessions.add(stream.getSession());
+                serverStreams.add(stream);
+                // Keep the streams open until all have arrived
+                if (serverStreams.size() == streams)
+                {
+                    for (Stream serverStream : serverStreams)
+                        serverStream.reply(new ReplyInfo(new Fields(), true), new Callback.Adapter());
+                }
+                return null;
+            }
+        }));
+        proxyConnector.addConnectionFactory(proxyConnector.getConnectionFactory("spdy/" + version));
+        spdyProxyEngine.setMaxStreamsPerSession(1);
+        spdyProxyEngine.setMaxSessionsPerHost(2);
+
+        Session client = factory.newSPDYClient(version).connect(proxyAddress, null).get(5, TimeUnit.SECONDS);
+
+        final CountDownLatch replyLatch = new CountDownLatch(streams);
+        for (int i = 0; i < streams; ++i)
+        {
+            Fields headers = SPDYTestUtils.createHeaders("localhost", proxyAddress.getPort(), version, "GET", "/" + i);
+            client.syn(new SynInfo(headers, true), new StreamFrameListener.Adapter()
+            {
+                @Override
+                public void onReply(Stream stream, ReplyInfo replyInfo)
+                {
+                    replyLatch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(replyLatch.await(5, TimeUnit.SECONDS));
+        // Two sessions opened, the third stream routed to the least loaded
+        Assert.assertEquals(2, serverSessions.size());
+        Assert.assertEquals(1, spdyProxyEngine.getBackends().size());
+        SPDYProxyEngine.Backend backend = spdyProxyEngine.getBackends().iterator().next();
+        Assert.assertEquals(2, backend.getSessions().size());
+        Assert.assertEquals(0, backend.getQueuedBytes());
+
+        client.goAway(new GoAwayInfo(5, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testSYNThenREPLYAndDATA() throws Exception
     {
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
@@ -38,6 +39,7 @@ import org.eclipse.jetty.spdy.api.server.ServerSessionFrameListener;
 import org.eclipse.jetty.spdy.client.FlowControlStrategyFactory;
 import org.eclipse.jetty.spdy.client.SPDYConnection;
 import org.eclipse.jetty.spdy.generator.Generator;
+import org.eclipse.jetty.spdy.generator.HeadersBlockCache;
 import org.eclipse.jetty.spdy.parser.Parser;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
@@ -69,6 +71,10 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
     private final short version;
     private final ServerSessionFrameListener listener;
     private int initialWindowSize;
+    private float windowUpdateRatio;
+    private int maxWindowSize;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private final HeadersBlockCache headersBlockCache = new HeadersBlockCache();
     private final Queue<Session> sessions = new ConcurrentLinkedQueue<>();
 
     public SPDYServerConnectionFactory(int version)
@@ -98,9 +104,9 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
     @Override
     public Connection newConnection(Connector connector, EndPoint endPoint)
     {
-        CompressionFactory compressionFactory = new StandardCompressionFactory();
+        CompressionFactory compressionFactory = new StandardCompressionFactory(getCompressionLevel());
         Parser parser = new Parser(compressionFactory.newDecompressor());
-        Generator generator = new Generator(connector.getByteBufferPool(), compressionFactory.newCompressor());
+        Generator generator = new Generator(connector.getByteBufferPool(), compressionFactory.newCompressor(), headersBlockCache);
 
         ServerSessionFrameListener listener = provideServerSessionFrameListener(connector, endPoint);
         SPDYConnection connection = new ServerSPDYConnection(connector, endPoint, parser, listener, getInputBufferSize());
@@ -121,7 +127,7 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
 
     protected FlowControlStrategy newFlowControlStrategy(short version)
     {
-        return FlowControlStrategyFactory.newFlowControlStrategy(version);
+        return FlowControlStrategyFactory.newFlowControlStrategy(version, getInitialWindowSize(), getWindowUpdateRatio(), getMaxWindowSize());
     }
 
     protected ServerSessionFrameListener provideServerSessionFrameListener(Connector connector, EndPoint endPoint)
@@ -140,6 +146,62 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
         this.initialWindowSize = initialWindowSize;
     }
 
+    @ManagedAttribute("Fraction of the receive window consumed before sending a window update (0 for every data frame)")
+    public float getWindowUpdateRatio()
+    {
+        return windowUpdateRatio;
+    }
+
+    public void setWindowUpdateRatio(float windowUpdateRatio)
+    {
+        this.windowUpdateRatio = windowUpdateRatio;
+    }
+
+    @ManagedAttribute("Max receive window size for auto-tuning (0 to disable)")
+    public int getMaxWindowSize()
+    {
+        return maxWindowSize;
+    }
+
+    public void setMaxWindowSize(int maxWindowSize)
+    {
+        this.maxWindowSize = maxWindowSize;
+    }
+
+    @ManagedAttribute("Headers compression level")
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public HeadersBlockCache getHeadersBlockCache()
+    {
+        return headersBlockCache;
+    }
+
+    @ManagedAttribute("Headers bytes before compression")
+    public long getHeaderBytes()
+    {
+        return headersBlockCache.getHeaderBytes();
+    }
+
+    @ManagedAttribute("Headers bytes after compression")
+    public long getCompressedHeaderBytes()
+    {
+        return headersBlockCache.getCompressedHeaderBytes();
+    }
+
+    @ManagedAttribute("Headers block cache hits")
+    public long getHeadersBlockCacheHits()
+    {
+        return headersBlockCache.getHits();
+    }
+
     protected boolean sessionOpened(Session session)
     {
         // Add sessions only if the connector is not stopping
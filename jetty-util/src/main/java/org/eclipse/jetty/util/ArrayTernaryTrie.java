@@ -152,13 +152,19 @@ public class ArrayTernaryTrie<V> implements Trie<V>
     /* ------------------------------------------------------------ */
     @Override
     public V get(String s)
+    {
+        return get(s,0,s.length());
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public V get(String s,int offset,int len)
     {
         int t = _tree[EQ];
-        int len = s.length();
         int node=0;
         for(int i=0; t!=0 && i < len ; i++)
         {
-            char c=StringUtil.lowercases[s.charAt(i)&0x7f];
+            char c=StringUtil.lowercases[s.charAt(offset+i)&0x7f];
             while (t!=0)
             {
                 int row = ROW_SIZE*t;
@@ -174,12 +174,18 @@ public class ArrayTrie<V> implements Trie<V>
     /* ------------------------------------------------------------ */
     @Override
     public V get(String s)
+    {
+        return get(s,0,s.length());
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public V get(String s,int offset,int len)
     {
         int t = 0;
-        int len = s.length();
         for(int i=0; i < len; i++)
         {
-            char c=s.charAt(i);
+            char c=s.charAt(offset+i);
             int index=__lookup[c&0x7f];
             if (index>=0)
             {
@@ -36,6 +36,7 @@ import java.util.Set;
 public class Fields implements Iterable<Fields.Field>
 {
     private final Map<String, Field> fields;
+    private final boolean immutable;
 
     /**
      * <p>Creates an empty modifiable {@link Fields} instance.</p>
@@ -44,6 +45,7 @@ public class Fields implements Iterable<Fields.Field>
     public Fields()
     {
         fields = new LinkedHashMap<>();
+        immutable = false;
     }
 
     /**
@@ -58,6 +60,7 @@ public class Fields implements Iterable<Fields.Field>
         Map<String, Field> copy = new LinkedHashMap<>();
         copy.putAll(original.fields);
         fields = immutable ? Collections.unmodifiableMap(copy) : copy;
+        this.immutable = immutable;
     }
 
     @Override
@@ -174,6 +177,15 @@ public class Fields implements Iterable<Fields.Field>
         return fields.isEmpty();
     }
 
+    /**
+     * @return whether this {@link Fields} instance is immutable
+     * @see #Fields(Fields, boolean)
+     */
+    public boolean isImmutable()
+    {
+        return immutable;
+    }
+
     /**
      * @return the number of fields
      */
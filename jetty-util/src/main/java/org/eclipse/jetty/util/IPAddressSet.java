@@ -0,0 +1,555 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * Immutable set of internet addresses
+ * <p>
+ * The set is built once from a collection of address specifications, which
+ * may be any of:
+ * <pre>
+ * a.b.c.d          - an IPv4 address
+ * a.b.c.d/n        - an IPv4 CIDR block
+ * x:x:x:x:x:x:x:x  - an IPv6 address, optionally using :: compression
+ * x:x::x/n         - an IPv6 CIDR block
+ * a.b.c.d wildcard - an IPv4 octet wildcard specification, as supported by {@link IPAddressMap}
+ * </pre>
+ * <p>
+ * The specifications are compiled into binary prefix tries, so that
+ * {@link #contains(String)} takes time proportional to the number of bits of the
+ * address, independently of the number of specifications, and does not allocate.
+ * IPv4 octet wildcards are expanded into the equivalent CIDR blocks, and
+ * are rejected if that would need more than {@link #MAX_EXPANDED_PREFIXES} blocks.
+ */
+public class IPAddressSet
+{
+    public static final int MAX_EXPANDED_PREFIXES = 65536;
+
+    private static final int MATCH = -1;
+    private static final int MISS = -2;
+
+    private final List<String> _specs;
+    private final BitTrie _ipv4 = new BitTrie();
+    private final BitTrie _ipv6 = new BitTrie();
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param specs address specifications
+     * @throws IllegalArgumentException if a specification is invalid
+     */
+    public IPAddressSet(String... specs)
+        throws IllegalArgumentException
+    {
+        this(Arrays.asList(specs));
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param specs address specifications
+     * @throws IllegalArgumentException if a specification is invalid
+     */
+    public IPAddressSet(Collection<String> specs)
+        throws IllegalArgumentException
+    {
+        List<String> list = new ArrayList<String>(specs.size());
+        for (String spec : specs)
+        {
+            if (spec == null || spec.trim().length() == 0)
+                throw new IllegalArgumentException("Invalid IP address pattern: "+spec);
+            spec = spec.trim();
+            add(spec);
+            list.add(spec);
+        }
+        _specs = Collections.unmodifiableList(list);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the address specifications of this set
+     */
+    public List<String> getSpecs()
+    {
+        return _specs;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int size()
+    {
+        return _specs.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean isEmpty()
+    {
+        return _specs.isEmpty();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param address a literal IPv4 or IPv6 address
+     * @return true if the address is in this set, false if it is not or is not a valid address literal
+     */
+    public boolean contains(String address)
+    {
+        if (address == null)
+            return false;
+
+        int end = address.length();
+        if (address.indexOf(':') < 0)
+        {
+            long ip = parseIPv4(address,0,end);
+            if (ip < 0)
+                return false;
+            int node = _ipv4.walk(0,(int)(ip >>> 16),16);
+            if (node >= 0)
+                node = _ipv4.walk(node,(int)(ip & 0xFFFF),16);
+            return _ipv4.isMatch(node);
+        }
+
+        int start = 0;
+        if (end > 1 && address.charAt(0) == '[' && address.charAt(end - 1) == ']')
+        {
+            start = 1;
+            end--;
+        }
+        int groups = countIPv6Groups(address,start,end);
+        if (groups < 0)
+            return false;
+        return _ipv6.isMatch(walkIPv6(address,start,end,8 - groups));
+    }
+
+    /* ------------------------------------------------------------ */
+    private void add(String spec)
+    {
+        int slash = spec.indexOf('/');
+        String address = slash < 0 ? spec : spec.substring(0,slash);
+
+        if (address.indexOf(':') >= 0)
+        {
+            int[] groups = parseIPv6(address);
+            int prefix = slash < 0 ? 128 : parsePrefix(spec,slash + 1,128);
+            _ipv6.add(groups,prefix);
+            return;
+        }
+
+        long ip = parseIPv4(address,0,address.length());
+        if (ip >= 0)
+        {
+            int prefix = slash < 0 ? 32 : parsePrefix(spec,slash + 1,32);
+            _ipv4.add(new int[]{(int)(ip >>> 16),(int)(ip & 0xFFFF)},prefix);
+            return;
+        }
+
+        if (slash >= 0)
+            throw new IllegalArgumentException("Invalid IP address pattern: "+spec);
+        addWildcard(spec);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int parsePrefix(String spec, int start, int max)
+    {
+        try
+        {
+            int prefix = Integer.parseInt(spec.substring(start));
+            if (prefix >= 0 && prefix <= max)
+                return prefix;
+        }
+        catch (NumberFormatException e)
+        {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid IP address pattern: "+spec);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Add an IPv4 octet wildcard specification as the CIDR blocks it covers.
+     */
+    private void addWildcard(String spec)
+    {
+        BitSet[] octets = new BitSet[4];
+        StringTokenizer parts = new StringTokenizer(spec,".");
+        for (int i = 0; i < 4; i++)
+            octets[i] = parseOctet(spec,parts.hasMoreTokens()?parts.nextToken().trim():"");
+        if (parts.hasMoreTokens())
+            throw new IllegalArgumentException("Invalid IP address pattern: "+spec);
+
+        // the last octet that does not match every value decides the prefix length
+        int last = 3;
+        while (last >= 0 && octets[last].cardinality() == 256)
+            last--;
+        if (last < 0)
+        {
+            _ipv4.add(new int[]{0,0},0);
+            return;
+        }
+
+        long count = blocks(octets[last],null,0,0,0);
+        for (int i = 0; i < last; i++)
+            count *= octets[i].cardinality();
+        if (count > MAX_EXPANDED_PREFIXES)
+            throw new IllegalArgumentException("IP address pattern too wide: "+spec);
+
+        addWildcard(octets,last,0,0);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void addWildcard(BitSet[] octets, int last, int index, long prefix)
+    {
+        if (index == last)
+        {
+            blocks(octets[last],_ipv4,prefix,8 * last,0);
+            return;
+        }
+        BitSet octet = octets[index];
+        for (int value = octet.nextSetBit(0); value >= 0; value = octet.nextSetBit(value + 1))
+            addWildcard(octets,last,index + 1,(prefix << 8) | value);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Decompose the values of an octet into aligned power of two blocks.
+     *
+     * @param octet the octet values
+     * @param trie the trie to add the blocks to, or null to only count them
+     * @param prefix the value of the preceding octets
+     * @param bits the number of bits of the preceding octets
+     * @param count the number of blocks counted so far
+     * @return the number of blocks
+     */
+    private static long blocks(BitSet octet, BitTrie trie, long prefix, int bits, long count)
+    {
+        int low = octet.nextSetBit(0);
+        while (low >= 0)
+        {
+            int high = octet.nextClearBit(low) - 1;
+            while (low <= high)
+            {
+                // the largest aligned block starting at low that fits in the run
+                int size = low == 0 ? 256 : Integer.lowestOneBit(low);
+                while (low + size - 1 > high)
+                    size >>= 1;
+                if (trie != null)
+                {
+                    long ip = ((prefix << 8) | low) << (24 - bits);
+                    trie.add(new int[]{(int)(ip >>> 16),(int)(ip & 0xFFFF)},bits + 8 - Integer.numberOfTrailingZeros(size));
+                }
+                count++;
+                low += size;
+            }
+            low = high + 1 > 255 ? -1 : octet.nextSetBit(high + 1);
+        }
+        return count;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static BitSet parseOctet(String spec, String octetSpec)
+    {
+        BitSet octet = new BitSet(256);
+        if (octetSpec.length() == 0)
+        {
+            octet.set(0,256);
+            return octet;
+        }
+
+        try
+        {
+            StringTokenizer parts = new StringTokenizer(octetSpec,",");
+            while (parts.hasMoreTokens())
+            {
+                String part = parts.nextToken().trim();
+                if (part.length() == 0)
+                    continue;
+
+                int dash = part.indexOf('-');
+                if (dash < 0)
+                {
+                    int value = Integer.parseInt(part);
+                    if (value < 0 || value > 255)
+                        throw new IllegalArgumentException("Invalid IP address pattern: "+spec);
+                    octet.set(value);
+                }
+                else
+                {
+                    if (part.indexOf('-',dash + 1) >= 0)
+                        throw new IllegalArgumentException("Invalid IP address pattern: "+spec);
+                    int low = dash == 0 ? 0 : Integer.parseInt(part.substring(0,dash).trim());
+                    int high = dash == part.length() - 1 ? 255 : Integer.parseInt(part.substring(dash + 1).trim());
+                    if (low < 0 || high > 255 || low > high)
+                        throw new IllegalArgumentException("Invalid IP address pattern: "+spec);
+                    octet.set(low,high + 1);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid IP address pattern: "+spec,e);
+        }
+        return octet;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the IPv4 address as an unsigned 32 bit value, or -1 if invalid
+     */
+    private static long parseIPv4(String address, int start, int end)
+    {
+        long ip = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = start; i < end; i++)
+        {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255)
+                    return -1;
+            }
+            else if (c == '.' && value >= 0 && octets < 3)
+            {
+                ip = (ip << 8) | value;
+                octets++;
+                value = -1;
+            }
+            else
+                return -1;
+        }
+        if (value < 0 || octets != 3)
+            return -1;
+        return (ip << 8) | value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Validate an IPv6 literal and count its explicit 16 bit groups.
+     *
+     * @return the number of explicit groups, or -1 if the literal is invalid
+     */
+    private static int countIPv6Groups(String address, int start, int end)
+    {
+        int groups = 0;
+        boolean compressed = false;
+        int i = start;
+        if (end - start >= 2 && address.charAt(start) == ':' && address.charAt(start + 1) == ':')
+        {
+            compressed = true;
+            i += 2;
+        }
+
+        while (i < end)
+        {
+            int digits = 0;
+            while (i < end && hexDigit(address.charAt(i)) >= 0)
+            {
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 4)
+                return -1;
+            groups++;
+
+            if (i == end)
+                break;
+            if (address.charAt(i++) != ':' || i == end)
+                return -1;
+            if (address.charAt(i) == ':')
+            {
+                if (compressed)
+                    return -1;
+                compressed = true;
+                i++;
+            }
+        }
+
+        if (compressed ? groups > 7 : groups != 8)
+            return -1;
+        return groups;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Walk a valid IPv6 literal down the IPv6 trie.
+     *
+     * @param zeros the number of zero groups represented by ::
+     * @return MATCH, MISS or the node reached
+     */
+    private int walkIPv6(String address, int start, int end, int zeros)
+    {
+        int node = 0;
+        int i = start;
+        if (address.charAt(i) == ':')
+        {
+            node = walkZeros(node,zeros);
+            i += 2;
+        }
+
+        while (i < end && node >= 0)
+        {
+            int value = 0;
+            while (i < end && address.charAt(i) != ':')
+                value = (value << 4) | hexDigit(address.charAt(i++));
+            node = _ipv6.walk(node,value,16);
+
+            if (i++ == end)
+                break;
+            if (i < end && address.charAt(i) == ':')
+            {
+                node = walkZeros(node,zeros);
+                i++;
+            }
+        }
+        return node;
+    }
+
+    /* ------------------------------------------------------------ */
+    private int walkZeros(int node, int zeros)
+    {
+        while (zeros-- > 0 && node >= 0)
+            node = _ipv6.walk(node,0,16);
+        return node;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int hexDigit(char c)
+    {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int[] parseIPv6(String address)
+    {
+        int groups = countIPv6Groups(address,0,address.length());
+        if (groups < 0)
+            throw new IllegalArgumentException("Invalid IP address pattern: "+address);
+
+        int[] result = new int[8];
+        int compressed = address.indexOf("::");
+        String head = compressed < 0 ? address : address.substring(0,compressed);
+        String tail = compressed < 0 ? "" : address.substring(compressed + 2);
+
+        int index = 0;
+        if (head.length() > 0)
+            for (String group : head.split(":"))
+                result[index++] = Integer.parseInt(group,16);
+        if (tail.length() > 0)
+        {
+            String[] tailGroups = tail.split(":");
+            index = 8 - tailGroups.length;
+            for (String group : tailGroups)
+                result[index++] = Integer.parseInt(group,16);
+        }
+        return result;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x%s",getClass().getSimpleName(),hashCode(),_specs);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A binary trie of address prefixes, held in arrays of child node indexes.
+     * Node 0 is the root, so a child index of 0 means no child.
+     */
+    private static class BitTrie
+    {
+        private int[] _children = new int[32];
+        private boolean[] _terminal = new boolean[16];
+        private int _nodes = 1;
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param groups the address as 16 bit groups
+         * @param prefix the number of significant bits
+         */
+        void add(int[] groups, int prefix)
+        {
+            int node = 0;
+            for (int i = 0; i < prefix; i++)
+            {
+                if (_terminal[node])
+                    return; // already covered by a shorter prefix
+                int bit = (groups[i / 16] >>> (15 - i % 16)) & 1;
+                int child = _children[2 * node + bit];
+                if (child == 0)
+                {
+                    child = newNode();
+                    _children[2 * node + bit] = child;
+                }
+                node = child;
+            }
+            _terminal[node] = true;
+        }
+
+        /* ------------------------------------------------------------ */
+        private int newNode()
+        {
+            if (_nodes == _terminal.length)
+            {
+                _terminal = Arrays.copyOf(_terminal,_nodes * 2);
+                _children = Arrays.copyOf(_children,_nodes * 4);
+            }
+            return _nodes++;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Walk the given number of low bits of a value, most significant first.
+         *
+         * @return MATCH if a prefix matched, MISS if no prefix can match, otherwise the node reached
+         */
+        int walk(int node, int value, int bits)
+        {
+            for (int i = bits; i-- > 0;)
+            {
+                if (_terminal[node])
+                    return MATCH;
+                node = _children[2 * node + ((value >>> i) & 1)];
+                if (node == 0)
+                    return MISS;
+            }
+            return node;
+        }
+
+        /* ------------------------------------------------------------ */
+        boolean isMatch(int node)
+        {
+            return node == MATCH || node >= 0 && _terminal[node];
+        }
+    }
+}
@@ -114,12 +114,17 @@ public class TreeTrie<V> implements Trie<V>
 
     @Override
     public V get(String s)
+    {
+        return get(s,0,s.length());
+    }
+
+    @Override
+    public V get(String s,int offset,int len)
     {
         TreeTrie<V> t = this;
-        int len = s.length();
         for(int i=0; i < len; i++)
         {
-            char c=s.charAt(i);
+            char c=s.charAt(offset+i);
             int index=c>=0&&c<0x7f?__lookup[c]:-1;
             if (index>=0)
             {
@@ -52,6 +52,15 @@ public interface Trie<V>
      * @return
      */
     public V get(String s);
+
+    /* ------------------------------------------------------------ */
+    /** Get and exact match from a segment of a String key
+     * @param s The string
+     * @param offset The offset within the string of the key
+     * @param len the length of the key
+     * @return The value or null if not found
+     */
+    public V get(String s,int offset,int len);
     
     /* ------------------------------------------------------------ */
     /** Get and exact match from a segment of a ByteBuufer as key
@@ -113,8 +113,28 @@ public abstract class Utf8Appendable
     {
         try
         {
+            if (buf.hasArray())
+            {
+                int offset = buf.arrayOffset();
+                appendBytes(buf.array(),offset + buf.position(),offset + buf.limit(),buf);
+                return;
+            }
+
             while (buf.remaining() > 0)
             {
+                if (_state == UTF8_ACCEPT)
+                {
+                    // Fast path for runs of US-ASCII
+                    int start = buf.position();
+                    int end = start + asciiLength(buf,start,buf.limit());
+                    if (end > start)
+                    {
+                        appendAscii(buf,start,end);
+                        buf.position(end);
+                        if (buf.remaining() == 0)
+                            break;
+                    }
+                }
                 appendByte(buf.get());
             }
         }
@@ -128,9 +148,7 @@ public abstract class Utf8Appendable
     {
         try
         {
-            int end = offset + length;
-            for (int i = offset; i < end; i++)
-                appendByte(b[i]);
+            appendBytes(b,offset,offset + length,null);
         }
         catch (IOException e)
         {
@@ -157,6 +175,113 @@ public abstract class Utf8Appendable
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Append bytes from an array, with the US-ASCII fast path.
+     *
+     * @param b the bytes
+     * @param from the index of the first byte
+     * @param end the index after the last byte
+     * @param buf the heap buffer backed by the array, whose position is updated, or null
+     * @throws IOException if the appendable fails
+     */
+    private void appendBytes(byte[] b, int from, int end, ByteBuffer buf) throws IOException
+    {
+        int i = from;
+        try
+        {
+            while (i < end)
+            {
+                if (_state == UTF8_ACCEPT)
+                {
+                    // Fast path for runs of US-ASCII
+                    int ascii = asciiLength(b,i,end);
+                    if (ascii > 0)
+                    {
+                        appendAscii(b,i,i + ascii);
+                        i += ascii;
+                        if (i == end)
+                            break;
+                    }
+                }
+                appendByte(b[i++]);
+            }
+        }
+        finally
+        {
+            if (buf != null)
+                buf.position(i - buf.arrayOffset());
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Count the run of US-ASCII bytes (high bit clear), checking 8 bytes at a time.
+     *
+     * @param b the bytes to scan
+     * @param from the index to start from
+     * @param to the index to stop at (exclusive)
+     * @return the number of US-ASCII bytes starting at from
+     */
+    protected static int asciiLength(byte[] b, int from, int to)
+    {
+        int i = from;
+        while (i + 8 <= to && (b[i] | b[i + 1] | b[i + 2] | b[i + 3] | b[i + 4] | b[i + 5] | b[i + 6] | b[i + 7]) >= 0)
+            i += 8;
+        while (i < to && b[i] >= 0)
+            i++;
+        return i - from;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Count the run of US-ASCII bytes (high bit clear), checking 8 bytes at a time.
+     *
+     * @param buf the buffer to scan
+     * @param from the absolute index to start from
+     * @param to the absolute index to stop at (exclusive)
+     * @return the number of US-ASCII bytes starting at from
+     */
+    protected static int asciiLength(ByteBuffer buf, int from, int to)
+    {
+        int i = from;
+        while (i + 8 <= to && (buf.getLong(i) & 0x8080808080808080L) == 0)
+            i += 8;
+        while (i < to && buf.get(i) >= 0)
+            i++;
+        return i - from;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Append a run of US-ASCII bytes, which are known to be complete and valid characters.
+     *
+     * @param b the bytes (not modified)
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     * @throws IOException if the appendable fails
+     */
+    protected void appendAscii(byte[] b, int start, int end) throws IOException
+    {
+        for (int i = start; i < end; i++)
+            _appendable.append((char)b[i]);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Append a run of US-ASCII bytes from a direct buffer, which are known to be complete and valid characters.
+     *
+     * @param buf the buffer holding the bytes (not modified)
+     * @param start the absolute index of the first byte
+     * @param end the absolute index after the last byte
+     * @throws IOException if the appendable fails
+     */
+    protected void appendAscii(ByteBuffer buf, int start, int end) throws IOException
+    {
+        for (int i = start; i < end; i++)
+            _appendable.append((char)buf.get(i));
+    }
+
     protected void appendByte(byte b) throws IOException
     {
 
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.util;
 
+import java.nio.ByteBuffer;
 
 /* ------------------------------------------------------------ */
 /** UTF-8 StringBuilder.
@@ -54,6 +55,22 @@ public class Utf8StringBuilder extends Utf8Appendable
         return _buffer.length();
     }
 
+    @Override
+    protected void appendAscii(byte[] b, int start, int end)
+    {
+        _buffer.ensureCapacity(_buffer.length() + end - start);
+        for (int i = start; i < end; i++)
+            _buffer.append((char)b[i]);
+    }
+
+    @Override
+    protected void appendAscii(ByteBuffer buf, int start, int end)
+    {
+        _buffer.ensureCapacity(_buffer.length() + end - start);
+        for (int i = start; i < end; i++)
+            _buffer.append((char)buf.get(i));
+    }
+
     @Override
     public void reset()
     {
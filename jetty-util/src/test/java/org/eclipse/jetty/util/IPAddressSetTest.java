@@ -0,0 +1,134 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IPAddressSetTest
+{
+    @Test
+    public void testIPv4()
+    {
+        IPAddressSet set = new IPAddressSet("192.168.0.1","10.0.0.0/8","172.16.1.0/23");
+
+        assertTrue(set.contains("192.168.0.1"));
+        assertFalse(set.contains("192.168.0.2"));
+        assertTrue(set.contains("10.0.0.0"));
+        assertTrue(set.contains("10.255.255.255"));
+        assertFalse(set.contains("11.0.0.0"));
+        assertTrue(set.contains("172.16.0.1"));
+        assertTrue(set.contains("172.16.1.255"));
+        assertFalse(set.contains("172.16.2.0"));
+        assertFalse(set.contains("0.0.0.0"));
+    }
+
+    @Test
+    public void testInvalidAddresses()
+    {
+        IPAddressSet set = new IPAddressSet("0.0.0.0/0","::/0");
+
+        assertTrue(set.contains("1.2.3.4"));
+        assertTrue(set.contains("::1"));
+        assertFalse(set.contains(null));
+        assertFalse(set.contains(""));
+        assertFalse(set.contains("1.2.3"));
+        assertFalse(set.contains("1.2.3.256"));
+        assertFalse(set.contains("1.2.3.4.5"));
+        assertFalse(set.contains("localhost"));
+        assertFalse(set.contains("1:2:3"));
+        assertFalse(set.contains("1::2::3"));
+        assertFalse(set.contains("12345::"));
+    }
+
+    @Test
+    public void testIPv6()
+    {
+        IPAddressSet set = new IPAddressSet("::1","2001:db8::/32","fe80:0:0:0:0:0:0:1");
+
+        assertTrue(set.contains("::1"));
+        assertTrue(set.contains("0:0:0:0:0:0:0:1"));
+        assertTrue(set.contains("[::1]"));
+        assertFalse(set.contains("::2"));
+        assertTrue(set.contains("2001:db8::"));
+        assertTrue(set.contains("2001:DB8:ffff:1::7"));
+        assertFalse(set.contains("2001:db9::1"));
+        assertTrue(set.contains("fe80::1"));
+        assertFalse(set.contains("fe80::1:0"));
+        assertFalse(set.contains("127.0.0.1"));
+    }
+
+    @Test
+    public void testWildcards()
+    {
+        IPAddressSet set = new IPAddressSet("1-15.16-31.32-63.64-127","10.10.","192.168.1.1,3,7,15");
+
+        assertTrue(set.contains("7.23.39.71"));
+        assertTrue(set.contains("1.16.32.64"));
+        assertTrue(set.contains("15.31.63.127"));
+        assertFalse(set.contains("16.32.64.128"));
+        assertFalse(set.contains("1.16.32.63"));
+        assertFalse(set.contains("1.15.32.64"));
+
+        assertTrue(set.contains("10.10.0.0"));
+        assertTrue(set.contains("10.10.255.255"));
+        assertFalse(set.contains("10.11.0.0"));
+
+        assertTrue(set.contains("192.168.1.7"));
+        assertFalse(set.contains("192.168.1.8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWildcardTooWide()
+    {
+        new IPAddressSet("1-255.1-255.1-255.1-254");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCIDR()
+    {
+        new IPAddressSet("10.0.0.0/33");
+    }
+
+    @Test
+    public void testMatchesIPAddressMap()
+    {
+        String[] specs = {"10.5.2.1","1-15.16-31.32-63.64-127","192.168.0-3.","8.8.8.0-127,200-"};
+        IPAddressSet set = new IPAddressSet(specs);
+        IPAddressMap<String> map = new IPAddressMap<>();
+        for (String spec : specs)
+            map.put(spec,spec);
+
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < 256; i += 3)
+        {
+            addresses.add("10.5.2." + i);
+            addresses.add(i % 20 + "." + (i % 40) + "." + (i % 70) + "." + i);
+            addresses.add("192.168." + (i % 8) + "." + i);
+            addresses.add("8.8.8." + i);
+        }
+        for (String address : addresses)
+            assertTrue(address,set.contains(address) == (map.match(address) != null));
+    }
+}
@@ -87,6 +87,22 @@ public class TrieTest
         Assert.assertEquals(null,trie.get("Blah"));
     }
 
+    @Test
+    public void testGetStringSegment() throws Exception
+    {
+        Assert.assertEquals(1,trie.get("xhellox",1,5).intValue());
+        Assert.assertEquals(2,trie.get("xhellox",1,2).intValue());
+        Assert.assertEquals(3,trie.get("xhellox",1,4).intValue());
+        Assert.assertEquals(4,trie.get("wibble",0,6).intValue());
+        Assert.assertEquals(5,trie.get("xWobble",1,6).intValue());
+        Assert.assertEquals(6,trie.get("xfoo-barx",1,7).intValue());
+        Assert.assertEquals(7,trie.get("xfoo+barx",1,7).intValue());
+
+        Assert.assertEquals(2,trie.get("xHELLox",1,2).intValue());
+        Assert.assertEquals(null,trie.get("xhellox",1,3));
+        Assert.assertEquals(null,trie.get("xhellox",0,6));
+    }
+
     @Test
     public void testGetBuffer() throws Exception
     {
@@ -21,6 +21,8 @@ package org.eclipse.jetty.util;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -132,4 +134,38 @@ public class Utf8StringBuilderTest
         String result = buffer.toString();
         assertEquals(source,result);
     }
+
+    @Test
+    public void testAsciiFastPath() throws Exception
+    {
+        String source = "The quick brown fox \u00e9\u00e8 jumps over the lazy \uD842\uDF9F dog. 0123456789abcdef";
+        byte[] bytes = source.getBytes(StringUtil.__UTF8);
+
+        // heap, offset within array
+        Utf8StringBuilder buffer = new Utf8StringBuilder();
+        buffer.append(bytes,0,7);
+        buffer.append(bytes,7,bytes.length - 7);
+        assertEquals(source,buffer.toString());
+
+        // direct buffer
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        buffer = new Utf8StringBuilder();
+        buffer.append(direct);
+        assertEquals(source,buffer.toString());
+        assertEquals(0,direct.remaining());
+
+        // sliced heap buffer, split in the middle of a multi-byte sequence
+        int split = source.indexOf('\u00e9') + 1 + 21;
+        ByteBuffer sliced = ByteBuffer.wrap(bytes,21,bytes.length - 21).slice();
+        buffer = new Utf8StringBuilder();
+        buffer.append(bytes,0,21);
+        sliced.limit(split - 21);
+        buffer.append(sliced);
+        assertEquals(0,sliced.remaining());
+        sliced.limit(sliced.capacity());
+        buffer.append(sliced);
+        assertEquals(0,sliced.remaining());
+        assertEquals(source,buffer.toString());
+    }
 }
@@ -56,6 +56,21 @@ public class WebSocketPolicy
      */
     private int inputBufferSize = 4 * KB;
 
+    /**
+     * The number of bytes of streaming (InputStream or Reader) messages that may be buffered, waiting for the application to read them, before reading
+     * from the connection is suspended.
+     * <p>
+     * Default: 65536 (64 K)
+     */
+    private int inputHighWaterMark = 64 * KB;
+
+    /**
+     * The number of buffered bytes of streaming messages at (or below) which a connection suspended due to the high water mark resumes reading.
+     * <p>
+     * Default: 16384 (16 K)
+     */
+    private int inputLowWaterMark = 16 * KB;
+
     /**
      * Behavior of the websockets
      */
@@ -84,6 +99,8 @@ public class WebSocketPolicy
         clone.idleTimeout = this.idleTimeout;
         clone.maxMessageSize = this.maxMessageSize;
         clone.inputBufferSize = this.inputBufferSize;
+        clone.inputHighWaterMark = this.inputHighWaterMark;
+        clone.inputLowWaterMark = this.inputLowWaterMark;
         return clone;
     }
 
@@ -102,6 +119,16 @@ public class WebSocketPolicy
         return inputBufferSize;
     }
 
+    public int getInputHighWaterMark()
+    {
+        return inputHighWaterMark;
+    }
+
+    public int getInputLowWaterMark()
+    {
+        return inputLowWaterMark;
+    }
+
     public long getMaxMessageSize()
     {
         return maxMessageSize;
@@ -117,6 +144,16 @@ public class WebSocketPolicy
         this.inputBufferSize = inputBufferSize;
     }
 
+    public void setInputHighWaterMark(int inputHighWaterMark)
+    {
+        this.inputHighWaterMark = inputHighWaterMark;
+    }
+
+    public void setInputLowWaterMark(int inputLowWaterMark)
+    {
+        this.inputLowWaterMark = inputLowWaterMark;
+    }
+
     public void setMaxMessageSize(long maxMessageSize)
     {
         this.maxMessageSize = maxMessageSize;
@@ -0,0 +1,177 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.extensions.compress.AbstractCompressionExtension;
+import org.eclipse.jetty.websocket.common.extensions.compress.CompressionMethod;
+import org.eclipse.jetty.websocket.common.extensions.compress.CompressionPool;
+import org.eclipse.jetty.websocket.common.extensions.compress.DeflateCompressionMethod;
+
+/**
+ * An immutable, complete, unmasked data frame that has been encoded once into its network representation.
+ * <p>
+ * Intended for broadcasting the same message to many server side connections, where each connection is handed a read-only view of the same encoded bytes
+ * instead of re-encoding the message (and re-generating the framing header) per connection.
+ * <p>
+ * A deflated (RSV1) representation, compatible with the per-frame and per-message compression extensions, is produced lazily on first use, with the
+ * compression level and pool of the extension that first asks for it.
+ */
+public class EncodedFrame
+{
+    private static final ByteBufferPool POOL = new MappedByteBufferPool();
+    /** Deflaters for extensions that hold their own zlib contexts rather than borrow them from a pool */
+    private static final CompressionPool DEFLATERS = new CompressionPool();
+
+    public static EncodedFrame binary(ByteBuffer data)
+    {
+        return new EncodedFrame(WebSocketFrame.binary().setPayload(BufferUtil.toArray(data)));
+    }
+
+    public static EncodedFrame text(String text)
+    {
+        return new EncodedFrame(WebSocketFrame.text(text));
+    }
+
+    private static ByteBuffer encode(WebSocketFrame frame)
+    {
+        Generator generator = new Generator(WebSocketPolicy.newServerPolicy(),POOL,false);
+        ByteBuffer generated = generator.generate(frame);
+        try
+        {
+            // copy into an exact sized buffer, as the encoded bytes are kept around
+            return ByteBuffer.wrap(BufferUtil.toArray(generated)).asReadOnlyBuffer();
+        }
+        finally
+        {
+            POOL.release(generated);
+        }
+    }
+
+    private final WebSocketFrame frame;
+    private final ByteBuffer encoded;
+    private volatile ByteBuffer deflated;
+    private volatile boolean deflateAttempted = false;
+
+    private EncodedFrame(WebSocketFrame frame)
+    {
+        this.frame = frame;
+        this.encoded = encode(new WebSocketFrame(frame));
+    }
+
+    /**
+     * Get the deflated representation of this frame, with RSV1 set.
+     * <p>
+     * The deflate context is reset for every message by the compression extensions, which makes a single deflated representation valid for every
+     * connection that has negotiated one of them.
+     * 
+     * @param extension
+     *            the compression extension of the connection, whose compression level and pool are used if the frame has not been deflated yet
+     * @return the read-only encoded bytes of the deflated frame, or null if the frame could not be deflated in one pass.
+     */
+    public ByteBuffer getDeflated(AbstractCompressionExtension extension)
+    {
+        if (!deflateAttempted)
+        {
+            synchronized (this)
+            {
+                if (!deflateAttempted)
+                {
+                    deflated = deflate(extension.getCompressionLevel(),extension.getCompressionPool());
+                    deflateAttempted = true;
+                }
+            }
+        }
+        return deflated;
+    }
+
+    /**
+     * Get the encoded (uncompressed) representation of this frame.
+     * 
+     * @return the read-only encoded bytes of this frame (header and payload)
+     */
+    public ByteBuffer getEncoded()
+    {
+        return encoded;
+    }
+
+    public int getPayloadLength()
+    {
+        return frame.getPayloadLength();
+    }
+
+    public Frame.Type getType()
+    {
+        return frame.getType();
+    }
+
+    /**
+     * Create a new, unencoded, frame with the same contents.
+     * <p>
+     * Used for connections that cannot accept the pre-encoded bytes directly (eg: masking or extension requirements)
+     * 
+     * @return a new frame sharing the (read-only) payload of this frame.
+     */
+    public WebSocketFrame toFrame()
+    {
+        return new WebSocketFrame(frame,frame.getPayload().asReadOnlyBuffer());
+    }
+
+    private ByteBuffer deflate(int level, CompressionPool pool)
+    {
+        DeflateCompressionMethod method = new DeflateCompressionMethod(level,(pool == null)?DEFLATERS:pool);
+        // Large enough to hold the deflated form of the entire payload in one pass
+        method.setBufferSize(frame.getPayloadLength() + 1024);
+        CompressionMethod.Process compress = method.compress();
+        ByteBuffer payload;
+        boolean done;
+        try
+        {
+            compress.begin();
+            compress.input(frame.getPayload().slice());
+            payload = compress.process();
+            done = compress.isDone();
+        }
+        finally
+        {
+            // return the deflater to the pool
+            compress.end();
+        }
+        if (!done)
+        {
+            return null;
+        }
+
+        WebSocketFrame out = new WebSocketFrame(frame,payload);
+        out.setRsv1(true);
+        return encode(out);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s,len=%d,encoded=%d]",EncodedFrame.class.getSimpleName(),frame.getType(),getPayloadLength(),encoded.remaining());
+    }
+}
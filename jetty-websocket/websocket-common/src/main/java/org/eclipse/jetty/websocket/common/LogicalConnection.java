@@ -19,6 +19,7 @@
 package org.eclipse.jetty.websocket.common;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 
 import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.SuspendToken;
@@ -57,6 +58,13 @@ public interface LogicalConnection extends OutgoingFrames, SuspendToken
      */
     void disconnect();
 
+    /**
+     * Get the Executor used to dispatch work, such as streaming message delivery, away from the thread reading the connection.
+     * 
+     * @return the executor for the connection
+     */
+    Executor getExecutor();
+
     /**
      * Get the IOState of the connection.
      * 
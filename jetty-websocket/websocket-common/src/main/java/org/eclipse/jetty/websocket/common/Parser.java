@@ -71,6 +71,8 @@ public class Parser
     private int payloadLength;
     private PayloadProcessor maskProcessor = new DeMaskProcessor();
     private PayloadProcessor strictnessProcessor;
+    /** UTF8 validation of the current TEXT message, spanning its CONTINUATION frames */
+    private final UTF8Validator textValidator = new UTF8Validator();
 
     /** Is there an extension using RSV1 */
     private boolean rsv1InUse = false;
@@ -341,7 +343,19 @@ public class Parser
                         case OpCode.TEXT:
                             if (isTextFrameValidated)
                             {
-                                strictnessProcessor = new UTF8Validator();
+                                textValidator.reset();
+                                strictnessProcessor = textValidator;
+                            }
+                            else
+                            {
+                                strictnessProcessor = NoOpValidator.INSTANCE;
+                            }
+                            break;
+                        case OpCode.CONTINUATION:
+                            if (isTextFrameValidated && (lastDataOpcode == OpCode.TEXT))
+                            {
+                                // continue validation where the prior frame left off
+                                strictnessProcessor = textValidator;
                             }
                             else
                             {
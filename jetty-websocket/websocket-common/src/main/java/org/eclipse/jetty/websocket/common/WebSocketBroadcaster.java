@@ -0,0 +1,331 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WebSocketBehavior;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
+import org.eclipse.jetty.websocket.common.extensions.compress.AbstractCompressionExtension;
+import org.eclipse.jetty.websocket.common.io.AbstractWebSocketConnection;
+
+/**
+ * Sends the same message to many sessions, encoding the message only once.
+ * <p>
+ * The message is encoded into an {@link EncodedFrame}, and read-only views of the encoded bytes are queued directly on each session's connection. Sessions
+ * that cannot accept the pre-encoded bytes (client side masking, or extensions other than a single compression extension) are sent a copy of the frame
+ * through their normal outgoing path.
+ * <p>
+ * Sessions whose outgoing queue is deeper than {@link #getMaxQueuedFrames()} are treated as slow consumers, and handled according to the
+ * {@link SlowConsumerPolicy}.
+ */
+@ManagedObject("WebSocket Broadcaster")
+public class WebSocketBroadcaster
+{
+    /**
+     * What to do with a session that is not keeping up with the broadcast messages.
+     */
+    public static enum SlowConsumerPolicy
+    {
+        /** Queue the message anyway */
+        QUEUE,
+        /** Skip the message for this session */
+        SKIP,
+        /** Close the session */
+        CLOSE
+    }
+
+    private class BroadcastCallback implements WriteCallback
+    {
+        @Override
+        public void writeFailed(Throwable x)
+        {
+            failedCount.incrementAndGet();
+            LOG.ignore(x);
+        }
+
+        @Override
+        public void writeSuccess()
+        {
+            writtenCount.incrementAndGet();
+        }
+    }
+
+    private static final Logger LOG = Log.getLogger(WebSocketBroadcaster.class);
+
+    private final WriteCallback callback = new BroadcastCallback();
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong encodedQueuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.SKIP;
+    private int maxQueuedFrames = 64;
+
+    /**
+     * Broadcast an encoded frame to the provided sessions.
+     * 
+     * @param frame
+     *            the frame to send
+     * @param sessions
+     *            the sessions to send to
+     * @return the number of sessions that the frame was queued for
+     */
+    public int broadcast(EncodedFrame frame, Iterable<? extends Session> sessions)
+    {
+        messageCount.incrementAndGet();
+        int count = 0;
+        for (Session session : sessions)
+        {
+            if (send(frame,session))
+            {
+                count++;
+            }
+        }
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("broadcast {} to {} sessions",frame,count);
+        }
+        return count;
+    }
+
+    public int broadcastBinary(ByteBuffer data, Iterable<? extends Session> sessions)
+    {
+        return broadcast(EncodedFrame.binary(data),sessions);
+    }
+
+    public int broadcastText(String text, Iterable<? extends Session> sessions)
+    {
+        return broadcast(EncodedFrame.text(text),sessions);
+    }
+
+    @ManagedAttribute("Number of session sends closed due to slow consumption")
+    public long getClosedCount()
+    {
+        return closedCount.get();
+    }
+
+    @ManagedAttribute("Number of session sends queued with the shared encoded bytes")
+    public long getEncodedQueuedCount()
+    {
+        return encodedQueuedCount.get();
+    }
+
+    @ManagedAttribute("Number of session sends that failed to write")
+    public long getFailedCount()
+    {
+        return failedCount.get();
+    }
+
+    @ManagedAttribute("Maximum queued outgoing frames before a session is considered a slow consumer")
+    public int getMaxQueuedFrames()
+    {
+        return maxQueuedFrames;
+    }
+
+    @ManagedAttribute("Number of messages broadcast")
+    public long getMessageCount()
+    {
+        return messageCount.get();
+    }
+
+    @ManagedAttribute("Number of session sends queued")
+    public long getQueuedCount()
+    {
+        return queuedCount.get();
+    }
+
+    @ManagedAttribute("Number of session sends skipped due to slow consumption")
+    public long getSkippedCount()
+    {
+        return skippedCount.get();
+    }
+
+    @ManagedAttribute("Policy for slow consuming sessions")
+    public SlowConsumerPolicy getSlowConsumerPolicy()
+    {
+        return slowConsumerPolicy;
+    }
+
+    @ManagedAttribute("Number of session sends written")
+    public long getWrittenCount()
+    {
+        return writtenCount.get();
+    }
+
+    @ManagedOperation("Reset the statistics")
+    public void resetStats()
+    {
+        messageCount.set(0);
+        queuedCount.set(0);
+        encodedQueuedCount.set(0);
+        writtenCount.set(0);
+        failedCount.set(0);
+        skippedCount.set(0);
+        closedCount.set(0);
+    }
+
+    /**
+     * Select the encoded bytes that are valid for the connection, based on the negotiated extensions.
+     * 
+     * @return the encoded bytes to use, or null if the frame has to go through the outgoing extension stack.
+     */
+    private ByteBuffer selectEncoding(EncodedFrame frame, WebSocketSession session)
+    {
+        OutgoingFrames outgoing = session.getOutgoingHandler();
+        if (outgoing == session.getConnection())
+        {
+            return frame.getEncoded();
+        }
+
+        if (!(outgoing instanceof ExtensionStack))
+        {
+            return null;
+        }
+
+        List<Extension> extensions = ((ExtensionStack)outgoing).getExtensions();
+        if ((extensions == null) || extensions.isEmpty())
+        {
+            return frame.getEncoded();
+        }
+
+        if (extensions.size() == 1)
+        {
+            Extension ext = extensions.get(0);
+            if (ext instanceof AbstractCompressionExtension)
+            {
+                AbstractCompressionExtension compression = (AbstractCompressionExtension)ext;
+                if (frame.getPayloadLength() < compression.getMinCompressSize())
+                {
+                    return frame.getEncoded();
+                }
+                return frame.getDeflated(compression);
+            }
+        }
+        return null;
+    }
+
+    private boolean send(EncodedFrame frame, Session session)
+    {
+        if (!session.isOpen())
+        {
+            return false;
+        }
+
+        if (!(session instanceof WebSocketSession))
+        {
+            sendRemote(frame,session.getRemote());
+            queuedCount.incrementAndGet();
+            return true;
+        }
+
+        WebSocketSession wsSession = (WebSocketSession)session;
+        LogicalConnection connection = wsSession.getConnection();
+        AbstractWebSocketConnection wsConnection = null;
+        if (connection instanceof AbstractWebSocketConnection)
+        {
+            wsConnection = (AbstractWebSocketConnection)connection;
+            if (wsConnection.getQueuedFrameCount() > maxQueuedFrames)
+            {
+                switch (slowConsumerPolicy)
+                {
+                    case SKIP:
+                        skippedCount.incrementAndGet();
+                        return false;
+                    case CLOSE:
+                        LOG.debug("Closing slow consumer {}",session);
+                        closedCount.incrementAndGet();
+                        wsSession.close(StatusCode.POLICY_VIOLATION,"Slow Consumer");
+                        return false;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        ByteBuffer encoded = null;
+        if ((wsConnection != null) && (wsConnection.getPolicy().getBehavior() == WebSocketBehavior.SERVER))
+        {
+            encoded = selectEncoding(frame,wsSession);
+        }
+
+        if (encoded != null)
+        {
+            wsConnection.outgoingEncodedFrame(encoded,callback);
+            encodedQueuedCount.incrementAndGet();
+        }
+        else
+        {
+            wsSession.getOutgoingHandler().outgoingFrame(frame.toFrame(),callback);
+        }
+        queuedCount.incrementAndGet();
+        return true;
+    }
+
+    private void sendRemote(EncodedFrame frame, RemoteEndpoint remote)
+    {
+        WebSocketFrame copy = frame.toFrame();
+        if (frame.getType() == Frame.Type.TEXT)
+        {
+            remote.sendStringByFuture(copy.getPayloadAsUTF8());
+        }
+        else
+        {
+            remote.sendBytesByFuture(copy.getPayload());
+        }
+    }
+
+    /**
+     * Set the number of queued outgoing frames a session may have before it is considered a slow consumer.
+     * 
+     * @param maxQueuedFrames
+     *            the maximum number of queued frames
+     */
+    public void setMaxQueuedFrames(int maxQueuedFrames)
+    {
+        this.maxQueuedFrames = maxQueuedFrames;
+    }
+
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy)
+    {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[policy=%s,maxQueuedFrames=%d]",WebSocketBroadcaster.class.getSimpleName(),slowConsumerPolicy,maxQueuedFrames);
+    }
+}
@@ -238,6 +238,14 @@ public class WebSocketSession extends ContainerLifeCycle implements Session, Inc
         return protocolVersion;
     }
 
+    /**
+     * @return the number of bytes of streaming messages received, but not yet read by the application
+     */
+    public long getQueuedInputBytes()
+    {
+        return websocket.getInputFlowControl().getQueuedBytes();
+    }
+
     @Override
     public RemoteEndpoint getRemote()
     {
@@ -400,8 +408,7 @@ public class WebSocketSession extends ContainerLifeCycle implements Session, Inc
     @Override
     public SuspendToken suspend()
     {
-        // TODO Auto-generated method stub
-        return null;
+        return connection.suspend();
     }
 
     @Override
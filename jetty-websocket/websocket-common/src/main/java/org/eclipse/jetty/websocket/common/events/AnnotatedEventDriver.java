@@ -111,6 +111,12 @@ public class AnnotatedEventDriver extends EventDriver
             return;
         }
         hasCloseBeenCalled = true;
+        if (activeMessage != null)
+        {
+            // release any application thread blocked reading the message
+            activeMessage.messageComplete();
+            activeMessage = null;
+        }
         if (events.onClose != null)
         {
             events.onClose.call(websocket,session,close.getStatusCode(),close.getReason());
@@ -144,22 +150,51 @@ public class AnnotatedEventDriver extends EventDriver
         }
     }
 
-    public void onInputStream(InputStream stream)
+    /**
+     * Notify the application of a streaming binary message.
+     * <p>
+     * The application is called from another thread, as it reads the stream while further frames of the message are still being parsed.
+     */
+    public void onInputStream(final InputStream stream)
     {
         if (events.onBinary != null)
         {
-            events.onBinary.call(websocket,session,stream);
+            dispatch(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    events.onBinary.call(websocket,session,stream);
+                }
+            });
         }
     }
 
-    public void onReader(Reader reader)
+    /**
+     * Notify the application of a streaming text message.
+     * <p>
+     * The application is called from another thread, as it reads the stream while further frames of the message are still being parsed.
+     */
+    public void onReader(final Reader reader)
     {
         if (events.onText != null)
         {
-            events.onText.call(websocket,session,reader);
+            dispatch(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    events.onText.call(websocket,session,reader);
+                }
+            });
         }
     }
 
+    private void dispatch(Runnable task)
+    {
+        session.getConnection().getExecutor().execute(task);
+    }
+
     @Override
     public void onTextFrame(ByteBuffer buffer, boolean fin) throws IOException
     {
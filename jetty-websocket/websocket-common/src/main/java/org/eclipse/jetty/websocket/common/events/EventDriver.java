@@ -36,6 +36,7 @@ import org.eclipse.jetty.websocket.common.CloseInfo;
 import org.eclipse.jetty.websocket.common.OpCode;
 import org.eclipse.jetty.websocket.common.WebSocketFrame;
 import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.message.InputFlowControl;
 
 /**
  * EventDriver is the main interface between the User's WebSocket POJO and the internal jetty implementation of WebSocket.
@@ -45,12 +46,22 @@ public abstract class EventDriver implements IncomingFrames
     private static final Logger LOG = Log.getLogger(EventDriver.class);
     protected final WebSocketPolicy policy;
     protected final Object websocket;
+    protected final InputFlowControl inputFlowControl;
     protected WebSocketSession session;
 
     public EventDriver(WebSocketPolicy policy, Object websocket)
     {
         this.policy = policy;
         this.websocket = websocket;
+        this.inputFlowControl = new InputFlowControl(this);
+    }
+
+    /**
+     * @return the flow control of the streaming messages not yet read by the application
+     */
+    public InputFlowControl getInputFlowControl()
+    {
+        return inputFlowControl;
     }
 
     public WebSocketPolicy getPolicy()
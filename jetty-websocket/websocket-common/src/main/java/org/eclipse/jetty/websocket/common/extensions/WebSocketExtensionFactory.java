@@ -18,6 +18,8 @@
 
 package org.eclipse.jetty.websocket.common.extensions;
 
+import java.util.zip.Deflater;
+
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.websocket.api.WebSocketException;
@@ -25,6 +27,8 @@ import org.eclipse.jetty.websocket.api.WebSocketPolicy;
 import org.eclipse.jetty.websocket.api.extensions.Extension;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
+import org.eclipse.jetty.websocket.common.extensions.compress.AbstractCompressionExtension;
+import org.eclipse.jetty.websocket.common.extensions.compress.CompressionPool;
 import org.eclipse.jetty.websocket.common.extensions.compress.FrameCompressionExtension;
 import org.eclipse.jetty.websocket.common.extensions.compress.MessageCompressionExtension;
 import org.eclipse.jetty.websocket.common.extensions.fragment.FragmentExtension;
@@ -34,6 +38,9 @@ public class WebSocketExtensionFactory extends ExtensionFactory
 {
     private WebSocketPolicy policy;
     private ByteBufferPool bufferPool;
+    private final CompressionPool compressionPool = new CompressionPool();
+    private int compressionLevel = Deflater.BEST_COMPRESSION;
+    private int minCompressSize = 0;
 
     public WebSocketExtensionFactory(WebSocketPolicy policy, ByteBufferPool bufferPool)
     {
@@ -49,6 +56,26 @@ public class WebSocketExtensionFactory extends ExtensionFactory
          */
     }
 
+    /**
+     * Get the pool of zlib contexts (and the compression statistics) shared by all compression extensions created by this factory.
+     * 
+     * @return the shared compression pool
+     */
+    public CompressionPool getCompressionPool()
+    {
+        return compressionPool;
+    }
+
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    public int getMinCompressSize()
+    {
+        return minCompressSize;
+    }
+
     @Override
     public Extension newInstance(ExtensionConfig config)
     {
@@ -79,6 +106,13 @@ public class WebSocketExtensionFactory extends ExtensionFactory
                 aext.setPolicy(policy);
                 aext.setBufferPool(bufferPool);
             }
+            if (ext instanceof AbstractCompressionExtension)
+            {
+                AbstractCompressionExtension cext = (AbstractCompressionExtension)ext;
+                cext.setCompressionPool(compressionPool);
+                cext.setCompressionLevel(compressionLevel);
+                cext.setMinCompressSize(minCompressSize);
+            }
             return ext;
         }
         catch (InstantiationException | IllegalAccessException e)
@@ -86,4 +120,30 @@ public class WebSocketExtensionFactory extends ExtensionFactory
             throw new WebSocketException("Cannot instantiate extension: " + extClass,e);
         }
     }
+
+    /**
+     * Set the deflater compression level used by the compression extensions.
+     * 
+     * @param level
+     *            the compression level (see {@link Deflater#setLevel(int)})
+     */
+    public void setCompressionLevel(int level)
+    {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.compressionLevel = level;
+    }
+
+    /**
+     * Set the minimum payload size for outgoing messages to be compressed by the compression extensions.
+     * 
+     * @param size
+     *            the minimum payload size, in bytes
+     */
+    public void setMinCompressSize(int size)
+    {
+        this.minCompressSize = size;
+    }
 }
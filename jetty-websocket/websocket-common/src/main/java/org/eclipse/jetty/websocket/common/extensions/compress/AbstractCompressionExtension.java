@@ -0,0 +1,131 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.extensions.compress;
+
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
+
+/**
+ * Common configuration of the deflate based compression extensions.
+ */
+@ManagedObject("Compression Extension")
+public abstract class AbstractCompressionExtension extends AbstractExtension
+{
+    private CompressionPool compressionPool;
+    private int compressionLevel = Deflater.BEST_COMPRESSION;
+    private int minCompressSize = 0;
+    private volatile CompressionMethod method;
+
+    @ManagedAttribute(value = "Deflater compression level", readonly = true)
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    public CompressionPool getCompressionPool()
+    {
+        return compressionPool;
+    }
+
+    protected CompressionMethod getMethod()
+    {
+        // The incoming and outgoing frames are processed by different threads, which must share a single method
+        CompressionMethod m = method;
+        if (m == null)
+        {
+            synchronized (this)
+            {
+                m = method;
+                if (m == null)
+                {
+                    m = new DeflateCompressionMethod(compressionLevel,compressionPool);
+                    method = m;
+                }
+            }
+        }
+        return m;
+    }
+
+    @ManagedAttribute(value = "Minimum payload size to compress", readonly = true)
+    public int getMinCompressSize()
+    {
+        return minCompressSize;
+    }
+
+    /**
+     * Test if the outgoing payload is large enough to be worth compressing.
+     * 
+     * @param frame
+     *            the outgoing frame
+     * @return true if the frame should be compressed
+     */
+    protected boolean isCompressible(Frame frame)
+    {
+        if (frame.getPayloadLength() >= minCompressSize)
+        {
+            return true;
+        }
+        if (compressionPool != null)
+        {
+            compressionPool.onUncompressed();
+        }
+        return false;
+    }
+
+    /**
+     * Set the compression level for outgoing frames.
+     * <p>
+     * Must be set before the first frame is processed.
+     * 
+     * @param level
+     *            the compression level (see {@link Deflater#setLevel(int)})
+     */
+    public void setCompressionLevel(int level)
+    {
+        this.compressionLevel = level;
+    }
+
+    /**
+     * Set the pool to borrow the zlib contexts from.
+     * <p>
+     * Must be set before the first frame is processed. If not set, the extension holds its own zlib contexts for its lifetime.
+     * 
+     * @param pool
+     *            the pool to use
+     */
+    public void setCompressionPool(CompressionPool pool)
+    {
+        this.compressionPool = pool;
+    }
+
+    /**
+     * Set the minimum payload size for outgoing payloads to be compressed, smaller payloads are sent uncompressed.
+     * 
+     * @param size
+     *            the minimum payload size, in bytes
+     */
+    public void setMinCompressSize(int size)
+    {
+        this.minCompressSize = size;
+    }
+}
@@ -0,0 +1,230 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.extensions.compress;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/**
+ * A bounded pool of raw (nowrap) {@link Deflater} and {@link Inflater} instances, shared between the compression extensions of many connections.
+ * <p>
+ * Each zlib context holds a significant amount of native memory, so rather than holding a context for the lifetime of every connection, the compression
+ * extensions borrow one for the duration of a message when the context does not need to be taken over to the next message.
+ * <p>
+ * Also tracks the compression statistics of the extensions using the pool.
+ */
+@ManagedObject("WebSocket Compression Pool")
+public class CompressionPool
+{
+    private final Queue<Deflater>[] deflaters;
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger deflaterCount = new AtomicInteger();
+    private final AtomicInteger inflaterCount = new AtomicInteger();
+    private final AtomicLong deflatersCreated = new AtomicLong();
+    private final AtomicLong inflatersCreated = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong compressedCount = new AtomicLong();
+    private final AtomicLong uncompressedCount = new AtomicLong();
+    private int maxPooled = 256;
+
+    @SuppressWarnings("unchecked")
+    public CompressionPool()
+    {
+        // One queue per compression level, from DEFAULT_COMPRESSION (-1) to BEST_COMPRESSION (9)
+        deflaters = new Queue[Deflater.BEST_COMPRESSION + 2];
+        for (int i = 0; i < deflaters.length; i++)
+        {
+            deflaters[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Acquire a reset deflater for the provided compression level.
+     * 
+     * @param level
+     *            the compression level (see {@link Deflater#setLevel(int)})
+     * @return the deflater
+     */
+    public Deflater acquireDeflater(int level)
+    {
+        Deflater deflater = deflaters[level + 1].poll();
+        if (deflater == null)
+        {
+            deflatersCreated.incrementAndGet();
+            deflater = new Deflater(level,true);
+            deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+            return deflater;
+        }
+        deflaterCount.decrementAndGet();
+        return deflater;
+    }
+
+    public Inflater acquireInflater()
+    {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null)
+        {
+            inflatersCreated.incrementAndGet();
+            return new Inflater(true);
+        }
+        inflaterCount.decrementAndGet();
+        return inflater;
+    }
+
+    @ManagedAttribute("Ratio of compressed to uncompressed bytes")
+    public double getCompressionRatio()
+    {
+        long in = bytesIn.get();
+        if (in == 0)
+        {
+            return 1.0d;
+        }
+        return (double)bytesOut.get() / in;
+    }
+
+    @ManagedAttribute("Number of payloads compressed")
+    public long getCompressedCount()
+    {
+        return compressedCount.get();
+    }
+
+    @ManagedAttribute("Total time spent compressing payloads (ms)")
+    public long getCompressTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(compressNanos.get());
+    }
+
+    @ManagedAttribute("Number of deflaters created")
+    public long getDeflatersCreated()
+    {
+        return deflatersCreated.get();
+    }
+
+    @ManagedAttribute("Number of idle deflaters in the pool")
+    public int getIdleDeflaters()
+    {
+        return deflaterCount.get();
+    }
+
+    @ManagedAttribute("Number of idle inflaters in the pool")
+    public int getIdleInflaters()
+    {
+        return inflaterCount.get();
+    }
+
+    @ManagedAttribute("Number of inflaters created")
+    public long getInflatersCreated()
+    {
+        return inflatersCreated.get();
+    }
+
+    @ManagedAttribute("Maximum number of idle deflaters (and inflaters) kept in the pool")
+    public int getMaxPooled()
+    {
+        return maxPooled;
+    }
+
+    @ManagedAttribute("Number of payloads sent uncompressed due to their size")
+    public long getUncompressedCount()
+    {
+        return uncompressedCount.get();
+    }
+
+    /**
+     * Record the compression of a payload.
+     * 
+     * @param in
+     *            the number of uncompressed bytes
+     * @param out
+     *            the number of compressed bytes
+     * @param nanos
+     *            the time spent compressing
+     */
+    public void onCompressed(long in, long out, long nanos)
+    {
+        compressedCount.incrementAndGet();
+        bytesIn.addAndGet(in);
+        bytesOut.addAndGet(out);
+        compressNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record a payload that was sent without compression, as it was below the minimum compression size.
+     */
+    public void onUncompressed()
+    {
+        uncompressedCount.incrementAndGet();
+    }
+
+    public void releaseDeflater(Deflater deflater, int level)
+    {
+        if (deflaterCount.incrementAndGet() > maxPooled)
+        {
+            deflaterCount.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        deflaters[level + 1].offer(deflater);
+    }
+
+    public void releaseInflater(Inflater inflater)
+    {
+        if (inflaterCount.incrementAndGet() > maxPooled)
+        {
+            inflaterCount.decrementAndGet();
+            inflater.end();
+            return;
+        }
+        inflater.reset();
+        inflaters.offer(inflater);
+    }
+
+    @ManagedOperation("Reset the compression statistics")
+    public void resetStats()
+    {
+        bytesIn.set(0);
+        bytesOut.set(0);
+        compressNanos.set(0);
+        compressedCount.set(0);
+        uncompressedCount.set(0);
+    }
+
+    public void setMaxPooled(int maxPooled)
+    {
+        this.maxPooled = maxPooled;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[deflaters=%d,inflaters=%d,max=%d]",getClass().getSimpleName(),hashCode(),deflaterCount.get(),inflaterCount.get(),maxPooled);
+    }
+}
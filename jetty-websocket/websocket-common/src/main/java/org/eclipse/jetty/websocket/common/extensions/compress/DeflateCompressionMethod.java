@@ -31,6 +31,9 @@ import org.eclipse.jetty.websocket.api.BadPayloadException;
 
 /**
  * Deflate Compression Method
+ * <p>
+ * When created with a {@link CompressionPool}, the zlib contexts are borrowed from the pool on demand and returned to it on {@link Process#end()}, so a
+ * connection only holds native zlib memory while a message is being processed.
  */
 public class DeflateCompressionMethod implements CompressionMethod
 {
@@ -38,25 +41,60 @@ public class DeflateCompressionMethod implements CompressionMethod
     {
         private static final boolean BFINAL_HACK = Boolean.parseBoolean(System.getProperty("jetty.websocket.bfinal.hack","true"));
 
-        private final Deflater deflater;
+        private final int level;
+        private final CompressionPool pool;
+        private Deflater deflater;
         private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private byte scratch[];
+        private int inputLength;
 
-        public DeflaterProcess(boolean nowrap)
+        public DeflaterProcess(int level, CompressionPool pool)
         {
-            deflater = new Deflater(Deflater.BEST_COMPRESSION,nowrap);
-            deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+            this.level = level;
+            this.pool = pool;
         }
 
         @Override
         public void begin()
         {
-            deflater.reset();
+            getDeflater().reset();
         }
 
         @Override
         public void end()
         {
-            deflater.reset();
+            if (deflater == null)
+            {
+                return;
+            }
+
+            if (pool == null)
+            {
+                deflater.reset();
+            }
+            else
+            {
+                // no context is kept between messages, let others use it
+                pool.releaseDeflater(deflater,level);
+                deflater = null;
+            }
+        }
+
+        private Deflater getDeflater()
+        {
+            if (deflater == null)
+            {
+                if (pool == null)
+                {
+                    deflater = new Deflater(level,true);
+                    deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+                }
+                else
+                {
+                    deflater = pool.acquireDeflater(level);
+                }
+            }
+            return deflater;
         }
 
         @Override
@@ -69,6 +107,8 @@ public class DeflateCompressionMethod implements CompressionMethod
 
             // Set the data that is uncompressed to the deflater
             byte raw[] = BufferUtil.toArray(input);
+            inputLength = raw.length;
+            Deflater deflater = getDeflater();
             deflater.setInput(raw,0,raw.length);
             deflater.finish();
         }
@@ -76,27 +116,34 @@ public class DeflateCompressionMethod implements CompressionMethod
         @Override
         public boolean isDone()
         {
-            return deflater.finished();
+            return (deflater == null) || deflater.finished();
         }
 
         @Override
         public ByteBuffer process()
         {
+            long start = System.nanoTime();
+            Deflater deflater = getDeflater();
+
             // prepare the output buffer
             ByteBuffer buf = ByteBuffer.allocate(bufferSize);
             BufferUtil.clearToFill(buf);
 
+            if ((scratch == null) || (scratch.length != bufferSize))
+            {
+                scratch = new byte[bufferSize];
+            }
+
             while (!deflater.finished())
             {
-                byte out[] = new byte[bufferSize];
-                int len = deflater.deflate(out,0,out.length,Deflater.SYNC_FLUSH);
+                int len = deflater.deflate(scratch,0,scratch.length,Deflater.SYNC_FLUSH);
 
                 if (LOG.isDebugEnabled())
                 {
                     LOG.debug("Deflater: finished={}, needsInput={}, len={}",deflater.finished(),deflater.needsInput(),len);
                 }
 
-                buf.put(out,0,len);
+                buf.put(scratch,0,len);
             }
             BufferUtil.flipToFlush(buf,0);
 
@@ -115,6 +162,11 @@ public class DeflateCompressionMethod implements CompressionMethod
                     buf.put(0,(b0 ^= 1)); // flip bit to BFINAL 0
                 }
             }
+
+            if (pool != null)
+            {
+                pool.onCompressed(inputLength,buf.remaining(),System.nanoTime() - start);
+            }
             return buf;
         }
 
@@ -129,23 +181,48 @@ public class DeflateCompressionMethod implements CompressionMethod
         /** Tail Bytes per Spec */
         private static final byte[] TAIL = new byte[]
                 { 0x00, 0x00, (byte)0xFF, (byte)0xFF };
-        private final Inflater inflater;
+        private final CompressionPool pool;
+        private Inflater inflater;
         private int bufferSize = DEFAULT_BUFFER_SIZE;
 
-        public InflaterProcess(boolean nowrap) {
-            inflater = new Inflater(nowrap);
+        public InflaterProcess(CompressionPool pool)
+        {
+            this.pool = pool;
         }
 
         @Override
         public void begin()
         {
-            inflater.reset();
+            getInflater().reset();
         }
 
         @Override
         public void end()
         {
-            inflater.reset();
+            if (inflater == null)
+            {
+                return;
+            }
+
+            if (pool == null)
+            {
+                inflater.reset();
+            }
+            else
+            {
+                // no context is kept between messages, let others use it
+                pool.releaseInflater(inflater);
+                inflater = null;
+            }
+        }
+
+        private Inflater getInflater()
+        {
+            if (inflater == null)
+            {
+                inflater = (pool == null)?new Inflater(true):pool.acquireInflater();
+            }
+            return inflater;
         }
 
         @Override
@@ -163,13 +240,13 @@ public class DeflateCompressionMethod implements CompressionMethod
             int inlen = input.remaining();
             input.slice().get(raw,0,inlen);
             System.arraycopy(TAIL,0,raw,inlen,TAIL.length);
-            inflater.setInput(raw,0,raw.length);
+            getInflater().setInput(raw,0,raw.length);
         }
 
         @Override
         public boolean isDone()
         {
-            return (inflater.getRemaining() <= 0) || inflater.finished();
+            return (inflater == null) || (inflater.getRemaining() <= 0) || inflater.finished();
         }
 
         @Override
@@ -179,7 +256,7 @@ public class DeflateCompressionMethod implements CompressionMethod
             byte buf[] = new byte[bufferSize];
             try
             {
-                int inflated = inflater.inflate(buf);
+                int inflated = getInflater().inflate(buf);
                 if (inflated == 0)
                 {
                     return null;
@@ -217,17 +294,27 @@ public class DeflateCompressionMethod implements CompressionMethod
 
     public DeflateCompressionMethod()
     {
-        /*
-         * Specs specify that head/tail of deflate are not to be present.
-         * 
-         * So lets not use the wrapped format of bytes.
-         * 
-         * Setting nowrap to true prevents the Deflater from writing the head/tail bytes and the Inflater from expecting the head/tail bytes.
-         */
-        boolean nowrap = true;
-
-        this.compress = new DeflaterProcess(nowrap);
-        this.decompress = new InflaterProcess(nowrap);
+        this(Deflater.BEST_COMPRESSION,null);
+    }
+
+    /**
+     * Create a Deflate Compression Method.
+     * <p>
+     * Specs specify that head/tail of deflate are not to be present, so the zlib contexts always use the raw (nowrap) format of bytes.
+     * 
+     * @param level
+     *            the compression level for the deflater (see {@link Deflater#setLevel(int)})
+     * @param pool
+     *            the pool to borrow the zlib contexts from, or null to hold private contexts for the lifetime of this method.
+     */
+    public DeflateCompressionMethod(int level, CompressionPool pool)
+    {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.compress = new DeflaterProcess(level,pool);
+        this.decompress = new InflaterProcess(pool);
     }
 
     @Override
@@ -25,15 +25,17 @@ import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.common.WebSocketFrame;
-import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
 
 /**
  * Implementation of the <a href="https://tools.ietf.org/id/draft-tyoshino-hybi-websocket-perframe-deflate-05.txt">x-webkit-deflate-frame</a> extension seen out
  * in the wild.
+ * <p>
+ * Outgoing frames are compressed without context takeover. Incoming frames are decompressed with context takeover, unless the
+ * <code>no_context_takeover</code> parameter was negotiated.
  */
-public class FrameCompressionExtension extends AbstractExtension
+public class FrameCompressionExtension extends AbstractCompressionExtension
 {
-    private CompressionMethod method = new DeflateCompressionMethod();
+    private boolean incomingContextTakeover = true;
 
     @Override
     public synchronized void incomingFrame(Frame frame)
@@ -45,6 +47,7 @@ public class FrameCompressionExtension extends AbstractExtension
             return;
         }
 
+        CompressionMethod method = getMethod();
         ByteBuffer data = frame.getPayload();
         method.decompress().input(data);
         while (!method.decompress().isDone())
@@ -59,8 +62,11 @@ public class FrameCompressionExtension extends AbstractExtension
             nextIncomingFrame(out);
         }
 
-        // reset on every frame.
-        // method.decompress().end();
+        if (!incomingContextTakeover)
+        {
+            // reset on every frame.
+            method.decompress().end();
+        }
     }
 
     /**
@@ -86,13 +92,14 @@ public class FrameCompressionExtension extends AbstractExtension
     @Override
     public synchronized void outgoingFrame(Frame frame, WriteCallback callback)
     {
-        if (frame.getType().isControl())
+        if (frame.getType().isControl() || !isCompressible(frame))
         {
-            // skip, cannot compress control frames.
+            // skip, cannot compress control frames (or not worth compressing)
             nextOutgoingFrame(frame,callback);
             return;
         }
 
+        CompressionMethod method = getMethod();
         ByteBuffer data = frame.getPayload();
 
         // deflate data
@@ -121,11 +128,12 @@ public class FrameCompressionExtension extends AbstractExtension
     public void setConfig(ExtensionConfig config)
     {
         super.setConfig(config);
+        incomingContextTakeover = (config.getParameter("no_context_takeover",null) == null);
     }
 
     @Override
     public String toString()
     {
-        return this.getClass().getSimpleName() + "[]";
+        return String.format("%s[level=%d,contextTakeover=%b]",this.getClass().getSimpleName(),getCompressionLevel(),incomingContextTakeover);
     }
 }
\ No newline at end of file
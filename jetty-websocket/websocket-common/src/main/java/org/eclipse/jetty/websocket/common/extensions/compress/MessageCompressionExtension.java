@@ -27,19 +27,19 @@ import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.common.WebSocketFrame;
-import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
 
 /**
  * Per Message Compression extension for WebSocket.
  * <p>
  * Attempts to follow <a href="https://tools.ietf.org/html/draft-ietf-hybi-permessage-compression-01">draft-ietf-hybi-permessage-compression-01</a>
+ * <p>
+ * The compression contexts are reset at the end of every message (no context takeover), which allows them to be returned to the
+ * {@link CompressionPool} between messages.
  */
-public class MessageCompressionExtension extends AbstractExtension
+public class MessageCompressionExtension extends AbstractCompressionExtension
 {
     private static final Logger LOG = Log.getLogger(MessageCompressionExtension.class);
 
-    private CompressionMethod method;
-
     @Override
     public void incomingFrame(Frame frame)
     {
@@ -50,6 +50,7 @@ public class MessageCompressionExtension extends AbstractExtension
             return;
         }
 
+        CompressionMethod method = getMethod();
         ByteBuffer data = frame.getPayload();
         method.decompress().input(data);
         while (!method.decompress().isDone())
@@ -101,6 +102,14 @@ public class MessageCompressionExtension extends AbstractExtension
             return;
         }
 
+        if (frame.isFin() && !frame.isContinuation() && !isCompressible(frame))
+        {
+            // skip, whole message is too small to be worth compressing.
+            nextOutgoingFrame(frame,callback);
+            return;
+        }
+
+        CompressionMethod method = getMethod();
         ByteBuffer data = frame.getPayload();
         // deflate data
         method.compress().input(data);
@@ -136,13 +145,11 @@ public class MessageCompressionExtension extends AbstractExtension
 
         String methodOptions = config.getParameter("method","deflate");
         LOG.debug("Method requested: {}",methodOptions);
-
-        method = new DeflateCompressionMethod();
     }
 
     @Override
     public String toString()
     {
-        return String.format("%s[method=%s]",this.getClass().getSimpleName(),method);
+        return String.format("%s[level=%d,minCompressSize=%d]",this.getClass().getSimpleName(),getCompressionLevel(),getMinCompressSize());
     }
 }
@@ -19,6 +19,7 @@
 package org.eclipse.jetty.websocket.common.extensions.mux;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -97,6 +98,12 @@ public class MuxChannel implements LogicalConnection, IncomingFrames, SuspendTok
         return channelId;
     }
 
+    @Override
+    public Executor getExecutor()
+    {
+        return muxer.getPhysicalConnection().getExecutor();
+    }
+
     @Override
     public IOState getIOState()
     {
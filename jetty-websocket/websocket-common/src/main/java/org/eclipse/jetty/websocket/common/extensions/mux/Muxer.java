@@ -122,6 +122,11 @@ public class Muxer implements IncomingFrames, MuxParser.Listener
         return channel;
     }
 
+    public LogicalConnection getPhysicalConnection()
+    {
+        return physicalConnection;
+    }
+
     public WebSocketPolicy getPolicy()
     {
         return policy;
@@ -26,7 +26,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.io.AbstractConnection;
@@ -160,6 +159,7 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         private AtomicLong countFillInterestedEvents = new AtomicLong(0);
         private AtomicLong countOnFillableEvents = new AtomicLong(0);
         private AtomicLong countFillableErrors = new AtomicLong(0);
+        private AtomicLong countReadSuspends = new AtomicLong(0);
 
         public long getFillableErrorCount()
         {
@@ -175,6 +175,14 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         {
             return countOnFillableEvents.get();
         }
+
+        /**
+         * @return the number of times reading was actually stopped due to a {@link AbstractWebSocketConnection#suspend()}
+         */
+        public long getReadSuspendCount()
+        {
+            return countReadSuspends.get();
+        }
     }
 
     private static final Logger LOG = Log.getLogger(AbstractWebSocketConnection.class);
@@ -191,10 +199,13 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
     private final Parser parser;
     private final WebSocketPolicy policy;
     private final WriteBytesProvider writeBytes;
-    private final AtomicBoolean suspendToken;
+    private final Object suspendLock = new Object();
+    /** true if reading has been requested to be suspended (guarded by suspendLock) */
+    private boolean suspended;
+    /** true if the fill loop stopped due to a suspend, and needs fill interest on resume (guarded by suspendLock) */
+    private boolean readSuspended;
     private WebSocketSession session;
     private List<ExtensionConfig> extensions;
-    private boolean flushing;
     private boolean isFilling;
     private IOState ioState;
     private Stats stats = new Stats();
@@ -208,7 +219,6 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         this.parser = new Parser(policy,bufferPool);
         this.scheduler = scheduler;
         this.extensions = new ArrayList<>();
-        this.suspendToken = new AtomicBoolean(false);
         this.ioState = new IOState();
         this.ioState.setState(ConnectionState.CONNECTING);
         this.writeBytes = new WriteBytesProvider(generator,new FlushCallback());
@@ -230,10 +240,7 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
     public void complete(final Callback callback)
     {
         LOG.debug("complete({})",callback);
-        synchronized (writeBytes)
-        {
-            flushing = false;
-        }
+        writeBytes.endFlush();
 
         if (!ioState.isOpen() || (callback == null))
         {
@@ -275,16 +282,9 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
      */
     private void enqueClose(int statusCode, String reason)
     {
-        synchronized (writeBytes)
-        {
-            // It is possible to get close events from many different sources.
-            // Make sure we only sent 1 over the network.
-            if (writeBytes.isClosed())
-            {
-                // already sent the close
-                return;
-            }
-        }
+        // It is possible to get close events from many different sources.
+        // Only the first CLOSE frame is sent over the network, the others
+        // are completed as it is.
         CloseInfo close = new CloseInfo(statusCode,reason);
         // TODO: create DisconnectCallback?
         outgoingFrame(close.asFrame(),new OnCloseCallback());
@@ -313,38 +313,39 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
     {
         ByteBuffer buffer = null;
 
-        synchronized (writeBytes)
+        while (buffer == null)
         {
-            if (flushing)
+            if (!writeBytes.beginFlush())
             {
+                // another thread is flushing, and will pick up what has been enqueued
                 return;
             }
 
             if (LOG.isDebugEnabled())
             {
-                LOG.debug(".flush() - flushing={} - writeBytes={}",flushing,writeBytes);
+                LOG.debug(".flush() - writeBytes={}",writeBytes);
             }
 
             if (!isOpen())
             {
                 // No longer have an open connection, drop them all.
                 writeBytes.failAll(new WebSocketException("Connection closed"));
+                writeBytes.endFlush();
                 return;
             }
 
             buffer = writeBytes.getByteBuffer();
 
-            if (buffer == null)
+            if ((buffer == null) && !writeBytes.endFlush())
             {
+                // nothing (more) to flush
                 return;
             }
+        }
 
-            flushing = true;
-
-            if (LOG.isDebugEnabled())
-            {
-                LOG.debug("Flushing {} - {}",BufferUtil.toDetailString(buffer),writeBytes);
-            }
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("Flushing {} - {}",BufferUtil.toDetailString(buffer),writeBytes);
         }
 
         write(buffer);
@@ -384,11 +385,37 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         return getEndPoint().getIdleTimeout();
     }
 
+    @Override
+    public Executor getExecutor()
+    {
+        return super.getExecutor();
+    }
+
     public Parser getParser()
     {
         return parser;
     }
 
+    /**
+     * Get the number of outgoing frames that are waiting to be written to the network.
+     * 
+     * @return the number of queued outgoing frames
+     */
+    public int getQueuedFrameCount()
+    {
+        return writeBytes.getQueueSize();
+    }
+
+    /**
+     * Get the number of outgoing payload bytes that have been enqueued, but not yet written.
+     * 
+     * @return the number of queued outgoing payload bytes
+     */
+    public long getQueuedBytes()
+    {
+        return writeBytes.getQueuedBytes();
+    }
+
     @Override
     public WebSocketPolicy getPolicy()
     {
@@ -460,14 +487,22 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
             bufferPool.release(buffer);
         }
 
-        if (readMore && (suspendToken.get() == false))
+        if (readMore)
         {
-            fillInterested();
-        }
-        else
-        {
-            isFilling = false;
+            boolean interested;
+            synchronized (suspendLock)
+            {
+                interested = !suspended;
+                readSuspended = suspended;
+            }
+            if (interested)
+            {
+                fillInterested();
+                return;
+            }
+            stats.countReadSuspends.incrementAndGet();
         }
+        isFilling = false;
     }
 
     @Override
@@ -534,6 +569,29 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         flush();
     }
 
+    /**
+     * Already encoded frame bytes destined for network.
+     * <p>
+     * The bytes bypass the extension stack and the {@link Generator}, so they must represent a complete, unmasked, frame that is valid for the extensions
+     * negotiated on this connection. The buffer is never modified, and can be shared between many connections.
+     * 
+     * @param encoded
+     *            the encoded frame (header and payload)
+     * @param callback
+     *            the callback to notify on write success or failure
+     */
+    public void outgoingEncodedFrame(ByteBuffer encoded, WriteCallback callback)
+    {
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("outgoingEncodedFrame({}, {})",BufferUtil.toDetailString(encoded),callback);
+        }
+
+        writeBytes.enqueueEncoded(encoded,WriteCallbackWrapper.wrap(callback));
+
+        flush();
+    }
+
     private int read(ByteBuffer buffer)
     {
         EndPoint endPoint = getEndPoint();
@@ -558,6 +616,11 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
                         LOG.debug("Filled {} bytes - {}",filled,BufferUtil.toDetailString(buffer));
                     }
                     parser.parse(buffer);
+                    if (isSuspended())
+                    {
+                        // stop filling, the parser has consumed the buffer
+                        return 0;
+                    }
                 }
             }
         }
@@ -575,10 +638,25 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         }
     }
 
+    private boolean isSuspended()
+    {
+        synchronized (suspendLock)
+        {
+            return suspended;
+        }
+    }
+
     @Override
     public void resume()
     {
-        if (suspendToken.getAndSet(false))
+        boolean interested;
+        synchronized (suspendLock)
+        {
+            interested = readSuspended;
+            suspended = false;
+            readSuspended = false;
+        }
+        if (interested)
         {
             fillInterested();
         }
@@ -622,7 +700,10 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
     @Override
     public SuspendToken suspend()
     {
-        suspendToken.set(true);
+        synchronized (suspendLock)
+        {
+            suspended = true;
+        }
         return this;
     }
 
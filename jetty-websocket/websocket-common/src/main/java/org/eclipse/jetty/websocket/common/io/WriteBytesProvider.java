@@ -21,9 +21,16 @@ package org.eclipse.jetty.websocket.common.io;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.EndPoint;
@@ -36,23 +43,48 @@ import org.eclipse.jetty.websocket.common.Generator;
 
 /**
  * Interface for working with bytes destined for {@link EndPoint#write(Callback, ByteBuffer...)}
+ * <p>
+ * Frames may be enqueued by any number of threads without locking. The bytes are produced by a single flushing thread at a time, which is elected by
+ * {@link #beginFlush()} and released by {@link #endFlush()}, in the same manner as the state machine of {@link org.eclipse.jetty.io.WriteFlusher}.
+ * <p>
+ * The CLOSE frame is always the last frame queued: enqueuing threads are counted together with the closed flag, and the CLOSE frame waits for the
+ * frames already being enqueued before it is queued itself. Only the first CLOSE frame is queued; the callbacks of later CLOSE frames are completed
+ * as the first one is.
  */
 public class WriteBytesProvider implements Callback
 {
     private class FrameEntry
     {
-        protected final AtomicBoolean failed = new AtomicBoolean(false);
+        /** has the callback been notified (of success or failure) */
+        protected final AtomicBoolean notified = new AtomicBoolean(false);
         protected final Frame frame;
+        protected final ByteBuffer encoded;
         protected final Callback callback;
+        protected final int size;
 
         public FrameEntry(Frame frame, Callback callback)
         {
             this.frame = frame;
+            this.encoded = null;
             this.callback = callback;
+            this.size = frame.getPayloadLength();
+        }
+
+        public FrameEntry(ByteBuffer encoded, Callback callback)
+        {
+            this.frame = null;
+            this.encoded = encoded;
+            this.callback = callback;
+            this.size = getPayloadLength(encoded);
         }
 
         public ByteBuffer getByteBuffer()
         {
+            if (encoded != null)
+            {
+                // pre-encoded bytes are shared, hand out a private view of them
+                return encoded.asReadOnlyBuffer();
+            }
             ByteBuffer buffer = generator.generate(bufferSize,frame);
             if (LOG.isDebugEnabled())
             {
@@ -61,13 +93,36 @@ public class WriteBytesProvider implements Callback
             return buffer;
         }
 
+        /**
+         * @return true if all of the bytes for this entry have been handed out
+         */
+        public boolean isDone()
+        {
+            return (encoded != null) || (frame.remaining() <= 0);
+        }
+
+        /**
+         * @return true if the buffers produced by this entry came from the generator's buffer pool
+         */
+        public boolean isPooled()
+        {
+            return encoded == null;
+        }
+
         public void notifyFailure(Throwable t)
         {
-            if (failed.getAndSet(true) == false)
+            if (notified.getAndSet(true) == false)
             {
+                queuedBytes.addAndGet(-size);
                 notifySafeFailure(callback,t);
             }
         }
+
+        @Override
+        public String toString()
+        {
+            return String.format("FrameEntry[%s,%d]",(frame == null)?"encoded":frame.getType(),size);
+        }
     }
 
     private static final Logger LOG = Log.getLogger(WriteBytesProvider.class);
@@ -76,18 +131,34 @@ public class WriteBytesProvider implements Callback
     private final Generator generator;
     /** Flush callback, for notifying when a flush should be performed */
     private final Callback flushCallback;
-    /** Backlog of frames */
-    private LinkedList<FrameEntry> queue;
+    /** Backlog of frames (lock free, many producers and a single flushing consumer) */
+    private final ConcurrentLinkedDeque<FrameEntry> queue;
+    /** Number of entries in the backlog (the queue size is not a constant time operation) */
+    private final AtomicInteger queueSize = new AtomicInteger();
+    /** Payload bytes enqueued, but not yet written */
+    private final AtomicLong queuedBytes = new AtomicLong();
+    /** Is a thread currently flushing? */
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
     /** the buffer input size */
     private int bufferSize = 2048;
-    /** Currently active frame */
-    private FrameEntry active;
+    /** Currently active frame (only changed by the flushing thread) */
+    private volatile FrameEntry active;
     /** Tracking for failure */
-    private Throwable failure;
-    /** The last requested buffer */
+    private volatile Throwable failure;
+    /** The last requested buffer (only used by the flushing thread) */
     private ByteBuffer buffer;
-    /** Is WriteBytesProvider closed to more WriteBytes being enqueued? */
-    private AtomicBoolean closed;
+    /** Was the last requested buffer acquired from the buffer pool? */
+    private boolean bufferPooled;
+    /** The {@link #CLOSED} flag, for no more frames to be enqueued, and the number of threads currently enqueuing a frame */
+    private final AtomicInteger state = new AtomicInteger();
+    private static final int CLOSED = Integer.MIN_VALUE;
+    /** Signalled when the last thread enqueuing a frame is done, once closed */
+    private final Lock lock = new ReentrantLock();
+    private final Condition enqueued = lock.newCondition();
+    /** Callbacks of the CLOSE frames enqueued after the first one */
+    private final Queue<Callback> closeCallbacks = new ConcurrentLinkedQueue<>();
+    /** Has the first CLOSE frame been written? */
+    private volatile boolean closeWritten;
 
     /**
      * Create a WriteBytesProvider with specified Generator and "flush" Callback.
@@ -103,8 +174,17 @@ public class WriteBytesProvider implements Callback
     {
         this.generator = Objects.requireNonNull(generator);
         this.flushCallback = Objects.requireNonNull(flushCallback);
-        this.queue = new LinkedList<>();
-        this.closed = new AtomicBoolean(false);
+        this.queue = new ConcurrentLinkedDeque<>();
+    }
+
+    /**
+     * Attempt to become the flushing thread.
+     * 
+     * @return true if the caller is now the (only) flushing thread, and must eventually call {@link #endFlush()}
+     */
+    public boolean beginFlush()
+    {
+        return flushing.compareAndSet(false,true);
     }
 
     /**
@@ -113,76 +193,242 @@ public class WriteBytesProvider implements Callback
     public void close()
     {
         // Set queue closed, no new enqueue allowed.
-        this.closed.set(true);
+        setClosed();
         // flush out backlog in queue
         failAll(new EOFException("Connection has been disconnected"));
     }
 
+    /**
+     * Release the flushing state, acquired by {@link #beginFlush()}.
+     * 
+     * @return true if there are frames that were enqueued while flushing, and a new flush should be attempted
+     */
+    public boolean endFlush()
+    {
+        flushing.set(false);
+        return (failure == null) && ((active != null) || !queue.isEmpty());
+    }
+
     public void enqueue(Frame frame, Callback callback)
     {
         Objects.requireNonNull(frame);
         LOG.debug("enqueue({}, {})",frame,callback);
-        synchronized (this)
+        enqueue(frame.getType(),new FrameEntry(frame,callback));
+    }
+
+    /**
+     * Enqueue an already encoded (complete and unmasked) data frame.
+     * <p>
+     * The provided buffer is never modified or released to the buffer pool, which allows the same encoded bytes to be shared between many connections.
+     * 
+     * @param encoded
+     *            the encoded frame bytes (header and payload)
+     * @param callback
+     *            the callback to notify once the bytes have been written
+     */
+    public void enqueueEncoded(ByteBuffer encoded, Callback callback)
+    {
+        Objects.requireNonNull(encoded);
+        LOG.debug("enqueueEncoded({}, {})",BufferUtil.toDetailString(encoded),callback);
+        enqueue(Frame.Type.BINARY,new FrameEntry(encoded,callback));
+    }
+
+    private void enqueue(Frame.Type type, FrameEntry entry)
+    {
+        boolean close = (type == Frame.Type.CLOSE);
+        boolean accepted = close?setClosed():beginEnqueue();
+        if (!accepted && close && (failure == null))
         {
-            if (closed.get())
+            // Already closing, complete as the first CLOSE frame does
+            LOG.debug("Close already enqueued: {} {}",entry.frame,entry.callback);
+            if (entry.callback != null)
             {
-                // Closed for more frames.
-                LOG.debug("Write is closed: {} {}",frame,callback);
-                if (callback != null)
+                closeCallbacks.offer(entry.callback);
+                if (closeWritten || (failure != null))
                 {
-                    callback.failed(new IOException("Write is closed"));
+                    completeCloseCallbacks();
                 }
-                return;
             }
+            return;
+        }
+        if (!accepted)
+        {
+            // Closed for more frames.
+            LOG.debug("Write is closed: {} {}",entry.frame,entry.callback);
+            if (entry.callback != null)
+            {
+                entry.callback.failed(new IOException("Write is closed"));
+            }
+            return;
+        }
 
-            if (failure != null)
+        boolean queued = false;
+        Throwable failed;
+        try
+        {
+            if (close)
             {
-                // no changes when failed
-                LOG.debug("Write is in failure: {} {}",frame,callback);
-                notifySafeFailure(callback,failure);
-                return;
+                // wait for the frames accepted before the close, so that no frame is queued after it
+                lock.lock();
+                try
+                {
+                    while (state.get() != CLOSED)
+                    {
+                        enqueued.awaitUninterruptibly();
+                    }
+                }
+                finally
+                {
+                    lock.unlock();
+                }
             }
 
-            FrameEntry entry = new FrameEntry(frame,callback);
+            failed = failure;
+            if (failed == null)
+            {
+                queuedBytes.addAndGet(entry.size);
+                queueSize.incrementAndGet();
+                if (type == Frame.Type.PING)
+                {
+                    queue.offerFirst(entry);
+                }
+                else
+                {
+                    queue.offerLast(entry);
+                }
+                queued = true;
+                failed = failure;
+            }
+        }
+        finally
+        {
+            if (!close && (state.decrementAndGet() == CLOSED))
+            {
+                // the last frame accepted before the close, wake up the close
+                lock.lock();
+                try
+                {
+                    enqueued.signalAll();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+        }
 
-            switch (frame.getType())
+        // notify outside of the enqueue count, so callbacks never hold up a close
+        if (failed != null)
+        {
+            if (queued)
             {
-                case PING:
-                    queue.addFirst(entry);
-                    break;
-                case CLOSE:
-                    closed.set(true);
-                    // drop the rest of the queue?
-                    queue.addLast(entry);
-                    break;
-                default:
-                    queue.addLast(entry);
+                // raced with failAll(), which may have missed this entry
+                failQueued(failed);
+            }
+            else
+            {
+                // no changes when failed
+                LOG.debug("Write is in failure: {} {}",entry.frame,entry.callback);
+                notifySafeFailure(entry.callback,failed);
             }
         }
     }
 
-    public void failAll(Throwable t)
+    /**
+     * Count a thread enqueuing a frame, unless closed.
+     * 
+     * @return true if the frame can be enqueued, false if closed
+     */
+    private boolean beginEnqueue()
     {
-        synchronized (this)
+        while (true)
         {
-            // fail active (if set)
-            if (active != null)
+            int s = state.get();
+            if ((s & CLOSED) != 0)
             {
-                active.notifyFailure(t);
+                return false;
             }
+            if (state.compareAndSet(s,s + 1))
+            {
+                return true;
+            }
+        }
+    }
 
-            failure = t;
+    /**
+     * Set the closed flag.
+     * 
+     * @return true if this call closed, false if already closed
+     */
+    private boolean setClosed()
+    {
+        while (true)
+        {
+            int s = state.get();
+            if ((s & CLOSED) != 0)
+            {
+                return false;
+            }
+            if (state.compareAndSet(s,s | CLOSED))
+            {
+                return true;
+            }
+        }
+    }
 
-            // fail others
-            for (FrameEntry fe : queue)
+    /**
+     * Complete the callbacks of the CLOSE frames enqueued after the first one, as the first one was completed.
+     */
+    private void completeCloseCallbacks()
+    {
+        Callback callback;
+        while ((callback = closeCallbacks.poll()) != null)
+        {
+            Throwable failed = failure;
+            if (closeWritten || (failed == null))
+            {
+                try
+                {
+                    callback.succeeded();
+                }
+                catch (Throwable t)
+                {
+                    LOG.warn("Callback failure",t);
+                }
+            }
+            else
             {
-                fe.notifyFailure(t);
+                notifySafeFailure(callback,failed);
             }
+        }
+    }
 
-            queue.clear();
+    public void failAll(Throwable t)
+    {
+        failure = t;
 
-            // notify flush callback
-            flushCallback.failed(t);
+        // fail active (if set)
+        FrameEntry entry = active;
+        if (entry != null)
+        {
+            entry.notifyFailure(t);
+        }
+
+        // fail others
+        failQueued(t);
+        completeCloseCallbacks();
+
+        // notify flush callback
+        flushCallback.failed(t);
+    }
+
+    private void failQueued(Throwable t)
+    {
+        FrameEntry entry;
+        while ((entry = queue.pollFirst()) != null)
+        {
+            queueSize.decrementAndGet();
+            entry.notifyFailure(t);
         }
     }
 
@@ -207,35 +453,52 @@ public class WriteBytesProvider implements Callback
 
     /**
      * Get the next ByteBuffer to write.
+     * <p>
+     * Must only be called by the flushing thread.
      * 
      * @return the next ByteBuffer (or null if nothing to write)
      */
     public ByteBuffer getByteBuffer()
     {
-        synchronized (this)
+        FrameEntry entry = active;
+        if (entry == null)
         {
-            if (active == null)
-            {
-                if (queue.isEmpty())
-                {
-                    // nothing in queue
-                    return null;
-                }
-                // get current topmost entry
-                active = queue.pop();
-            }
-
-            if (active == null)
+            // get current topmost entry
+            entry = queue.pollFirst();
+            if (entry == null)
             {
-                // no active frame available, even in queue.
+                // nothing in queue
                 return null;
             }
-
-            buffer = active.getByteBuffer();
+            queueSize.decrementAndGet();
+            active = entry;
         }
+
+        buffer = entry.getByteBuffer();
+        bufferPooled = entry.isPooled();
         return buffer;
     }
 
+    /**
+     * Get the number of payload bytes waiting to be written (including the frame being actively written).
+     * 
+     * @return the number of queued payload bytes
+     */
+    public long getQueuedBytes()
+    {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Get the number of frames waiting to be written (not including the frame being actively written).
+     * 
+     * @return the number of queued frames
+     */
+    public int getQueueSize()
+    {
+        return queueSize.get();
+    }
+
     /**
      * Used to test for the final frame possible to be enqueued, the CLOSE frame.
      * 
@@ -243,10 +506,36 @@ public class WriteBytesProvider implements Callback
      */
     public boolean isClosed()
     {
-        synchronized (this)
+        return (state.get() & CLOSED) != 0;
+    }
+
+    /**
+     * @return true if a thread is currently flushing
+     */
+    public boolean isFlushing()
+    {
+        return flushing.get();
+    }
+
+    /**
+     * @param encoded
+     *            an encoded, unmasked, frame
+     * @return the length of the payload of the frame, without the frame header
+     */
+    private static int getPayloadLength(ByteBuffer encoded)
+    {
+        int position = encoded.position();
+        int header = 2;
+        int length = encoded.get(position + 1) & 0x7F;
+        if (length == 126)
+        {
+            header += 2;
+        }
+        else if (length == 127)
         {
-            return closed.get();
+            header += 8;
         }
+        return encoded.remaining() - header;
     }
 
     private void notifySafeFailure(Callback callback, Throwable t)
@@ -282,29 +571,37 @@ public class WriteBytesProvider implements Callback
     {
         Callback successCallback = null;
 
-        synchronized (this)
+        // Release the active byte buffer first
+        if (bufferPooled)
         {
-            // Release the active byte buffer first
             generator.getBufferPool().release(buffer);
+        }
+        buffer = null;
 
-            if (active == null)
-            {
-                return;
-            }
+        FrameEntry entry = active;
+        if (entry == null)
+        {
+            return;
+        }
 
-            if (active.frame.remaining() <= 0)
+        boolean closeDone = false;
+        if (entry.isDone())
+        {
+            closeDone = (entry.frame != null) && (entry.frame.getType() == Frame.Type.CLOSE);
+            // All done with active FrameEntry
+            if (entry.notified.getAndSet(true) == false)
             {
-                // All done with active FrameEntry
-                successCallback = active.callback;
-                // Forget active
-                active = null;
+                queuedBytes.addAndGet(-entry.size);
+                successCallback = entry.callback;
             }
-
-            // notify flush callback
-            flushCallback.succeeded();
+            // Forget active
+            active = null;
         }
 
-        // Notify success (outside of synchronize lock)
+        // notify flush callback
+        flushCallback.succeeded();
+
+        // Notify success
         if (successCallback != null)
         {
             try
@@ -317,6 +614,12 @@ public class WriteBytesProvider implements Callback
                 LOG.warn("Callback failure",t);
             }
         }
+
+        if (closeDone)
+        {
+            closeWritten = true;
+            completeCloseCallbacks();
+        }
     }
 
     @Override
@@ -325,15 +628,18 @@ public class WriteBytesProvider implements Callback
         StringBuilder b = new StringBuilder();
         b.append("WriteBytesProvider[");
         b.append("flushCallback=").append(flushCallback);
-        if (failure != null)
+        Throwable failed = failure;
+        if (failed != null)
         {
-            b.append(",failure=").append(failure.getClass().getName());
-            b.append(":").append(failure.getMessage());
+            b.append(",failure=").append(failed.getClass().getName());
+            b.append(":").append(failed.getMessage());
         }
         else
         {
+            b.append(",flushing=").append(flushing.get());
             b.append(",active=").append(active);
-            b.append(",queue.size=").append(queue.size());
+            b.append(",queue.size=").append(queueSize.get());
+            b.append(",queue.bytes=").append(queuedBytes.get());
         }
         b.append(']');
         return b.toString();
@@ -30,6 +30,9 @@ import org.eclipse.jetty.websocket.api.extensions.Frame;
 
 /**
  * Used to perform validation of UTF8 payload contents (for fast-fail reasons)
+ * <p>
+ * The validation state is kept between calls to {@link #process(ByteBuffer)}, so a single instance can validate all of the frames of a fragmented
+ * message. Runs of US-ASCII bytes are only counted, not decoded.
  */
 public class UTF8Validator extends Utf8Appendable implements PayloadProcessor
 {
@@ -62,6 +65,11 @@ public class UTF8Validator extends Utf8Appendable implements PayloadProcessor
         {
             return length;
         }
+
+        public void reset()
+        {
+            length = 0;
+        }
     }
 
     private static final Logger LOG = Log.getLogger(UTF8Validator.class);
@@ -74,6 +82,20 @@ public class UTF8Validator extends Utf8Appendable implements PayloadProcessor
         this.buffer = (EmptyAppender)_appendable;
     }
 
+    @Override
+    protected void appendAscii(byte[] b, int start, int end)
+    {
+        // always valid, nothing to decode
+        this.buffer.length += (end - start);
+    }
+
+    @Override
+    protected void appendAscii(ByteBuffer buf, int start, int end)
+    {
+        // always valid, nothing to decode
+        this.buffer.length += (end - start);
+    }
+
     @Override
     public int length()
     {
@@ -103,6 +125,16 @@ public class UTF8Validator extends Utf8Appendable implements PayloadProcessor
         }
     }
 
+    /**
+     * Reset the validation state, for the start of a new message.
+     */
+    @Override
+    public void reset()
+    {
+        super.reset();
+        this.buffer.reset();
+    }
+
     @Override
     public void reset(Frame frame)
     {
@@ -0,0 +1,142 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.websocket.common.message;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.SuspendToken;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.events.EventDriver;
+
+/**
+ * Tracks the bytes of streaming messages that have been received, but not yet read by the application, for a single session.
+ * <p>
+ * When the queued bytes cross the {@link WebSocketPolicy#getInputHighWaterMark() high water mark} reading from the connection is suspended, and it is
+ * resumed once the application has consumed enough to be at (or below) the {@link WebSocketPolicy#getInputLowWaterMark() low water mark}. This bounds
+ * the memory used by a slow consumer of a large message to roughly the high water mark, rather than the maximum message size.
+ */
+public class InputFlowControl
+{
+    private static final Logger LOG = Log.getLogger(InputFlowControl.class);
+    private final EventDriver driver;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong maxQueuedBytes = new AtomicLong();
+    private final AtomicLong suspendCount = new AtomicLong();
+    private SuspendToken suspendToken;
+
+    public InputFlowControl(EventDriver driver)
+    {
+        this.driver = driver;
+    }
+
+    /**
+     * @return the highest number of bytes that were queued at any one time
+     */
+    public long getMaxQueuedBytes()
+    {
+        return maxQueuedBytes.get();
+    }
+
+    /**
+     * @return the number of bytes received but not yet consumed by the application
+     */
+    public long getQueuedBytes()
+    {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return the number of times reading was suspended because the high water mark was crossed
+     */
+    public long getSuspendCount()
+    {
+        return suspendCount.get();
+    }
+
+    public synchronized boolean isSuspended()
+    {
+        return suspendToken != null;
+    }
+
+    /**
+     * Notification that bytes have been consumed by the application.
+     * 
+     * @param bytes
+     *            the number of bytes consumed
+     */
+    public void onConsumed(int bytes)
+    {
+        long queued = queuedBytes.addAndGet(-bytes);
+        if (queued <= driver.getPolicy().getInputLowWaterMark())
+        {
+            SuspendToken token;
+            synchronized (this)
+            {
+                token = suspendToken;
+                suspendToken = null;
+            }
+            if (token != null)
+            {
+                LOG.debug("Resume reading, {} bytes queued",queued);
+                token.resume();
+            }
+        }
+    }
+
+    /**
+     * Notification that bytes have been queued for the application to read.
+     * 
+     * @param bytes
+     *            the number of bytes queued
+     */
+    public void onQueued(int bytes)
+    {
+        long queued = queuedBytes.addAndGet(bytes);
+        long max = maxQueuedBytes.get();
+        while ((queued > max) && !maxQueuedBytes.compareAndSet(max,queued))
+        {
+            max = maxQueuedBytes.get();
+        }
+
+        if (queued > driver.getPolicy().getInputHighWaterMark())
+        {
+            synchronized (this)
+            {
+                if ((suspendToken != null) || (queuedBytes.get() <= driver.getPolicy().getInputLowWaterMark()))
+                {
+                    // already suspended, or already drained by the application
+                    return;
+                }
+                LOG.debug("Suspend reading, {} bytes queued",queued);
+                suspendToken = driver.getSession().suspend();
+                suspendCount.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[queued=%d,max=%d,suspends=%d]",InputFlowControl.class.getSimpleName(),queuedBytes.get(),maxQueuedBytes.get(),
+                suspendCount.get());
+    }
+}
@@ -20,35 +20,36 @@ package org.eclipse.jetty.websocket.common.message;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 
-import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.websocket.common.events.AnnotatedEventDriver;
 
 /**
  * Support class for reading binary message data as an InputStream.
+ * <p>
+ * Payloads are queued as they arrive from the connection, and the application reads them (blocking) from another thread. The queued bytes are reported
+ * to the session {@link InputFlowControl}, which suspends reading from the connection while the application falls behind.
  */
 public class MessageInputStream extends InputStream implements MessageAppender
 {
-    private static final int BUFFER_SIZE = 65535;
-    /**
-     * Threshold (of bytes) to perform compaction at
-     */
-    private static final int COMPACT_THRESHOLD = 5;
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
     private final AnnotatedEventDriver driver;
-    private final ByteBuffer buf;
+    private final InputFlowControl flowControl;
+    private final BlockingDeque<ByteBuffer> buffers = new LinkedBlockingDeque<>();
+    private ByteBuffer activeBuffer;
     private int size;
-    private boolean finished;
+    private volatile boolean finished;
+    private volatile boolean closed;
     private boolean needsNotification;
-    private int readPosition;
 
     public MessageInputStream(AnnotatedEventDriver driver)
     {
         this.driver = driver;
-        this.buf = ByteBuffer.allocate(BUFFER_SIZE);
-        BufferUtil.clearToFill(this.buf);
+        this.flowControl = driver.getInputFlowControl();
         size = 0;
-        readPosition = this.buf.position();
         finished = false;
         needsNotification = true;
     }
@@ -70,25 +71,45 @@ public class MessageInputStream extends InputStream implements MessageAppender
         driver.getPolicy().assertValidMessageSize(size + payload.remaining());
         size += payload.remaining();
 
-        synchronized (buf)
+        if (!closed && payload.hasRemaining())
         {
-            // TODO: grow buffer till max binary message size?
-            // TODO: compact this buffer to fit incoming buffer?
-            // TODO: tell connection to suspend if buffer too full?
-            BufferUtil.put(payload,buf);
+            // the payload buffer is reused by the parser, take a copy
+            ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+            copy.put(payload.slice()).flip();
+            flowControl.onQueued(copy.remaining());
+            buffers.offer(copy);
         }
 
         if (needsNotification)
         {
-            needsNotification = true;
+            needsNotification = false;
             this.driver.onInputStream(this);
         }
     }
 
+    @Override
+    public int available() throws IOException
+    {
+        ByteBuffer buffer = activeBuffer;
+        return (buffer == null)?0:buffer.remaining();
+    }
+
     @Override
     public void close() throws IOException
     {
-        finished = true;
+        closed = true;
+        // discard anything not yet read
+        if (activeBuffer != null)
+        {
+            flowControl.onConsumed(activeBuffer.remaining());
+            activeBuffer = null;
+        }
+        ByteBuffer buffer;
+        while ((buffer = buffers.poll()) != null)
+        {
+            flowControl.onConsumed(buffer.remaining());
+        }
+        buffers.offer(EOF);
         super.close();
     }
 
@@ -96,23 +117,63 @@ public class MessageInputStream extends InputStream implements MessageAppender
     public void messageComplete()
     {
         finished = true;
+        buffers.offer(EOF);
+    }
+
+    /**
+     * Get the next buffer with content, blocking until one is available.
+     * 
+     * @return the buffer, or null if at the end of the message
+     */
+    private ByteBuffer nextBuffer() throws IOException
+    {
+        if ((activeBuffer != null) && activeBuffer.hasRemaining())
+        {
+            return activeBuffer;
+        }
+        if (closed || (activeBuffer == EOF))
+        {
+            return null;
+        }
+        try
+        {
+            activeBuffer = buffers.take();
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+        return (activeBuffer == EOF)?null:activeBuffer;
     }
 
     @Override
     public int read() throws IOException
     {
-        synchronized (buf)
+        ByteBuffer buffer = nextBuffer();
+        if (buffer == null)
+        {
+            return -1;
+        }
+        int b = buffer.get() & 0xFF;
+        flowControl.onConsumed(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        ByteBuffer buffer = nextBuffer();
+        if (buffer == null)
         {
-            byte b = buf.get(readPosition);
-            readPosition++;
-            if (readPosition <= (buf.limit() - COMPACT_THRESHOLD))
-            {
-                int curPos = buf.position();
-                buf.compact();
-                int offsetPos = buf.position() - curPos;
-                readPosition += offsetPos;
-            }
-            return b;
+            return -1;
         }
+        int length = Math.min(len,buffer.remaining());
+        buffer.get(b,off,length);
+        flowControl.onConsumed(length);
+        return length;
     }
 }
@@ -19,29 +19,75 @@
 package org.eclipse.jetty.websocket.common.message;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 
-import org.eclipse.jetty.util.Utf8StringBuilder;
+import org.eclipse.jetty.util.Utf8Appendable;
 import org.eclipse.jetty.websocket.common.events.AnnotatedEventDriver;
 
 /**
  * Support class for reading text message data as an Reader.
  * <p>
  * Due to the spec, this reader is forced to use the UTF8 charset.
+ * <p>
+ * Payloads are decoded as they arrive from the connection, and the application reads the characters (blocking) from another thread. The queued (encoded)
+ * bytes are reported to the session {@link InputFlowControl}, and are considered consumed once all the characters decoded from them have been read.
  */
 public class MessageReader extends Reader implements MessageAppender
 {
+    private static class Chunk
+    {
+        private final CharBuffer chars;
+        private final int bytes;
+
+        private Chunk(CharBuffer chars, int bytes)
+        {
+            this.chars = chars;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Decodes into a builder that can be drained while a UTF8 sequence is still incomplete.
+     */
+    private static class Utf8Decoder extends Utf8Appendable
+    {
+        private final StringBuilder decoded;
+
+        private Utf8Decoder(StringBuilder decoded)
+        {
+            super(decoded);
+            this.decoded = decoded;
+        }
+
+        @Override
+        public int length()
+        {
+            return decoded.length();
+        }
+    }
+
+    private static final Chunk EOF = new Chunk(CharBuffer.allocate(0),0);
     private final AnnotatedEventDriver driver;
-    private final Utf8StringBuilder utf;
+    private final InputFlowControl flowControl;
+    private final StringBuilder decoded = new StringBuilder();
+    private final Utf8Decoder utf = new Utf8Decoder(decoded);
+    private final BlockingDeque<Chunk> chunks = new LinkedBlockingDeque<>();
+    private Chunk activeChunk;
+    private int pendingBytes;
     private int size;
-    private boolean finished;
+    private volatile boolean finished;
+    private volatile boolean closed;
     private boolean needsNotification;
 
     public MessageReader(AnnotatedEventDriver driver)
     {
         this.driver = driver;
-        this.utf = new Utf8StringBuilder();
+        this.flowControl = driver.getInputFlowControl();
         size = 0;
         finished = false;
         needsNotification = true;
@@ -64,14 +110,17 @@ public class MessageReader extends Reader implements MessageAppender
         driver.getPolicy().assertValidMessageSize(size + payload.remaining());
         size += payload.remaining();
 
-        synchronized (utf)
+        if (!closed && payload.hasRemaining())
         {
-            utf.append(payload);
+            int bytes = payload.remaining();
+            utf.append(payload.slice());
+            pendingBytes += bytes;
+            queueDecoded();
         }
 
         if (needsNotification)
         {
-            needsNotification = true;
+            needsNotification = false;
             this.driver.onReader(this);
         }
     }
@@ -79,19 +128,94 @@ public class MessageReader extends Reader implements MessageAppender
     @Override
     public void close() throws IOException
     {
-        finished = true;
+        closed = true;
+        // discard anything not yet read
+        if (activeChunk != null)
+        {
+            flowControl.onConsumed(activeChunk.bytes);
+            activeChunk = null;
+        }
+        Chunk chunk;
+        while ((chunk = chunks.poll()) != null)
+        {
+            flowControl.onConsumed(chunk.bytes);
+        }
+        chunks.offer(EOF);
     }
 
     @Override
     public void messageComplete()
     {
         finished = true;
+        queueDecoded();
+        chunks.offer(EOF);
+    }
+
+    /**
+     * Get the next chunk with content, blocking until one is available.
+     * 
+     * @return the chunk, or null if at the end of the message
+     */
+    private Chunk nextChunk() throws IOException
+    {
+        if (activeChunk != null)
+        {
+            if (activeChunk.chars.hasRemaining())
+            {
+                return activeChunk;
+            }
+            if (activeChunk == EOF)
+            {
+                return null;
+            }
+            flowControl.onConsumed(activeChunk.bytes);
+            activeChunk = null;
+        }
+        if (closed)
+        {
+            return null;
+        }
+        try
+        {
+            activeChunk = chunks.take();
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+        return (activeChunk == EOF)?null:activeChunk;
+    }
+
+    /**
+     * Move the characters decoded so far to the queue, leaving any incomplete UTF8 sequence in the decoder.
+     */
+    private void queueDecoded()
+    {
+        if ((decoded.length() > 0) || (finished && (pendingBytes > 0)))
+        {
+            CharBuffer chars = CharBuffer.allocate(decoded.length());
+            decoded.getChars(0,decoded.length(),chars.array(),0);
+            decoded.setLength(0);
+            flowControl.onQueued(pendingBytes);
+            chunks.offer(new Chunk(chars,pendingBytes));
+            pendingBytes = 0;
+        }
     }
 
     @Override
     public int read(char[] cbuf, int off, int len) throws IOException
     {
-        // TODO Auto-generated method stub
-        return 0;
+        if (len == 0)
+        {
+            return 0;
+        }
+        Chunk chunk = nextChunk();
+        if (chunk == null)
+        {
+            return -1;
+        }
+        int length = Math.min(len,chunk.chars.remaining());
+        chunk.chars.get(cbuf,off,length);
+        return length;
     }
 }
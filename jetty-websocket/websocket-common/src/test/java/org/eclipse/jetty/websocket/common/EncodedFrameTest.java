@@ -0,0 +1,111 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.common.extensions.compress.CompressionPool;
+import org.eclipse.jetty.websocket.common.extensions.compress.FrameCompressionExtension;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EncodedFrameTest
+{
+    @Test
+    public void testBinaryMatchesGenerator()
+    {
+        byte payload[] = new byte[300];
+        for (int i = 0; i < payload.length; i++)
+        {
+            payload[i] = (byte)i;
+        }
+
+        EncodedFrame encoded = EncodedFrame.binary(ByteBuffer.wrap(payload));
+        ByteBuffer expected = new UnitGenerator().generate(WebSocketFrame.binary(payload));
+
+        ByteBufferAssert.assertEquals("Encoded Binary",expected,encoded.getEncoded().slice());
+    }
+
+    @Test
+    public void testDeflatedParses()
+    {
+        String text = "Hello Hello Hello Hello Hello Hello Hello Hello";
+        EncodedFrame encoded = EncodedFrame.text(text);
+
+        WebSocketPolicy policy = WebSocketPolicy.newClientPolicy();
+        FrameCompressionExtension ext = new FrameCompressionExtension();
+        ext.setBufferPool(new MappedByteBufferPool());
+        ext.setPolicy(policy);
+        ext.setConfig(ExtensionConfig.parse("x-webkit-deflate-frame"));
+
+        ByteBuffer deflated = encoded.getDeflated(ext);
+        Assert.assertThat("Deflated",deflated,notNullValue());
+        Assert.assertThat("Deflated is smaller",deflated.remaining(),lessThan(encoded.getEncoded().remaining()));
+
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        ext.setNextIncomingFrames(capture);
+
+        Parser parser = new UnitParser(policy);
+        parser.configureFromExtensions(Collections.singletonList(ext));
+        parser.setIncomingFramesHandler(ext);
+        parser.parse(deflated.slice());
+
+        capture.assertHasFrame(OpCode.TEXT,1);
+        Assert.assertThat("Inflated Text",capture.getFrames().get(0).getPayloadAsUTF8(),is(text));
+    }
+
+    @Test
+    public void testDeflatedWithExtensionPool()
+    {
+        CompressionPool pool = new CompressionPool();
+        FrameCompressionExtension ext = new FrameCompressionExtension();
+        ext.setCompressionLevel(Deflater.BEST_SPEED);
+        ext.setCompressionPool(pool);
+
+        EncodedFrame encoded = EncodedFrame.text("Hello Hello Hello Hello Hello Hello Hello Hello");
+        Assert.assertThat("Deflated",encoded.getDeflated(ext),notNullValue());
+
+        // the deflater is borrowed from the pool of the extension, and returned to it
+        Assert.assertThat("Deflaters Created",pool.getDeflatersCreated(),is(1L));
+        Assert.assertThat("Idle Deflaters",pool.getIdleDeflaters(),is(1));
+        Assert.assertThat("Compressed Count",pool.getCompressedCount(),is(1L));
+    }
+
+    @Test
+    public void testSharedBytesUnchanged()
+    {
+        EncodedFrame encoded = EncodedFrame.text("Market Data");
+        ByteBuffer expected = new UnitGenerator().generate(WebSocketFrame.text("Market Data"));
+
+        // consuming a view must not affect the shared encoded bytes
+        ByteBuffer view = encoded.getEncoded().slice();
+        BufferUtil.clear(view);
+
+        ByteBufferAssert.assertEquals("Encoded Text",expected,encoded.getEncoded().slice());
+        Assert.assertThat("Frame Copy",encoded.toFrame().getPayloadAsUTF8(),is("Market Data"));
+    }
+}
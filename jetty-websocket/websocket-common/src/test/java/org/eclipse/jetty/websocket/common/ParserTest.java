@@ -232,6 +232,31 @@ public class ParserTest
         capture.assertHasErrors(BadPayloadException.class,1);
     }
 
+    /**
+     * Invalid UTF8 in a CONTINUATION frame of a fragmented TEXT message must be detected.
+     */
+    @Test
+    public void testParseInvalidUtf8Continuation()
+    {
+        List<WebSocketFrame> send = new ArrayList<>();
+        WebSocketFrame text = new WebSocketFrame(OpCode.TEXT);
+        text.setPayload(TypeUtil.fromHexString("48656c6c6fce")); // good, ends mid sequence
+        text.setFin(false);
+        send.add(text);
+        WebSocketFrame cont = new WebSocketFrame(OpCode.CONTINUATION);
+        cont.setPayload(TypeUtil.fromHexString("41")); // INVALID continuation byte
+        cont.setFin(true);
+        send.add(cont);
+
+        ByteBuffer completeBuf = UnitGenerator.generate(send);
+        UnitParser parser = new UnitParser();
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        parser.setIncomingFramesHandler(capture);
+        parseQuietly(parser,completeBuf);
+
+        capture.assertHasErrors(BadPayloadException.class,1);
+    }
+
     @Test
     public void testParseNothing()
     {
@@ -23,6 +23,7 @@ import static org.hamcrest.Matchers.*;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Deflater;
 
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.StringUtil;
@@ -218,4 +219,22 @@ public class DeflateCompressionMethodTest
         // Test round trip
         assertRoundTrip(method,quote);
     }
+
+    /**
+     * Round Trip (RT) Compress then Decompress, with zlib contexts borrowed from a pool
+     */
+    @Test
+    public void testRTPooled()
+    {
+        CompressionPool pool = new CompressionPool();
+        CompressionMethod method = new DeflateCompressionMethod(Deflater.BEST_SPEED,pool);
+
+        assertRoundTrip(method,"Hello World Hello World Hello World");
+        assertRoundTrip(method,"Goodbye World Goodbye World");
+
+        Assert.assertThat("Deflaters Created",pool.getDeflatersCreated(),is(1L));
+        Assert.assertThat("Inflaters Created",pool.getInflatersCreated(),is(1L));
+        Assert.assertThat("Idle Deflaters",pool.getIdleDeflaters(),is(1));
+        Assert.assertThat("Idle Inflaters",pool.getIdleInflaters(),is(1));
+    }
 }
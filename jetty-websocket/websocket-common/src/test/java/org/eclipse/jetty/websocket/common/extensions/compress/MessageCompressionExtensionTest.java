@@ -357,4 +357,53 @@ public class MessageCompressionExtensionTest
         Assert.assertThat("Frame.payloadLength",actual.getPayloadLength(),is(expected.remaining()));
         ByteBufferAssert.assertEquals("Frame.payload",expected,actual.getPayload().slice());
     }
+
+    /**
+     * Outgoing messages below the minimum compression size should pass through uncompressed, and the zlib context should be returned to the pool
+     * after each message.
+     */
+    @Test
+    public void testOutgoingPooledMinCompressSize()
+    {
+        CompressionPool pool = new CompressionPool();
+
+        MessageCompressionExtension ext = new MessageCompressionExtension();
+        ext.setBufferPool(new MappedByteBufferPool());
+        ext.setPolicy(WebSocketPolicy.newServerPolicy());
+        ext.setCompressionPool(pool);
+        ext.setMinCompressSize(32);
+        ExtensionConfig config = ExtensionConfig.parse("permessage-compress");
+        ext.setConfig(config);
+
+        // Setup capture of outgoing frames
+        OutgoingFramesCapture capture = new OutgoingFramesCapture();
+
+        // Wire up stack
+        ext.setNextOutgoingFrames(capture);
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10; i++)
+        {
+            large.append("Hello World ");
+        }
+
+        ext.outgoingFrame(WebSocketFrame.text("Hi"),null);
+        ext.outgoingFrame(WebSocketFrame.text(large.toString()),null);
+        ext.outgoingFrame(WebSocketFrame.text(large.toString()),null);
+
+        capture.assertFrameCount(3);
+        WebSocketFrame small = capture.getFrames().get(0);
+        Assert.assertThat("Small.rsv1",small.isRsv1(),is(false));
+        Assert.assertThat("Small.payload",small.getPayloadAsUTF8(),is("Hi"));
+
+        WebSocketFrame compressed = capture.getFrames().get(1);
+        Assert.assertThat("Compressed.rsv1",compressed.isRsv1(),is(true));
+        Assert.assertThat("Compressed.payloadLength",compressed.getPayloadLength(),lessThan(large.length()));
+
+        Assert.assertThat("Pool.deflatersCreated",pool.getDeflatersCreated(),is(1L));
+        Assert.assertThat("Pool.idleDeflaters",pool.getIdleDeflaters(),is(1));
+        Assert.assertThat("Pool.compressedCount",pool.getCompressedCount(),is(2L));
+        Assert.assertThat("Pool.uncompressedCount",pool.getUncompressedCount(),is(1L));
+        Assert.assertThat("Pool.compressionRatio",pool.getCompressionRatio(),lessThan(1.0d));
+    }
 }
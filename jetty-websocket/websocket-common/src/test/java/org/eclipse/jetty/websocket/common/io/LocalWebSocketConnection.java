@@ -19,6 +19,7 @@
 package org.eclipse.jetty.websocket.common.io;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -32,7 +33,7 @@ import org.eclipse.jetty.websocket.common.LogicalConnection;
 import org.eclipse.jetty.websocket.common.WebSocketSession;
 import org.junit.rules.TestName;
 
-public class LocalWebSocketConnection implements LogicalConnection, IncomingFrames
+public class LocalWebSocketConnection implements LogicalConnection, IncomingFrames, SuspendToken
 {
     private static final Logger LOG = Log.getLogger(LocalWebSocketConnection.class);
     private final String id;
@@ -40,6 +41,15 @@ public class LocalWebSocketConnection implements LogicalConnection, IncomingFram
     private boolean open = false;
     private IncomingFrames incoming;
     private IOState ioState = new IOState();
+    private Executor executor = new Executor()
+    {
+        @Override
+        public void execute(Runnable task)
+        {
+            task.run();
+        }
+    };
+    private volatile boolean suspended = false;
 
     public LocalWebSocketConnection()
     {
@@ -74,6 +84,12 @@ public class LocalWebSocketConnection implements LogicalConnection, IncomingFram
         open = false;
     }
 
+    @Override
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
     public IncomingFrames getIncoming()
     {
         return incoming;
@@ -134,6 +150,11 @@ public class LocalWebSocketConnection implements LogicalConnection, IncomingFram
         return open;
     }
 
+    public boolean isSuspended()
+    {
+        return suspended;
+    }
+
     @Override
     public boolean isReading()
     {
@@ -153,6 +174,12 @@ public class LocalWebSocketConnection implements LogicalConnection, IncomingFram
     @Override
     public void resume()
     {
+        suspended = false;
+    }
+
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
     }
 
     @Override
@@ -181,7 +208,8 @@ public class LocalWebSocketConnection implements LogicalConnection, IncomingFram
     @Override
     public SuspendToken suspend()
     {
-        return null;
+        suspended = true;
+        return this;
     }
 
     @Override
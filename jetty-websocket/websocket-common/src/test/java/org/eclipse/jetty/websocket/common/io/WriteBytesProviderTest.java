@@ -0,0 +1,287 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.websocket.common.io;
+
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FutureCallback;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.common.CloseInfo;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.UnitGenerator;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WriteBytesProviderTest
+{
+    private static class FlushCallback implements Callback
+    {
+        private WriteBytesProvider bytes;
+
+        @Override
+        public void failed(Throwable x)
+        {
+            /* ignore */
+        }
+
+        @Override
+        public void succeeded()
+        {
+            bytes.endFlush();
+        }
+    }
+
+    private static class CountingCallback implements Callback
+    {
+        private final AtomicInteger successes = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public void failed(Throwable x)
+        {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public void succeeded()
+        {
+            successes.incrementAndGet();
+        }
+    }
+
+    private WriteBytesProvider newProvider()
+    {
+        FlushCallback flushCallback = new FlushCallback();
+        WriteBytesProvider bytes = new WriteBytesProvider(new UnitGenerator(),flushCallback);
+        flushCallback.bytes = bytes;
+        return bytes;
+    }
+
+    /**
+     * Act as the connection flush, writing everything that can be written.
+     */
+    private List<ByteBuffer> flush(WriteBytesProvider bytes)
+    {
+        List<ByteBuffer> written = new ArrayList<>();
+        while (bytes.beginFlush())
+        {
+            ByteBuffer buffer = bytes.getByteBuffer();
+            if (buffer == null)
+            {
+                if (bytes.endFlush())
+                {
+                    continue;
+                }
+                break;
+            }
+            written.add(BufferUtil.toBuffer(BufferUtil.toArray(buffer)));
+            BufferUtil.clear(buffer);
+            // releases the flushing state through the flush callback
+            bytes.succeeded();
+        }
+        return written;
+    }
+
+    @Test
+    public void testQueueGauges() throws Exception
+    {
+        WriteBytesProvider bytes = newProvider();
+        FutureCallback callback1 = new FutureCallback();
+        FutureCallback callback2 = new FutureCallback();
+        bytes.enqueue(WebSocketFrame.text("Hello"),callback1);
+        bytes.enqueue(WebSocketFrame.text("World!"),callback2);
+
+        Assert.assertThat("Queue size",bytes.getQueueSize(),is(2));
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is(11L));
+
+        List<ByteBuffer> written = flush(bytes);
+        Assert.assertThat("Written buffers",written.size(),is(2));
+        Assert.assertThat("Callback 1 done",callback1.isDone(),is(true));
+        Assert.assertThat("Callback 2 done",callback2.isDone(),is(true));
+        Assert.assertThat("Queue size",bytes.getQueueSize(),is(0));
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is(0L));
+        Assert.assertThat("Flushing",bytes.isFlushing(),is(false));
+    }
+
+    @Test
+    public void testPingFirst()
+    {
+        WriteBytesProvider bytes = newProvider();
+        bytes.enqueue(WebSocketFrame.text("Hello"),new FutureCallback());
+        bytes.enqueue(WebSocketFrame.ping().setPayload("ping"),new FutureCallback());
+
+        List<ByteBuffer> written = flush(bytes);
+        Assert.assertThat("Written buffers",written.size(),is(2));
+        Assert.assertThat("First opcode",written.get(0).get(0) & 0x0F,is((int)OpCode.PING));
+        Assert.assertThat("Second opcode",written.get(1).get(0) & 0x0F,is((int)OpCode.TEXT));
+    }
+
+    @Test
+    public void testSingleFlusher()
+    {
+        WriteBytesProvider bytes = newProvider();
+        Assert.assertThat("First flusher",bytes.beginFlush(),is(true));
+        Assert.assertThat("Second flusher",bytes.beginFlush(),is(false));
+        bytes.enqueue(WebSocketFrame.text("Hello"),new FutureCallback());
+        Assert.assertThat("More to flush after release",bytes.endFlush(),is(true));
+        Assert.assertThat("Flusher after release",bytes.beginFlush(),is(true));
+    }
+
+    @Test
+    public void testFailAll()
+    {
+        WriteBytesProvider bytes = newProvider();
+        CountingCallback callback = new CountingCallback();
+        bytes.enqueue(WebSocketFrame.text("Hello"),callback);
+        bytes.enqueue(WebSocketFrame.text("World"),callback);
+
+        bytes.failAll(new IOException("Simulated"));
+        Assert.assertThat("Failures",callback.failures.get(),is(2));
+        Assert.assertThat("Queue size",bytes.getQueueSize(),is(0));
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is(0L));
+
+        bytes.enqueue(WebSocketFrame.text("Late"),callback);
+        Assert.assertThat("Failures after failure",callback.failures.get(),is(3));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception
+    {
+        final WriteBytesProvider bytes = newProvider();
+        final CountingCallback callback = new CountingCallback();
+        final int producers = 8;
+        final int frames = 1000;
+        final CountDownLatch latch = new CountDownLatch(producers);
+
+        for (int i = 0; i < producers; i++)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < frames; j++)
+                    {
+                        bytes.enqueue(WebSocketFrame.text("msg-" + j),callback);
+                        // every producer attempts to flush, only one at a time will
+                        flush(bytes);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+
+        Assert.assertThat("Producers done",latch.await(10,TimeUnit.SECONDS),is(true));
+        flush(bytes);
+
+        Assert.assertThat("Successes",callback.successes.get(),is(producers * frames));
+        Assert.assertThat("Failures",callback.failures.get(),is(0));
+        Assert.assertThat("Queue size",bytes.getQueueSize(),is(0));
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is(0L));
+    }
+
+    @Test
+    public void testEncodedQueuedBytes()
+    {
+        WriteBytesProvider bytes = newProvider();
+        bytes.enqueue(WebSocketFrame.text("Hello"),new FutureCallback());
+        bytes.enqueueEncoded(new UnitGenerator().generate(WebSocketFrame.binary(new byte[300])),new FutureCallback());
+
+        // both count payload bytes only
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is(305L));
+        flush(bytes);
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is(0L));
+    }
+
+    @Test
+    public void testCloseIsLastFrame() throws Exception
+    {
+        final WriteBytesProvider bytes = newProvider();
+        final CountingCallback callback = new CountingCallback();
+        final int producers = 8;
+        final int frames = 1000;
+        final CountDownLatch started = new CountDownLatch(producers);
+        final CountDownLatch latch = new CountDownLatch(producers);
+
+        for (int i = 0; i < producers; i++)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+                    for (int j = 0; j < frames; j++)
+                    {
+                        bytes.enqueue(WebSocketFrame.text("msg-" + j),callback);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+
+        Assert.assertThat("Producers started",started.await(10,TimeUnit.SECONDS),is(true));
+        CountingCallback closeCallback = new CountingCallback();
+        bytes.enqueue(new CloseInfo(StatusCode.NORMAL).asFrame(),closeCallback);
+        Assert.assertThat("Producers done",latch.await(10,TimeUnit.SECONDS),is(true));
+
+        List<ByteBuffer> written = flush(bytes);
+        Assert.assertThat("Close written",closeCallback.successes.get(),is(1));
+        Assert.assertThat("Last opcode",written.get(written.size() - 1).get(0) & 0x0F,is((int)OpCode.CLOSE));
+        Assert.assertThat("Written buffers",written.size(),is(callback.successes.get() + 1));
+        Assert.assertThat("All notified",callback.successes.get() + callback.failures.get(),is(producers * frames));
+    }
+
+    @Test
+    public void testLaterCloseCompletedWithFirst() throws Exception
+    {
+        WriteBytesProvider bytes = newProvider();
+        CountingCallback first = new CountingCallback();
+        CountingCallback second = new CountingCallback();
+        bytes.enqueue(new CloseInfo(StatusCode.NORMAL).asFrame(),first);
+        bytes.enqueue(new CloseInfo(StatusCode.SHUTDOWN).asFrame(),second);
+
+        // the later close is not queued, and waits for the first one
+        Assert.assertThat("Queue size",bytes.getQueueSize(),is(1));
+        Assert.assertThat("Second notified",second.successes.get() + second.failures.get(),is(0));
+
+        List<ByteBuffer> written = flush(bytes);
+        Assert.assertThat("Written buffers",written.size(),is(1));
+        Assert.assertThat("First close",first.successes.get(),is(1));
+        Assert.assertThat("Second close",second.successes.get(),is(1));
+
+        // once the close is written, later closes complete immediately
+        CountingCallback third = new CountingCallback();
+        bytes.enqueue(new CloseInfo(StatusCode.NORMAL).asFrame(),third);
+        Assert.assertThat("Third close",third.successes.get(),is(1));
+        Assert.assertThat("Third failures",third.failures.get(),is(0));
+    }
+}
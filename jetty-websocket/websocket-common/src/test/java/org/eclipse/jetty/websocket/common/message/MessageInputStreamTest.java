@@ -0,0 +1,195 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.websocket.common.message;
+
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.events.AnnotatedEventDriver;
+import org.eclipse.jetty.websocket.common.events.EventDriverFactory;
+import org.eclipse.jetty.websocket.common.io.LocalWebSocketConnection;
+import org.eclipse.jetty.websocket.common.io.LocalWebSocketSession;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import examples.AnnotatedBinaryStreamSocket;
+import examples.AnnotatedTextStreamSocket;
+
+public class MessageInputStreamTest
+{
+    @Rule
+    public TestName testname = new TestName();
+
+    private AnnotatedEventDriver wrap(Object websocket)
+    {
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        policy.setInputHighWaterMark(1024);
+        policy.setInputLowWaterMark(256);
+        EventDriverFactory factory = new EventDriverFactory(policy);
+        return (AnnotatedEventDriver)factory.wrap(websocket);
+    }
+
+    private ByteBuffer payload(int size)
+    {
+        byte buf[] = new byte[size];
+        Arrays.fill(buf,(byte)'x');
+        return ByteBuffer.wrap(buf);
+    }
+
+    @Test
+    public void testReadAcrossFrames() throws IOException
+    {
+        AnnotatedEventDriver driver = wrap(new AnnotatedBinaryStreamSocket());
+        try (LocalWebSocketSession session = new LocalWebSocketSession(testname,driver))
+        {
+            session.open();
+            MessageInputStream stream = new MessageInputStream(driver);
+            stream.appendMessage(BufferUtil.toBuffer("Hello "));
+            stream.appendMessage(BufferUtil.toBuffer("World"));
+            stream.messageComplete();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte buf[] = new byte[4];
+            int len;
+            while ((len = stream.read(buf,0,buf.length)) != -1)
+            {
+                out.write(buf,0,len);
+            }
+            Assert.assertThat("Message",new String(out.toByteArray(),StringUtil.__UTF8_CHARSET),is("Hello World"));
+            Assert.assertThat("Read after EOF",stream.read(),is(-1));
+            Assert.assertThat("Queued bytes",driver.getInputFlowControl().getQueuedBytes(),is(0L));
+        }
+    }
+
+    @Test
+    public void testSuspendAndResume() throws IOException
+    {
+        AnnotatedEventDriver driver = wrap(new AnnotatedBinaryStreamSocket());
+        try (LocalWebSocketSession session = new LocalWebSocketSession(testname,driver))
+        {
+            session.open();
+            LocalWebSocketConnection connection = (LocalWebSocketConnection)session.getConnection();
+            InputFlowControl flowControl = driver.getInputFlowControl();
+            MessageInputStream stream = new MessageInputStream(driver);
+
+            stream.appendMessage(payload(512));
+            stream.appendMessage(payload(512));
+            Assert.assertThat("Suspended at high water mark",connection.isSuspended(),is(false));
+            stream.appendMessage(payload(512));
+            Assert.assertThat("Suspended above high water mark",connection.isSuspended(),is(true));
+            Assert.assertThat("Queued bytes",flowControl.getQueuedBytes(),is(1536L));
+
+            byte buf[] = new byte[512];
+            Assert.assertThat(stream.read(buf,0,buf.length),is(512));
+            Assert.assertThat(stream.read(buf,0,buf.length),is(512));
+            Assert.assertThat("Suspended above low water mark",connection.isSuspended(),is(true));
+            Assert.assertThat(stream.read(buf,0,300),is(300));
+            Assert.assertThat("Suspended at low water mark",connection.isSuspended(),is(false));
+
+            Assert.assertThat("Suspend count",flowControl.getSuspendCount(),is(1L));
+            Assert.assertThat("Max queued bytes",flowControl.getMaxQueuedBytes(),is(1536L));
+            Assert.assertThat("Session queued bytes",session.getQueuedInputBytes(),is(212L));
+
+            stream.close();
+            Assert.assertThat("Queued bytes after close",flowControl.getQueuedBytes(),is(0L));
+        }
+    }
+
+    @Test
+    public void testBlockingRead() throws Exception
+    {
+        AnnotatedEventDriver driver = wrap(new AnnotatedBinaryStreamSocket());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (LocalWebSocketSession session = new LocalWebSocketSession(testname,driver))
+        {
+            session.open();
+            final MessageInputStream stream = new MessageInputStream(driver);
+            Future<Integer> total = executor.submit(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    int count = 0;
+                    byte buf[] = new byte[100];
+                    int len;
+                    while ((len = stream.read(buf,0,buf.length)) != -1)
+                    {
+                        count += len;
+                    }
+                    return count;
+                }
+            });
+
+            for (int i = 0; i < 20; i++)
+            {
+                stream.appendMessage(payload(1000));
+            }
+            stream.messageComplete();
+
+            Assert.assertThat("Bytes read",total.get(5,TimeUnit.SECONDS),is(20000));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReaderSplitUtf8() throws IOException
+    {
+        AnnotatedEventDriver driver = wrap(new AnnotatedTextStreamSocket());
+        try (LocalWebSocketSession session = new LocalWebSocketSession(testname,driver))
+        {
+            session.open();
+            byte utf[] = StringUtil.getUtf8Bytes("Price: \u20AC100");
+            MessageReader reader = new MessageReader(driver);
+            // split in the middle of the euro sign
+            reader.appendMessage(ByteBuffer.wrap(utf,0,8));
+            reader.appendMessage(ByteBuffer.wrap(utf,8,utf.length - 8));
+            reader.messageComplete();
+
+            StringBuilder out = new StringBuilder();
+            char buf[] = new char[3];
+            int len;
+            while ((len = reader.read(buf,0,buf.length)) != -1)
+            {
+                out.append(buf,0,len);
+            }
+            Assert.assertThat("Message",out.toString(),is("Price: \u20AC100"));
+            Assert.assertThat("Queued bytes",driver.getInputFlowControl().getQueuedBytes(),is(0L));
+        }
+    }
+}
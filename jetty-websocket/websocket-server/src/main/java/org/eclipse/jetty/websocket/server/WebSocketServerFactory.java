@@ -20,6 +20,7 @@ package org.eclipse.jetty.websocket.server;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -45,7 +46,9 @@ import org.eclipse.jetty.websocket.api.UpgradeResponse;
 import org.eclipse.jetty.websocket.api.WebSocketException;
 import org.eclipse.jetty.websocket.api.WebSocketPolicy;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
+import org.eclipse.jetty.websocket.common.EncodedFrame;
 import org.eclipse.jetty.websocket.common.LogicalConnection;
+import org.eclipse.jetty.websocket.common.WebSocketBroadcaster;
 import org.eclipse.jetty.websocket.common.WebSocketSession;
 import org.eclipse.jetty.websocket.common.events.EventDriver;
 import org.eclipse.jetty.websocket.common.events.EventDriverFactory;
@@ -83,6 +86,7 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
      * Have the factory maintain 1 and only 1 scheduler. All connections share this scheduler.
      */
     private final Scheduler scheduler = new ScheduledExecutorScheduler();
+    private final WebSocketBroadcaster broadcaster = new WebSocketBroadcaster();
     private final String supportedVersions;
     private final WebSocketPolicy basePolicy;
     private final EventDriverFactory eventDriverFactory;
@@ -104,12 +108,14 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
     {
         addBean(scheduler);
         addBean(bufferPool);
+        addBean(broadcaster);
 
         this.registeredSocketClasses = new ArrayList<>();
 
         this.basePolicy = policy;
         this.eventDriverFactory = new EventDriverFactory(basePolicy);
         this.extensionFactory = new WebSocketExtensionFactory(basePolicy,bufferPool);
+        addBean(extensionFactory.getCompressionPool());
         this.creator = this;
 
         // Create supportedVersions
@@ -168,6 +174,19 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         return upgrade(sockreq,sockresp,driver);
     }
 
+    /**
+     * Broadcast an encoded frame to all of the open sessions of this factory.
+     * 
+     * @param frame
+     *            the frame to send
+     * @return the number of sessions the frame was queued for
+     * @see #getBroadcaster()
+     */
+    public int broadcast(EncodedFrame frame)
+    {
+        return broadcaster.broadcast(frame,sessions);
+    }
+
     @Override
     public void cleanup()
     {
@@ -237,6 +256,11 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         super.doStop();
     }
 
+    public WebSocketBroadcaster getBroadcaster()
+    {
+        return broadcaster;
+    }
+
     @Override
     public WebSocketCreator getCreator()
     {
@@ -249,6 +273,16 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         return extensionFactory;
     }
 
+    /**
+     * Get the open sessions of this factory.
+     * 
+     * @return the (unmodifiable, live) collection of open sessions
+     */
+    public Collection<WebSocketSession> getOpenSessions()
+    {
+        return Collections.unmodifiableCollection(sessions);
+    }
+
     @Override
     public WebSocketPolicy getPolicy()
     {
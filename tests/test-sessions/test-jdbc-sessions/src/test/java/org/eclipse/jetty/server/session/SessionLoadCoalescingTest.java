@@ -0,0 +1,246 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.server.SessionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * SessionLoadCoalescingTest
+ *
+ * Check that concurrent requests for a stale session share a single load
+ * from the database, and that a request that times out waiting for a shared
+ * load loads the session itself.
+ */
+public class SessionLoadCoalescingTest
+{
+    private static final AtomicInteger __loads = new AtomicInteger();
+    private static volatile CountDownLatch __loading;
+    private static volatile CountDownLatch __release;
+
+    /**
+     * Holds the first load of a session until the test releases it.
+     */
+    public static class GatedLoadSessionManager extends JDBCSessionManager
+    {
+        @Override
+        protected SessionData loadSession(String id, String canonicalContextPath, String vhost) throws Exception
+        {
+            CountDownLatch release = __release;
+            if (__loads.incrementAndGet() == 1 && release != null)
+            {
+                __loading.countDown();
+                release.await(30, TimeUnit.SECONDS);
+            }
+            return super.loadSession(id,canonicalContextPath,vhost);
+        }
+    }
+
+    private JdbcTestServer _server;
+    private HttpClient _client;
+    private String _url;
+    private String _cookie;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        __release = null;
+        String contextPath = "";
+        String servletMapping = "/server";
+        _server = new JdbcTestServer(0)
+        {
+            @Override
+            public SessionManager newSessionManager()
+            {
+                JDBCSessionManager manager = new GatedLoadSessionManager();
+                manager.setSessionIdManager((JDBCSessionIdManager)_sessionIdManager);
+                manager.setSaveInterval(SAVE_INTERVAL);
+                return manager;
+            }
+        };
+        _server.addContext(contextPath).addServlet(TestServlet.class, servletMapping);
+        _server.start();
+        _url = "http://localhost:" + _server.getPort() + contextPath + servletMapping;
+
+        _client = new HttpClient();
+        _client.start();
+
+        ContentResponse response = _client.GET(_url + "?action=init");
+        assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        String sessionCookie = response.getHeaders().getStringField("Set-Cookie");
+        assertTrue(sessionCookie != null);
+        // Mangle the cookie, replacing Path with $Path, etc.
+        _cookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=", "$1\\$Path=");
+
+        // Let the in-memory session go stale, so that the next requests reload it
+        Thread.sleep(TimeUnit.SECONDS.toMillis(JdbcTestServer.SAVE_INTERVAL) + 500);
+        __loading = new CountDownLatch(1);
+        __release = new CountDownLatch(1);
+        __loads.set(0);
+    }
+
+    @Test
+    public void testConcurrentRequestsShareLoad() throws Exception
+    {
+        GatedLoadSessionManager manager = getSessionManager();
+
+        int requests = 5;
+        AtomicInteger ok = new AtomicInteger();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++)
+            sendTest(ok, failures, done);
+
+        // Release the load only once every other request waits on it
+        assertTrue(__loading.await(10, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (manager.getCoalescedLoads() < requests - 1 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(requests - 1, manager.getCoalescedLoads());
+        __release.countDown();
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(requests, ok.get());
+        assertEquals(1, __loads.get());
+        assertEquals(0, manager.getLoadTimeouts());
+    }
+
+    @Test
+    public void testLoadTimeoutLoadsDirectly() throws Exception
+    {
+        GatedLoadSessionManager manager = getSessionManager();
+        manager.setLoadTimeoutMs(500);
+
+        AtomicInteger ok = new AtomicInteger();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch first = new CountDownLatch(1);
+        sendTest(ok, failures, first);
+        assertTrue(__loading.await(10, TimeUnit.SECONDS));
+
+        // The load of the first request is stalled, so the second request loads the session itself
+        CountDownLatch second = new CountDownLatch(1);
+        sendTest(ok, failures, second);
+        assertTrue(second.await(10, TimeUnit.SECONDS));
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(1, ok.get());
+        assertEquals(1, manager.getLoadTimeouts());
+        assertEquals(2, __loads.get());
+
+        __release.countDown();
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(2, ok.get());
+    }
+
+    private GatedLoadSessionManager getSessionManager()
+    {
+        return (GatedLoadSessionManager)_server.getServer().getChildHandlerByClass(SessionHandler.class).getSessionManager();
+    }
+
+    private void sendTest(final AtomicInteger ok, final Queue<Throwable> failures, final CountDownLatch done)
+    {
+        new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Request request = _client.newRequest(_url + "?action=test");
+                    request.header("Cookie", _cookie);
+                    int status = request.send().getStatus();
+                    if (status == HttpServletResponse.SC_OK)
+                        ok.incrementAndGet();
+                    else
+                        failures.add(new IllegalStateException("status " + status));
+                }
+                catch (Throwable x)
+                {
+                    failures.add(x);
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }
+        }.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (__release != null)
+            __release.countDown();
+        if (_client != null)
+            _client.stop();
+        if (_server != null)
+            _server.stop();
+        try
+        {
+            DriverManager.getConnection( "jdbc:derby:sessions;shutdown=true" );
+        }
+        catch( SQLException expected )
+        {
+        }
+    }
+
+    public static class TestServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            String action = request.getParameter("action");
+            if ("init".equals(action))
+            {
+                HttpSession session = request.getSession(true);
+                session.setAttribute("value", 1);
+            }
+            else if ("test".equals(action))
+            {
+                HttpSession session = request.getSession(false);
+                if (session == null || session.getAttribute("value") == null)
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+}
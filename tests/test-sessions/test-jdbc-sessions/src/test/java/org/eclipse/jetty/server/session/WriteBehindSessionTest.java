@@ -0,0 +1,130 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.server.SessionManager;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * WriteBehindSessionTest
+ *
+ * Check that in write-behind mode session writes are queued and coalesced,
+ * and that queued writes are flushed when the manager stops.
+ */
+public class WriteBehindSessionTest
+{
+    public static class WriteBehindTestServer extends JdbcTestServer
+    {
+        public WriteBehindTestServer(int port)
+        {
+            super(port);
+        }
+
+        @Override
+        public SessionManager newSessionManager()
+        {
+            JDBCSessionManager manager = (JDBCSessionManager)super.newSessionManager();
+            manager.setWriteBehind(true);
+            manager.setWriteBehindIntervalMs(60000);
+            return manager;
+        }
+    }
+
+    @Test
+    public void testWritesFlushedOnStop() throws Exception
+    {
+        String contextPath = "";
+        String servletMapping = "/server";
+        AbstractTestServer server1 = new WriteBehindTestServer(0);
+        server1.addContext(contextPath).addServlet(AbstractSessionMigrationTest.TestServlet.class, servletMapping);
+        server1.start();
+        int port1=server1.getPort();
+
+        AbstractTestServer server2 = new JdbcTestServer(0);
+        server2.addContext(contextPath).addServlet(AbstractSessionMigrationTest.TestServlet.class, servletMapping);
+        server2.start();
+        int port2=server2.getPort();
+        try
+        {
+            HttpClient client = new HttpClient();
+            client.start();
+            try
+            {
+                Request request1 = client.POST("http://localhost:" + port1 + contextPath + servletMapping + "?action=set&value=1");
+                ContentResponse response1 = request1.send();
+                assertEquals(200,response1.getStatus());
+                String sessionCookie = response1.getHeaders().getStringField("Set-Cookie");
+                assertTrue(sessionCookie != null);
+                // Mangle the cookie, replacing Path with $Path, etc.
+                sessionCookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=", "$1\\$Path=");
+
+                Request request2 = client.POST("http://localhost:" + port1 + contextPath + servletMapping + "?action=set&value=2");
+                request2.header("Cookie", sessionCookie);
+                assertEquals(200,request2.send().getStatus());
+
+                JDBCSessionManager manager = (JDBCSessionManager)server1.getServer().getChildHandlerByClass(SessionHandler.class).getSessionManager();
+                assertEquals(1,manager.getPendingWrites());
+                assertTrue(manager.getCoalescedWrites() > 0);
+                assertEquals(0,manager.getBatchesWritten());
+
+                // Stopping flushes the queued write, so the other node sees the latest value
+                server1.stop();
+                assertEquals(0,manager.getPendingWrites());
+                assertEquals(1,manager.getSessionsWritten());
+
+                Request request3 = client.newRequest("http://localhost:" + port2 + contextPath + servletMapping + "?action=get");
+                request3.header("Cookie", sessionCookie);
+                ContentResponse response3 = request3.send();
+                assertEquals(200,response3.getStatus());
+                assertEquals("2",response3.getContentAsString().trim());
+            }
+            finally
+            {
+                client.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+            server2.stop();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        try
+        {
+            DriverManager.getConnection( "jdbc:derby:sessions;shutdown=true" );
+        }
+        catch( SQLException expected )
+        {
+        }
+    }
+}
@@ -0,0 +1,131 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.nosql.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.Test;
+
+/**
+ * NearCacheTest
+ *
+ * Checks that a session read on another node is only fetched from mongo once while
+ * its version is unchanged, and that rewriting an attribute with an equal value does
+ * not create a new version.
+ */
+public class NearCacheTest
+{
+    @Test
+    public void testReadMostlySessionIsNotReloaded() throws Exception
+    {
+        String contextPath = "";
+        String servletMapping = "/server";
+
+        MongoTestServer server1 = new MongoTestServer(0);
+        ServletContextHandler context1 = server1.addContext(contextPath);
+        context1.addServlet(TestServlet.class,servletMapping);
+        MongoSessionManager manager1 = (MongoSessionManager)context1.getSessionHandler().getSessionManager();
+        server1.start();
+        int port1 = server1.getPort();
+
+        MongoTestServer server2 = new MongoTestServer(0);
+        ServletContextHandler context2 = server2.addContext(contextPath);
+        context2.addServlet(TestServlet.class,servletMapping);
+        MongoSessionManager manager2 = (MongoSessionManager)context2.getSessionHandler().getSessionManager();
+        server2.start();
+        int port2 = server2.getPort();
+
+        try
+        {
+            HttpClient client = new HttpClient();
+            client.start();
+            try
+            {
+                ContentResponse response = client.GET("http://localhost:" + port1 + contextPath + servletMapping + "?action=init");
+                assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+                String sessionCookie = response.getHeaders().getStringField("Set-Cookie");
+                assertTrue(sessionCookie != null);
+                sessionCookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=","$1\\$Path=");
+
+                // Read the session repeatedly on the other node
+                for (int i = 0; i < 5; i++)
+                    assertEquals("value",send(client,sessionCookie,"http://localhost:" + port2 + contextPath + servletMapping + "?action=get"));
+                assertEquals(1,manager2.getFullLoads());
+                assertTrue(manager2.getVersionChecks() >= 4);
+
+                // Rewriting an equal value does not change the stored version
+                assertEquals("value",send(client,sessionCookie,"http://localhost:" + port1 + contextPath + servletMapping + "?action=rewrite"));
+                assertTrue(manager1.getSkippedAttributeWrites() > 0);
+                assertEquals("value",send(client,sessionCookie,"http://localhost:" + port2 + contextPath + servletMapping + "?action=get"));
+                assertEquals(1,manager2.getFullLoads());
+
+                // A real change is seen by the other node
+                assertEquals("changed",send(client,sessionCookie,"http://localhost:" + port1 + contextPath + servletMapping + "?action=change"));
+                assertEquals("changed",send(client,sessionCookie,"http://localhost:" + port2 + contextPath + servletMapping + "?action=get"));
+                assertEquals(2,manager2.getFullLoads());
+            }
+            finally
+            {
+                client.stop();
+            }
+        }
+        finally
+        {
+            server2.stop();
+            server1.stop();
+        }
+    }
+
+    private String send(HttpClient client, String sessionCookie, String uri) throws Exception
+    {
+        Request request = client.newRequest(uri);
+        request.header("Cookie",sessionCookie);
+        ContentResponse response = request.send();
+        assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        return response.getContentAsString();
+    }
+
+    public static class TestServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            String action = request.getParameter("action");
+            HttpSession session = request.getSession("init".equals(action));
+            if ("init".equals(action) || "rewrite".equals(action))
+                session.setAttribute("test","value");
+            else if ("change".equals(action))
+                session.setAttribute("test","changed");
+            response.getWriter().print(session.getAttribute("test"));
+        }
+    }
+}